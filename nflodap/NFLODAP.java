@@ -23,6 +23,8 @@
 package nflodap;
 
 import java.util.*;
+import java.util.List; // Not java.awt.List
+import java.util.concurrent.*;
 import java.lang.*;
 import java.io.*;
 import java.awt.*;
@@ -74,6 +76,9 @@ public final class NFLODAP {
         }
     };
 
+    // Stages of generating graphs, shown to the user while they run
+    private enum QueryStage { LOAD, SLICE, PIVOT, AGGREGATE, RENDER };
+
     // Types of data graphs available
     public enum PlayGraphTypes { COUNTS, DISTANCE_RESULTS, SCATTER_PLOT,
             TURNOVER_SCATTER_PLOT };
@@ -86,6 +91,18 @@ public final class NFLODAP {
     private String _graphTitle; // Depends on the teams, so need to cache
     
     PlayGraphGenerator _data; // The data analyzer
+
+    /* Plays of every team, kept when running by GUI so changing the teams
+       doesn't reload the data files. Null if not loaded */
+    private LeaguePlays _league;
+    private boolean _keepLeague; // True, load the league and keep it
+
+    /* Runs queries from the GUI away from the event thread, one at a time,
+       so the window stays live during long loads */
+    private ExecutorService _queryExecutor;
+    private GraphQuery _query; // Running from the GUI, null if none
+    private JLabel _queryStatus; // Stage of the running query
+    private JProgressBar _queryProgress;
     
     // Characteristics to use to group plays, the pivot ODAP operation
     private PlayCatMenu _firstPivot;
@@ -98,6 +115,10 @@ public final class NFLODAP {
     // Wanted graph for data analysis
     private GraphSelector _graph;
 
+    /* File to write the graph to as an image instead of showing it, null for
+       a window. Only set from the command line */
+    private String _imageFile;
+
     // Error from argument parsing
     private String _parseError = null;
 
@@ -111,6 +132,13 @@ public final class NFLODAP {
         _graphTitle = null;
         
         _data = null;
+        _league = null;
+        _keepLeague = false;
+
+        _queryExecutor = null;
+        _query = null;
+        _queryStatus = null;
+        _queryProgress = null;
     
         _firstPivot = null;
         _secondPivot = null;
@@ -120,6 +148,7 @@ public final class NFLODAP {
         _intSlice = new EnumMap<SinglePlay.NumericFields, ReadIntFilter>(SinglePlay.NumericFields.class);
 
         _graph = null;
+        _imageFile = null;
 
         _parseError = null;
     }
@@ -143,6 +172,10 @@ public final class NFLODAP {
     // Runs graph generation through a GUI
     private void runByGUI() throws Exception
     {
+        /* Users typically try many teams in one session, so selecting them
+           from memory quickly pays for loading every team once */
+        _keepLeague = true;
+
         // Create GUI components
         _ourTeam = new GuiText(5, false);
         _opposition = new GuiText(5, false);
@@ -274,8 +307,11 @@ public final class NFLODAP {
             {
                 public void actionPerformed(ActionEvent event)
                 {
+                    /* Only reading the inputs happens here. Errors in the
+                       rest of the query are reported when it finishes, see
+                       reportQueryError() */
                     try {
-                        generateGraph();
+                        startQuery();
                     }
                     catch (IllegalArgumentException e) {
                         // Assume due to bad input. Log it and show to user
@@ -305,6 +341,36 @@ public final class NFLODAP {
             );
         guiPanel.add(generateButton);
 
+        /* Show how far the current query got, and let the user stop it. The
+           query thread is a daemon, so it never keeps the program alive once
+           the windows are closed */
+        _queryExecutor = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                public Thread newThread(Runnable task)
+                {
+                    Thread result = new Thread(task, "Query");
+                    result.setDaemon(true);
+                    return result;
+                }
+            } // Annonymous class
+            );
+        JPanel queryPanel = new JPanel();
+        _queryStatus = new JLabel("Ready", SwingConstants.CENTER);
+        _queryProgress = new JProgressBar(0, QueryStage.values().length);
+        JButton cancelButton = new JButton("Cancel");
+        cancelButton.addActionListener(new ActionListener()
+            {
+                public void actionPerformed(ActionEvent event)
+                {
+                    cancelQuery();
+                }
+            } // Annonymous class
+            );
+        queryPanel.add(_queryStatus);
+        queryPanel.add(_queryProgress);
+        queryPanel.add(cancelButton);
+        guiPanel.add(queryPanel);
+
         /* Display it. Note that if its closed, the graphs will survive until
            killed themselves */
         JFrame guiFrame = new JFrame();
@@ -360,6 +426,19 @@ public final class NFLODAP {
         return (_parseError == null); // No error message means success
     }
 
+    /* Extracts the image file to write the graph to instead of showing it.
+       Returns true if done successfully */
+    public boolean getImageFile(String[] args, int switchArg, int nextSwitch)
+    {
+        if (switchArg != (nextSwitch - 2))
+            _parseError = new String("Image file switch needs exactly one file name");
+        else if (_imageFile != null)
+            _parseError = new String("Switch " + args[switchArg] + " specified twice");
+        else
+            _imageFile = args[switchArg + 1];
+        return (_parseError == null); // No error message means success
+    }
+
     /* Extracts characteristics to group plays in the output, the ODAP pivot
        operation */
     public boolean getPivots(String[] args, int switchArg, int nextSwitch)
@@ -583,84 +662,312 @@ public final class NFLODAP {
                                          chain);
     }
 
-    // Generates the graph
-    public void generateGraph() throws Exception, CloneNotSupportedException
+    /* Outputs the load reports of seasons with problems in their data files.
+       The reports hold samples of the lines with problems */
+    private void reportProblems(PlayLoader playLoader)
     {
-        // Reload data as needed
-        if ((_data == null) || _ourTeam.getChanged() ||
-            _opposition.getChanged() || _ourSimiliar.getChanged() ||
-            _oppSimiliar.getChanged()) {
-            if ((_ourTeam.getValue() == null) || (_opposition.getValue() == null))
-                throw new IllegalArgumentException("Teams to analyze must be set");
-            else if (_ourTeam.getValue().equals(_opposition.getValue()))
-                throw new IllegalArgumentException("Team " + _ourTeam.getValue() + " specified twice");
-            NFLqualityControl teamFilter = new NFLqualityControl(_ourTeam.getValue(),
-                                                                 _opposition.getValue(),
-                                                                 _ourSimiliar.getValue(),
-                                                                 _oppSimiliar.getValue());
-            _graphTitle = teamFilter.toString();
-            // For now, hard code file path
-            PlayLoader playLoader = new PlayLoader("Data");
-            // For now, always graph a single season of plays
-            _data = new PlayGraphGenerator(playLoader.loadPlays(teamFilter, 1));
-            // Clear changed statuses
-            _ourTeam.resetChangedStatus();
-            _opposition.resetChangedStatus();
-            _ourSimiliar.resetChangedStatus();
-            _oppSimiliar.resetChangedStatus();
+        Iterator<LoadReport> reportPtr = playLoader.getLoadReports().iterator();
+        while (reportPtr.hasNext()) {
+            LoadReport report = reportPtr.next();
+            if (report.getProblems() > 0)
+                System.out.println(report);
         }
+    }
 
-        /* Assemble the filter object. Iterate through the value range based
-           filters first and build the filter */
-        PlaySlice filter = null;
-        Iterator<Map.Entry<SinglePlay.NumericFields, ReadIntFilter>> intData = _intSlice.entrySet().iterator();
-        while (intData.hasNext()) {
-            Map.Entry<SinglePlay.NumericFields, ReadIntFilter> intTemp = intData.next();
-            if (intTemp.getValue().getRange() != null)
-                filter = PlaySliceFactory.getSlice(intTemp.getKey(),
-                                                   intTemp.getValue().getRange(),
-                                                   filter);
-        } // While loop through map
-            
-        /* Efficiency for category slices greatly depends on the order, which
-           is the REVERSE of how they appear in the map. Convert it to a
-           collection, then an array, and iterate through in reverse.
-           SUBTLE NOTE: Why not reverse the enum values? They are also used for
-           menu output, and users expect them in a certain order
-           TRICKY NOTE: Processing of the EnumValueWrapper class requires a
-           helper method. The reason is that two pieces of data are read from it
-           (the enum class and the value). If both are wildcarded, the compiler
-           can't enforce that they are for the same enum. The helper method has
-           only one wildcard, which fixes the issue */
-        PlayCatFilter[] tempCatValues = new PlayCatFilter[0];
-        tempCatValues = _catSlice.values().toArray(tempCatValues);
-        int index;
-        for (index = tempCatValues.length - 1; index >= 0; index--)
-            if (tempCatValues[index].getValue() != null)
-                filter = getSliceHelper(tempCatValues[index].getValue(),
-                                        filter);
-
-        // Extract pivot values from the relevant menus
-        PlayCatCharacteristics firstPivot = _firstPivot.getValue();
-        PlayCatCharacteristics secondPivot = _secondPivot.getValue();
-
-        // If have a second pivot but no first, move it over
-        if ((firstPivot == null) && (secondPivot != null)) {
-            firstPivot = secondPivot;
-            secondPivot = null;
+    /* One request to generate graphs. The inputs are read when it is created,
+       so the user can change them while it runs. Loading plays and finding
+       what the graph needs can take a long time. Run from the GUI, those
+       stages run on a background thread and only laying out the graphs, which
+       needs Swing, runs on the event thread. Run from the command line, all
+       of it runs in order on the calling thread
+       NOTE: Queries run one at a time on a single thread, so the plays of the
+       league are only ever touched by one query */
+    private final class GraphQuery extends SwingWorker<Void, QueryStage>
+    {
+        private NFLqualityControl _teamFilter; // Null if no need to reload
+        private String _title;
+        private PlaySlice _filter;
+        private PlayCatCharacteristics _firstGroup;
+        private PlayCatCharacteristics _secondGroup;
+        private StatGraphFactory _graphFactory;
+        private PlayGraphGenerator _generator; // Set once plays are loaded
+
+        /* Constructor. Reads the inputs, so for the GUI it must be created on
+           the event thread */
+        public GraphQuery()
+        {
+            // Reload data as needed
+            if ((_data == null) || _ourTeam.getChanged() ||
+                _opposition.getChanged() || _ourSimiliar.getChanged() ||
+                _oppSimiliar.getChanged()) {
+                if ((_ourTeam.getValue() == null) || (_opposition.getValue() == null))
+                    throw new IllegalArgumentException("Teams to analyze must be set");
+                else if (_ourTeam.getValue().equals(_opposition.getValue()))
+                    throw new IllegalArgumentException("Team " + _ourTeam.getValue() + " specified twice");
+                _teamFilter = new NFLqualityControl(_ourTeam.getValue(),
+                                                    _opposition.getValue(),
+                                                    _ourSimiliar.getValue(),
+                                                    _oppSimiliar.getValue());
+                _title = _teamFilter.toString();
+                _generator = null;
+                /* Clear changed statuses. The old plays are for other teams,
+                   so drop them; if this query never finishes, the next one
+                   reloads */
+                _ourTeam.resetChangedStatus();
+                _opposition.resetChangedStatus();
+                _ourSimiliar.resetChangedStatus();
+                _oppSimiliar.resetChangedStatus();
+                _data = null;
+            }
+            else {
+                _teamFilter = null;
+                _title = _graphTitle;
+                _generator = _data;
+            }
+
+            /* Assemble the filter object. Iterate through the value range
+               based filters first and build the filter */
+            _filter = null;
+            Iterator<Map.Entry<SinglePlay.NumericFields, ReadIntFilter>> intData = _intSlice.entrySet().iterator();
+            while (intData.hasNext()) {
+                Map.Entry<SinglePlay.NumericFields, ReadIntFilter> intTemp = intData.next();
+                if (intTemp.getValue().getRange() != null)
+                    _filter = PlaySliceFactory.getSlice(intTemp.getKey(),
+                                                        intTemp.getValue().getRange(),
+                                                        _filter);
+            } // While loop through map
+
+            /* Add the category based filters. Their order doesn't matter, since
+               the graphs are built from views, which answer category filters
+               from the index or the tree of the data store. The data store
+               moves the categories filtered most often to the top of its tree
+               on its own.
+               TRICKY NOTE: Processing of the EnumValueWrapper class requires a
+               helper method. The reason is that two pieces of data are read
+               from it (the enum class and the value). If both are wildcarded,
+               the compiler can't enforce that they are for the same enum. The
+               helper method has only one wildcard, which fixes the issue */
+            Iterator<PlayCatFilter> catData = _catSlice.values().iterator();
+            while (catData.hasNext()) {
+                PlayCatFilter catTemp = catData.next();
+                if (catTemp.getValue() != null)
+                    _filter = getSliceHelper(catTemp.getValue(), _filter);
+            } // While loop through map
+
+            // Extract pivot values from the relevant menus
+            _firstGroup = _firstPivot.getValue();
+            _secondGroup = _secondPivot.getValue();
+
+            // If have a second pivot but no first, move it over
+            if ((_firstGroup == null) && (_secondGroup != null)) {
+                _firstGroup = _secondGroup;
+                _secondGroup = null;
+            }
+
+            _graphFactory = _graph.getGraph();
         }
 
-        if (firstPivot == null)
-            _data.generateGraph(_graph.getGraph(), filter, _graphTitle);
-        else if (secondPivot == null) // Single dimensional grouping
-            _data.generateGraph(_graph.getGraph(),
-                                firstPivot.getEnumType().getEnum(),
-                                filter, _graphTitle);
-        else // Two dimensional grouping
-            _data.generateGraph(_graph.getGraph(),
-                                firstPivot.getEnumType().getEnum(),
-                                secondPivot.getEnumType().getEnum(), filter,
-                                _graphTitle);
+        // Returns true if the plays must be loaded before graphing
+        public boolean needsLoad()
+        {
+            return (_teamFilter != null);
+        }
+
+        /* Returns the stage that finds what the graph needs. Slicing and
+           pivoting are done in the same pass over the plays, so this is the
+           last of them the graph needs */
+        public QueryStage getPrepareStage()
+        {
+            if (_graphFactory instanceof AggregateGraphFactory)
+                return QueryStage.AGGREGATE;
+            else if (_firstGroup != null)
+                return QueryStage.PIVOT;
+            else
+                return QueryStage.SLICE;
+        }
+
+        // Loads the plays of the wanted teams, if needed
+        public void loadPlays() throws Exception
+        {
+            if (_teamFilter == null)
+                return; // Nothing to do!
+            if (_keepLeague) {
+                if (_league == null) {
+                    // For now, hard code file path
+                    PlayLoader playLoader = new PlayLoader("Data");
+                    playLoader.setUseSnapshots(true);
+                    /* Every graph selects from the same plays, so index them,
+                       order them by the categories used most, and read large
+                       selections in parallel */
+                    playLoader.setBuildIndex(true);
+                    playLoader.setAdaptiveOrder(true);
+                    playLoader.setParallelQueries(true);
+                    // For now, always graph a single season of plays
+                    _league = playLoader.loadLeague(1);
+                    reportProblems(playLoader);
+                }
+                _generator = new PlayGraphGenerator(_league.selectPlays(_teamFilter));
+            } // Select teams from plays in memory
+            else {
+                // For now, hard code file path
+                PlayLoader playLoader = new PlayLoader("Data");
+                playLoader.setMemoryMapped(true);
+                playLoader.setUseSnapshots(true);
+                playLoader.setBuildIndex(true);
+                playLoader.setAdaptiveOrder(true);
+                playLoader.setParallelQueries(true);
+                // For now, always graph a single season of plays
+                _generator = new PlayGraphGenerator(playLoader.loadPlays(_teamFilter, 1));
+                reportProblems(playLoader);
+            }
+        }
+
+        /* Finds the plays or measures the graph needs, so laying it out
+           doesn't read the plays */
+        public void prepareGraph()
+        {
+            if (_firstGroup == null)
+                _generator.prepareGraph(_graphFactory, _filter);
+            else if (_secondGroup == null) // Single dimensional grouping
+                _generator.prepareGraph(_graphFactory,
+                                        _firstGroup.getEnumType().getEnum(),
+                                        _filter);
+            else // Two dimensional grouping
+                _generator.prepareGraph(_graphFactory,
+                                        _firstGroup.getEnumType().getEnum(),
+                                        _secondGroup.getEnumType().getEnum(),
+                                        _filter);
+        }
+
+        /* Lays out and displays the graphs. The plays become the current
+           ones, so later queries on the same teams don't reload them */
+        public void renderGraph() throws CloneNotSupportedException, IOException
+        {
+            _data = _generator;
+            _graphTitle = _title;
+            _data.setImageFile(_imageFile);
+            if (_firstGroup == null)
+                _data.generateGraph(_graphFactory, _filter, _graphTitle);
+            else if (_secondGroup == null) // Single dimensional grouping
+                _data.generateGraph(_graphFactory,
+                                    _firstGroup.getEnumType().getEnum(),
+                                    _filter, _graphTitle);
+            else // Two dimensional grouping
+                _data.generateGraph(_graphFactory,
+                                    _firstGroup.getEnumType().getEnum(),
+                                    _secondGroup.getEnumType().getEnum(),
+                                    _filter, _graphTitle);
+        }
+
+        // Runs the slow stages on the background thread
+        protected Void doInBackground() throws Exception
+        {
+            if (needsLoad()) {
+                publish(QueryStage.LOAD);
+                loadPlays();
+            }
+            // A cancelled query finishes the stage it is in, but no more
+            if (!isCancelled()) {
+                publish(getPrepareStage());
+                prepareGraph();
+            }
+            return null;
+        }
+
+        // Shows the stage the query reached, on the event thread
+        protected void process(List<QueryStage> stages)
+        {
+            if (_query == this)
+                showQueryStage(stages.get(stages.size() - 1));
+        }
+
+        /* Lays out the graphs on the event thread once the slow stages are
+           done. A query replaced by a later one shows nothing */
+        protected void done()
+        {
+            if (_query != this)
+                return;
+            _query = null;
+            try {
+                get();
+                showQueryStage(QueryStage.RENDER);
+                renderGraph();
+                showQueryStage(null);
+                _queryStatus.setText("Done");
+            }
+            catch (CancellationException e) {
+                showQueryStage(null);
+                _queryStatus.setText("Cancelled");
+            }
+            catch (ExecutionException e) {
+                showQueryStage(null);
+                _queryStatus.setText("Failed");
+                reportQueryError(e.getCause());
+            }
+            catch (Exception e) {
+                showQueryStage(null);
+                _queryStatus.setText("Failed");
+                reportQueryError(e);
+            }
+        }
+    }
+
+    /* Starts generating graphs for the current inputs in the background. A
+       query still running is for inputs the user has since changed, so it is
+       cancelled first */
+    private void startQuery()
+    {
+        cancelQuery();
+        _query = new GraphQuery();
+        showQueryStage(null);
+        _queryStatus.setText("Waiting");
+        _queryExecutor.execute(_query);
+    }
+
+    /* Cancels the running query, if any. Loading can't stop part way through
+       a file, so the stage it is in runs to the end and its result is thrown
+       away */
+    private void cancelQuery()
+    {
+        if (_query != null)
+            _query.cancel(false);
+    }
+
+    // Shows the stage of the running query. Null means none is running
+    private void showQueryStage(QueryStage stage)
+    {
+        if (stage == null)
+            _queryProgress.setValue(0);
+        else {
+            _queryProgress.setValue(stage.ordinal() + 1);
+            _queryStatus.setText("Running: " + stage);
+        }
+    }
+
+    /* Reports an error from a query. Bad input is shown to the user, anything
+       else is a bug, see runByGUI() */
+    private void reportQueryError(Throwable error)
+    {
+        System.out.println(this);
+        if (error instanceof IllegalArgumentException) {
+            System.out.println(error);
+            JOptionPane.showMessageDialog(_queryStatus, error,
+                                          "Graph generation error", 
+                                          JOptionPane.ERROR_MESSAGE);
+        }
+        else {
+            error.printStackTrace();
+            System.exit(-1);
+        }
+    }
+
+    // Generates the graph, waiting for it
+    public void generateGraph() throws Exception, CloneNotSupportedException
+    {
+        GraphQuery query = new GraphQuery();
+        query.loadPlays();
+        query.prepareGraph();
+        query.renderGraph();
     }
 
     private void runByCommandLine(String[] args) throws Exception
@@ -705,6 +1012,8 @@ public final class NFLODAP {
                 valid = getCatSlice(args, switchArg, nextSwitch);
             else if (args[switchArg].charAt(1) == 'i')
                 valid = getIntSlice(args, switchArg, nextSwitch);
+            else if (args[switchArg].charAt(1) == 'f')
+                valid = getImageFile(args, switchArg, nextSwitch);
             else {
                 _parseError = new String("Switch " + args[switchArg] + " unknown");
                 valid = false;
@@ -794,6 +1103,8 @@ public final class NFLODAP {
             } // While loop through map
         } // Integer range slice map has entries
         buff.append("Graph:" + _graph + "\n");
+        if (_imageFile != null)
+            buff.append("Image file:" + _imageFile + "\n");
         return buff.toString();
     }
 
@@ -53,18 +53,121 @@ import java.util.*;
    are NOT reported; the caller should know the dimensions of the data store
    (which can change thanks to pivot calls) and read them directly from the
    plays. Any operation that modifies the data store will invalidate all
-   iterators.
+   iterators. Callers that want the category values, or can't afford the
+   copies, should use a cursor instead. See DataStoreCursor.
+
+   The leaves of the tree can hold their plays in one of several formats. The
+   default keeps a list of play objects. The columnar format keeps each field
+   of the plays in its own primitive array, and the packed format encodes each
+   play into a single long. Both use far less memory for large loads at the
+   cost of rebuilding play objects when they are read out.
+
+   A data store can optionally have a bitmap index over its plays, normally
+   built once the plays are loaded. While it exists, slices only update a set
+   of selected plays using the index, and the tree is rebuilt from the selected
+   plays only when its contents are needed. Views answer the tests of their
+   selectors on play categories from it the same way. The index never changes
+   once plays are in it, so clones of the data store and views share it.
+
+   Clones also share the tree itself. The tree is copy-on-write, so modifying
+   either data store only copies the parts of the tree the modification
+   touches. Cloning the data store before every query is therefore cheap.
+
+   The top of the tree, above the leaves, can also be laid out as a flat cube.
+   Its cells are a single array indexed by the ordinals of the category values
+   of the plays, which replaces five levels of map lookups with arithmetic.
+   Pivots always produce a tree, since they change the dimensions.
+
+   The order of the dimensions of the tree can be set when the data store is
+   created. A data store can also reorder them on its own. It counts the
+   slices and pivots on each dimension, including those done through its
+   clones and views, and when the counts change their ranking it rebuilds the
+   tree in the new order on a background thread. The new tree replaces the
+   old one at the next query if no plays changed meanwhile. The flat cube has
+   a fixed order.
+
+   Every node and leaf of the tree also keeps summary measures over its plays,
+   such as counts and distance gained, updated as plays are inserted. Queries
+   that only need those can pivot the measures instead of the plays, which
+   merges the measures of the tree cells without reading any plays.
+
+   Large data stores can run pivots, rollups, and numeric slices in parallel.
+   The tree is split a few levels down, and each part is processed as its own
+   fork/join task. Views of them read their plays the same way. The results
+   are identical to the sequential ones. Small data stores always run
+   sequentially, since the tasks cost more than they save.
+
+   Queries that shouldn't change the data store at all can use a view instead.
+   A view selects plays as it reads them, so slicing never happens. See
+   DataStoreView.
 
    This design contains lots of components that must be kept in sync. To protect
    them, they are all defined and accessed through a wrapper class. */
 public class DataStore implements Iterable<ArrayList<SinglePlay>> {
 
+    // Formats for storing plays at the leaves of the tree
+    public static enum LeafFormat { PLAY_LIST, COLUMNS, PACKED };
+
+    // Layouts for the cells above the leaves of the tree
+    public static enum CubeLayout { NESTED_MAPS, FLAT_ARRAY };
+
     // Dummy enum created for test purposes
     private static enum TestEnum { VALUE_ONE, VALUE_TWO, VALUE_THREE };
 
     // Data stored within memory
     PlayStoreTree _data;
 
+    // Format of the leaves of the tree holding the plays
+    private LeafFormat _leafFormat;
+
+    // Layout of the cells of the data store, until a pivot changes them
+    private CubeLayout _cubeLayout;
+
+    // Default order of the dimensions of the tree
+    private static final Class<?> [] _defaultDimensionOrder = { SinglePlay.DownNumber.class,
+                                                                SinglePlay.DistanceNeeded.class,
+                                                                SinglePlay.TimeRemaining.class,
+                                                                SinglePlay.FieldLocation.class,
+                                                                SinglePlay.ScoreDifferential.class };
+
+    /* Order of the dimensions of the tree. Pivots and rollups replace it with
+       the dimensions of the result */
+    private Class<?> [] _dimensionOrder;
+
+    /* Counts of slices and pivots on each dimension, shared with all clones.
+       If adaptive, this data store reorders its tree by them */
+    private PlayDimensionUsage _usage;
+    private boolean _adaptiveOrder;
+
+    /* Number of uses recorded between checks of whether the tree should be
+       reordered. Rebuilding the tree reads every play, so it should not be
+       attempted often */
+    private static final int _reorderInterval = 16;
+
+    // Reordering of the tree running in the background, null if none
+    private Reorganization _reorganization;
+
+    /* Number of modifications to the data store. A reordered tree built from
+       an earlier version is out of date */
+    private int _modificationCount;
+
+    // True, run operations in parallel when the data store is large enough
+    private boolean _parallel;
+
+    /* Minimum number of plays before operations run in parallel. Below this,
+       the overhead of the tasks is more than the time saved */
+    private int _parallelThreshold = 20000;
+
+    /* Optional bitmap index over the plays. When it exists, the contents of
+       the data store are the plays in the selection. A null selection means
+       all plays in the index up to the indexed count, which protects clones
+       from plays added to the shared index later. If the tree is stale, it
+       must be rebuilt from the selection before it is used */
+    private PlayBitmapIndex _index;
+    private BitSet _selection;
+    private int _indexedCount;
+    private boolean _treeStale;
+
     /* Number of times iterators have become invalid due to modifications of
        the data store */
     int _iteratorInvalidCount;
@@ -74,36 +177,417 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
     // Constructor
     public DataStore()
     {
-        _data = new PlayStoreNode<SinglePlay.DownNumber>(SinglePlay.DownNumber.class);
+        this(LeafFormat.PLAY_LIST);
+    }
+
+    // Constructor for a data store with the wanted leaf format
+    public DataStore(LeafFormat leafFormat)
+    {
+        this(leafFormat, CubeLayout.NESTED_MAPS);
+    }
+
+    // Constructor for a data store with the wanted leaf format and layout
+    public DataStore(LeafFormat leafFormat, CubeLayout cubeLayout)
+    {
+        this(leafFormat, cubeLayout, _defaultDimensionOrder);
+    }
+
+    /* Constructor for a data store with the wanted leaf format, layout, and
+       order of the dimensions of the tree. The order must hold distinct play
+       category classes out of down number, distance needed, time remaining,
+       field location, and score differential. Dimensions left out are only
+       split at the leaves. The flat cube layout ignores the order */
+    public DataStore(LeafFormat leafFormat, CubeLayout cubeLayout,
+                     Class<?>... dimensionOrder)
+    {
+        if ((leafFormat == null) || (cubeLayout == null) ||
+            (dimensionOrder == null) || (dimensionOrder.length == 0))
+            throw new IllegalArgumentException();
+        int index;
+        for (index = 0; index < dimensionOrder.length; index++) {
+            if (!Arrays.asList(_defaultDimensionOrder).contains(dimensionOrder[index]))
+                throw new IllegalArgumentException(dimensionOrder[index] + " is not a dimension of the data store");
+            if (Arrays.asList(dimensionOrder).indexOf(dimensionOrder[index]) != index)
+                throw new IllegalArgumentException(dimensionOrder[index] + " specified twice");
+        } // For each dimension
+        _leafFormat = leafFormat;
+        _cubeLayout = cubeLayout;
+        _dimensionOrder = dimensionOrder.clone();
+        _usage = new PlayDimensionUsage(_defaultDimensionOrder);
+        _adaptiveOrder = false;
+        _reorganization = null;
+        _modificationCount = 0;
+        _data = newRoot();
         _iteratorInvalidCount = 0;
         _generatedIterators = false;
+        _index = null;
+        _selection = null;
+        _indexedCount = 0;
+        _treeStale = false;
+    }
+
+    // Returns the format of the leaves holding the plays
+    public LeafFormat getLeafFormat()
+    {
+        return _leafFormat;
+    }
+
+    // Returns the layout of the cells holding the leaves
+    public CubeLayout getCubeLayout()
+    {
+        return _cubeLayout;
+    }
+
+    // Returns the order of the dimensions of the tree, from the top
+    public Class<?> [] getDimensionOrder()
+    {
+        return _dimensionOrder.clone();
+    }
+
+    /* Sets whether the data store reorders its tree to put the dimensions
+       sliced and pivoted most often first. Clones never reorder their own
+       trees, but their uses count toward the data store they came from */
+    public void setAdaptiveOrder(boolean adaptiveOrder)
+    {
+        _adaptiveOrder = adaptiveOrder;
+    }
+
+    // Returns true if the data store reorders its tree based on use
+    public boolean isAdaptiveOrder()
+    {
+        return _adaptiveOrder;
+    }
+
+    // Creates an empty top of the tree in the wanted layout
+    private PlayStoreTree newRoot()
+    {
+        return newRoot(_dimensionOrder);
+    }
+
+    // Creates an empty top of the tree in the wanted layout and order
+    private PlayStoreTree newRoot(Class<?> [] dimensionOrder)
+    {
+        if (_cubeLayout == CubeLayout.FLAT_ARRAY)
+            return new PlayStoreCube(_leafFormat);
+        else if (dimensionOrder.length == 0)
+            return newLeaf(_leafFormat);
+        else
+            return PlayStoreNode.newNode(dimensionOrder[0], dimensionOrder,
+                                         _leafFormat);
+    }
+
+    /* Rebuilds a tree in a new dimension order on a background thread. The
+       source tree is marked shared first, so the data store can keep using
+       it; any changes are made to copies */
+    private static final class Reorganization implements Runnable
+    {
+        private PlayStoreTree _source;
+        private PlayStoreTree _result;
+        private Class<?> [] _dimensionOrder;
+        private int _modificationCount; // Of the data store at the start
+        private Thread _thread;
+
+        public Reorganization(PlayStoreTree source, PlayStoreTree newRoot,
+                              Class<?> [] dimensionOrder,
+                              int modificationCount)
+        {
+            source.markShared();
+            _source = source;
+            _result = newRoot;
+            _dimensionOrder = dimensionOrder;
+            _modificationCount = modificationCount;
+            _thread = new Thread(this, "DataStoreReorganization");
+            _thread.setDaemon(true);
+            _thread.start();
+        }
+
+        public void run()
+        {
+            final PlayStoreTree result = _result;
+            _source.visitPlays(new PlayVisitor() {
+                    public void visitPlay(SinglePlay play)
+                    {
+                        result.insertPlay(play);
+                    }
+                });
+            _source = null; // Release it
+        }
+
+        // Returns true if the new tree is finished
+        public boolean isDone()
+        {
+            return !_thread.isAlive();
+        }
+
+        // Waits for the new tree to finish
+        public void waitDone()
+        {
+            try {
+                _thread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /* Returns the new tree. Only valid once it is finished
+           SUBTLE NOTE: The thread has ended by then, which makes everything
+           it wrote visible to the caller */
+        public PlayStoreTree getResult()
+        {
+            return _result;
+        }
+
+        public Class<?> [] getDimensionOrder()
+        {
+            return _dimensionOrder;
+        }
+
+        public int getModificationCount()
+        {
+            return _modificationCount;
+        }
     }
 
-    // Clone method
-    /* HACK/WORKAROUND: Easier to ignore the cast warning then to fully test
-       the class cast in question. */
-    @SuppressWarnings({"unchecked"})
+    // Records a slice or pivot on the passed class
+    private void recordUse(Class<?> valueType)
+    {
+        _usage.recordUse(valueType);
+    }
+
+    /* Installs a finished reordered tree, or starts building one if the uses
+       of the dimensions now rank them differently than the tree does. A tree
+       that finished after plays changed is thrown away; the order will still
+       be wanted, so it is tried again at a later check */
+    private void checkDimensionOrder()
+    {
+        if (_reorganization != null) {
+            if (_reorganization.isDone()) {
+                if ((_reorganization.getModificationCount() == _modificationCount)
+                    && (!_treeStale)) {
+                    _data = _reorganization.getResult();
+                    _dimensionOrder = _reorganization.getDimensionOrder();
+                }
+                _reorganization = null;
+            } // Reordered tree finished
+        } // Reordering underway
+        else if (_adaptiveOrder && (_cubeLayout == CubeLayout.NESTED_MAPS)
+                 && _usage.checkDue(_reorderInterval)) {
+            // Pivoted trees don't hold the dimensions of the data store
+            int index;
+            for (index = 0; index < _dimensionOrder.length; index++)
+                if (!Arrays.asList(_defaultDimensionOrder).contains(_dimensionOrder[index]))
+                    return;
+            Class<?> [] wantOrder = _usage.getPreferredOrder(_dimensionOrder);
+            if ((_dimensionOrder.length > 1) &&
+                (!Arrays.equals(wantOrder, _dimensionOrder))) {
+                refreshTree();
+                _reorganization = new Reorganization(_data, newRoot(wantOrder),
+                                                     wantOrder, _modificationCount);
+            }
+        } // Check whether to reorder
+    }
+
+    /* Waits for any reordering of the tree running in the background to
+       finish, and installs the result. Mainly for testing */
+    void awaitDimensionOrder()
+    {
+        if (_reorganization != null) {
+            _reorganization.waitDone();
+            checkDimensionOrder();
+        }
+    }
+
+    // Creates an empty leaf of the tree in the wanted format
+    static PlayStoreTree newLeaf(LeafFormat leafFormat)
+    {
+        if (leafFormat == LeafFormat.COLUMNS)
+            return new PlayStoreColumns();
+        else if (leafFormat == LeafFormat.PACKED)
+            return new PlayStorePacked();
+        else
+            return new PlayStoreList();
+    }
+
+    /* Creates a leaf of the tree in the wanted format from a list of plays.
+       WARNING: A list format leaf DOES NOT encapsulate the list, it is shared
+       with whatever called this method */
+    static PlayStoreTree newLeaf(LeafFormat leafFormat,
+                                 ArrayList<SinglePlay> data)
+    {
+        if (leafFormat == LeafFormat.COLUMNS)
+            return new PlayStoreColumns(data);
+        else if (leafFormat == LeafFormat.PACKED)
+            return new PlayStorePacked(data);
+        else
+            return new PlayStoreList(data);
+    }
+
+    /* Clone method. The tree is shared between the two data stores, and gets
+       copied piece by piece as either one modifies it */
     public Object clone() throws CloneNotSupportedException
     {
-        DataStore newObject = new DataStore();
-        newObject._data = (PlayStoreTree)_data.clone();
+        checkDimensionOrder();
+        DataStore newObject = new DataStore(_leafFormat, _cubeLayout);
+        newObject._dimensionOrder = _dimensionOrder;
+        newObject._usage = _usage;
+        newObject._parallel = _parallel;
+        newObject._parallelThreshold = _parallelThreshold;
+        // A stale tree will be rebuilt from the selection, so skip sharing it
+        if (!_treeStale) {
+            _data.markShared();
+            newObject._data = _data;
+        }
+        newObject._index = _index;
+        if (_selection != null)
+            newObject._selection = (BitSet)_selection.clone();
+        newObject._indexedCount = _indexedCount;
+        newObject._treeStale = _treeStale;
         return newObject;
     }
 
+    /* Builds a bitmap index over the current contents of the data store. Later
+       slices on play categories are done on the index instead of the tree */
+    public void buildIndex()
+    {
+        refreshTree();
+        ArrayList<SinglePlay> plays = new ArrayList<SinglePlay>();
+        _data.rollup(plays);
+        _index = new PlayBitmapIndex();
+        Iterator<SinglePlay> playPtr = plays.iterator();
+        while (playPtr.hasNext())
+            _index.insertPlay(playPtr.next());
+        _selection = null;
+        _indexedCount = _index.size();
+        _treeStale = false;
+    }
+
+    // Returns true if the data store has a bitmap index
+    public boolean isIndexed()
+    {
+        return (_index != null);
+    }
+
+    /* Returns the selection of plays within the index, creating it if
+       needed. Only valid when the index exists */
+    private BitSet getSelection()
+    {
+        if (_selection == null) {
+            _selection = new BitSet(_indexedCount);
+            _selection.set(0, _indexedCount);
+        }
+        return _selection;
+    }
+
+    /* Returns a copy of the selection of plays within the index, which can be
+       modified without affecting this data store. Only valid when the index
+       exists */
+    private BitSet copySelection()
+    {
+        if (_selection == null) {
+            BitSet result = new BitSet(_indexedCount);
+            result.set(0, _indexedCount);
+            return result;
+        }
+        else
+            return (BitSet)_selection.clone();
+    }
+
+    // Rebuilds the tree from the plays selected within the index, if needed
+    private void refreshTree()
+    {
+        if (_treeStale) {
+            _data = newRoot();
+            if (_selection == null) {
+                int position;
+                for (position = 0; position < _indexedCount; position++)
+                    _data.insertPlay(_index.getPlay(position));
+            }
+            else {
+                int position;
+                for (position = _selection.nextSetBit(0); position >= 0;
+                     position = _selection.nextSetBit(position + 1))
+                    _data.insertPlay(_index.getPlay(position));
+            }
+            _treeStale = false;
+        } // Tree needs rebuilding
+    }
+
+    /* Drops the index for this data store, for operations that change the
+       structure of the tree. Clones that share the index are not affected */
+    private void dropIndex()
+    {
+        refreshTree();
+        _index = null;
+        _selection = null;
+        _indexedCount = 0;
+    }
+
     // Returns true if this data store is empty
     public boolean empty()
     {
-        if (_data == null)
+        if (_treeStale) {
+            if (_selection == null)
+                return (_indexedCount == 0);
+            else
+                return _selection.isEmpty();
+        }
+        else if (_data == null)
             return true;
         else
             return _data.empty();
     }
 
+    /* Sets whether large data stores run pivots, rollups, and numeric slices
+       in parallel, and whether their views read plays in parallel */
+    public void setParallel(boolean parallel)
+    {
+        _parallel = parallel;
+    }
+
+    // Returns true if large data stores run operations in parallel
+    public boolean isParallel()
+    {
+        return _parallel;
+    }
+
+    /* Returns the number of times the data store has been modified. Results
+       computed from it are out of date once this changes */
+    public int getModificationCount()
+    {
+        return _modificationCount;
+    }
+
+    /* Returns true if the next operation on the tree should run in parallel.
+       The tree must be up to date */
+    private boolean runParallel()
+    {
+        return (_parallel &&
+                (_data.getAggregate().getPlayCount() >= _parallelThreshold));
+    }
+
     // Insert a new play into the data store
     public void insertPlay(SinglePlay play)
     {
         invalidateIterators();
-        _data.insertPlay(play);
+        if (_index != null) {
+            /* The index is shared with clones. If any added plays to it since
+               this store was indexed, the positions no longer line up so this
+               store must stop using it */
+            if (_index.size() != _indexedCount)
+                dropIndex();
+            else {
+                int position = _index.insertPlay(play);
+                _indexedCount++;
+                if (_selection != null)
+                    _selection.set(position);
+            }
+        } // Data store is indexed
+        // A stale tree will be rebuilt from the index, which has the play
+        if (!_treeStale) {
+            _data = _data.writable();
+            _data.insertPlay(play);
+        }
     }
         
     /* Remove all plays that do not have the passed enumerated value. If the
@@ -111,8 +595,22 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
        type) nothing happens. This implements the ODAP slice operation */
     public <P extends Enum<P>> void slice(P value, Class<P> valueType)
     {
+        checkDimensionOrder();
         invalidateIterators();
-        _data.slice(value, valueType);
+        recordUse(valueType);
+        BitSet valueBitmap = null;
+        if (_index != null)
+            valueBitmap = _index.getBitmap(value, valueType);
+        if (valueBitmap != null) {
+            // Unmodified tree entries are rebuilt later from the selection
+            getSelection().and(valueBitmap);
+            _treeStale = true;
+        }
+        else {
+            refreshTree();
+            _data = _data.writable();
+            _data.slice(value, valueType);
+        }
     }
     
     /* Removes all plays whose integer field value is outside the specified
@@ -120,18 +618,29 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
     public void slice(SinglePlay.NumericFields field, IntegerRange wantRange)
     {
         invalidateIterators();
-        _data.slice(field, wantRange);
+        if (_index != null) {
+            _index.sliceSelection(getSelection(), field, wantRange);
+            _treeStale = true;
+        }
+        else {
+            _data = _data.writable();
+            if (runParallel())
+                ParallelPlayStore.slice(_data, field, wantRange);
+            else
+                _data.slice(field, wantRange);
+        }
     }
 
     // Converts a list of plays into a data store object
     private PlayStoreTree toDataStoreClass(ArrayList<SinglePlay> data)
     {
-        return new PlayStoreList(data);
+        return newLeaf(_leafFormat, data);
     }
 
     // Converts a map of play lists into a data store object
     private <P extends Enum<P>> PlayStoreTree toDataStoreClass(EnumMap<P, ArrayList<SinglePlay>> data,
-                                                              Class<P> enumType)
+                                                              Class<P> enumType,
+                                                              Class<?> [] dimensionOrder)
     {
         /* Iterate through the data, convert each entry into a data store
            object, insert in new map, and then convert that map */
@@ -141,13 +650,14 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
             Map.Entry<P, ArrayList<SinglePlay>> mapEntry = mapPtr.next();
             result.put(mapEntry.getKey(), toDataStoreClass(mapEntry.getValue()));
         } // While map entries to convert
-        return new PlayStoreNode<P>(enumType, result);
+        return new PlayStoreNode<P>(enumType, result, dimensionOrder, _leafFormat);
     }
 
     // Converts a map of maps of play lists into a data store object
     private <P extends Enum<P>, Q extends Enum<Q>> PlayStoreTree toDataStoreClass(EnumMap<P, EnumMap<Q, ArrayList<SinglePlay>>> data,
                                                                                  Class<P> firstEnumType,
-                                                                                 Class<Q> secondEnumType)
+                                                                                 Class<Q> secondEnumType,
+                                                                                 Class<?> [] dimensionOrder)
     {
         /* Iterate through the data, convert each entry into a data store
            object, insert in new map, and then convert that map */
@@ -155,19 +665,27 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
         Iterator<Map.Entry<P, EnumMap<Q, ArrayList<SinglePlay>>>> mapPtr = data.entrySet().iterator();
         while (mapPtr.hasNext()) {
             Map.Entry<P, EnumMap<Q, ArrayList<SinglePlay>>> mapEntry = mapPtr.next();
-            result.put(mapEntry.getKey(), toDataStoreClass(mapEntry.getValue(), secondEnumType));
+            result.put(mapEntry.getKey(), toDataStoreClass(mapEntry.getValue(), secondEnumType,
+                                                           dimensionOrder));
         } // While map entries to convert
-        return new PlayStoreNode<P>(firstEnumType, result);
+        return new PlayStoreNode<P>(firstEnumType, result, dimensionOrder, _leafFormat);
     }
 
     /* Converts the data store into one with no indexes. This performs the
-       OLAP rollup operation */
+       OLAP rollup operation. The leaves are rolled directly into a new leaf,
+       so formats that don't hold play objects are copied in bulk */
     public void rollup()
     {
         invalidateIterators();
-        ArrayList<SinglePlay> result = new ArrayList<SinglePlay>();
-        _data.rollup(result);
-        _data = toDataStoreClass(result);
+        dropIndex();
+        if (runParallel())
+            _data = ParallelPlayStore.rollup(_data, _leafFormat);
+        else {
+            PlayStoreTree result = newLeaf(_leafFormat);
+            _data.rollup(result);
+            _data = result;
+        }
+        _dimensionOrder = new Class<?>[0];
     }
 
     /* Converts the data store into one with a single enum index. This performs
@@ -175,9 +693,14 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
     public <P extends Enum<P>> void pivot(Class<P> indexType)
     {
         invalidateIterators();
+        dropIndex();
+        recordUse(indexType);
         EnumMap<P, ArrayList<SinglePlay>> result = new EnumMap<P, ArrayList<SinglePlay>>(indexType);
-        _data.pivot(result, indexType);
-        _data = toDataStoreClass(result, indexType);
+        if (runParallel())
+            ParallelPlayStore.pivot(_data, result, indexType);
+        else
+            _data.pivot(result, indexType);
+        setPivotedPlays(result, indexType);
     }
 
     /* Converts the data store into one with two enum indexes. Two was chosen
@@ -187,14 +710,110 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
                                                              Class<Q> secondIndexType)
     {
         invalidateIterators();
+        dropIndex();
+        recordUse(firstIndexType);
+        recordUse(secondIndexType);
         EnumMap<P, EnumMap<Q, ArrayList<SinglePlay>>> result = new EnumMap<P, EnumMap<Q, ArrayList<SinglePlay>>>(firstIndexType);
-        _data.pivot(result, firstIndexType, secondIndexType);
-        _data = toDataStoreClass(result, firstIndexType, secondIndexType);
+        if (runParallel())
+            ParallelPlayStore.pivot(_data, result, firstIndexType, secondIndexType);
+        else
+            _data.pivot(result, firstIndexType, secondIndexType);
+        setPivotedPlays(result, firstIndexType, secondIndexType);
+    }
+
+    /* Replaces the contents of the data store with plays already split by
+       one enum index */
+    <P extends Enum<P>> void setPivotedPlays(EnumMap<P, ArrayList<SinglePlay>> plays,
+                                             Class<P> indexType)
+    {
+        invalidateIterators();
+        dropIndex();
+        _dimensionOrder = new Class<?>[] { indexType };
+        _data = toDataStoreClass(plays, indexType, _dimensionOrder);
+    }
+
+    /* Replaces the contents of the data store with plays already split by
+       two enum indexes */
+    <P extends Enum<P>, Q extends Enum<Q>> void setPivotedPlays(EnumMap<P, EnumMap<Q, ArrayList<SinglePlay>>> plays,
+                                                                Class<P> firstIndexType,
+                                                                Class<Q> secondIndexType)
+    {
+        invalidateIterators();
+        dropIndex();
+        _dimensionOrder = new Class<?>[] { firstIndexType, secondIndexType };
+        _data = toDataStoreClass(plays, firstIndexType, secondIndexType,
+                                 _dimensionOrder);
+    }
+
+    // Returns the summary measures over all plays in the data store
+    public PlayAggregate getAggregate()
+    {
+        refreshTree();
+        PlayAggregate result = new PlayAggregate();
+        result.merge(_data.getAggregate());
+        return result;
+    }
+
+    /* Returns the summary measures of the plays split by one enum index. If
+       the index is a dimension of the tree or the play type, no plays are
+       read. This performs a version of the OLAP pivot operation without
+       changing the data store */
+    public <P extends Enum<P>> EnumMap<P, PlayAggregate> pivotAggregates(Class<P> indexType)
+    {
+        refreshTree();
+        EnumMap<P, PlayAggregate> result = new EnumMap<P, PlayAggregate>(indexType);
+        _data.pivotAggregates(result, indexType);
+        return result;
+    }
+
+    /* Returns the summary measures of the plays split by two enum indexes.
+       This performs a version of the OLAP pivot operation without changing
+       the data store */
+    public <P extends Enum<P>, Q extends Enum<Q>> EnumMap<P, EnumMap<Q, PlayAggregate>> pivotAggregates(Class<P> firstIndexType,
+                                                                                                       Class<Q> secondIndexType)
+    {
+        refreshTree();
+        EnumMap<P, EnumMap<Q, PlayAggregate>> result = new EnumMap<P, EnumMap<Q, PlayAggregate>>(firstIndexType);
+        _data.pivotAggregates(result, firstIndexType, secondIndexType);
+        return result;
+    }
+
+    /* Returns a read-only view of the plays in the data store selected by all
+       of the passed selectors. The view shares the tree, so creating it is
+       cheap, and later changes to this data store do not affect it */
+    public DataStoreView view(PlaySelector... selectors)
+    {
+        checkDimensionOrder();
+        refreshTree();
+        _data.markShared();
+        DataStoreView result;
+        if (_index == null)
+            result = new DataStoreView(_data, _leafFormat, selectors,
+                                       _dimensionOrder, _usage, null, null);
+        else
+            result = new DataStoreView(_data, _leafFormat, selectors,
+                                       _dimensionOrder, _usage, _index,
+                                       copySelection());
+        if (_parallel)
+            result.setParallel(_parallelThreshold);
+        return result;
     }
 
-    // Flags data store that all generated iterators are now invalid
+    /* Returns a cursor over the cells of the data store. It shares the tree,
+       so creating it is cheap, and later changes to this data store do not
+       affect it */
+    public DataStoreCursor cursor()
+    {
+        refreshTree();
+        _data.markShared();
+        return new DataStoreCursor(_data);
+    }
+
+    /* Flags data store that all generated iterators are now invalid, and
+       counts the modification */
     private void invalidateIterators()
     {
+        _modificationCount++;
         if (_generatedIterators) {
             _iteratorInvalidCount++;
             _generatedIterators = false;
@@ -265,12 +884,16 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
        subclass using the factory pattern. */
     public Iterator<ArrayList<SinglePlay>> iterator()
     {
+        /* NOTE: Rebuilding the tree does not change the contents, so existing
+           iterators remain valid */
+        refreshTree();
         _generatedIterators = true;
         return new DataStoreIterator();
     }
 
     public String toString()
     {
+        refreshTree();
         if (_data == null)
             return "empty";
         else {
@@ -281,10 +904,68 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
         } // Data store not empty
     }
         
+    /* Selector chain link keeping one value of a play category, for testing
+       views. It works like the slices of the graphs package */
+    private static final class TestCategorySelector<P extends Enum<P>> implements PlaySelectorChain
+    {
+        private P _value;
+        private Class<P> _valueType;
+        private PlaySelectorChain _nextLink;
+
+        public TestCategorySelector(P value, Class<P> valueType,
+                                    PlaySelectorChain nextLink)
+        {
+            _value = value;
+            _valueType = valueType;
+            _nextLink = nextLink;
+        }
+
+        public boolean selectPlay(SinglePlay play)
+        {
+            return (selectLink(play) &&
+                    ((_nextLink == null) || _nextLink.selectPlay(play)));
+        }
+
+        public Class<?> getCategory()
+        {
+            return _valueType;
+        }
+
+        public Enum<?> getCategoryValue()
+        {
+            return _value;
+        }
+
+        public boolean selectLink(SinglePlay play)
+        {
+            return (play.getValue(_valueType) == _value);
+        }
+
+        public PlaySelectorChain getNextLink()
+        {
+            return _nextLink;
+        }
+    }
+
     // Code to generate a hard-coded data store used for testing purposes.
     public static DataStore buildTestDataStore()
     {
-        DataStore test = new DataStore();
+        return buildTestDataStore(LeafFormat.PLAY_LIST);
+    }
+
+    /* Code to generate a hard-coded data store used for testing purposes,
+       with the wanted leaf format */
+    public static DataStore buildTestDataStore(LeafFormat leafFormat)
+    {
+        return buildTestDataStore(leafFormat, CubeLayout.NESTED_MAPS);
+    }
+
+    /* Code to generate a hard-coded data store used for testing purposes,
+       with the wanted leaf format and layout */
+    public static DataStore buildTestDataStore(LeafFormat leafFormat,
+                                               CubeLayout cubeLayout)
+    {
+        DataStore test = new DataStore(leafFormat, cubeLayout);
         test.insertPlay(new SinglePlay(1, SinglePlay.PlayType.RUN_LEFT,
                                    SinglePlay.DownNumber.FIRST_DOWN, 10, 50,
                                        45, 0, 0, 11, false));
@@ -381,5 +1062,343 @@ public class DataStore implements Iterable<ArrayList<SinglePlay>> {
         System.out.println("Iterator 2 valid:"+ index2.hasNext());
 
         index2.next();
+
+        /* Repeat the slices with columnar leaves. The output should match
+           the list based output above */
+        DataStore columnTest = buildTestDataStore(LeafFormat.COLUMNS);
+        columnTest.slice(SinglePlay.DistanceNeeded.TEN_TO_FOUR,
+                         SinglePlay.DistanceNeeded.class);
+        columnTest.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                         new IntegerRange(0, 10));
+        System.out.println("Columnar leaves:");
+        System.out.println(columnTest);
+        columnTest.pivot(SinglePlay.PlayType.class);
+        System.out.println("Columnar leaves pivoted by play type:");
+        System.out.println(columnTest);
+
+        // Same again for packed leaves, and roll them up
+        DataStore packedTest = buildTestDataStore(LeafFormat.PACKED);
+        packedTest.slice(SinglePlay.DistanceNeeded.TEN_TO_FOUR,
+                         SinglePlay.DistanceNeeded.class);
+        packedTest.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                         new IntegerRange(0, 10));
+        DataStore packedCopy = (DataStore)packedTest.clone();
+        packedCopy.rollup();
+        System.out.println("Packed leaves rolled up:");
+        System.out.println(packedCopy);
+
+        /* Slice and add plays to clones of a store. Clones share the tree, so
+           this checks that neither the original nor other clones change */
+        DataStore sharedTest = buildTestDataStore(LeafFormat.COLUMNS);
+        DataStore sharedCopy = (DataStore)sharedTest.clone();
+        DataStore sharedCopy2 = (DataStore)sharedCopy.clone();
+        sharedCopy.slice(SinglePlay.DownNumber.THIRD_DOWN,
+                         SinglePlay.DownNumber.class);
+        sharedCopy.slice(SinglePlay.PlayType.RUN_LEFT, SinglePlay.PlayType.class);
+        sharedCopy2.insertPlay(new SinglePlay(2, SinglePlay.PlayType.PUNT,
+                                              SinglePlay.DownNumber.FOURTH_DOWN,
+                                              10, 50, 45, 0, 0, 40, false));
+        sharedCopy2.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                          new IntegerRange(0, 10));
+        System.out.println("Original unchanged by clones:"
+                           + sharedTest.toString().equals(buildTestDataStore(LeafFormat.COLUMNS).toString()));
+        System.out.println("Clone sliced:");
+        System.out.println(sharedCopy);
+
+        /* Select the same plays through a view. Its pivot should match the
+           sliced data store, and the original should be unchanged */
+        DataStore viewTest = buildTestDataStore(LeafFormat.PACKED);
+        DataStore viewSliced = buildTestDataStore(LeafFormat.PACKED);
+        DataStoreView view = viewTest.view(new PlaySelector() {
+                public boolean selectPlay(SinglePlay play)
+                {
+                    return ((play.getDistanceNeededCategory() == SinglePlay.DistanceNeeded.TEN_TO_FOUR)
+                            && (play.getDistanceGained() <= 10));
+                }
+            });
+        viewSliced.slice(SinglePlay.DistanceNeeded.TEN_TO_FOUR,
+                         SinglePlay.DistanceNeeded.class);
+        viewSliced.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                         new IntegerRange(0, 10));
+        System.out.println("View plays:" + view.count() + " range:"
+                           + view.getRange(SinglePlay.NumericFields.SCORE_DIFFERENTIAL));
+        viewSliced.pivot(SinglePlay.PlayType.class);
+        System.out.println("View pivot matches:"
+                           + view.pivot(SinglePlay.PlayType.class).toString().equals(viewSliced.toString()));
+        System.out.println("View left original unchanged:"
+                           + viewTest.toString().equals(buildTestDataStore(LeafFormat.PACKED).toString()));
+
+        /* Pivot the summary measures, by a tree dimension, by play type, and
+           by both, and check them against counts of the pivoted plays. Then
+           slice and check that the measures follow */
+        DataStore aggregateTest = buildTestDataStore(LeafFormat.COLUMNS);
+        System.out.println("Measures:" + aggregateTest.getAggregate());
+        System.out.println("Measures by down:"
+                           + aggregateTest.pivotAggregates(SinglePlay.DownNumber.class));
+        System.out.println("Measures by play type and down:"
+                           + aggregateTest.pivotAggregates(SinglePlay.PlayType.class,
+                                                           SinglePlay.DownNumber.class));
+        EnumMap<SinglePlay.PlayType, PlayAggregate> typeMeasures = aggregateTest.pivotAggregates(SinglePlay.PlayType.class);
+        DataStore aggregatePivot = (DataStore)aggregateTest.clone();
+        aggregatePivot.pivot(SinglePlay.PlayType.class);
+        boolean countsMatch = true;
+        Iterator<ArrayList<SinglePlay>> cellIndex = aggregatePivot.iterator();
+        while (cellIndex.hasNext()) {
+            ArrayList<SinglePlay> cell = cellIndex.next();
+            if (typeMeasures.get(cell.get(0).getPlayType()).getPlayCount() != cell.size())
+                countsMatch = false;
+        }
+        System.out.println("Measures by play type match:" + countsMatch);
+        aggregateTest.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                            new IntegerRange(0, 10));
+        System.out.println("Measures after slice:" + aggregateTest.getAggregate());
+
+        /* Repeat slices and pivots on a flat cube. Everything should match the
+           same operations on the tree */
+        DataStore cubeTest = buildTestDataStore(LeafFormat.PLAY_LIST,
+                                                CubeLayout.FLAT_ARRAY);
+        DataStore cubeTree = buildTestDataStore();
+        System.out.println("Cube matches:"
+                           + cubeTest.toString().equals(cubeTree.toString()));
+        System.out.println("Cube measures by time and score match:"
+                           + cubeTest.pivotAggregates(SinglePlay.TimeRemaining.class,
+                                                      SinglePlay.ScoreDifferential.class).toString().equals(cubeTree.pivotAggregates(SinglePlay.TimeRemaining.class,
+                                                                                                                                     SinglePlay.ScoreDifferential.class).toString()));
+        DataStore cubeCopy = (DataStore)cubeTest.clone();
+        DataStore cubeTreeCopy = (DataStore)cubeTree.clone();
+        cubeTest.slice(SinglePlay.ScoreDifferential.EVEN_SCORE,
+                       SinglePlay.ScoreDifferential.class);
+        cubeTest.slice(SinglePlay.PlayType.RUN_LEFT, SinglePlay.PlayType.class);
+        cubeTree.slice(SinglePlay.ScoreDifferential.EVEN_SCORE,
+                       SinglePlay.ScoreDifferential.class);
+        cubeTree.slice(SinglePlay.PlayType.RUN_LEFT, SinglePlay.PlayType.class);
+        System.out.println("Cube slices match:"
+                           + cubeTest.toString().equals(cubeTree.toString()));
+        cubeCopy.pivot(SinglePlay.ScoreDifferential.class,
+                       SinglePlay.DownNumber.class);
+        cubeTreeCopy.pivot(SinglePlay.ScoreDifferential.class,
+                           SinglePlay.DownNumber.class);
+        System.out.println("Cube pivot matches:"
+                           + cubeCopy.toString().equals(cubeTreeCopy.toString()));
+
+        /* Repeat the slices with a bitmap index, plus one on play type. Both
+           the indexed store and its clone should match the same slices done
+           on the tree, including after more plays are added */
+        DataStore indexTest = buildTestDataStore();
+        indexTest.buildIndex();
+        DataStore treeTest = buildTestDataStore();
+        DataStore indexCopy = (DataStore)indexTest.clone();
+        indexTest.slice(SinglePlay.PlayType.RUN_LEFT, SinglePlay.PlayType.class);
+        indexTest.slice(SinglePlay.DistanceNeeded.TEN_TO_FOUR,
+                        SinglePlay.DistanceNeeded.class);
+        indexTest.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                        new IntegerRange(0, 10));
+        treeTest.slice(SinglePlay.PlayType.RUN_LEFT, SinglePlay.PlayType.class);
+        treeTest.slice(SinglePlay.DistanceNeeded.TEN_TO_FOUR,
+                       SinglePlay.DistanceNeeded.class);
+        treeTest.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                       new IntegerRange(0, 10));
+        System.out.println("Indexed slices match:"
+                           + indexTest.toString().equals(treeTest.toString()));
+        SinglePlay extraPlay = new SinglePlay(2, SinglePlay.PlayType.RUN_LEFT,
+                                              SinglePlay.DownNumber.FIRST_DOWN,
+                                              10, 50, 45, 0, 0, 5, false);
+        indexTest.insertPlay(extraPlay);
+        treeTest.insertPlay(extraPlay);
+        System.out.println("Indexed insert matches:"
+                           + indexTest.toString().equals(treeTest.toString()));
+        indexCopy.slice(SinglePlay.PlayType.PASS_SHORT_MIDDLE,
+                        SinglePlay.PlayType.class);
+        indexCopy.insertPlay(extraPlay); // Index now shared, must drop it
+        DataStore treeCopy = buildTestDataStore();
+        treeCopy.slice(SinglePlay.PlayType.PASS_SHORT_MIDDLE,
+                       SinglePlay.PlayType.class);
+        treeCopy.insertPlay(extraPlay);
+        System.out.println("Indexed clone matches:"
+                           + indexCopy.toString().equals(treeCopy.toString()));
+        indexTest.pivot(SinglePlay.DownNumber.class);
+        treeTest.pivot(SinglePlay.DownNumber.class);
+        System.out.println("Indexed pivot matches:"
+                           + indexTest.toString().equals(treeTest.toString()));
+
+        /* Select plays through views of an indexed store and the same store
+           without one. The indexed view reads its plays from the index in
+           load order, so compare the measures. Slicing the indexed store
+           afterward should not change its view */
+        DataStore indexViewTest = buildTestDataStore(LeafFormat.COLUMNS);
+        indexViewTest.buildIndex();
+        DataStore treeViewTest = buildTestDataStore(LeafFormat.COLUMNS);
+        PlaySelectorChain viewChain = new TestCategorySelector<SinglePlay.PlayType>(SinglePlay.PlayType.RUN_LEFT,
+                                                                                    SinglePlay.PlayType.class,
+                                                                                    new TestCategorySelector<SinglePlay.DownNumber>(SinglePlay.DownNumber.FIRST_DOWN,
+                                                                                                                                    SinglePlay.DownNumber.class,
+                                                                                                                                    null));
+        PlaySelector viewGained = new PlaySelector() {
+                public boolean selectPlay(SinglePlay play)
+                {
+                    return (play.getDistanceGained() <= 10);
+                }
+            };
+        DataStoreView indexView = indexViewTest.view(viewChain, viewGained);
+        DataStoreView treeView = treeViewTest.view(viewChain, viewGained);
+        indexViewTest.slice(SinglePlay.PlayType.PASS_SHORT_MIDDLE,
+                            SinglePlay.PlayType.class);
+        boolean indexViewMatch = (indexView.count() == treeView.count());
+        indexViewMatch &= indexView.getAggregate().toString().equals(treeView.getAggregate().toString());
+        indexViewMatch &= indexView.pivotAggregates(SinglePlay.DistanceNeeded.class,
+                                                    SinglePlay.ScoreDifferential.class).toString().equals(treeView.pivotAggregates(SinglePlay.DistanceNeeded.class,
+                                                                                                                                   SinglePlay.ScoreDifferential.class).toString());
+        indexViewMatch &= (indexViewTest.view(viewChain).count() == 0);
+        System.out.println("Indexed view plays:" + indexView.count()
+                           + " matches:" + indexViewMatch);
+
+        /* Run the operations in parallel on both layouts, with the threshold
+           dropped so the small test store qualifies. All results should match
+           the sequential ones */
+        CubeLayout [] layouts = CubeLayout.values();
+        int layoutIndex;
+        for (layoutIndex = 0; layoutIndex < layouts.length; layoutIndex++) {
+            DataStore parallelTest = buildTestDataStore(LeafFormat.COLUMNS,
+                                                        layouts[layoutIndex]);
+            parallelTest.setParallel(true);
+            parallelTest._parallelThreshold = 0;
+            DataStore sequentialTest = buildTestDataStore(LeafFormat.COLUMNS,
+                                                          layouts[layoutIndex]);
+            DataStore parallelCopy = (DataStore)parallelTest.clone();
+            DataStore sequentialCopy = (DataStore)sequentialTest.clone();
+            DataStoreView parallelView = parallelCopy.view(viewChain, viewGained);
+            DataStoreView sequentialView = sequentialCopy.view(viewChain, viewGained);
+            boolean parallelMatch = parallelView.getAggregate().toString().equals(sequentialView.getAggregate().toString());
+            parallelMatch &= parallelView.pivotAggregates(SinglePlay.DistanceNeeded.class).toString().equals(sequentialView.pivotAggregates(SinglePlay.DistanceNeeded.class).toString());
+            parallelMatch &= parallelView.rollup().toString().equals(sequentialView.rollup().toString());
+            parallelMatch &= parallelView.cells(SinglePlay.DownNumber.class,
+                                                SinglePlay.DistanceNeeded.class).toString().equals(sequentialView.cells(SinglePlay.DownNumber.class,
+                                                                                                                        SinglePlay.DistanceNeeded.class).toString());
+            DataStore indexParallel = buildTestDataStore(LeafFormat.COLUMNS,
+                                                         layouts[layoutIndex]);
+            indexParallel.buildIndex();
+            indexParallel.setParallel(true);
+            indexParallel._parallelThreshold = 0;
+            DataStore indexSequential = buildTestDataStore(LeafFormat.COLUMNS,
+                                                           layouts[layoutIndex]);
+            indexSequential.buildIndex();
+            parallelView = indexParallel.view(viewChain, viewGained);
+            sequentialView = indexSequential.view(viewChain, viewGained);
+            parallelMatch &= parallelView.rollup().toString().equals(sequentialView.rollup().toString());
+            parallelMatch &= parallelView.getAggregate().toString().equals(sequentialView.getAggregate().toString());
+            parallelTest.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                               new IntegerRange(0, 10));
+            sequentialTest.slice(SinglePlay.NumericFields.DISTANCE_GAINED,
+                                 new IntegerRange(0, 10));
+            parallelMatch &= parallelTest.toString().equals(sequentialTest.toString());
+            parallelMatch &= parallelTest.getAggregate().toString().equals(sequentialTest.getAggregate().toString());
+            DataStore parallelPivot = (DataStore)parallelTest.clone();
+            DataStore sequentialPivot = (DataStore)sequentialTest.clone();
+            parallelPivot.pivot(SinglePlay.PlayType.class, SinglePlay.DownNumber.class);
+            sequentialPivot.pivot(SinglePlay.PlayType.class, SinglePlay.DownNumber.class);
+            parallelMatch &= parallelPivot.toString().equals(sequentialPivot.toString());
+            parallelCopy.pivot(SinglePlay.DownNumber.class);
+            sequentialCopy.pivot(SinglePlay.DownNumber.class);
+            parallelMatch &= parallelCopy.toString().equals(sequentialCopy.toString());
+            parallelTest.rollup();
+            sequentialTest.rollup();
+            parallelMatch &= parallelTest.toString().equals(sequentialTest.toString());
+            System.out.println("Parallel " + layouts[layoutIndex] + " matches:"
+                               + parallelMatch);
+        } // For each layout
+
+        /* Slice stores with the tree in another order. The plays come out in
+           a different order, so compare the measures instead. Then slice
+           clones of an adaptive store on field location, and check that it
+           moves that dimension to the top without changing the plays */
+        DataStore orderTest = new DataStore(LeafFormat.PACKED, CubeLayout.NESTED_MAPS,
+                                            SinglePlay.FieldLocation.class,
+                                            SinglePlay.TimeRemaining.class,
+                                            SinglePlay.DownNumber.class);
+        Iterator<ArrayList<SinglePlay>> orderIndex = buildTestDataStore().iterator();
+        while (orderIndex.hasNext()) {
+            ArrayList<SinglePlay> cell = orderIndex.next();
+            int playIndex;
+            for (playIndex = 0; playIndex < cell.size(); playIndex++)
+                orderTest.insertPlay(cell.get(playIndex));
+        }
+        DataStore orderTree = buildTestDataStore();
+        orderTest.slice(SinglePlay.TimeRemaining.OUTSIDE_TWO_MINUTES,
+                        SinglePlay.TimeRemaining.class);
+        orderTest.slice(SinglePlay.DistanceNeeded.TEN_TO_FOUR,
+                        SinglePlay.DistanceNeeded.class);
+        orderTree.slice(SinglePlay.TimeRemaining.OUTSIDE_TWO_MINUTES,
+                        SinglePlay.TimeRemaining.class);
+        orderTree.slice(SinglePlay.DistanceNeeded.TEN_TO_FOUR,
+                        SinglePlay.DistanceNeeded.class);
+        System.out.println("Reordered slices match:"
+                           + orderTest.pivotAggregates(SinglePlay.PlayType.class,
+                                                       SinglePlay.DownNumber.class).toString().equals(orderTree.pivotAggregates(SinglePlay.PlayType.class,
+                                                                                                                                SinglePlay.DownNumber.class).toString()));
+        DataStore adaptiveTest = buildTestDataStore(LeafFormat.COLUMNS);
+        adaptiveTest.setAdaptiveOrder(true);
+        String adaptiveMeasures = adaptiveTest.pivotAggregates(SinglePlay.FieldLocation.class).toString();
+        int queryCount;
+        for (queryCount = 0; queryCount < _reorderInterval; queryCount++) {
+            DataStore query = (DataStore)adaptiveTest.clone();
+            query.slice(SinglePlay.FieldLocation.MIDDLE,
+                        SinglePlay.FieldLocation.class);
+        }
+        adaptiveTest.clone(); // Starts the reordering
+        adaptiveTest.awaitDimensionOrder();
+        System.out.println("Adaptive order:"
+                           + Arrays.toString(adaptiveTest.getDimensionOrder()));
+        System.out.println("Adaptive order keeps plays:"
+                           + adaptiveTest.pivotAggregates(SinglePlay.FieldLocation.class).toString().equals(adaptiveMeasures));
+
+        /* Query through views instead. Their selectors and pivots should
+           count toward the order the same way, and the views should select
+           the same plays from the reordered tree */
+        DataStore adaptiveViewTest = buildTestDataStore(LeafFormat.COLUMNS);
+        adaptiveViewTest.setAdaptiveOrder(true);
+        PlaySelectorChain timeChain = new TestCategorySelector<SinglePlay.TimeRemaining>(SinglePlay.TimeRemaining.OUTSIDE_TWO_MINUTES,
+                                                                                         SinglePlay.TimeRemaining.class,
+                                                                                         null);
+        adaptiveMeasures = adaptiveViewTest.view(timeChain).pivotAggregates(SinglePlay.FieldLocation.class).toString();
+        for (queryCount = 0; queryCount < _reorderInterval; queryCount++)
+            adaptiveViewTest.view(timeChain).pivotAggregates(SinglePlay.FieldLocation.class);
+        adaptiveViewTest.view(); // Starts the reordering
+        adaptiveViewTest.awaitDimensionOrder();
+        System.out.println("Adaptive order from views:"
+                           + Arrays.toString(adaptiveViewTest.getDimensionOrder()));
+        System.out.println("Adaptive order keeps view plays:"
+                           + adaptiveViewTest.view(timeChain).pivotAggregates(SinglePlay.FieldLocation.class).toString().equals(adaptiveMeasures));
+
+        /* Read pivoted stores with a cursor. Its cells should match the
+           iterator, and every play should have the key of its cell. Then
+           insert into the store, which should not change the cursor */
+        CubeLayout [] cursorLayouts = CubeLayout.values();
+        for (layoutIndex = 0; layoutIndex < cursorLayouts.length; layoutIndex++) {
+            DataStore cursorTest = buildTestDataStore(LeafFormat.PACKED,
+                                                      cursorLayouts[layoutIndex]);
+            boolean cursorMatch = true;
+            DataStoreCursor cursor = cursorTest.cursor();
+            cursorTest.insertPlay(extraPlay);
+            Iterator<ArrayList<SinglePlay>> cursorIndex = buildTestDataStore().iterator();
+            while (cursor.next()) {
+                cursorMatch &= cursorIndex.hasNext() &&
+                    cursor.getPlays().toString().equals(cursorIndex.next().toString());
+                for (SinglePlay play : cursor.getPlays())
+                    cursorMatch &= (play.getDown() == cursor.getKey(SinglePlay.DownNumber.class))
+                        && (play.getScoreDifferentialCategory() == cursor.getKey(SinglePlay.ScoreDifferential.class));
+            }
+            cursorMatch &= !cursorIndex.hasNext();
+            DataStore cursorPivot = buildTestDataStore(LeafFormat.PLAY_LIST,
+                                                       cursorLayouts[layoutIndex]);
+            cursorPivot.pivot(SinglePlay.PlayType.class, SinglePlay.DownNumber.class);
+            cursor = cursorPivot.cursor();
+            while (cursor.next())
+                for (SinglePlay play : cursor.getPlays())
+                    cursorMatch &= (play.getPlayType() == cursor.getKey(SinglePlay.PlayType.class))
+                        && (play.getDown() == cursor.getKey(SinglePlay.DownNumber.class))
+                        && (cursor.getKey(SinglePlay.FieldLocation.class) == null);
+            System.out.println("Cursor " + cursorLayouts[layoutIndex] + " matches:"
+                               + cursorMatch);
+        } // For each layout
     }
 };
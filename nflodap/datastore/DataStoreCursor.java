@@ -0,0 +1,119 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class reads the cells of a data store one at a time. Unlike the
+   iterator, it reports the category values of each cell, and its lists of
+   plays are read-only views of the data store rather than copies. Leaves that
+   hold play objects are never copied at all; leaves in the columnar or packed
+   formats must still build their play objects, which they do only when the
+   plays of the cell are asked for.
+
+   The cursor shares the tree of the data store that created it. The tree is
+   copy-on-write, so later changes to the data store don't affect the cursor,
+   and it never becomes invalid.
+
+   Use it like this:
+       DataStoreCursor cursor = data.cursor();
+       while (cursor.next()) {
+           SinglePlay.PlayType type = cursor.getKey(SinglePlay.PlayType.class);
+           List<SinglePlay> plays = cursor.getPlays();
+           ...
+       } */
+public final class DataStoreCursor {
+
+    // One cell of the tree, with the category values leading to it
+    static final class Cell
+    {
+        private Enum<?> [] _key;
+        private PlayStoreTree _plays;
+
+        // Constructor. Copies the key
+        public Cell(ArrayList<Enum<?>> key, PlayStoreTree plays)
+        {
+            _key = key.toArray(new Enum<?>[key.size()]);
+            _plays = plays;
+        }
+    }
+
+    private ArrayList<Cell> _cells;
+    private int _position; // Current cell, -1 before the first
+    private List<SinglePlay> _plays; // Of the current cell, null until read
+
+    // Constructor
+    DataStoreCursor(PlayStoreTree data)
+    {
+        _cells = new ArrayList<Cell>();
+        if (!data.empty())
+            data.addCells(new ArrayList<Enum<?>>(), _cells);
+        _position = -1;
+        _plays = null;
+    }
+
+    /* Moves to the next cell. Returns false if there are none left. Must be
+       called before reading the first cell */
+    public boolean next()
+    {
+        if (_position < _cells.size())
+            _position++;
+        _plays = null;
+        return (_position < _cells.size());
+    }
+
+    // Returns the current cell, which must exist
+    private Cell getCell()
+    {
+        if ((_position < 0) || (_position >= _cells.size()))
+            throw new NoSuchElementException();
+        return _cells.get(_position);
+    }
+
+    /* Returns the value of the passed category for the current cell, or null
+       if the data store is not indexed by that category */
+    public <P extends Enum<P>> P getKey(Class<P> keyType)
+    {
+        Enum<?> [] key = getCell()._key;
+        int index;
+        for (index = 0; index < key.length; index++)
+            if (keyType.isInstance(key[index]))
+                return keyType.cast(key[index]);
+        return null;
+    }
+
+    /* Returns the category values of the current cell, in the order of the
+       dimensions of the data store */
+    public List<Enum<?>> getKey()
+    {
+        return Collections.unmodifiableList(Arrays.asList(getCell()._key));
+    }
+
+    // Returns a read-only list of the plays in the current cell
+    public List<SinglePlay> getPlays()
+    {
+        if (_plays == null)
+            _plays = getCell()._plays.getPlayView();
+        return _plays;
+    }
+}
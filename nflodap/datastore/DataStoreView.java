@@ -0,0 +1,720 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class is a read-only view of the plays in a data store that pass a
+   set of selectors. Slicing a data store removes plays from it, so queries
+   must copy the data store before slicing to preserve the original. A view
+   instead tests each play against the selectors as it is read, so nothing is
+   ever copied or removed. Pivots and rollups read the selected plays straight
+   out of the tree into their results, and counts and ranges read them without
+   building any lists at all.
+
+   The view shares the tree of the data store that created it. The tree is
+   copy-on-write, so later changes to the data store don't affect the view.
+
+   Selector chains are taken apart into their links. Links that keep one
+   value of a dimension of the tree are answered by the tree itself: only
+   the entries for the wanted values are read, and the links are never
+   tested on a play. If that leaves no tests at all, the summary measures
+   kept in the tree are used without reading any plays. This is why the data
+   store orders its tree by the dimensions used most; the view counts its
+   links and pivots toward that order.
+
+   Links on other play categories, such as the play type, would still have
+   to be tested on every play. If the data store has a bitmap index, these
+   are answered from it instead, along with the rest of the category links.
+   Their bitmaps are combined when the view is created, and the plays left
+   are read from the index by position, so plays the categories rule out are
+   never read at all. The index never changes once plays are in it, so the
+   view keeps its own copy of the positions and shares the index itself.
+
+   Any other selectors are tested on each play as it is read. This is still
+   far cheaper than copying the plays to slice them.
+
+   If the data store runs in parallel, large views split the parts of the
+   tree they read, or the positions in the index, among fork/join tasks.
+   Each task builds its own partial result, and the results are merged in
+   the order of the plays, so they match reading them sequentially. See
+   ParallelPlayStore.
+   WARNING: Selectors are then called from several threads at once, so they
+   must not change any state */
+public final class DataStoreView implements Iterable<ArrayList<SinglePlay>> {
+
+    private PlayStoreTree _data;
+    private DataStore.LeafFormat _leafFormat; // Format for pivot results
+    private PlaySelector [] _selectors;
+    private PlayDimensionUsage _usage; // Shared with the data store
+
+    /* Parts of the tree holding the plays with the wanted values of its
+       dimensions, or null if the plays are read from the index instead */
+    private ArrayList<PlayStoreTree> _parts;
+
+    /* Positions within the index of the plays that pass the tests on play
+       categories. Null if the plays are read from the tree */
+    private PlayBitmapIndex _index;
+    private BitSet _positions;
+
+    // Tests left to apply to each play read from the tree or the index
+    private PlaySelector [] _playTests;
+
+    /* Minimum number of plays before the view reads them in parallel, or -1
+       to always read them sequentially */
+    private int _parallelThreshold;
+    /* Parts of the tree read by each task when running in parallel. Built
+       the first time they are needed */
+    private ArrayList<PlayStoreTree> _taskParts;
+    /* Number of ranges the positions in the index are split into when
+       running in parallel. A few per processor evens out the ranges with
+       fewer plays selected */
+    private static final int _positionRanges = Runtime.getRuntime().availableProcessors() * 4;
+
+    /* Constructor. Null selectors are ignored, so clients can pass an empty
+       chain of selectors directly. The dimensions of the tree are passed so
+       the view knows which links the tree answers. If the data store has an
+       index, the positions of its plays are passed as well, and are used up
+       by the view */
+    DataStoreView(PlayStoreTree data, DataStore.LeafFormat leafFormat,
+                  PlaySelector [] selectors, Class<?> [] treeDimensions,
+                  PlayDimensionUsage usage, PlayBitmapIndex index,
+                  BitSet positions)
+    {
+        _data = data;
+        _leafFormat = leafFormat;
+        _usage = usage;
+        _parallelThreshold = -1;
+        _taskParts = null;
+        ArrayList<PlaySelector> wantSelectors = new ArrayList<PlaySelector>();
+        if (selectors != null)
+            for (PlaySelector selector : selectors)
+                if (selector != null)
+                    wantSelectors.add(selector);
+        _selectors = wantSelectors.toArray(new PlaySelector[wantSelectors.size()]);
+
+        // Take the chains apart, and count the categories they test
+        ArrayList<PlaySelectorChain> categoryLinks = new ArrayList<PlaySelectorChain>();
+        ArrayList<PlaySelector> otherTests = new ArrayList<PlaySelector>();
+        for (PlaySelector selector : _selectors) {
+            if (selector instanceof PlaySelectorChain) {
+                PlaySelectorChain link = (PlaySelectorChain)selector;
+                while (link != null) {
+                    if (link.getCategory() != null) {
+                        categoryLinks.add(link);
+                        _usage.recordUse(link.getCategory());
+                    }
+                    else
+                        otherTests.add(new LinkSelector(link));
+                    link = link.getNextLink();
+                } // While links to process
+            } // Selector is a chain
+            else
+                otherTests.add(selector);
+        } // For each selector
+
+        if ((index == null) ||
+            (!useIndex(categoryLinks, otherTests, treeDimensions, index, positions)))
+            useTree(categoryLinks, otherTests, treeDimensions);
+    }
+
+    // Selector that applies the test of a single link of a chain
+    private static final class LinkSelector implements PlaySelector
+    {
+        private PlaySelectorChain _link;
+
+        public LinkSelector(PlaySelectorChain link)
+        {
+            _link = link;
+        }
+
+        public boolean selectPlay(SinglePlay play)
+        {
+            return _link.selectLink(play);
+        }
+    }
+
+    /* Reads the plays from the parts of the tree with the values wanted by
+       the links on its dimensions. The other links are tested on each play.
+       Two links wanting different values of one dimension select nothing */
+    private void useTree(ArrayList<PlaySelectorChain> categoryLinks,
+                         ArrayList<PlaySelector> otherTests,
+                         Class<?> [] treeDimensions)
+    {
+        HashMap<Class<?>, Enum<?>> wantValues = new HashMap<Class<?>, Enum<?>>();
+        ArrayList<PlaySelector> playTests = new ArrayList<PlaySelector>(otherTests);
+        boolean haveConflict = false;
+        Iterator<PlaySelectorChain> linkPtr = categoryLinks.iterator();
+        while (linkPtr.hasNext()) {
+            PlaySelectorChain link = linkPtr.next();
+            if (Arrays.asList(treeDimensions).contains(link.getCategory())) {
+                Enum<?> oldValue = wantValues.put(link.getCategory(),
+                                                  link.getCategoryValue());
+                if ((oldValue != null) && (oldValue != link.getCategoryValue()))
+                    haveConflict = true;
+            } // Link answered by the tree
+            else
+                playTests.add(new LinkSelector(link));
+        } // While links to process
+        _parts = new ArrayList<PlayStoreTree>();
+        if (!haveConflict)
+            _data.selectParts(wantValues, _parts);
+        _playTests = playTests.toArray(new PlaySelector[playTests.size()]);
+    }
+
+    /* Answers the category links from the index, by clearing the positions of
+       plays without the wanted values. This is only worth doing if the tree
+       can't answer all of them itself. Returns true if the index is used */
+    private boolean useIndex(ArrayList<PlaySelectorChain> categoryLinks,
+                             ArrayList<PlaySelector> otherTests,
+                             Class<?> [] treeDimensions,
+                             PlayBitmapIndex index, BitSet positions)
+    {
+        boolean wantIndex = false;
+        Iterator<PlaySelectorChain> linkPtr = categoryLinks.iterator();
+        while (linkPtr.hasNext())
+            if (!Arrays.asList(treeDimensions).contains(linkPtr.next().getCategory()))
+                wantIndex = true;
+        if (!wantIndex)
+            return false;
+
+        ArrayList<PlaySelector> playTests = new ArrayList<PlaySelector>(otherTests);
+        linkPtr = categoryLinks.iterator();
+        while (linkPtr.hasNext()) {
+            PlaySelectorChain link = linkPtr.next();
+            BitSet bitmap = index.getBitmap(link.getCategory(),
+                                            link.getCategoryValue().ordinal());
+            if (bitmap != null)
+                positions.and(bitmap);
+            else
+                playTests.add(new LinkSelector(link));
+        } // While links to process
+        _index = index;
+        _positions = positions;
+        _playTests = playTests.toArray(new PlaySelector[playTests.size()]);
+        return true;
+    }
+
+    /* Returns true if the parts of the tree hold exactly the plays of the
+       view, so their summary measures can be used */
+    private boolean haveMeasures()
+    {
+        return ((_parts != null) && (_playTests.length == 0));
+    }
+
+    // Returns true if the play is selected by every one of the selectors
+    private static boolean selectPlay(PlaySelector [] selectors,
+                                      SinglePlay play)
+    {
+        for (PlaySelector selector : selectors)
+            if (!selector.selectPlay(play))
+                return false;
+        return true;
+    }
+
+    /* Visitor that calls another visitor only on the plays selected by the
+       view */
+    private class SelectedPlayVisitor implements PlayVisitor
+    {
+        private PlayVisitor _visitor;
+
+        public SelectedPlayVisitor(PlayVisitor visitor)
+        {
+            _visitor = visitor;
+        }
+
+        public void visitPlay(SinglePlay play)
+        {
+            if (selectPlay(_playTests, play)) // Parent field
+                _visitor.visitPlay(play);
+        }
+    }
+
+    // Calls the visitor on every play selected by the view
+    private void visitPlays(PlayVisitor visitor)
+    {
+        PlayVisitor wantVisitor = visitor;
+        if (_playTests.length > 0)
+            wantVisitor = new SelectedPlayVisitor(visitor);
+        if (_positions == null) {
+            Iterator<PlayStoreTree> partPtr = _parts.iterator();
+            while (partPtr.hasNext())
+                partPtr.next().visitPlays(wantVisitor);
+        } // Plays read from the tree
+        else {
+            int position;
+            for (position = _positions.nextSetBit(0); position >= 0;
+                 position = _positions.nextSetBit(position + 1))
+                wantVisitor.visitPlay(_index.getPlay(position));
+        } // Plays read from the index
+    }
+
+    /* Lets the view read its plays in parallel once it has at least the
+       passed number of them */
+    void setParallel(int parallelThreshold)
+    {
+        _parallelThreshold = parallelThreshold;
+    }
+
+    /* Returns true if the next operation should read the plays in parallel.
+       Counting the plays of the tree reads its summary measures, which builds
+       them on this thread before any tasks read the tree */
+    private boolean runParallel()
+    {
+        if (_parallelThreshold < 0)
+            return false;
+        int playCount = 0;
+        if (_parts == null)
+            playCount = _positions.cardinality();
+        else {
+            Iterator<PlayStoreTree> partPtr = _parts.iterator();
+            while (partPtr.hasNext())
+                playCount += partPtr.next().getAggregate().getPlayCount();
+        } // Plays read from the tree
+        return (playCount >= _parallelThreshold);
+    }
+
+    /* Returns the number of parts the plays are split into for reading in
+       parallel. The tree parts are split further, so there are enough to
+       keep the processors busy */
+    private int getPartCount()
+    {
+        if (_parts == null)
+            return _positionRanges;
+        if (_taskParts == null)
+            _taskParts = ParallelPlayStore.split(_parts);
+        return _taskParts.size();
+    }
+
+    /* Calls the visitor on every play selected by the view within one part.
+       The parts are in the order of the plays, so visiting them all in
+       order visits the same plays as visitPlays().
+       WARNING: Runs on the tasks. The parts must already be built */
+    void visitPart(int part, PlayVisitor visitor)
+    {
+        PlayVisitor wantVisitor = visitor;
+        if (_playTests.length > 0)
+            wantVisitor = new SelectedPlayVisitor(visitor);
+        if (_positions == null)
+            _taskParts.get(part).visitPlays(wantVisitor);
+        else {
+            long positionCount = _positions.length();
+            int start = (int)((positionCount * part) / _positionRanges);
+            int end = (int)((positionCount * (part + 1)) / _positionRanges);
+            int position;
+            for (position = _positions.nextSetBit(start);
+                 (position >= 0) && (position < end);
+                 position = _positions.nextSetBit(position + 1))
+                wantVisitor.visitPlay(_index.getPlay(position));
+        } // Plays read from the index
+    }
+
+    /* Collects every play selected by the view into a new result. Large views
+       are read in parallel, with each part collected into its own result */
+    private <R> R collect(PlayCollector<R> collector)
+    {
+        if (runParallel())
+            return ParallelPlayStore.collect(this, getPartCount(), collector);
+        R result = collector.newResult();
+        visitPlays(collector.newVisitor(result));
+        return result;
+    }
+
+    // Returns the number of plays in the view
+    public int count()
+    {
+        if (haveMeasures())
+            return getAggregate().getPlayCount();
+        else if ((_positions != null) && (_playTests.length == 0))
+            return _positions.cardinality();
+
+        final int [] result = new int[1];
+        visitPlays(new PlayVisitor() {
+                public void visitPlay(SinglePlay play)
+                {
+                    result[0]++;
+                }
+            });
+        return result[0];
+    }
+
+    // Returns true if the view has no plays
+    public boolean empty()
+    {
+        return (count() == 0);
+    }
+
+    /* Returns the range of some play value over the plays in the view, or null
+       if it has none. For play and turnover counts, the range is from zero to
+       the total over the plays */
+    public IntegerRange getRange(final SinglePlay.NumericFields field)
+    {
+        if (field == null)
+            throw new IllegalArgumentException();
+        final boolean wantTotal = ((field == SinglePlay.NumericFields.PLAY_COUNT) ||
+                                   (field == SinglePlay.NumericFields.TURNOVER_COUNT));
+        final IntegerRange [] result = new IntegerRange[1];
+        final int [] total = new int[1];
+        visitPlays(new PlayVisitor() {
+                public void visitPlay(SinglePlay play)
+                {
+                    int value = play.getIntValue(field);
+                    if (wantTotal)
+                        total[0] += value;
+                    else if (result[0] == null)
+                        result[0] = new IntegerRange(value);
+                    else
+                        result[0].extendRange(value);
+                }
+            });
+        if (wantTotal)
+            return new IntegerRange(0, total[0]);
+        else
+            return result[0];
+    }
+
+    // Returns the summary measures over the plays in the view
+    public PlayAggregate getAggregate()
+    {
+        if (!haveMeasures())
+            return collect(new PlayCollector<PlayAggregate>() {
+                    public PlayAggregate newResult()
+                    {
+                        return new PlayAggregate();
+                    }
+
+                    public PlayVisitor newVisitor(final PlayAggregate result)
+                    {
+                        return new PlayVisitor() {
+                            public void visitPlay(SinglePlay play)
+                            {
+                                result.addPlay(play);
+                            }
+                        };
+                    }
+
+                    public void merge(PlayAggregate first, PlayAggregate second)
+                    {
+                        first.merge(second);
+                    }
+                });
+
+        PlayAggregate result = new PlayAggregate();
+        Iterator<PlayStoreTree> partPtr = _parts.iterator();
+        while (partPtr.hasNext())
+            result.merge(partPtr.next().getAggregate());
+        return result;
+    }
+
+    /* Returns the summary measures of the plays in the view split by one enum
+       index. If the tree answers all of the selectors, this merges the
+       measures kept in it */
+    public <P extends Enum<P>> EnumMap<P, PlayAggregate> pivotAggregates(final Class<P> indexType)
+    {
+        _usage.recordUse(indexType);
+        if (!haveMeasures())
+            return collect(new PlayCollector<EnumMap<P, PlayAggregate>>() {
+                    public EnumMap<P, PlayAggregate> newResult()
+                    {
+                        return new EnumMap<P, PlayAggregate>(indexType);
+                    }
+
+                    public PlayVisitor newVisitor(EnumMap<P, PlayAggregate> result)
+                    {
+                        return new PlayAggregate.PivotVisitor<P>(result, indexType);
+                    }
+
+                    public void merge(EnumMap<P, PlayAggregate> first,
+                                      EnumMap<P, PlayAggregate> second)
+                    {
+                        PlayAggregate.mergePivot(first, second);
+                    }
+                });
+
+        EnumMap<P, PlayAggregate> result = new EnumMap<P, PlayAggregate>(indexType);
+        Iterator<PlayStoreTree> partPtr = _parts.iterator();
+        while (partPtr.hasNext())
+            partPtr.next().pivotAggregates(result, indexType);
+        return result;
+    }
+
+    /* Returns the summary measures of the plays in the view split by two enum
+       indexes. If the tree answers all of the selectors, this merges the
+       measures kept in it */
+    public <P extends Enum<P>, Q extends Enum<Q>> EnumMap<P, EnumMap<Q, PlayAggregate>> pivotAggregates(final Class<P> firstIndexType,
+                                                                                                       final Class<Q> secondIndexType)
+    {
+        _usage.recordUse(firstIndexType);
+        _usage.recordUse(secondIndexType);
+        if (!haveMeasures())
+            return collect(new PlayCollector<EnumMap<P, EnumMap<Q, PlayAggregate>>>() {
+                    public EnumMap<P, EnumMap<Q, PlayAggregate>> newResult()
+                    {
+                        return new EnumMap<P, EnumMap<Q, PlayAggregate>>(firstIndexType);
+                    }
+
+                    public PlayVisitor newVisitor(EnumMap<P, EnumMap<Q, PlayAggregate>> result)
+                    {
+                        return new PlayAggregate.DoublePivotVisitor<P, Q>(result, firstIndexType,
+                                                                          secondIndexType);
+                    }
+
+                    public void merge(EnumMap<P, EnumMap<Q, PlayAggregate>> first,
+                                      EnumMap<P, EnumMap<Q, PlayAggregate>> second)
+                    {
+                        PlayAggregate.mergeDoublePivot(first, second);
+                    }
+                });
+
+        EnumMap<P, EnumMap<Q, PlayAggregate>> result = new EnumMap<P, EnumMap<Q, PlayAggregate>>(firstIndexType);
+        Iterator<PlayStoreTree> partPtr = _parts.iterator();
+        while (partPtr.hasNext())
+            partPtr.next().pivotAggregates(result, firstIndexType,
+                                           secondIndexType);
+        return result;
+    }
+
+    // Returns all plays in the view as a single list. This is the OLAP rollup
+    public ArrayList<SinglePlay> rollup()
+    {
+        return collect(new PlayCollector<ArrayList<SinglePlay>>() {
+                public ArrayList<SinglePlay> newResult()
+                {
+                    return new ArrayList<SinglePlay>();
+                }
+
+                public PlayVisitor newVisitor(final ArrayList<SinglePlay> result)
+                {
+                    return new PlayVisitor() {
+                        public void visitPlay(SinglePlay play)
+                        {
+                            result.add(play);
+                        }
+                    };
+                }
+
+                public void merge(ArrayList<SinglePlay> first,
+                                  ArrayList<SinglePlay> second)
+                {
+                    first.addAll(second);
+                }
+            });
+    }
+
+    /* Returns a new data store of the plays in the view with a single enum
+       index. This performs a version of the OLAP pivot operation */
+    public <P extends Enum<P>> DataStore pivot(final Class<P> indexType)
+    {
+        _usage.recordUse(indexType);
+        final EnumMap<P, ArrayList<SinglePlay>> plays = new EnumMap<P, ArrayList<SinglePlay>>(indexType);
+        visitPlays(new PlayVisitor() {
+                public void visitPlay(SinglePlay play)
+                {
+                    P wantValue = play.getValue(indexType);
+                    if (wantValue != null) { // Play has value in wanted type
+                        ArrayList<SinglePlay> wantList = plays.get(wantValue);
+                        if (wantList == null) {
+                            wantList = new ArrayList<SinglePlay>();
+                            plays.put(wantValue, wantList);
+                        }
+                        wantList.add(play);
+                    } // Play has value in wanted type
+                }
+            });
+        DataStore result = new DataStore(_leafFormat);
+        result.setPivotedPlays(plays, indexType);
+        return result;
+    }
+
+    /* Returns a new data store of the plays in the view with two enum
+       indexes. This performs a version of the OLAP pivot operation */
+    public <P extends Enum<P>, Q extends Enum<Q>> DataStore pivot(final Class<P> firstIndexType,
+                                                                  final Class<Q> secondIndexType)
+    {
+        _usage.recordUse(firstIndexType);
+        _usage.recordUse(secondIndexType);
+        final EnumMap<P, EnumMap<Q, ArrayList<SinglePlay>>> plays = new EnumMap<P, EnumMap<Q, ArrayList<SinglePlay>>>(firstIndexType);
+        visitPlays(new PlayVisitor() {
+                public void visitPlay(SinglePlay play)
+                {
+                    P firstWantValue = play.getValue(firstIndexType);
+                    Q secondWantValue = play.getValue(secondIndexType);
+                    if ((firstWantValue != null) &&
+                        (secondWantValue != null)) { // Play has value in wanted types
+                        EnumMap<Q, ArrayList<SinglePlay>> wantMap = plays.get(firstWantValue);
+                        if (wantMap == null) {
+                            /* NOTE: creating an enum map of Q here, so need the
+                               second enumerated type, not the first */
+                            wantMap = new EnumMap<Q, ArrayList<SinglePlay>>(secondIndexType);
+                            plays.put(firstWantValue, wantMap);
+                        }
+                        ArrayList<SinglePlay> wantList = wantMap.get(secondWantValue);
+                        if (wantList == null) {
+                            wantList = new ArrayList<SinglePlay>();
+                            wantMap.put(secondWantValue, wantList);
+                        }
+                        wantList.add(play);
+                    } // Play has value in wanted types
+                }
+            });
+        DataStore result = new DataStore(_leafFormat);
+        result.setPivotedPlays(plays, firstIndexType, secondIndexType);
+        return result;
+    }
+
+    /* Returns the plays in the view split into cells by one enum index, with
+       the ranges of the passed fields kept for each cell. Unlike a pivot, no
+       new data store is built, and the plays are read once */
+    public <P extends Enum<P>> PlayCells cells(final Class<P> indexType,
+                                               final SinglePlay.NumericFields... rangeFields)
+    {
+        _usage.recordUse(indexType);
+        return collect(new PlayCollector<PlayCells>() {
+                public PlayCells newResult()
+                {
+                    return new PlayCells(1, indexType.getEnumConstants().length,
+                                         rangeFields);
+                }
+
+                public PlayVisitor newVisitor(final PlayCells result)
+                {
+                    return new PlayVisitor() {
+                        public void visitPlay(SinglePlay play)
+                        {
+                            P wantValue = play.getValue(indexType);
+                            if (wantValue != null) // Play has value in wanted type
+                                result.addPlay(0, wantValue.ordinal(), play);
+                        }
+                    };
+                }
+
+                public void merge(PlayCells first, PlayCells second)
+                {
+                    first.merge(second);
+                }
+            });
+    }
+
+    /* Returns the plays in the view split into cells by two enum indexes,
+       with the ranges of the passed fields kept for each cell. The first
+       index gives the row and the second the column */
+    public <P extends Enum<P>, Q extends Enum<Q>> PlayCells cells(final Class<P> rowIndexType,
+                                                                  final Class<Q> columnIndexType,
+                                                                  final SinglePlay.NumericFields... rangeFields)
+    {
+        _usage.recordUse(rowIndexType);
+        _usage.recordUse(columnIndexType);
+        return collect(new PlayCollector<PlayCells>() {
+                public PlayCells newResult()
+                {
+                    return new PlayCells(rowIndexType.getEnumConstants().length,
+                                         columnIndexType.getEnumConstants().length,
+                                         rangeFields);
+                }
+
+                public PlayVisitor newVisitor(final PlayCells result)
+                {
+                    return new PlayVisitor() {
+                        public void visitPlay(SinglePlay play)
+                        {
+                            P rowValue = play.getValue(rowIndexType);
+                            Q columnValue = play.getValue(columnIndexType);
+                            if ((rowValue != null) &&
+                                (columnValue != null)) // Play has value in wanted types
+                                result.addPlay(rowValue.ordinal(), columnValue.ordinal(),
+                                               play);
+                        }
+                    };
+                }
+
+                public void merge(PlayCells first, PlayCells second)
+                {
+                    first.merge(second);
+                }
+            });
+    }
+
+    // Iterator on the view
+    public class DataStoreViewIterator implements Iterator<ArrayList<SinglePlay>>
+    {
+        /* This iterates the lists of plays in the tree, and copies the plays
+           selected from each as it is read. Lists with no plays selected are
+           skipped. Since the tree of a view never changes, the iterator
+           never becomes invalid */
+        private Iterator<ArrayList<SinglePlay>> _storeIterator;
+        private ArrayList<SinglePlay> _nextPlays; // Null if none left
+
+        public DataStoreViewIterator()
+        {
+            _storeIterator = _data.iterator(); // Parent field
+            findNextPlays();
+        }
+
+        @Override
+            public boolean hasNext()
+            {
+                return (_nextPlays != null);
+            }
+
+        @Override
+            public ArrayList<SinglePlay> next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                ArrayList<SinglePlay> result = _nextPlays;
+                findNextPlays();
+                return result;
+            }
+
+        @Override
+            public void remove()
+            {
+                // Not allowed!
+                throw new UnsupportedOperationException();
+            }
+
+        // Find the next list with selected plays
+        private void findNextPlays()
+        {
+            _nextPlays = null;
+            while ((_nextPlays == null) && _storeIterator.hasNext()) {
+                ArrayList<SinglePlay> plays = _storeIterator.next();
+                ArrayList<SinglePlay> selected = new ArrayList<SinglePlay>(plays.size());
+                Iterator<SinglePlay> playPtr = plays.iterator();
+                while (playPtr.hasNext()) {
+                    SinglePlay play = playPtr.next();
+                    if (selectPlay(_selectors, play)) // Parent field
+                        selected.add(play);
+                } // While plays to test
+                if (!selected.isEmpty())
+                    _nextPlays = selected;
+            } // While lists to test
+        }
+    }
+
+    // Iterator on the view
+    public Iterator<ArrayList<SinglePlay>> iterator()
+    {
+        return new DataStoreViewIterator();
+    }
+}
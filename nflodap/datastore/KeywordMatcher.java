@@ -0,0 +1,301 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class finds every occurrence of a fixed set of keywords in a piece of
+   text in a single pass. Play descriptions are classified by the words they
+   contain, and searching for each word with indexOf() scans the description
+   again for every one. This instead compiles the keywords into an
+   Aho-Corasick automaton: a trie of the keywords, where each state also knows
+   where to go on a mismatch, so the text is read once, one character at a
+   time, no matter how many keywords there are.
+
+   The positions found are kept in a Matches object, which then answers the
+   same questions as indexOf() on the original text for any of the keywords.
+   The matcher itself never changes once built, so one can be shared between
+   threads, but each thread needs its own Matches.
+
+   NOTE: Keywords must be plain ASCII. Any other character in the text can't
+   be part of a keyword, so they all share one column of the transition table
+   NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This class is deliberately restricted to the
+   package */
+final class KeywordMatcher
+{
+    private String[] _keywords;
+    private HashMap<String, Integer> _keywordIds;
+
+    /* Characters are mapped to classes, one for each distinct character in
+       the keywords and zero for everything else, to keep the table small */
+    private int[] _charClasses;
+    private int _classCount;
+
+    // Next state, indexed by the state times the class count plus the class
+    private int[] _transitions;
+    // Keywords ending at each state, including those ending its suffixes
+    private int[][] _outputs;
+
+    // Positions of the keywords found in one piece of text
+    static final class Matches
+    {
+        private KeywordMatcher _matcher;
+        private int[][] _positions; // Starts of each keyword, in order
+        private int[] _counts;
+
+        private Matches(KeywordMatcher matcher)
+        {
+            _matcher = matcher;
+            _positions = new int[matcher._keywords.length][];
+            _counts = new int[matcher._keywords.length];
+            int index;
+            for (index = 0; index < _positions.length; index++)
+                _positions[index] = new int[4];
+        }
+
+        private void clear()
+        {
+            Arrays.fill(_counts, 0);
+        }
+
+        private void add(int keyword, int position)
+        {
+            if (_counts[keyword] == _positions[keyword].length)
+                _positions[keyword] = Arrays.copyOf(_positions[keyword],
+                                                    _counts[keyword] * 2);
+            _positions[keyword][_counts[keyword]] = position;
+            _counts[keyword]++;
+        }
+
+        /* Returns the position of the first occurrence of the keyword, or -1
+           if it isn't there, like String.indexOf() */
+        int indexOf(String keyword)
+        {
+            return indexOf(keyword, 0);
+        }
+
+        /* Returns the position of the first occurrence of the keyword starting
+           at or after the passed position, or -1 if none, like
+           String.indexOf() */
+        int indexOf(String keyword, int from)
+        {
+            int id = _matcher.getId(keyword);
+            int index;
+            for (index = 0; index < _counts[id]; index++)
+                if (_positions[id][index] >= from)
+                    return _positions[id][index];
+            return -1;
+        }
+    }
+
+    // Constructor. Compiles the passed keywords
+    KeywordMatcher(String... keywords)
+    {
+        _keywords = keywords.clone();
+        _keywordIds = new HashMap<String, Integer>();
+        _charClasses = new int[128];
+        _classCount = 1; // Class zero is every character in no keyword
+        int keyword;
+        for (keyword = 0; keyword < _keywords.length; keyword++) {
+            if (_keywords[keyword].isEmpty() ||
+                _keywordIds.containsKey(_keywords[keyword]))
+                throw new IllegalArgumentException("Keyword '" + _keywords[keyword] + "' empty or repeated");
+            _keywordIds.put(_keywords[keyword], keyword);
+            int index;
+            for (index = 0; index < _keywords[keyword].length(); index++) {
+                char letter = _keywords[keyword].charAt(index);
+                if (letter >= _charClasses.length)
+                    throw new IllegalArgumentException("Keyword '" + _keywords[keyword] + "' not ASCII");
+                if (_charClasses[letter] == 0) {
+                    _charClasses[letter] = _classCount;
+                    _classCount++;
+                }
+            } // For each character of the keyword
+        } // For each keyword
+        buildAutomaton();
+    }
+
+    /* Builds the transitions and outputs. First the keywords are put into a
+       trie, with missing transitions left as -1. Then the states are visited
+       breadth first, so shorter prefixes are done first. A missing transition
+       goes wherever the state's failure state, the longest proper suffix of
+       its prefix in the trie, goes on the same character, and a state's
+       outputs include those of its failure state */
+    private void buildAutomaton()
+    {
+        ArrayList<int[]> transitions = new ArrayList<int[]>();
+        ArrayList<int[]> outputs = new ArrayList<int[]>();
+        transitions.add(newStateTransitions());
+        outputs.add(new int[0]);
+        int keyword;
+        for (keyword = 0; keyword < _keywords.length; keyword++) {
+            int state = 0;
+            int index;
+            for (index = 0; index < _keywords[keyword].length(); index++) {
+                int charClass = _charClasses[_keywords[keyword].charAt(index)];
+                if (transitions.get(state)[charClass] < 0) {
+                    transitions.get(state)[charClass] = transitions.size();
+                    transitions.add(newStateTransitions());
+                    outputs.add(new int[0]);
+                }
+                state = transitions.get(state)[charClass];
+            }
+            outputs.set(state, new int[] { keyword });
+        } // For each keyword
+
+        int[] failures = new int[transitions.size()];
+        LinkedList<Integer> pending = new LinkedList<Integer>();
+        int charClass;
+        for (charClass = 0; charClass < _classCount; charClass++) {
+            int next = transitions.get(0)[charClass];
+            if (next < 0)
+                transitions.get(0)[charClass] = 0;
+            else {
+                failures[next] = 0;
+                pending.add(next);
+            }
+        } // For each transition from the root
+        while (!pending.isEmpty()) {
+            int state = pending.removeFirst();
+            for (charClass = 0; charClass < _classCount; charClass++) {
+                int next = transitions.get(state)[charClass];
+                int failureNext = transitions.get(failures[state])[charClass];
+                if (next < 0)
+                    transitions.get(state)[charClass] = failureNext;
+                else {
+                    failures[next] = failureNext;
+                    int[] own = outputs.get(next);
+                    int[] inherited = outputs.get(failureNext);
+                    int[] combined = Arrays.copyOf(own, own.length + inherited.length);
+                    System.arraycopy(inherited, 0, combined, own.length,
+                                     inherited.length);
+                    outputs.set(next, combined);
+                    pending.add(next);
+                }
+            } // For each character class
+        } // While states to process
+
+        _transitions = new int[transitions.size() * _classCount];
+        _outputs = new int[transitions.size()][];
+        int state;
+        for (state = 0; state < transitions.size(); state++) {
+            System.arraycopy(transitions.get(state), 0, _transitions,
+                             state * _classCount, _classCount);
+            _outputs[state] = outputs.get(state);
+        }
+    }
+
+    private int[] newStateTransitions()
+    {
+        int[] result = new int[_classCount];
+        Arrays.fill(result, -1);
+        return result;
+    }
+
+    // Returns the ID of a keyword, which must be one of those compiled
+    private int getId(String keyword)
+    {
+        Integer id = _keywordIds.get(keyword);
+        if (id == null)
+            throw new IllegalArgumentException("Keyword '" + keyword + "' not compiled");
+        return id;
+    }
+
+    // Returns a new, empty set of matches for use with this matcher
+    Matches newMatches()
+    {
+        return new Matches(this);
+    }
+
+    // Finds every keyword in the text, replacing the contents of the matches
+    void match(String text, Matches matches)
+    {
+        if (matches._matcher != this)
+            throw new IllegalArgumentException();
+        matches.clear();
+        int state = 0;
+        int index;
+        for (index = 0; index < text.length(); index++) {
+            char letter = text.charAt(index);
+            int charClass = 0;
+            if (letter < _charClasses.length)
+                charClass = _charClasses[letter];
+            state = _transitions[(state * _classCount) + charClass];
+            int[] found = _outputs[state];
+            int output;
+            for (output = 0; output < found.length; output++)
+                matches.add(found[output],
+                            index - _keywords[found[output]].length() + 1);
+        } // For each character of the text
+    }
+
+    public String toString()
+    {
+        return "Keyword matcher: " + Arrays.toString(_keywords);
+    }
+
+    /* Checks every keyword at every starting position against indexOf() on
+       the text itself. The keywords overlap, so one can end inside another
+       or share its start, and some sit at the very start or end of the
+       text */
+    public static void main(String[] args)
+    {
+        String[] keywords = { " pass ", " passed ", "FUMBLE", "FUMBLES",
+                              "Start", "end.", "ss" };
+        KeywordMatcher matcher = new KeywordMatcher(keywords);
+        System.out.println(matcher);
+        String[] texts = { "Start of a pass passed  pass then FUMBLES, FUMBLE at the end.",
+                           " pass passed FUMBLEFUMBLES end.",
+                           "FUMBLES",
+                           "Startend.",
+                           "no keywords here",
+                           "" };
+        Matches matches = matcher.newMatches();
+        boolean allMatch = true;
+        int text;
+        for (text = 0; text < texts.length; text++) {
+            matcher.match(texts[text], matches);
+            boolean textMatch = true;
+            int keyword;
+            for (keyword = 0; keyword < keywords.length; keyword++) {
+                if (matches.indexOf(keywords[keyword]) != texts[text].indexOf(keywords[keyword]))
+                    textMatch = false;
+                int from;
+                for (from = -1; from <= texts[text].length() + 1; from++)
+                    if (matches.indexOf(keywords[keyword], from) !=
+                        texts[text].indexOf(keywords[keyword], from))
+                        textMatch = false;
+            } // For each keyword
+            System.out.println("'" + texts[text] + "' matches:" + textMatch);
+            allMatch &= textMatch;
+        } // For each text
+
+        // Matches from an earlier text must not carry over
+        matcher.match("FUMBLES", matches);
+        matcher.match("pass", matches);
+        allMatch &= (matches.indexOf("FUMBLE") == -1);
+        allMatch &= (matches.indexOf("FUMBLES") == -1);
+        System.out.println("All keywords match:" + allMatch);
+    }
+} // class KeywordMatcher
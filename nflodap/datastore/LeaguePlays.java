@@ -0,0 +1,74 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class holds the plays of every team for a range of seasons, loaded
+   once by PlayLoader.loadLeague(). Loading plays normally selects the wanted
+   teams while reading the files, so changing the teams means reading them
+   all again. Here the teams of every play are kept, with a bitmap of the
+   plays of each pair of teams, so the plays for any teams can be selected
+   into a new data store straight from memory.
+
+   The data store for a selection is identical to loading the same teams from
+   the files. In particular, plays are numbered and sacks assigned pass play
+   types by selection, since both depend on which plays are selected.
+
+   WARNING: This holds every play of every team, roughly 16 bytes per play.
+   That is a few megabytes per season, far more than a typical selection */
+public final class LeaguePlays {
+
+    private PlayLoader _loader; // Settings of data stores created
+    private ArrayList<PlaySnapshot> _seasons; // In load order
+
+    // Constructor. Only PlayLoader creates these
+    LeaguePlays(PlayLoader loader, ArrayList<PlaySnapshot> seasons)
+    {
+        _loader = loader;
+        _seasons = seasons;
+    }
+
+    /* Creates a data store with the plays of the wanted teams. Throws an
+       exception if there are none, since the teams were likely specified
+       incorrectly */
+    public DataStore selectPlays(NFLqualityControl wantedMatchups)
+    {
+        return _loader.selectPlays(wantedMatchups, _seasons);
+    }
+
+    // Returns the number of plays held, for every team
+    public int size()
+    {
+        int result = 0;
+        Iterator<PlaySnapshot> seasonPtr = _seasons.iterator();
+        while (seasonPtr.hasNext())
+            result += seasonPtr.next().size();
+        return result;
+    }
+
+    public String toString()
+    {
+        return "League plays: " + _seasons.size() + " seasons, " + size() + " plays";
+    }
+} // class LeaguePlays
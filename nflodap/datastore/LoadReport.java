@@ -0,0 +1,192 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class accounts for every line of one season data file read by the
+   loader. The files are dirty: some lines are missing fields, some have
+   descriptions that don't parse, and many describe things that aren't plays
+   at all. Printing each of these as it is found floods the console and
+   serializes the loading threads on it, so the loader records them here
+   instead. Each problem is counted by category, and the first few offending
+   lines are kept as a sample, in file order, so they can be found without
+   the noise.
+
+   Lines that are deliberately skipped, such as plays for other teams, are
+   counted too, along with the plays and sacks loaded, so the counts of a
+   report add up to the lines of the file.
+
+   Seasons loaded from a snapshot never see the lines of the file, so their
+   reports only have the plays and sacks. Problems were reported when the
+   snapshot was written */
+public final class LoadReport {
+
+    // Problems with lines of a data file, each of which loses a play
+    public static enum Problem { IMPROPER_FORMAT, DESCRIPTION_ERROR,
+            UNKNOWN_PLAY_TYPE };
+
+    // Reasons lines of a data file are deliberately not loaded
+    public static enum Skip { NON_DOWN, OTHER_TEAMS, NON_PLAY };
+
+    // Most offending lines kept in the sample
+    private static final int _maximumSamples = 20;
+
+    private int _seasonYear;
+    private boolean _fromSnapshot;
+    private int _lines; // Lines of the file read, not counting the header
+    private int _plays;
+    private int _sacks;
+    private EnumMap<Problem, Integer> _problems;
+    private EnumMap<Skip, Integer> _skipped;
+    private ArrayList<String> _samples;
+
+    // Constructor, for an empty report for a season
+    LoadReport(int seasonYear)
+    {
+        _seasonYear = seasonYear;
+        _fromSnapshot = false;
+        _lines = 0;
+        _plays = 0;
+        _sacks = 0;
+        _problems = new EnumMap<Problem, Integer>(Problem.class);
+        for (Problem problem : Problem.values())
+            _problems.put(problem, 0);
+        _skipped = new EnumMap<Skip, Integer>(Skip.class);
+        for (Skip skip : Skip.values())
+            _skipped.put(skip, 0);
+        _samples = new ArrayList<String>();
+    }
+
+    // Records that a line was read
+    void countLine()
+    {
+        _lines++;
+    }
+
+    // Records a problem with a line, with the text to show for it
+    void addProblem(Problem problem, String text)
+    {
+        _problems.put(problem, _problems.get(problem) + 1);
+        if (_samples.size() < _maximumSamples)
+            _samples.add(problem + ": " + text);
+    }
+
+    // Records that a line was skipped
+    void addSkip(Skip skip)
+    {
+        _skipped.put(skip, _skipped.get(skip) + 1);
+    }
+
+    // Records the plays and sacks loaded
+    void addTotals(int plays, int sacks)
+    {
+        _plays += plays;
+        _sacks += sacks;
+    }
+
+    // Records that the season was loaded from a snapshot
+    void setFromSnapshot()
+    {
+        _fromSnapshot = true;
+    }
+
+    /* Adds the counts of another report to this one. Used to combine the
+       reports of parts of a file loaded seperately, in file order, so the
+       result is the report of loading the file at once */
+    void add(LoadReport other)
+    {
+        _fromSnapshot |= other._fromSnapshot;
+        _lines += other._lines;
+        _plays += other._plays;
+        _sacks += other._sacks;
+        for (Problem problem : Problem.values())
+            _problems.put(problem, _problems.get(problem) + other._problems.get(problem));
+        for (Skip skip : Skip.values())
+            _skipped.put(skip, _skipped.get(skip) + other._skipped.get(skip));
+        Iterator<String> samplePtr = other._samples.iterator();
+        while (samplePtr.hasNext() && (_samples.size() < _maximumSamples))
+            _samples.add(samplePtr.next());
+    }
+
+    // Getter methods
+    public int getSeasonYear()
+    {
+        return _seasonYear;
+    }
+    public boolean isFromSnapshot()
+    {
+        return _fromSnapshot;
+    }
+    public int getLines()
+    {
+        return _lines;
+    }
+    public int getPlays()
+    {
+        return _plays;
+    }
+    public int getSacks()
+    {
+        return _sacks;
+    }
+    public int getProblems(Problem problem)
+    {
+        return _problems.get(problem);
+    }
+    public int getSkipped(Skip skip)
+    {
+        return _skipped.get(skip);
+    }
+
+    // Returns the total number of lines with problems
+    public int getProblems()
+    {
+        int result = 0;
+        Iterator<Integer> countPtr = _problems.values().iterator();
+        while (countPtr.hasNext())
+            result += countPtr.next();
+        return result;
+    }
+
+    // Returns the sample of lines with problems, in file order
+    public List<String> getSamples()
+    {
+        return Collections.unmodifiableList(_samples);
+    }
+
+    public String toString()
+    {
+        StringBuilder output = new StringBuilder();
+        output.append("Season " + _seasonYear);
+        if (_fromSnapshot)
+            output.append(" (snapshot)");
+        output.append(": lines " + _lines + " plays " + _plays + " sacks "
+                      + _sacks + " skipped " + _skipped + " problems "
+                      + _problems);
+        Iterator<String> samplePtr = _samples.iterator();
+        while (samplePtr.hasNext())
+            output.append("\n    " + samplePtr.next());
+        return output.toString();
+    }
+} // class LoadReport
@@ -0,0 +1,275 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class encodes a single NFL play into one primitive long. Every value a
+   play carries fits in well under 64 bits: the category ordinals need a few
+   bits each, and every numeric value in the data falls between -256 and 255.
+   Storing plays this way removes the per-play object entirely, so a list of
+   plays becomes a long array that can be copied in bulk.
+
+   The methods mirror the getters of SinglePlay, so code that reads values
+   from plays by category or numeric field can read them from the encoded
+   form directly without building an object.
+
+   The reference ID does NOT fit in the encoding along with everything else.
+   Code that needs it must store it seperately, and pass it back in when
+   decoding a play.
+
+   Layout of the bits, starting from the least significant:
+   0-3   Play type ordinal
+   4-5   Down ordinal
+   6-8   Distance needed category ordinal
+   9-10  Field location category ordinal
+   11    Time remaining category ordinal
+   12-14 Score differential category ordinal
+   15    Turnover flag
+   16-24 Distance needed
+   25-33 Field location (yards to opponent's goal line)
+   34-42 Time remaining (minutes)
+   43-51 Score differential
+   52-60 Distance gained
+   61-63 Unused */
+public final class PackedPlay {
+
+    // Positions and widths of the fields within the encoded value
+    private static final int _playTypeShift = 0;
+    private static final int _downShift = 4;
+    private static final int _distanceNeededCategoryShift = 6;
+    private static final int _fieldLocationCategoryShift = 9;
+    private static final int _timeRemainingCategoryShift = 11;
+    private static final int _scoreDifferentialCategoryShift = 12;
+    private static final int _turnedOverShift = 15;
+    private static final int _distanceNeededShift = 16;
+    private static final int _fieldLocationShift = 25;
+    private static final int _timeRemainingShift = 34;
+    private static final int _scoreDifferentialShift = 43;
+    private static final int _distanceGainedShift = 52;
+
+    private static final int _numericBits = 9; // Width of numeric fields
+    private static final int _numericMinimum = -(1 << (_numericBits - 1));
+    private static final int _numericMaximum = (1 << (_numericBits - 1)) - 1;
+
+    /* Enum values cached for converting ordinals back into categories.
+       Calling values() copies the array every time, so do it once */
+    private static final SinglePlay.PlayType[] _playTypeValues = SinglePlay.PlayType.values();
+    private static final SinglePlay.DownNumber[] _downValues = SinglePlay.DownNumber.values();
+    private static final SinglePlay.DistanceNeeded[] _distanceNeededValues = SinglePlay.DistanceNeeded.values();
+    private static final SinglePlay.FieldLocation[] _fieldLocationValues = SinglePlay.FieldLocation.values();
+    private static final SinglePlay.TimeRemaining[] _timeRemainingValues = SinglePlay.TimeRemaining.values();
+    private static final SinglePlay.ScoreDifferential[] _scoreDifferentialValues = SinglePlay.ScoreDifferential.values();
+
+    // Class only has static methods, so don't allow construction
+    private PackedPlay()
+    {
+    }
+
+    // Encode a play into a single value
+    public static long encode(SinglePlay play)
+    {
+        long result = 0;
+        result |= ((long)play.getPlayType().ordinal()) << _playTypeShift;
+        result |= ((long)play.getDown().ordinal()) << _downShift;
+        result |= ((long)play.getDistanceNeededCategory().ordinal()) << _distanceNeededCategoryShift;
+        result |= ((long)play.getFieldLocationCategory().ordinal()) << _fieldLocationCategoryShift;
+        result |= ((long)play.getTimeRemainingCategory().ordinal()) << _timeRemainingCategoryShift;
+        result |= ((long)play.getScoreDifferentialCategory().ordinal()) << _scoreDifferentialCategoryShift;
+        if (play.getTurnedOver())
+            result |= 1L << _turnedOverShift;
+        result |= encodeNumeric(play.getDistanceNeeded(), _distanceNeededShift);
+        result |= encodeNumeric(play.getFieldLocation(), _fieldLocationShift);
+        result |= encodeNumeric(play.getTimeRemaining(), _timeRemainingShift);
+        result |= encodeNumeric(play.getScoreDifferential(), _scoreDifferentialShift);
+        result |= encodeNumeric(play.getDistanceGained(), _distanceGainedShift);
+        return result;
+    }
+
+    /* Encodes a numeric value into its position within the encoded play.
+       A value that doesn't fit indicates corrupt data, since no NFL play
+       comes close to the limits */
+    private static long encodeNumeric(int value, int shift)
+    {
+        if ((value < _numericMinimum) || (value > _numericMaximum))
+            throw new IllegalArgumentException("Play value " + value
+                                               + " can not be packed");
+        return (((long)value) & ((1L << _numericBits) - 1)) << shift;
+    }
+
+    // Extracts a numeric value from the encoded play, restoring its sign
+    private static int decodeNumeric(long packed, int shift)
+    {
+        return (int)((packed << (64 - shift - _numericBits)) >> (64 - _numericBits));
+    }
+
+    // Extracts a category ordinal from the encoded play
+    private static int decodeOrdinal(long packed, int shift, int bits)
+    {
+        return (int)((packed >>> shift) & ((1L << bits) - 1));
+    }
+
+    // Decode a play back into an object, given its reference ID
+    public static SinglePlay decode(long packed, int refId)
+    {
+        /* The score differential is stored instead of the two scores, which
+           the play constructor accepts as the offense score with a zero
+           defense score */
+        return new SinglePlay(refId, getPlayType(packed), getDown(packed),
+                              decodeNumeric(packed, _distanceNeededShift),
+                              decodeNumeric(packed, _fieldLocationShift),
+                              decodeNumeric(packed, _timeRemainingShift),
+                              decodeNumeric(packed, _scoreDifferentialShift), 0,
+                              decodeNumeric(packed, _distanceGainedShift),
+                              getTurnedOver(packed));
+    }
+
+    // Getter methods, matching those of SinglePlay
+    public static SinglePlay.PlayType getPlayType(long packed)
+    { return _playTypeValues[decodeOrdinal(packed, _playTypeShift, 4)]; }
+
+    public static SinglePlay.DownNumber getDown(long packed)
+    { return _downValues[decodeOrdinal(packed, _downShift, 2)]; }
+
+    public static boolean getTurnedOver(long packed)
+    { return (((packed >>> _turnedOverShift) & 1L) != 0); }
+
+    public static int getDistanceGained(long packed)
+    { return decodeNumeric(packed, _distanceGainedShift); }
+
+    /* Returns the ordinal of the category value of the play given the
+       category, or -1 if plays do not have the category. This allows callers
+       to compare plays against a category value without converting it */
+    public static int getOrdinal(long packed, Class<?> type)
+    {
+        // NOTE: This only works because every category has a unique type
+        if (type.isAssignableFrom(SinglePlay.PlayType.class))
+            return decodeOrdinal(packed, _playTypeShift, 4);
+        else if (type.isAssignableFrom(SinglePlay.DownNumber.class))
+            return decodeOrdinal(packed, _downShift, 2);
+        else if (type.isAssignableFrom(SinglePlay.DistanceNeeded.class))
+            return decodeOrdinal(packed, _distanceNeededCategoryShift, 3);
+        else if (type.isAssignableFrom(SinglePlay.FieldLocation.class))
+            return decodeOrdinal(packed, _fieldLocationCategoryShift, 2);
+        else if (type.isAssignableFrom(SinglePlay.TimeRemaining.class))
+            return decodeOrdinal(packed, _timeRemainingCategoryShift, 1);
+        else if (type.isAssignableFrom(SinglePlay.ScoreDifferential.class))
+            return decodeOrdinal(packed, _scoreDifferentialCategoryShift, 3);
+        else
+            return -1; // Not a supported type
+    }
+
+    /* Get a category value of the encoded play given the category. Matches
+       SinglePlay.getValue() */
+    public static <V> V getValue(long packed, Class<V> type)
+    {
+        V result = null;
+        if (type.isAssignableFrom(SinglePlay.PlayType.class))
+            result = type.cast(getPlayType(packed));
+        else if (type.isAssignableFrom(SinglePlay.DownNumber.class))
+            result = type.cast(getDown(packed));
+        else if (type.isAssignableFrom(SinglePlay.DistanceNeeded.class))
+            result = type.cast(_distanceNeededValues[getOrdinal(packed, type)]);
+        else if (type.isAssignableFrom(SinglePlay.FieldLocation.class))
+            result = type.cast(_fieldLocationValues[getOrdinal(packed, type)]);
+        else if (type.isAssignableFrom(SinglePlay.TimeRemaining.class))
+            result = type.cast(_timeRemainingValues[getOrdinal(packed, type)]);
+        else if (type.isAssignableFrom(SinglePlay.ScoreDifferential.class))
+            result = type.cast(_scoreDifferentialValues[getOrdinal(packed, type)]);
+        // else not a supported type, return null
+        return result;
+    }
+
+    /* Reads an integer value out of the encoded play given the field.
+       Matches SinglePlay.getIntValue() */
+    public static int getIntValue(long packed, SinglePlay.NumericFields field)
+    {
+        int result = -1000; // Chosen as an obviously wrong value
+        switch (field) {
+        case DISTANCE_NEEDED:
+            result = decodeNumeric(packed, _distanceNeededShift);
+            break;
+        case FIELD_LOCATION:
+            result = decodeNumeric(packed, _fieldLocationShift);
+            break;
+        case TIME_REMAINING:
+            result = decodeNumeric(packed, _timeRemainingShift);
+            break;
+        case SCORE_DIFFERENTIAL:
+            result = decodeNumeric(packed, _scoreDifferentialShift);
+            break;
+        case DISTANCE_GAINED:
+            result = decodeNumeric(packed, _distanceGainedShift);
+            break;
+        case PLAY_COUNT:
+            result = 1;
+            break;
+        case TURNOVER_COUNT:
+            if (getTurnedOver(packed))
+                result = 1;
+            else
+                result = 0;
+            break;
+        default:
+            // Do nothing
+        }
+        return result;
+    }
+
+    /* Test program. Encodes plays with extreme values and confirms every
+       value reads back the same as the original */
+    public static void main(String[] args)
+    {
+        ArrayList<SinglePlay> testList = new ArrayList<SinglePlay>();
+        testList.add(new SinglePlay(1, SinglePlay.PlayType.RUN_LEFT,
+                                    SinglePlay.DownNumber.FIRST_DOWN, 10, 50,
+                                    45, 0, 0, 11, false));
+        testList.add(new SinglePlay(2, SinglePlay.PlayType.PUNT,
+                                    SinglePlay.DownNumber.FOURTH_DOWN, 99, 99,
+                                    0, 0, 59, -99, true));
+        testList.add(new SinglePlay(3, SinglePlay.PlayType.PASS_DEEP_LEFT,
+                                    SinglePlay.DownNumber.THIRD_DOWN, 0, 1,
+                                    31, 62, 3, 109, false));
+        boolean allMatch = true;
+        for (SinglePlay play : testList) {
+            long packed = encode(play);
+            SinglePlay result = decode(packed, play.getRefId());
+            for (SinglePlay.NumericFields field : SinglePlay.NumericFields.values())
+                if ((play.getIntValue(field) != getIntValue(packed, field)) ||
+                    (play.getIntValue(field) != result.getIntValue(field)))
+                    allMatch = false;
+            Class<?> [] categories = { SinglePlay.PlayType.class,
+                                       SinglePlay.DownNumber.class,
+                                       SinglePlay.DistanceNeeded.class,
+                                       SinglePlay.FieldLocation.class,
+                                       SinglePlay.TimeRemaining.class,
+                                       SinglePlay.ScoreDifferential.class };
+            for (Class<?> category : categories)
+                if ((play.getValue(category) != getValue(packed, category)) ||
+                    (play.getValue(category) != result.getValue(category)))
+                    allMatch = false;
+            System.out.println(Long.toHexString(packed) + ":" + result);
+        } // For plays to test
+        System.out.println("All values match:" + allMatch);
+    }
+}
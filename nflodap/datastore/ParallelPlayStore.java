@@ -0,0 +1,368 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/* This class runs operations on the data store tree in parallel. The tree is
+   split a few levels down into parts, which are disjoint and together hold
+   every play. Each part is processed as its own fork/join task into its own
+   partial result, so tasks never share anything they write. The partial
+   results are then merged pairwise in the order of the parts, which gives
+   exactly the output of processing the tree sequentially.
+
+   NOTE: Splitting below a node for the pivot dimension loses the shortcut
+   of rolling up its entries directly; the leaves split their plays by value
+   instead. Both read every play once, so the cost is the same.
+
+   Views run in parallel the same way. Their parts are the parts of the tree
+   they read, split further, or ranges of positions in the bitmap index, and
+   each task collects its plays into its own partial result. See
+   PlayCollector.
+
+   WARNING: The summary measures of the tree are built lazily, the first time
+   they are read, so two threads reading them at once could both build them.
+   Rolling up a list leaf into another reads the measures of the source leaf,
+   so tasks can read them. To rule this out, every read-only operation builds
+   the measures of the whole tree on the calling thread before forking any
+   tasks. Slices clear the measures of the parts they change instead, and
+   each part belongs to a single task */
+final class ParallelPlayStore {
+
+    /* Number of levels down the tree to split. Two levels of the nested map
+       tree gives up to twenty parts, enough to keep a normal number of
+       processors busy. The flat cube splits into its cells at any level */
+    private static final int _splitLevels = 2;
+
+    // Not meant to be instantiated
+    private ParallelPlayStore()
+    {
+    }
+
+    // Returns the pool that runs the tasks
+    private static ForkJoinPool getPool()
+    {
+        return ForkJoinPool.commonPool();
+    }
+
+    /* Returns the parts of the tree for read-only tasks. The measures of the
+       tree are built first, see above */
+    private static ArrayList<PlayStoreTree> split(PlayStoreTree data)
+    {
+        data.getAggregate();
+        ArrayList<PlayStoreTree> parts = new ArrayList<PlayStoreTree>();
+        data.split(parts, _splitLevels, false);
+        return parts;
+    }
+
+    /* Returns the passed parts of a tree split further for read-only tasks,
+       in the same order. The measures of the parts are built first */
+    static ArrayList<PlayStoreTree> split(ArrayList<PlayStoreTree> parts)
+    {
+        ArrayList<PlayStoreTree> result = new ArrayList<PlayStoreTree>();
+        Iterator<PlayStoreTree> partPtr = parts.iterator();
+        while (partPtr.hasNext())
+            result.addAll(split(partPtr.next()));
+        return result;
+    }
+
+    // Appends the play lists of the second pivot result to the first
+    private static <L extends Enum<L>> void mergePivot(EnumMap<L, ArrayList<SinglePlay>> first,
+                                                       EnumMap<L, ArrayList<SinglePlay>> second)
+    {
+        Iterator<Map.Entry<L, ArrayList<SinglePlay>>> mapPtr = second.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<L, ArrayList<SinglePlay>> mapEntry = mapPtr.next();
+            ArrayList<SinglePlay> wantList = first.get(mapEntry.getKey());
+            if (wantList == null)
+                first.put(mapEntry.getKey(), mapEntry.getValue());
+            else
+                wantList.addAll(mapEntry.getValue());
+        } // While entries to merge
+    }
+
+    // Appends the play lists of the second two level pivot result to the first
+    private static <L extends Enum<L>, M extends Enum<M>> void mergeDoublePivot(EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> first,
+                                                                          EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> second)
+    {
+        Iterator<Map.Entry<L, EnumMap<M, ArrayList<SinglePlay>>>> mapPtr = second.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<L, EnumMap<M, ArrayList<SinglePlay>>> mapEntry = mapPtr.next();
+            EnumMap<M, ArrayList<SinglePlay>> wantMap = first.get(mapEntry.getKey());
+            if (wantMap == null)
+                first.put(mapEntry.getKey(), mapEntry.getValue());
+            else
+                mergePivot(wantMap, mapEntry.getValue());
+        } // While entries to merge
+    }
+
+    /* Task to pivot a range of the parts by one enum index. Ranges of more than
+       one part are halved until each task has a single part */
+    private static final class PivotTask<L extends Enum<L>> extends RecursiveTask<EnumMap<L, ArrayList<SinglePlay>>>
+    {
+        // If the fields in this object change, increment this number by 1
+        private static final long serialVersionUID = 1L;
+
+        private ArrayList<PlayStoreTree> _parts;
+        private int _start;
+        private int _end; // Exclusive
+        private Class<L> _enumType;
+
+        public PivotTask(ArrayList<PlayStoreTree> parts, int start, int end,
+                         Class<L> enumType)
+        {
+            _parts = parts;
+            _start = start;
+            _end = end;
+            _enumType = enumType;
+        }
+
+        protected EnumMap<L, ArrayList<SinglePlay>> compute()
+        {
+            if ((_end - _start) <= 1) {
+                EnumMap<L, ArrayList<SinglePlay>> result = new EnumMap<L, ArrayList<SinglePlay>>(_enumType);
+                if (_end > _start)
+                    _parts.get(_start).pivot(result, _enumType);
+                return result;
+            }
+            int middle = (_start + _end) / 2;
+            PivotTask<L> firstTask = new PivotTask<L>(_parts, _start, middle, _enumType);
+            PivotTask<L> secondTask = new PivotTask<L>(_parts, middle, _end, _enumType);
+            firstTask.fork();
+            EnumMap<L, ArrayList<SinglePlay>> second = secondTask.compute();
+            EnumMap<L, ArrayList<SinglePlay>> first = firstTask.join();
+            mergePivot(first, second);
+            return first;
+        }
+    }
+
+    // Task to pivot a range of the parts by two enum indexes
+    private static final class DoublePivotTask<L extends Enum<L>, M extends Enum<M>> extends RecursiveTask<EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>>>
+    {
+        // If the fields in this object change, increment this number by 1
+        private static final long serialVersionUID = 1L;
+
+        private ArrayList<PlayStoreTree> _parts;
+        private int _start;
+        private int _end; // Exclusive
+        private Class<L> _firstEnumType;
+        private Class<M> _secondEnumType;
+
+        public DoublePivotTask(ArrayList<PlayStoreTree> parts, int start, int end,
+                               Class<L> firstEnumType, Class<M> secondEnumType)
+        {
+            _parts = parts;
+            _start = start;
+            _end = end;
+            _firstEnumType = firstEnumType;
+            _secondEnumType = secondEnumType;
+        }
+
+        protected EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> compute()
+        {
+            if ((_end - _start) <= 1) {
+                EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> result = new EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>>(_firstEnumType);
+                if (_end > _start)
+                    _parts.get(_start).pivot(result, _firstEnumType, _secondEnumType);
+                return result;
+            }
+            int middle = (_start + _end) / 2;
+            DoublePivotTask<L, M> firstTask = new DoublePivotTask<L, M>(_parts, _start, middle,
+                                                                        _firstEnumType, _secondEnumType);
+            DoublePivotTask<L, M> secondTask = new DoublePivotTask<L, M>(_parts, middle, _end,
+                                                                         _firstEnumType, _secondEnumType);
+            firstTask.fork();
+            EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> second = secondTask.compute();
+            EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> first = firstTask.join();
+            mergeDoublePivot(first, second);
+            return first;
+        }
+    }
+
+    /* Task to roll a range of the parts up into a new leaf. The second half is
+       rolled into the leaf of the first, which copies leaves of the same
+       format in bulk */
+    private static final class RollupTask extends RecursiveTask<PlayStoreTree>
+    {
+        // If the fields in this object change, increment this number by 1
+        private static final long serialVersionUID = 1L;
+
+        private ArrayList<PlayStoreTree> _parts;
+        private int _start;
+        private int _end; // Exclusive
+        private DataStore.LeafFormat _leafFormat;
+
+        public RollupTask(ArrayList<PlayStoreTree> parts, int start, int end,
+                          DataStore.LeafFormat leafFormat)
+        {
+            _parts = parts;
+            _start = start;
+            _end = end;
+            _leafFormat = leafFormat;
+        }
+
+        protected PlayStoreTree compute()
+        {
+            if ((_end - _start) <= 1) {
+                PlayStoreTree result = DataStore.newLeaf(_leafFormat);
+                if (_end > _start)
+                    _parts.get(_start).rollup(result);
+                return result;
+            }
+            int middle = (_start + _end) / 2;
+            RollupTask firstTask = new RollupTask(_parts, _start, middle, _leafFormat);
+            RollupTask secondTask = new RollupTask(_parts, middle, _end, _leafFormat);
+            firstTask.fork();
+            PlayStoreTree second = secondTask.compute();
+            PlayStoreTree first = firstTask.join();
+            second.rollup(first);
+            return first;
+        }
+    }
+
+    // Task to slice a range of the parts in place by a numeric field
+    private static final class SliceTask extends RecursiveAction
+    {
+        // If the fields in this object change, increment this number by 1
+        private static final long serialVersionUID = 1L;
+
+        private ArrayList<PlayStoreTree> _parts;
+        private int _start;
+        private int _end; // Exclusive
+        private SinglePlay.NumericFields _field;
+        private IntegerRange _wantRange;
+
+        public SliceTask(ArrayList<PlayStoreTree> parts, int start, int end,
+                         SinglePlay.NumericFields field, IntegerRange wantRange)
+        {
+            _parts = parts;
+            _start = start;
+            _end = end;
+            _field = field;
+            _wantRange = wantRange;
+        }
+
+        protected void compute()
+        {
+            if ((_end - _start) <= 1) {
+                if (_end > _start)
+                    _parts.get(_start).slice(_field, _wantRange);
+            }
+            else {
+                int middle = (_start + _end) / 2;
+                invokeAll(new SliceTask(_parts, _start, middle, _field, _wantRange),
+                          new SliceTask(_parts, middle, _end, _field, _wantRange));
+            }
+        }
+    }
+
+    /* Task to collect the plays of a range of the parts of a view into a
+       partial result */
+    private static final class CollectTask<R> extends RecursiveTask<R>
+    {
+        // If the fields in this object change, increment this number by 1
+        private static final long serialVersionUID = 1L;
+
+        private DataStoreView _view;
+        private int _start;
+        private int _end; // Exclusive
+        private PlayCollector<R> _collector;
+
+        public CollectTask(DataStoreView view, int start, int end,
+                           PlayCollector<R> collector)
+        {
+            _view = view;
+            _start = start;
+            _end = end;
+            _collector = collector;
+        }
+
+        protected R compute()
+        {
+            if ((_end - _start) <= 1) {
+                R result = _collector.newResult();
+                if (_end > _start)
+                    _view.visitPart(_start, _collector.newVisitor(result));
+                return result;
+            }
+            int middle = (_start + _end) / 2;
+            CollectTask<R> firstTask = new CollectTask<R>(_view, _start, middle, _collector);
+            CollectTask<R> secondTask = new CollectTask<R>(_view, middle, _end, _collector);
+            firstTask.fork();
+            R second = secondTask.compute();
+            R first = firstTask.join();
+            _collector.merge(first, second);
+            return first;
+        }
+    }
+
+    /* Collects the plays of a view into a result, each part of the view in
+       its own task. The view must have built its parts first */
+    public static <R> R collect(DataStoreView view, int partCount,
+                                PlayCollector<R> collector)
+    {
+        return getPool().invoke(new CollectTask<R>(view, 0, partCount, collector));
+    }
+
+    // Pivots the tree by one enum index into the passed map
+    public static <L extends Enum<L>> void pivot(PlayStoreTree data,
+                                                 EnumMap<L, ArrayList<SinglePlay>> result,
+                                                 Class<L> enumType)
+    {
+        ArrayList<PlayStoreTree> parts = split(data);
+        mergePivot(result, getPool().invoke(new PivotTask<L>(parts, 0, parts.size(),
+                                                             enumType)));
+    }
+
+    // Pivots the tree by two enum indexes into the passed map
+    public static <L extends Enum<L>, M extends Enum<M>> void pivot(PlayStoreTree data,
+                                                                    EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> result,
+                                                                    Class<L> firstEnumType,
+                                                                    Class<M> secondEnumType)
+    {
+        ArrayList<PlayStoreTree> parts = split(data);
+        mergeDoublePivot(result, getPool().invoke(new DoublePivotTask<L, M>(parts, 0, parts.size(),
+                                                                      firstEnumType,
+                                                                      secondEnumType)));
+    }
+
+    // Rolls the tree up into a new leaf of the wanted format, and returns it
+    public static PlayStoreTree rollup(PlayStoreTree data,
+                                       DataStore.LeafFormat leafFormat)
+    {
+        ArrayList<PlayStoreTree> parts = split(data);
+        return getPool().invoke(new RollupTask(parts, 0, parts.size(), leafFormat));
+    }
+
+    /* Removes all plays whose integer field value is outside the range. The
+       tree must be writable */
+    public static void slice(PlayStoreTree data, SinglePlay.NumericFields field,
+                             IntegerRange wantRange)
+    {
+        ArrayList<PlayStoreTree> parts = new ArrayList<PlayStoreTree>();
+        data.split(parts, _splitLevels, true);
+        getPool().invoke(new SliceTask(parts, 0, parts.size(), field, wantRange));
+        data.pruneEmpty();
+    }
+}
@@ -0,0 +1,436 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class holds summary measures over a set of plays: the play count, the
+   turnover count, and the sum, minimum, maximum, and a small histogram of the
+   distance gained. They are kept separately for each play type, since nearly
+   every graph of the results splits or filters plays by it. 
+
+   The tree of the data store keeps one of these for every node and leaf,
+   updated as plays are inserted. Graphs that only need these measures can
+   then get them for any grouping along the tree dimensions by merging the
+   summaries of the cells, without reading any plays.
+
+   NOTE: The histogram only counts plays without a turnover. The distance of a
+   play with a turnover is the return, which says nothing about the play */
+public final class PlayAggregate implements Cloneable
+{
+    /* Upper limits of the histogram buckets for distance gained. The first
+       bucket has everything up to its limit, each later one everything above
+       the limit of the one before it, and a final bucket holds everything
+       above the last limit */
+    private static final int [] _histogramLimits = { -10, -1, 0, 3, 6, 9, 19 };
+
+    private static final int _playTypeCount = SinglePlay.PlayType.values().length;
+
+    // Measures, indexed by the ordinal of the play type
+    private int [] _counts;
+    private int [] _turnovers;
+    private long [] _distanceSums;
+    private long [] _distanceSquareSums; // Needed for the deviation
+    private int [] _distanceMinimums;
+    private int [] _distanceMaximums;
+    private int [][] _histograms;
+
+    // Constructor, creates an aggregate over no plays
+    public PlayAggregate()
+    {
+        _counts = new int[_playTypeCount];
+        _turnovers = new int[_playTypeCount];
+        _distanceSums = new long[_playTypeCount];
+        _distanceSquareSums = new long[_playTypeCount];
+        _distanceMinimums = new int[_playTypeCount];
+        _distanceMaximums = new int[_playTypeCount];
+        _histograms = new int[_playTypeCount][_histogramLimits.length + 1];
+    }
+
+    // Clone method
+    public Object clone() throws CloneNotSupportedException
+    {
+        PlayAggregate newObject = new PlayAggregate();
+        newObject.merge(this);
+        return newObject;
+    }
+
+    // Returns the bucket of the histogram holding the passed distance
+    private static int getHistogramBucket(int distance)
+    {
+        int bucket = 0;
+        while ((bucket < _histogramLimits.length) &&
+               (distance > _histogramLimits[bucket]))
+            bucket++;
+        return bucket;
+    }
+
+    // Adds a play to the measures
+    public void addPlay(SinglePlay play)
+    {
+        int type = play.getPlayType().ordinal();
+        int distance = play.getDistanceGained();
+        if ((_counts[type] == 0) || (distance < _distanceMinimums[type]))
+            _distanceMinimums[type] = distance;
+        if ((_counts[type] == 0) || (distance > _distanceMaximums[type]))
+            _distanceMaximums[type] = distance;
+        _counts[type]++;
+        _distanceSums[type] += distance;
+        _distanceSquareSums[type] += (long)distance * distance;
+        if (play.getTurnedOver())
+            _turnovers[type]++;
+        else
+            _histograms[type][getHistogramBucket(distance)]++;
+    }
+
+    // Adds the measures of another set of plays to these ones
+    public void merge(PlayAggregate other)
+    {
+        int type;
+        for (type = 0; type < _playTypeCount; type++)
+            mergePlayType(other, type);
+    }
+
+    // Adds the measures of one play type from another set of plays
+    private void mergePlayType(PlayAggregate other, int type)
+    {
+        if (other._counts[type] == 0)
+            return; // Nothing to do!
+        if ((_counts[type] == 0) ||
+            (other._distanceMinimums[type] < _distanceMinimums[type]))
+            _distanceMinimums[type] = other._distanceMinimums[type];
+        if ((_counts[type] == 0) ||
+            (other._distanceMaximums[type] > _distanceMaximums[type]))
+            _distanceMaximums[type] = other._distanceMaximums[type];
+        _counts[type] += other._counts[type];
+        _turnovers[type] += other._turnovers[type];
+        _distanceSums[type] += other._distanceSums[type];
+        _distanceSquareSums[type] += other._distanceSquareSums[type];
+        int bucket;
+        for (bucket = 0; bucket < _histograms[type].length; bucket++)
+            _histograms[type][bucket] += other._histograms[type][bucket];
+    }
+
+    // Returns the measures for only the plays of the passed type
+    public PlayAggregate getPlayTypeAggregate(SinglePlay.PlayType playType)
+    {
+        PlayAggregate result = new PlayAggregate();
+        result.mergePlayType(this, playType.ordinal());
+        return result;
+    }
+
+    // Returns true if the measures cover no plays
+    public boolean empty()
+    {
+        return (getPlayCount() == 0);
+    }
+
+    // Returns the number of plays
+    public int getPlayCount()
+    {
+        int result = 0;
+        int type;
+        for (type = 0; type < _playTypeCount; type++)
+            result += _counts[type];
+        return result;
+    }
+
+    // Returns the number of plays of the passed type
+    public int getPlayCount(SinglePlay.PlayType playType)
+    {
+        return _counts[playType.ordinal()];
+    }
+
+    // Returns the number of plays with a turnover
+    public int getTurnoverCount()
+    {
+        int result = 0;
+        int type;
+        for (type = 0; type < _playTypeCount; type++)
+            result += _turnovers[type];
+        return result;
+    }
+
+    // Returns the number of plays of the passed type with a turnover
+    public int getTurnoverCount(SinglePlay.PlayType playType)
+    {
+        return _turnovers[playType.ordinal()];
+    }
+
+    /* Returns the value of a count field over the plays. Other numeric fields
+       don't have a total, so they cause an exception */
+    public int getCount(SinglePlay.NumericFields field)
+    {
+        if (field == SinglePlay.NumericFields.PLAY_COUNT)
+            return getPlayCount();
+        else if (field == SinglePlay.NumericFields.TURNOVER_COUNT)
+            return getTurnoverCount();
+        else
+            throw new IllegalArgumentException(field + " is not a count");
+    }
+
+    // Returns the total distance gained by the plays
+    public long getDistanceSum()
+    {
+        long result = 0;
+        int type;
+        for (type = 0; type < _playTypeCount; type++)
+            result += _distanceSums[type];
+        return result;
+    }
+
+    // Returns the average distance gained, zero if no plays
+    public double getDistanceAverage()
+    {
+        int count = getPlayCount();
+        if (count == 0)
+            return 0.0;
+        else
+            return (double)getDistanceSum() / count;
+    }
+
+    // Returns the standard deviation of the distance gained, zero if no plays
+    public double getDistanceDeviation()
+    {
+        int count = getPlayCount();
+        if (count == 0)
+            return 0.0;
+        long squareSum = 0;
+        int type;
+        for (type = 0; type < _playTypeCount; type++)
+            squareSum += _distanceSquareSums[type];
+        double average = getDistanceAverage();
+        double variance = ((double)squareSum / count) - (average * average);
+        // Rounding can make a zero variance slightly negative
+        if (variance < 0.0)
+            variance = 0.0;
+        return Math.sqrt(variance);
+    }
+
+    // Returns the range of distance gained by the plays, or null if no plays
+    public IntegerRange getDistanceRange()
+    {
+        IntegerRange result = null;
+        int type;
+        for (type = 0; type < _playTypeCount; type++)
+            if (_counts[type] > 0) {
+                if (result == null)
+                    result = new IntegerRange(_distanceMinimums[type],
+                                              _distanceMaximums[type]);
+                else {
+                    result.extendRange(_distanceMinimums[type]);
+                    result.extendRange(_distanceMaximums[type]);
+                }
+            } // Plays of this type exist
+        return result;
+    }
+
+    /* Returns the upper limits of the histogram buckets. The final bucket has
+       no limit, so there is one less limit than buckets */
+    public static int [] getHistogramLimits()
+    {
+        return _histogramLimits.clone();
+    }
+
+    // Returns the histogram of distance gained for plays without a turnover
+    public int [] getHistogram()
+    {
+        int [] result = new int[_histogramLimits.length + 1];
+        int type;
+        for (type = 0; type < _playTypeCount; type++) {
+            int bucket;
+            for (bucket = 0; bucket < result.length; bucket++)
+                result[bucket] += _histograms[type][bucket];
+        } // For each play type
+        return result;
+    }
+
+    /* Returns the histogram of distance gained for plays of the passed type
+       without a turnover */
+    public int [] getHistogram(SinglePlay.PlayType playType)
+    {
+        return _histograms[playType.ordinal()].clone();
+    }
+
+    // Returns the number of plays without a turnover that gained no yards
+    public int getNoGainCount()
+    {
+        int [] histogram = getHistogram();
+        int result = 0;
+        int bucket;
+        for (bucket = 0; (bucket < _histogramLimits.length) &&
+                 (_histogramLimits[bucket] <= 0); bucket++)
+            result += histogram[bucket];
+        return result;
+    }
+
+    public String toString()
+    {
+        return "plays:" + getPlayCount() + " turnovers:" + getTurnoverCount()
+            + " distance:" + getDistanceRange() + " histogram:"
+            + Arrays.toString(getHistogram());
+    }
+
+    /* Splits plays visited into measures by the values of an enum, one set
+       of measures for each value. Leaves of the tree use it when they must
+       read their plays to pivot */
+    static class PivotVisitor<L extends Enum<L>> implements PlayVisitor
+    {
+        private EnumMap<L, PlayAggregate> _result;
+        private Class<L> _enumType;
+
+        PivotVisitor(EnumMap<L, PlayAggregate> result, Class<L> enumType)
+        {
+            _result = result;
+            _enumType = enumType;
+        }
+
+        public void visitPlay(SinglePlay play)
+        {
+            L wantValue = play.getValue(_enumType);
+            if (wantValue != null) { // Play has value in wanted type
+                PlayAggregate wantAggregate = _result.get(wantValue);
+                if (wantAggregate == null) {
+                    wantAggregate = new PlayAggregate();
+                    _result.put(wantValue, wantAggregate);
+                }
+                wantAggregate.addPlay(play);
+            } // Play has value in wanted type
+        }
+    }
+
+    /* Splits plays visited into measures by the values of two enums. Leaves of
+       the tree use it when they must read their plays to pivot */
+    static class DoublePivotVisitor<L extends Enum<L>, M extends Enum<M>> implements PlayVisitor
+    {
+        private EnumMap<L, EnumMap<M, PlayAggregate>> _result;
+        private Class<L> _firstEnumType;
+        private Class<M> _secondEnumType;
+
+        DoublePivotVisitor(EnumMap<L, EnumMap<M, PlayAggregate>> result,
+                           Class<L> firstEnumType, Class<M> secondEnumType)
+        {
+            _result = result;
+            _firstEnumType = firstEnumType;
+            _secondEnumType = secondEnumType;
+        }
+
+        public void visitPlay(SinglePlay play)
+        {
+            L firstWantValue = play.getValue(_firstEnumType);
+            M secondWantValue = play.getValue(_secondEnumType);
+            if ((firstWantValue != null) &&
+                (secondWantValue != null)) { // Play has value in wanted types
+                EnumMap<M, PlayAggregate> wantMap = _result.get(firstWantValue);
+                if (wantMap == null) {
+                    /* NOTE: creating an enum map of M here, so need the
+                       second enumerated type, not the first */
+                    wantMap = new EnumMap<M, PlayAggregate>(_secondEnumType);
+                    _result.put(firstWantValue, wantMap);
+                }
+                PlayAggregate wantAggregate = wantMap.get(secondWantValue);
+                if (wantAggregate == null) {
+                    wantAggregate = new PlayAggregate();
+                    wantMap.put(secondWantValue, wantAggregate);
+                }
+                wantAggregate.addPlay(play);
+            } // Play has value in wanted types
+        }
+    }
+
+    // Merges the measures of the second pivot result into the first
+    static <L extends Enum<L>> void mergePivot(EnumMap<L, PlayAggregate> first,
+                                               EnumMap<L, PlayAggregate> second)
+    {
+        Iterator<Map.Entry<L, PlayAggregate>> mapPtr = second.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<L, PlayAggregate> mapEntry = mapPtr.next();
+            PlayAggregate wantAggregate = first.get(mapEntry.getKey());
+            if (wantAggregate == null)
+                first.put(mapEntry.getKey(), mapEntry.getValue());
+            else
+                wantAggregate.merge(mapEntry.getValue());
+        } // While entries to merge
+    }
+
+    // Merges the measures of the second two level pivot result into the first
+    static <L extends Enum<L>, M extends Enum<M>> void mergeDoublePivot(EnumMap<L, EnumMap<M, PlayAggregate>> first,
+                                                                        EnumMap<L, EnumMap<M, PlayAggregate>> second)
+    {
+        Iterator<Map.Entry<L, EnumMap<M, PlayAggregate>>> mapPtr = second.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<L, EnumMap<M, PlayAggregate>> mapEntry = mapPtr.next();
+            EnumMap<M, PlayAggregate> wantMap = first.get(mapEntry.getKey());
+            if (wantMap == null)
+                first.put(mapEntry.getKey(), mapEntry.getValue());
+            else
+                mergePivot(wantMap, mapEntry.getValue());
+        } // While entries to merge
+    }
+
+    /* Pivots the measures of a leaf of the tree. Splitting by play type only
+       needs the measures themselves, anything else must read the plays */
+    static <L extends Enum<L>> void pivotLeaf(PlayStoreTree leaf,
+                                              EnumMap<L, PlayAggregate> result,
+                                              Class<L> enumType)
+    {
+        if (SinglePlay.PlayType.class.isAssignableFrom(enumType)) {
+            PlayAggregate leafAggregate = leaf.getAggregate();
+            for (SinglePlay.PlayType playType : SinglePlay.PlayType.values())
+                if (leafAggregate.getPlayCount(playType) > 0) {
+                    L key = enumType.cast(playType);
+                    PlayAggregate wantAggregate = result.get(key);
+                    if (wantAggregate == null) {
+                        wantAggregate = new PlayAggregate();
+                        result.put(key, wantAggregate);
+                    }
+                    wantAggregate.mergePlayType(leafAggregate, playType.ordinal());
+                } // Plays of this type exist
+        } // Splitting by play type
+        else
+            leaf.visitPlays(new PivotVisitor<L>(result, enumType));
+    }
+
+    // Pivots the measures of a leaf of the tree on two enums
+    static <L extends Enum<L>, M extends Enum<M>> void pivotLeaf(PlayStoreTree leaf,
+                                                                 EnumMap<L, EnumMap<M, PlayAggregate>> result,
+                                                                 Class<L> firstEnumType,
+                                                                 Class<M> secondEnumType)
+    {
+        leaf.visitPlays(new DoublePivotVisitor<L, M>(result, firstEnumType,
+                                                     secondEnumType));
+    }
+
+    // Builds the measures over the plays of a leaf of the tree
+    static PlayAggregate aggregateLeaf(PlayStoreTree leaf)
+    {
+        final PlayAggregate result = new PlayAggregate();
+        leaf.visitPlays(new PlayVisitor() {
+                public void visitPlay(SinglePlay play)
+                {
+                    result.addPlay(play);
+                }
+            });
+        return result;
+    }
+}
@@ -0,0 +1,145 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class is an optional index over the plays in a data store. Slicing the
+   tree on a category that is one of its levels only drops subtrees, but
+   slicing on any other category (such as the play type) must walk every play
+   in every leaf. Chaining several slices repeats that walk for every one.
+
+   The index instead numbers every play by the position it was inserted, and
+   keeps one bitmap for each value of each play category, with a bit set for
+   every play that has the value. A slice on a category then becomes a bitwise
+   AND of the wanted value's bitmap with the set of plays selected so far,
+   which processes 64 plays per machine word no matter how many slices are
+   chained. The plays themselves are kept encoded by PackedPlay so they can be
+   rebuilt for the plays that survive the slices.
+
+   NOTE: The bitmaps are not compressed. A season of plays for every team is
+   a few tens of thousands of plays, so each bitmap is a few kilobytes; simple
+   word arrays are both smaller than the plays and faster to combine. */
+/* NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This class is deliberately restricted to the
+   package */
+final class PlayBitmapIndex
+{
+    // Initial number of plays allocated
+    private static final int _initialCapacity = 1024;
+
+    // Categories of plays that have bitmaps
+    private static final Class<?> [] _categories = { SinglePlay.PlayType.class,
+                                                     SinglePlay.DownNumber.class,
+                                                     SinglePlay.DistanceNeeded.class,
+                                                     SinglePlay.FieldLocation.class,
+                                                     SinglePlay.TimeRemaining.class,
+                                                     SinglePlay.ScoreDifferential.class };
+
+    private int _size; // Number of plays indexed
+    private long [] _plays; // Plays by position, encoded by PackedPlay
+    private int [] _refIds;
+
+    // Bitmaps for each category, indexed by the ordinal of the value
+    private HashMap<Class<?>, BitSet[]> _bitmaps;
+
+    // Constructor, creates an empty index
+    PlayBitmapIndex()
+    {
+        _size = 0;
+        _plays = new long[_initialCapacity];
+        _refIds = new int[_initialCapacity];
+        _bitmaps = new HashMap<Class<?>, BitSet[]>();
+        for (Class<?> category : _categories) {
+            BitSet [] valueBitmaps = new BitSet[category.getEnumConstants().length];
+            int index;
+            for (index = 0; index < valueBitmaps.length; index++)
+                valueBitmaps[index] = new BitSet();
+            _bitmaps.put(category, valueBitmaps);
+        } // For each category
+    }
+
+    // Returns the number of plays in the index
+    int size()
+    {
+        return _size;
+    }
+
+    // Adds a play to the index. Returns the position of the play
+    int insertPlay(SinglePlay play)
+    {
+        if (_size == _plays.length) {
+            _plays = Arrays.copyOf(_plays, _size * 2);
+            _refIds = Arrays.copyOf(_refIds, _size * 2);
+        }
+        long packed = PackedPlay.encode(play);
+        _plays[_size] = packed;
+        _refIds[_size] = play.getRefId();
+        for (Class<?> category : _categories)
+            _bitmaps.get(category)[PackedPlay.getOrdinal(packed, category)].set(_size);
+        _size++;
+        return _size - 1;
+    }
+
+    /* Returns the bitmap of plays with the passed value, or null if the
+       value type is not a play category.
+       WARNING: The bitmap is NOT copied. Callers must not modify it */
+    <P extends Enum<P>> BitSet getBitmap(P value, Class<P> valueType)
+    {
+        return getBitmap(valueType, value.ordinal());
+    }
+
+    /* Returns the bitmap of plays with the value of the passed ordinal, or
+       null if the type is not a play category. Used when the type of the
+       value is not known at compile time.
+       WARNING: The bitmap is NOT copied. Callers must not modify it */
+    BitSet getBitmap(Class<?> category, int ordinal)
+    {
+        BitSet [] valueBitmaps = _bitmaps.get(category);
+        if (valueBitmaps == null)
+            return null;
+        else
+            return valueBitmaps[ordinal];
+    }
+
+    /* Clears the bits in the passed selection for plays whose integer field
+       value is outside the specified range. This only needs to examine the
+       plays still selected */
+    void sliceSelection(BitSet selection, SinglePlay.NumericFields field,
+                        IntegerRange wantRange)
+    {
+        int position;
+        for (position = selection.nextSetBit(0); position >= 0;
+             position = selection.nextSetBit(position + 1))
+            if (!wantRange.contains(PackedPlay.getIntValue(_plays[position], field)))
+                selection.clear(position);
+    }
+
+    // Rebuilds the play at the passed position
+    SinglePlay getPlay(int position)
+    {
+        if ((position < 0) || (position >= _size))
+            throw new IndexOutOfBoundsException();
+        return PackedPlay.decode(_plays[position], _refIds[position]);
+    }
+}
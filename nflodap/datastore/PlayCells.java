@@ -0,0 +1,253 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class holds the plays of a view split into cells by one or two enums,
+   laid out as a grid of rows and columns, ready to graph one cell at a time.
+   While the plays are split, it also keeps the count, total, minimum, and
+   maximum of some numeric fields of the plays of each cell in plain arrays.
+   Graphs tiled together need the range of those fields over all the cells, so
+   they can share axes, and this gets it from the cells without reading the
+   plays again.
+
+   Pivoting into a new data store and then reading it through a cursor walks
+   the plays once to pivot, once to find the ranges, and once to graph, and
+   leaves in the columnar or packed formats build their play objects each
+   time. This class is built in a single walk of the view, see
+   DataStoreView.cells(), so each play is read and built once. Large views
+   build one set of cells per part of the view in parallel, and merge them
+   in order.
+
+   Splitting by one enum gives a single row, with a column for each value */
+public final class PlayCells
+{
+    private int _rowCount;
+    private int _columnCount;
+    // Fields the ranges are kept for
+    private SinglePlay.NumericFields [] _fields;
+
+    // Plays of each cell, by row then column. Null if the cell has none
+    private ArrayList<ArrayList<SinglePlay>> _plays;
+
+    // Measures of each field of each cell, by cell then field
+    private long [] _totals;
+    private int [] _minimums;
+    private int [] _maximums;
+
+    /* Constructor. Null fields are ignored, so clients can pass the fields
+       a graph needs directly */
+    PlayCells(int rowCount, int columnCount, SinglePlay.NumericFields [] fields)
+    {
+        _rowCount = rowCount;
+        _columnCount = columnCount;
+        ArrayList<SinglePlay.NumericFields> wantFields = new ArrayList<SinglePlay.NumericFields>();
+        if (fields != null)
+            for (SinglePlay.NumericFields field : fields)
+                if ((field != null) && !wantFields.contains(field))
+                    wantFields.add(field);
+        _fields = wantFields.toArray(new SinglePlay.NumericFields[wantFields.size()]);
+
+        int cellCount = rowCount * columnCount;
+        _plays = new ArrayList<ArrayList<SinglePlay>>(Collections.nCopies(cellCount,
+                                                                          (ArrayList<SinglePlay>)null));
+        _totals = new long[cellCount * _fields.length];
+        _minimums = new int[cellCount * _fields.length];
+        _maximums = new int[cellCount * _fields.length];
+    }
+
+    // Adds a play to a cell, updating its measures
+    void addPlay(int row, int column, SinglePlay play)
+    {
+        int cell = (row * _columnCount) + column;
+        ArrayList<SinglePlay> plays = _plays.get(cell);
+        if (plays == null) {
+            plays = new ArrayList<SinglePlay>();
+            _plays.set(cell, plays);
+        }
+        int base = cell * _fields.length;
+        int field;
+        for (field = 0; field < _fields.length; field++) {
+            int value = play.getIntValue(_fields[field]);
+            _totals[base + field] += value;
+            if (plays.isEmpty() || (value < _minimums[base + field]))
+                _minimums[base + field] = value;
+            if (plays.isEmpty() || (value > _maximums[base + field]))
+                _maximums[base + field] = value;
+        } // For each field kept
+        plays.add(play);
+    }
+
+    /* Appends the plays of another set of cells with the same layout and
+       fields to these, merging their measures. Used to combine cells built
+       in parallel from different plays. The other cells must not be used
+       afterward, since their lists may be taken over */
+    void merge(PlayCells other)
+    {
+        int cell;
+        for (cell = 0; cell < _plays.size(); cell++) {
+            ArrayList<SinglePlay> otherPlays = other._plays.get(cell);
+            if (otherPlays == null)
+                continue; // Nothing to add
+            ArrayList<SinglePlay> plays = _plays.get(cell);
+            int base = cell * _fields.length;
+            int field;
+            for (field = 0; field < _fields.length; field++) {
+                _totals[base + field] += other._totals[base + field];
+                if ((plays == null) ||
+                    (other._minimums[base + field] < _minimums[base + field]))
+                    _minimums[base + field] = other._minimums[base + field];
+                if ((plays == null) ||
+                    (other._maximums[base + field] > _maximums[base + field]))
+                    _maximums[base + field] = other._maximums[base + field];
+            } // For each field kept
+            if (plays == null)
+                _plays.set(cell, otherPlays);
+            else
+                plays.addAll(otherPlays);
+        } // For each cell
+    }
+
+    // Returns the number of rows of cells
+    public int getRowCount()
+    {
+        return _rowCount;
+    }
+
+    // Returns the number of columns of cells
+    public int getColumnCount()
+    {
+        return _columnCount;
+    }
+
+    // Returns the position of a cell in the lists, checking it exists
+    private int getCell(int row, int column)
+    {
+        if ((row < 0) || (row >= _rowCount) || (column < 0) ||
+            (column >= _columnCount))
+            throw new IllegalArgumentException("Invalid cell " + row + ", " +
+                                               column);
+        return (row * _columnCount) + column;
+    }
+
+    // Returns the position of a field in the measures of a cell
+    private int getField(SinglePlay.NumericFields field)
+    {
+        int index;
+        for (index = 0; index < _fields.length; index++)
+            if (_fields[index] == field)
+                return index;
+        throw new IllegalArgumentException("Range of " + field + " not kept");
+    }
+
+    /* Returns a read-only list of the plays of a cell, or null if it has
+       none */
+    public List<SinglePlay> getPlays(int row, int column)
+    {
+        ArrayList<SinglePlay> plays = _plays.get(getCell(row, column));
+        if (plays == null)
+            return null;
+        else
+            return Collections.unmodifiableList(plays);
+    }
+
+    // Returns the number of plays in all the cells
+    public int getPlayCount()
+    {
+        int result = 0;
+        Iterator<ArrayList<SinglePlay>> index = _plays.iterator();
+        while (index.hasNext()) {
+            ArrayList<SinglePlay> plays = index.next();
+            if (plays != null)
+                result += plays.size();
+        }
+        return result;
+    }
+
+    // Returns true if no cell has plays
+    public boolean empty()
+    {
+        Iterator<ArrayList<SinglePlay>> index = _plays.iterator();
+        while (index.hasNext())
+            if (index.next() != null)
+                return false;
+        return true;
+    }
+
+    /* Returns the range of some field over the plays of a cell, or null if
+       the cell has none. Like PlayGraphGenerator.getPlayValueRange(), play
+       and turnover counts give a range from zero to their total */
+    public IntegerRange getRange(SinglePlay.NumericFields field, int row,
+                                 int column)
+    {
+        int cell = getCell(row, column);
+        int measure = (cell * _fields.length) + getField(field);
+        if (_plays.get(cell) == null)
+            return null;
+        else if ((field == SinglePlay.NumericFields.PLAY_COUNT) ||
+                 (field == SinglePlay.NumericFields.TURNOVER_COUNT))
+            return new IntegerRange(0, (int)_totals[measure]);
+        else
+            return new IntegerRange(_minimums[measure], _maximums[measure]);
+    }
+
+    /* Returns the range of some field over every cell, or null if there are
+       no plays. For counts this is from zero to the largest total of any one
+       cell, since that is what a graph of a cell has to fit. Null fields
+       return null, so callers can pass the fields a graph needs directly */
+    public IntegerRange getRange(SinglePlay.NumericFields field)
+    {
+        if (field == null)
+            return null;
+        IntegerRange result = null;
+        int row;
+        for (row = 0; row < _rowCount; row++) {
+            int column;
+            for (column = 0; column < _columnCount; column++) {
+                IntegerRange cellRange = getRange(field, row, column);
+                if (result == null)
+                    result = cellRange;
+                else if (cellRange != null)
+                    result.union(cellRange);
+            } // For each column
+        } // For each row
+        return result;
+    }
+
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        int row;
+        for (row = 0; row < _rowCount; row++) {
+            int column;
+            for (column = 0; column < _columnCount; column++) {
+                ArrayList<SinglePlay> plays = _plays.get((row * _columnCount) + column);
+                if (plays != null)
+                    result.append("Cell " + row + ", " + column + ": " +
+                                  plays.size() + " plays\n");
+            } // For each column
+        } // For each row
+        return result.toString();
+    }
+}
@@ -0,0 +1,42 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+/* This interface builds a result from the plays of a view when they are read
+   in parallel. Each task builds its own partial result from some of the
+   plays, and the partial results are then merged in the order of the plays,
+   so the result is the same as reading them all in one pass */
+/* NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This interface is deliberately restricted to
+   the package */
+interface PlayCollector<R>
+{
+    // Returns a new, empty result
+    public R newResult();
+
+    // Returns a visitor that adds the plays it is called on to the result
+    public PlayVisitor newVisitor(R result);
+
+    // Adds the contents of the second result to the end of the first
+    public void merge(R first, R second);
+}
@@ -0,0 +1,114 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/* This class counts how often each dimension of the data store tree is
+   sliced or pivoted. Doing either on a dimension near the top of the tree
+   drops or rolls up whole subtrees at once, while doing it on one near the
+   bottom visits every node on the way down. Data stores that order their tree
+   by these counts put the busiest dimensions first.
+
+   Queries normally run on clones of a data store, so the counts are shared
+   between a data store and all of its clones. Clones may run on other threads,
+   so the counts are atomic */
+final class PlayDimensionUsage {
+
+    private Class<?> [] _dimensions; // Dimensions that can be counted
+    private AtomicIntegerArray _uses;
+    private AtomicInteger _usesSinceCheck;
+
+    // Constructor. Takes the dimensions that can be counted
+    PlayDimensionUsage(Class<?> [] dimensions)
+    {
+        _dimensions = dimensions.clone();
+        _uses = new AtomicIntegerArray(dimensions.length);
+        _usesSinceCheck = new AtomicInteger(0);
+    }
+
+    // Returns the position of the dimension, or -1 if it is not counted
+    private int getDimension(Class<?> dimension)
+    {
+        int index;
+        for (index = 0; index < _dimensions.length; index++)
+            if (_dimensions[index] == dimension)
+                return index;
+        return -1;
+    }
+
+    // Records one use of the passed class, if it is a counted dimension
+    public void recordUse(Class<?> dimension)
+    {
+        int index = getDimension(dimension);
+        if (index >= 0) {
+            _uses.incrementAndGet(index);
+            _usesSinceCheck.incrementAndGet();
+        }
+    }
+
+    // Returns the number of uses of the passed class
+    public int getUses(Class<?> dimension)
+    {
+        int index = getDimension(dimension);
+        if (index < 0)
+            return 0;
+        else
+            return _uses.get(index);
+    }
+
+    /* Returns true if at least the passed number of uses have been recorded
+       since it last returned true */
+    public boolean checkDue(int interval)
+    {
+        int uses = _usesSinceCheck.get();
+        return ((uses >= interval) &&
+                _usesSinceCheck.compareAndSet(uses, 0));
+    }
+
+    /* Returns the passed dimension order sorted by decreasing use. Ties keep
+       their current order, so a tree is only reordered when the counts
+       actually change the ranking */
+    public Class<?> [] getPreferredOrder(Class<?> [] currentOrder)
+    {
+        final int [] uses = new int[currentOrder.length];
+        Integer [] positions = new Integer[currentOrder.length];
+        int index;
+        for (index = 0; index < currentOrder.length; index++) {
+            uses[index] = getUses(currentOrder[index]);
+            positions[index] = index;
+        }
+        // NOTE: The sort is stable, which keeps the ties in place
+        Arrays.sort(positions, new Comparator<Integer>() {
+                public int compare(Integer first, Integer second)
+                {
+                    return (uses[second] - uses[first]);
+                }
+            });
+        Class<?> [] result = new Class<?>[currentOrder.length];
+        for (index = 0; index < currentOrder.length; index++)
+            result[index] = currentOrder[positions[index]];
+        return result;
+    }
+}
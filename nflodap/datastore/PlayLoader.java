@@ -25,6 +25,12 @@ package nflodap.datastore;
 import java.io.*;
 import java.util.*;
 import java.lang.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 /* This class loads plays from .csv files into memory. Statistical techniques
    are hard to apply to football, because the number of variables a team faces
@@ -45,7 +51,49 @@ import java.lang.*;
    just teams, getting film containing key players or teams where a key
    choach has worked previously. They also select games from different
    team/season combinations while this routine gets all seasons for a given
-   matchup */
+   matchup
+
+   Files are normally read a line at a time, with the fields of each line
+   extracted as strings. Most plays in a file are for other teams and are
+   thrown away, so most of those strings are wasted. The loader can instead
+   memory map each file and scan its bytes directly. Numbers are parsed in
+   place and teams are looked up from their bytes, so the only string built
+   for a play is its description, and only if the play passes team selection
+
+   Either way, teams are turned into small IDs by a dictionary shared by all
+   copies of the loader, see TeamDictionary. Whether a pair of teams is wanted
+   is then found once and kept in a matrix, so selecting a play costs a single
+   lookup. Several team selections can be checked in one pass the same way,
+   see loadLeague()
+
+   Seasons can also be loaded in parallel. Each season is parsed by its own
+   copy of the loader into a list of plays, numbered from zero. The lists are
+   then merged in the order the seasons would be loaded one at a time, and
+   each play is renumbered to follow the plays before it. Sacks are spread
+   over the pass play types by a running count, so the merge also redoes
+   that using the count of sacks before each list. The result is exactly the
+   data store loading the seasons one at a time would produce. Large files are
+   also split into chunks of whole lines, loaded and merged the same way, so
+   even a single season uses every processor
+
+   Parsing the files is the most expensive part of loading, and every run
+   parses them the same way. The loader can convert the plays of each file
+   into a binary snapshot, see PlaySnapshot, and load from that instead
+   whenever it is current. Team selection and sacks are handled the same way
+   when loading a snapshot, so the result is identical to parsing the file
+
+   The loader can also keep the plays of every team in memory, see
+   loadLeague(). Plays for any wanted teams are then selected from them by
+   bitmaps of the plays of each pair of teams, without reading the files
+
+   Which seasons exist is found from the data files in the directory, see
+   SeasonCatalog. The catalog also records the teams in each file, so a
+   season without any of the wanted teams is never read, and the number of
+   lines, so buffers can be sized before parsing a whole file
+
+   Finally, plays can be streamed straight from the files, see streamPlays(),
+   for questions that only need a count or a total over them. The plays are
+   parsed as the stream is read and never stored */
 
 public final class PlayLoader {
     
@@ -58,7 +106,128 @@ public final class PlayLoader {
 
     private int _playCount; // Number of plays processed
     private int _sackCount; // Number of sacks in input, turned into pass plays
-    
+    // Value of the sack count for the last play parsed, -1 if not a sack
+    private int _lastSackIndex;
+
+    /* Every word and phrase searched for in play descriptions. Each one must
+       be here to be found, and adding one costs nothing when parsing, since
+       the description is still read once */
+    private static final KeywordMatcher _descriptionKeywords = new KeywordMatcher(
+        " pass ",
+        " passed ",
+        "INTERCEPT",
+        " left end ",
+        " left guard ",
+        " left tackle ",
+        " right end ",
+        " right guard ",
+        " right tackle ",
+        " up the middle ",
+        " rushed ",
+        " scrambles ",
+        " sacked ",
+        " FUMBLES (Aborted) ",
+        " punts ",
+        " punted ",
+        " field goal ",
+        " Aborted. ",
+        "Punt",
+        "Field Goal",
+        " punt is BLOCKED ",
+        " kneels ",
+        " to ",
+        " lost ",
+        "PENALTY",
+        "penalized",
+        "kneels",
+        "spiked",
+        "kicked",
+        " play under review ",
+        " for ",
+        "FUMBLE");
+
+    // Keywords found in the play description being parsed
+    private KeywordMatcher.Matches _descriptionWords;
+
+    // IDs of the teams of plays, shared by every copy of the loader
+    private TeamDictionary _teams;
+    // Team selection by team IDs, for the last teams wanted
+    private TeamMatchups _matchups;
+    // Report for the season being loaded
+    private LoadReport _report;
+    // Reports for the seasons of the last load, in load order
+    private ArrayList<LoadReport> _reports;
+
+    // Teams of the last line that got to team selection, -1 if none
+    private int _lastOffense;
+    private int _lastDefense;
+
+    // Pass play types assigned to sacks in turn, by the sack count
+    private static final SinglePlay.PlayType [] _sackPlayTypes = { SinglePlay.PlayType.PASS_SHORT_LEFT,
+                                                                   SinglePlay.PlayType.PASS_SHORT_MIDDLE,
+                                                                   SinglePlay.PlayType.PASS_SHORT_RIGHT,
+                                                                   SinglePlay.PlayType.PASS_DEEP_LEFT,
+                                                                   SinglePlay.PlayType.PASS_DEEP_MIDDLE,
+                                                                   SinglePlay.PlayType.PASS_DEEP_RIGHT };
+
+    // Format of the leaves in data stores created by the loader
+    private DataStore.LeafFormat _leafFormat;
+
+    // Layout of the cells in data stores created by the loader
+    private DataStore.CubeLayout _cubeLayout;
+
+    // True, build a bitmap index over the loaded plays
+    private boolean _buildIndex;
+
+    // Order of the dimensions of loaded data stores, null for the default
+    private Class<?> [] _dimensionOrder;
+
+    // True, loaded data stores reorder their dimensions based on use
+    private boolean _adaptiveOrder;
+
+    // True, loaded data stores run large queries and views in parallel
+    private boolean _parallelQueries;
+
+    // True, memory map data files and parse their bytes directly
+    private boolean _memoryMapped;
+
+    /* True, load seasons in parallel. Each file is also split into chunks
+       loaded in parallel, for which it must be memory mapped */
+    private boolean _parallel;
+
+    /* Minimum size of the chunks of a file loaded in parallel. Smaller chunks
+       cost more to schedule and merge than they save */
+    private static final int _minimumChunkSize = 1 << 20;
+
+
+    // Chunks to split each file into, zero for one per processor
+    private int _chunksPerFile;
+
+    // True, load seasons from snapshots when they are current
+    private boolean _useSnapshots;
+
+    /* Private class holding plays parsed by a copy of the loader, numbered
+       from zero, until they are merged in order. Plays created from sacks
+       are recorded with their sack count, so their types can be redone */
+    private static final class LoadedPart
+    {
+        private ArrayList<SinglePlay> _plays;
+        private ArrayList<Integer> _sackPositions; // In the list of plays
+        private ArrayList<Integer> _sackIndexes; // Sack count for each
+        private int _playCount;
+        private int _sackCount;
+        private LoadReport _report;
+
+        public LoadedPart()
+        {
+            _plays = new ArrayList<SinglePlay>();
+            _sackPositions = new ArrayList<Integer>();
+            _sackIndexes = new ArrayList<Integer>();
+            _playCount = 0;
+            _sackCount = 0;
+            _report = null;
+        }
+    }
 
     /* Private class to hold the results of a play parsed from a description */
     private class PlayResults
@@ -129,11 +298,108 @@ public final class PlayLoader {
 
     // Constructor. Takes the path to the directory with data files
     public PlayLoader(String filePath)
+    {
+        this(filePath, DataStore.LeafFormat.PLAY_LIST);
+    }
+
+    /* Constructor. Takes the path to the directory with data files, and the
+       format the loaded data store should use for its plays. Large loads
+       should use the columnar format to save memory */
+    public PlayLoader(String filePath, DataStore.LeafFormat leafFormat)
     {
         _directory = filePath;
         _position = -1; // Token, invalid
         _playCount = 0;
         _sackCount = 0;
+        _leafFormat = leafFormat;
+        _cubeLayout = DataStore.CubeLayout.NESTED_MAPS;
+        _buildIndex = false;
+        _dimensionOrder = null;
+        _adaptiveOrder = false;
+        _parallelQueries = false;
+        _memoryMapped = false;
+        _parallel = false;
+        _chunksPerFile = 0;
+        _useSnapshots = false;
+        _lastSackIndex = -1;
+        _teams = new TeamDictionary();
+        _matchups = null;
+        _descriptionWords = _descriptionKeywords.newMatches();
+        _report = new LoadReport(0);
+        _reports = new ArrayList<LoadReport>();
+        _lastOffense = -1;
+        _lastDefense = -1;
+    }
+
+    // Sets the layout of the cells of the loaded data store
+    public void setCubeLayout(DataStore.CubeLayout cubeLayout)
+    {
+        if (cubeLayout == null)
+            throw new IllegalArgumentException();
+        _cubeLayout = cubeLayout;
+    }
+
+    /* Sets whether the loaded data store gets a bitmap index. It costs some
+       time and memory at load, but makes repeated slices on play categories
+       much faster */
+    public void setBuildIndex(boolean buildIndex)
+    {
+        _buildIndex = buildIndex;
+    }
+
+    /* Sets the order of the dimensions of the loaded data store. Dimensions
+       that will be sliced most often should come first */
+    public void setDimensionOrder(Class<?>... dimensionOrder)
+    {
+        if ((dimensionOrder == null) || (dimensionOrder.length == 0))
+            throw new IllegalArgumentException();
+        _dimensionOrder = dimensionOrder.clone();
+    }
+
+    /* Sets whether the loaded data store reorders its dimensions based on
+       the slices and pivots done on it and its clones */
+    public void setAdaptiveOrder(boolean adaptiveOrder)
+    {
+        _adaptiveOrder = adaptiveOrder;
+    }
+
+    /* Sets whether the loaded data store runs large pivots, rollups, slices,
+       and views in parallel. Unlike setParallel(), this affects the queries
+       on the plays after they are loaded */
+    public void setParallelQueries(boolean parallelQueries)
+    {
+        _parallelQueries = parallelQueries;
+    }
+
+    /* Sets whether data files are memory mapped and parsed as bytes. This
+       loads the same plays far faster, especially when most plays in the
+       files are for other teams */
+    public void setMemoryMapped(boolean memoryMapped)
+    {
+        _memoryMapped = memoryMapped;
+    }
+
+    /* Sets whether seasons are loaded in parallel. The loaded data store is
+       the same either way */
+    public void setParallel(boolean parallel)
+    {
+        _parallel = parallel;
+    }
+
+    /* Sets the number of chunks each file is split into when loading in
+       parallel. Zero picks one per processor, for files large enough */
+    public void setChunksPerFile(int chunksPerFile)
+    {
+        if (chunksPerFile < 0)
+            throw new IllegalArgumentException();
+        _chunksPerFile = chunksPerFile;
+    }
+
+    /* Sets whether seasons are loaded from snapshots when they are current.
+       Files without a current snapshot are parsed as usual */
+    public void setUseSnapshots(boolean useSnapshots)
+    {
+        _useSnapshots = useSnapshots;
     }
 
     /** This method ensures the file is always closed before the object dies.
@@ -179,37 +445,525 @@ public final class PlayLoader {
     public DataStore loadPlays(NFLqualityControl wantedMatchups,
                                int yearRange) throws Exception
     {
-        /* FUTURE DEVELOPMENT: Should use file system calls to find the range
-           of years with play data. This routine hardcodes it */
-        int firstYear = 2008;
-        int lastYear = 2011;
-        if ((yearRange >= 0) && (lastYear - yearRange + 1 > firstYear))
-            firstYear = lastYear - yearRange + 1;
-        
-        DataStore dataStore = new DataStore();
+        List<SeasonCatalog.Season> seasons = getSeasons(yearRange,
+                                                        wantedMatchups);
+        _reports.clear();
+        DataStore dataStore = newDataStore();
+        if (_parallel)
+            loadSeasonsParallel(wantedMatchups, seasons, dataStore);
+        else {
+            Iterator<SeasonCatalog.Season> seasonPtr = seasons.iterator();
+            while (seasonPtr.hasNext())
+                loadSingleSeason(wantedMatchups, seasonPtr.next().getYear(),
+                                 dataStore);
+        }
+        finishDataStore(wantedMatchups, dataStore);
+        return dataStore;
+    }
 
-        int yearCounter;
-        for (yearCounter = lastYear; yearCounter >= firstYear; yearCounter--)
-            loadSingleSeason(wantedMatchups, yearCounter, dataStore);
+    /* Loads the plays of every team for a range of seasons, to select the
+       plays of wanted teams from later without going back to the files. Each
+       season comes from its snapshot if snapshots are in use and it is
+       current, otherwise its file is parsed */
+    public LeaguePlays loadLeague(int yearRange) throws Exception
+    {
+        _reports.clear();
+        ArrayList<PlaySnapshot> seasons = new ArrayList<PlaySnapshot>();
+        Iterator<SeasonCatalog.Season> seasonPtr = getSeasons(yearRange, null).iterator();
+        while (seasonPtr.hasNext()) {
+            SeasonCatalog.Season catalogSeason = seasonPtr.next();
+            PlaySnapshot season = readSnapshotReported(catalogSeason.getYear());
+            // Every line may be a play, so size the snapshot for all of them
+            if (season == null)
+                season = parseSnapshot(catalogSeason.getYear(), everyGame(),
+                                       catalogSeason.getRows());
+            season.buildPairIndex();
+            seasons.add(season);
+        } // For each season to load
+        return new LeaguePlays(newCopy(), seasons);
+    }
+
+    /* Loads the plays wanted by any of several team selections for a range of
+       seasons, in one pass over the files. Plays are then selected for each
+       of them from the result, exactly as if they were loaded one at a time.
+       Seasons come from current snapshots where possible, like loadLeague() */
+    public LeaguePlays loadLeague(int yearRange,
+                                  final NFLqualityControl... selections) throws Exception
+    {
+        /* Check every selection at once, with one bit for each. The teams
+           passed to the constructor are never used */
+        final TeamMatchups matchups = new TeamMatchups(_teams, selections);
+        NFLqualityControl anySelection = new NFLqualityControl("ANY", "SELECTION",
+                                                               null, null) {
+                public boolean selectGame(String offense, String defense)
+                {
+                    return (matchups.getMatches(_teams.getId(offense),
+                                                _teams.getId(defense)) != 0L);
+                }
+            };
+        _reports.clear();
+        ArrayList<PlaySnapshot> seasons = new ArrayList<PlaySnapshot>();
+        Iterator<SeasonCatalog.Season> seasonPtr = getSeasons(yearRange,
+                                                              anySelection).iterator();
+        while (seasonPtr.hasNext()) {
+            int seasonYear = seasonPtr.next().getYear();
+            PlaySnapshot season = readSnapshotReported(seasonYear);
+            if (season == null)
+                season = parseSnapshot(seasonYear, anySelection,
+                                       PlaySnapshot.DEFAULT_CAPACITY);
+            season.buildPairIndex();
+            seasons.add(season);
+        } // For each season to load
+        return new LeaguePlays(newCopy(), seasons);
+    }
+
+    /* Returns the plays of the wanted teams for a range of seasons as a
+       stream. Plays are parsed as the stream is read, so nothing is kept
+       in memory, and the stream can be made parallel to parse the files on
+       every processor. The files are memory mapped when this is called, so
+       missing files are reported here. See PlaySpliterator for how plays
+       from parallel streams differ from loaded ones */
+    public Stream<SinglePlay> streamPlays(NFLqualityControl wantedMatchups,
+                                          int yearRange) throws IOException
+    {
+        List<SeasonCatalog.Season> seasons = getSeasons(yearRange,
+                                                        wantedMatchups);
+        if (seasons.isEmpty())
+            return Stream.empty();
+        ByteBuffer[] files = new ByteBuffer[seasons.size()];
+        int[] starts = new int[files.length];
+        int file;
+        for (file = 0; file < files.length; file++) {
+            files[file] = mapFile(seasons.get(file).getFileName());
+            // First line is a header. Skip it
+            starts[file] = nextLine(files[file], 0, files[file].limit());
+        }
+        return StreamSupport.stream(new PlaySpliterator(this, wantedMatchups,
+                                                        files, starts, 0,
+                                                        starts[0],
+                                                        files.length - 1,
+                                                        files[files.length - 1].limit()),
+                                    false);
+    }
+
+    /* Returns the plays of every team for a range of seasons as a stream, as
+       above */
+    public Stream<SinglePlay> streamPlays(int yearRange) throws IOException
+    {
+        return streamPlays(everyGame(), yearRange);
+    }
+
+    // Returns a team selection that wants every play
+    private static NFLqualityControl everyGame()
+    {
+        // The teams passed to the constructor are never used
+        return new NFLqualityControl("ALL", "GAMES", null, null) {
+                public boolean selectGame(String offense, String defense)
+                {
+                    return true;
+                }
+            };
+    }
+
+    /* Loads plays for several team selections in one pass over the files,
+       returning a data store for each in the same order. Each is identical to
+       loading its selection alone */
+    public DataStore[] loadPlays(NFLqualityControl[] selections,
+                                 int yearRange) throws Exception
+    {
+        LeaguePlays plays = loadLeague(yearRange, selections);
+        DataStore[] result = new DataStore[selections.length];
+        int index;
+        for (index = 0; index < selections.length; index++)
+            result[index] = plays.selectPlays(selections[index]);
+        return result;
+    }
+
+    /* Selects the plays of the wanted teams from seasons loaded by
+       loadLeague() into a new data store. The result is identical to loading
+       them from the files with the same loader settings */
+    DataStore selectPlays(NFLqualityControl wantedMatchups,
+                          ArrayList<PlaySnapshot> seasons)
+    {
+        /* Plays are numbered from the start for every selection, so use a
+           fresh copy of the loader to count them. This also makes selecting
+           from several threads at once safe */
+        PlayLoader counter = newCopy();
+        final DataStore dataStore = counter.newDataStore();
+        PlayVisitor sink = new PlayVisitor() {
+                public void visitPlay(SinglePlay play)
+                {
+                    dataStore.insertPlay(play);
+                }
+            };
+        Iterator<PlaySnapshot> seasonPtr = seasons.iterator();
+        while (seasonPtr.hasNext())
+            counter.loadSnapshotSeason(seasonPtr.next(), wantedMatchups, sink);
+        counter.finishDataStore(wantedMatchups, dataStore);
+        return dataStore;
+    }
+
+    // Returns a new, empty data store with the settings of the loader
+    private DataStore newDataStore()
+    {
+        DataStore dataStore;
+        if (_dimensionOrder == null)
+            dataStore = new DataStore(_leafFormat, _cubeLayout);
+        else
+            dataStore = new DataStore(_leafFormat, _cubeLayout, _dimensionOrder);
+        dataStore.setAdaptiveOrder(_adaptiveOrder);
+        dataStore.setParallel(_parallelQueries);
+        return dataStore;
+    }
+
+    // Checks and indexes a data store once all plays are loaded
+    private void finishDataStore(NFLqualityControl wantedMatchups,
+                                 DataStore dataStore)
+    {
         /* If the database is empty, assume the teams were specified
            incorrectly */
         if (dataStore.empty())
             throw new IllegalArgumentException(wantedMatchups + " invalid; returned no plays");
-        return dataStore;
+        if (_buildIndex)
+            dataStore.buildIndex();
+    }
+
+    /* Returns the seasons to load for the passed number of seasons, counting
+       back from the latest with a data file, latest first. Negative means all
+       of them. Seasons whose files have no plays for the wanted teams are
+       left out, so they are never read. Null wants every season */
+    private List<SeasonCatalog.Season> getSeasons(int yearRange,
+                                                  NFLqualityControl wantedMatchups) throws IOException
+    {
+        List<SeasonCatalog.Season> catalog = SeasonCatalog.scan(_directory).getSeasons();
+        if (catalog.isEmpty())
+            throw new IOException("No play data files in " + _directory);
+        int firstYear = Integer.MIN_VALUE;
+        if (yearRange >= 0)
+            firstYear = catalog.get(0).getYear() - yearRange + 1;
+        ArrayList<SeasonCatalog.Season> result = new ArrayList<SeasonCatalog.Season>();
+        Iterator<SeasonCatalog.Season> seasonPtr = catalog.iterator();
+        while (seasonPtr.hasNext()) {
+            SeasonCatalog.Season season = seasonPtr.next();
+            if ((season.getYear() >= firstYear) &&
+                ((wantedMatchups == null) || season.hasPlays(wantedMatchups)))
+                result.add(season);
+        }
+        return result;
     }
 
     // Loads plays for the wanted teams for one season into the data store
     public void loadSingleSeason(NFLqualityControl wantedMatchups,
-                                 int seasonYear, DataStore dataStore) throws Exception
+                                 int seasonYear, final DataStore dataStore) throws Exception
+    {
+        loadSeason(wantedMatchups, seasonYear, new PlayVisitor() {
+                public void visitPlay(SinglePlay play)
+                {
+                    dataStore.insertPlay(play);
+                }
+            });
+    }
+
+    /* Returns the name of the data file for a season. Format is
+       XXXX_nfl_pbp_data.csv, where XXXX is the year. File joins it to the
+       directory with the right separator for the platform */
+    private String getFileName(int seasonYear)
+    {
+        return new File(_directory, seasonYear + "_nfl_pbp_data.csv").getPath();
+    }
+
+    // Returns the name of the snapshot file for a season
+    private String getSnapshotName(int seasonYear)
+    {
+        return new File(_directory, seasonYear + "_nfl_pbp_data.snapshot").getPath();
+    }
+
+    /* Returns the snapshot for a season if snapshots are in use and it is
+       current, otherwise null */
+    private PlaySnapshot readSnapshot(int seasonYear)
     {
+        if (!_useSnapshots)
+            return null;
         try {
-            /* Assemble the file name. Format is XXXX_nfl_pbp_data.csv, where
-               XXXX is the year. The passed directory does not include the
-               backslash needed before the filename, so add it
-               TRICKY NOTE: Notice the double backslash below. Java uses '\' as
-               an escape character. The first is the esacpe character needed to
-               insert a litteral '\' in the string! */
-            _name = _directory + '\\' + seasonYear + "_nfl_pbp_data.csv";
+            PlaySnapshot snapshot = PlaySnapshot.read(getSnapshotName(seasonYear));
+            if ((snapshot != null) && snapshot.isCurrent(getFileName(seasonYear)))
+                return snapshot;
+        }
+        /* A snapshot that can't be read is no different from a missing one.
+           Parsing the file will report any real problem with it */
+        catch (IOException e) {}
+        return null;
+    }
+
+    /* Returns the snapshot for a season like readSnapshot(), adding a report
+       for it if there is one. Reports plays and sacks of every team */
+    private PlaySnapshot readSnapshotReported(int seasonYear)
+    {
+        PlaySnapshot snapshot = readSnapshot(seasonYear);
+        if (snapshot != null) {
+            LoadReport report = new LoadReport(seasonYear);
+            report.setFromSnapshot();
+            int failedSacks = snapshot.count(PlaySnapshot.FAILED_SACK);
+            report.addTotals(snapshot.size() - failedSacks,
+                             snapshot.count(PlaySnapshot.SACK) + failedSacks);
+            _reports.add(report);
+        }
+        return snapshot;
+    }
+
+    /* Returns the reports for the seasons read by the last load of plays or
+       snapshots, in the order they were read */
+    public List<LoadReport> getLoadReports()
+    {
+        return Collections.unmodifiableList(new ArrayList<LoadReport>(_reports));
+    }
+
+    /* Returns a new loader with all the settings of this one, but none of
+       its plays counted */
+    private PlayLoader newCopy()
+    {
+        PlayLoader copy = new PlayLoader(_directory, _leafFormat);
+        copy._cubeLayout = _cubeLayout;
+        copy._buildIndex = _buildIndex;
+        copy._dimensionOrder = _dimensionOrder;
+        copy._adaptiveOrder = _adaptiveOrder;
+        copy._parallelQueries = _parallelQueries;
+        copy._memoryMapped = _memoryMapped;
+        copy._parallel = _parallel;
+        copy._chunksPerFile = _chunksPerFile;
+        copy._useSnapshots = _useSnapshots;
+        copy._teams = _teams;
+        return copy;
+    }
+
+    /* Returns a new loader that reads files the same way as this one, for
+       loading parts of the plays in parallel */
+    private PlayLoader newWorker()
+    {
+        PlayLoader worker = new PlayLoader(_directory, _leafFormat);
+        worker._memoryMapped = _memoryMapped;
+        worker._teams = _teams;
+        return worker;
+    }
+
+    /* Returns a visitor that adds plays to a part, recording the ones
+       created from sacks */
+    private PlayVisitor newPartSink(final LoadedPart part)
+    {
+        return new PlayVisitor() {
+            public void visitPlay(SinglePlay play)
+            {
+                if (_lastSackIndex >= 0) {
+                    part._sackPositions.add(part._plays.size());
+                    part._sackIndexes.add(_lastSackIndex);
+                }
+                part._plays.add(play);
+            }
+        };
+    }
+
+    /* Loads plays for the wanted teams for one season into a new part. Must
+       be called on a worker, since the plays are numbered from zero */
+    private LoadedPart loadPart(NFLqualityControl wantedMatchups,
+                                int seasonYear) throws Exception
+    {
+        LoadedPart part = new LoadedPart();
+        loadSeason(wantedMatchups, seasonYear, newPartSink(part));
+        part._playCount = _playCount;
+        part._sackCount = _sackCount;
+        part._report = _report;
+        return part;
+    }
+
+    /* Loads plays for the wanted teams from a range of bytes of a memory
+       mapped data file into a new part. Must be called on a worker, since the
+       plays are numbered from zero */
+    private LoadedPart loadPart(NFLqualityControl wantedMatchups,
+                                int seasonYear, ByteBuffer bytes, int start,
+                                int end)
+    {
+        LoadedPart part = new LoadedPart();
+        _report = new LoadReport(seasonYear);
+        scanLines(bytes, start, end, wantedMatchups, newPartSink(part));
+        _report.addTotals(_playCount, _sackCount);
+        part._playCount = _playCount;
+        part._sackCount = _sackCount;
+        part._report = _report;
+        return part;
+    }
+
+    /* Loads plays for the wanted teams from a snapshot into a new part. Must
+       be called on a worker, since the plays are numbered from zero */
+    private LoadedPart loadPart(NFLqualityControl wantedMatchups,
+                                int seasonYear, PlaySnapshot snapshot)
+    {
+        LoadedPart part = new LoadedPart();
+        _report = new LoadReport(seasonYear);
+        _report.setFromSnapshot();
+        loadSnapshotSeason(snapshot, wantedMatchups, newPartSink(part));
+        _report.addTotals(_playCount, _sackCount);
+        part._playCount = _playCount;
+        part._sackCount = _sackCount;
+        part._report = _report;
+        return part;
+    }
+
+    /* Adds the plays of a part to the data store, numbered to follow the
+       plays loaded so far, and with the sacks counted from the sacks loaded
+       so far */
+    private void mergePart(LoadedPart part, DataStore dataStore)
+    {
+        int sackPosition = 0;
+        int index;
+        for (index = 0; index < part._plays.size(); index++) {
+            SinglePlay play = part._plays.get(index);
+            SinglePlay.PlayType playType = play.getPlayType();
+            if ((sackPosition < part._sackPositions.size()) &&
+                (part._sackPositions.get(sackPosition) == index)) {
+                playType = _sackPlayTypes[(_sackCount + part._sackIndexes.get(sackPosition)) % _sackPlayTypes.length];
+                sackPosition++;
+            } // Play was a sack
+            dataStore.insertPlay(play.copyWith(_playCount + play.getRefId(),
+                                               playType));
+        } // For each play in the part
+        _playCount += part._playCount;
+        _sackCount += part._sackCount;
+
+        /* Parts of the same file are loaded one after another, so combine
+           their reports into one for the season */
+        LoadReport lastReport = null;
+        if (!_reports.isEmpty())
+            lastReport = _reports.get(_reports.size() - 1);
+        if ((lastReport != null) &&
+            (lastReport.getSeasonYear() == part._report.getSeasonYear()))
+            lastReport.add(part._report);
+        else
+            _reports.add(part._report);
+    }
+
+    /* Loads plays for the wanted teams for a range of seasons in parallel.
+       Each season file is mapped and split into chunks of whole lines, and
+       each chunk is loaded by a worker on a thread pool. The chunks are then
+       merged in the same order as loading the seasons one at a time. Files
+       too large to map are loaded as a single part */
+    private void loadSeasonsParallel(final NFLqualityControl wantedMatchups,
+                                     List<SeasonCatalog.Season> seasons,
+                                     DataStore dataStore) throws Exception
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(processors);
+        try {
+            ArrayList<Future<LoadedPart>> parts = new ArrayList<Future<LoadedPart>>();
+            Iterator<SeasonCatalog.Season> seasonPtr = seasons.iterator();
+            while (seasonPtr.hasNext()) {
+                final int seasonYear = seasonPtr.next().getYear();
+                final PlaySnapshot snapshot = readSnapshot(seasonYear);
+                ByteBuffer bytes = null;
+                if (snapshot == null)
+                    try {
+                        bytes = mapFile(getFileName(seasonYear));
+                    }
+                    catch (IOException e) {
+                        // Let the season load report the problem
+                    }
+                if (snapshot != null)
+                    // Loading a snapshot is quick, so it is never split
+                    parts.add(pool.submit(new Callable<LoadedPart>() {
+                            public LoadedPart call() throws Exception
+                            {
+                                return newWorker().loadPart(wantedMatchups,
+                                                            seasonYear,
+                                                            snapshot);
+                            }
+                        }));
+                else if (bytes == null)
+                    parts.add(pool.submit(new Callable<LoadedPart>() {
+                            public LoadedPart call() throws Exception
+                            {
+                                return newWorker().loadPart(wantedMatchups,
+                                                            seasonYear);
+                            }
+                        }));
+                else {
+                    int chunks = Math.max(1, Math.min(processors,
+                                                      bytes.limit() / _minimumChunkSize));
+                    if (_chunksPerFile > 0)
+                        chunks = _chunksPerFile;
+                    ArrayList<Integer> splits = splitLines(bytes, chunks);
+                    int chunk;
+                    for (chunk = 0; chunk < splits.size() - 1; chunk++) {
+                        /* Each task reads through its own view of the bytes.
+                           Only absolute reads are used, but this keeps them
+                           from sharing any state at all */
+                        final ByteBuffer chunkBytes = bytes.duplicate();
+                        final int chunkStart = splits.get(chunk);
+                        final int chunkEnd = splits.get(chunk + 1);
+                        parts.add(pool.submit(new Callable<LoadedPart>() {
+                                public LoadedPart call() throws Exception
+                                {
+                                    return newWorker().loadPart(wantedMatchups,
+                                                                seasonYear,
+                                                                chunkBytes,
+                                                                chunkStart,
+                                                                chunkEnd);
+                                }
+                            }));
+                    } // For each chunk of the file
+                } // File mapped
+            } // For each season to load
+            Iterator<Future<LoadedPart>> partPtr = parts.iterator();
+            while (partPtr.hasNext())
+                mergePart(getPart(partPtr.next()), dataStore);
+        } // Try block around the pool
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /* Waits for a part to finish loading, and returns it. If it failed, its
+       exception is thrown as if it had been loaded directly */
+    private static LoadedPart getPart(Future<LoadedPart> part) throws Exception
+    {
+        try {
+            return part.get();
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception)
+                throw (Exception)e.getCause();
+            else
+                throw e;
+        }
+    }
+
+    /* Loads plays for the wanted teams for one season, passing them to the
+       sink, and adds a report for it */
+    private void loadSeason(NFLqualityControl wantedMatchups, int seasonYear,
+                            PlayVisitor sink) throws Exception
+    {
+        _report = new LoadReport(seasonYear);
+        int playCount = _playCount;
+        int sackCount = _sackCount;
+        readSeason(wantedMatchups, seasonYear, sink);
+        _report.addTotals(_playCount - playCount, _sackCount - sackCount);
+        _reports.add(_report);
+    }
+
+    // Reads the plays for one season from its snapshot or its data file
+    private void readSeason(NFLqualityControl wantedMatchups, int seasonYear,
+                            PlayVisitor sink) throws Exception
+    {
+        try {
+            _name = getFileName(seasonYear);
+            PlaySnapshot snapshot = readSnapshot(seasonYear);
+            if (snapshot != null) {
+                _report.setFromSnapshot();
+                loadSnapshotSeason(snapshot, wantedMatchups, sink);
+                return;
+            }
+            if (_memoryMapped) {
+                loadMappedSeason(wantedMatchups, sink);
+                return;
+            }
             _file = new BufferedReader(new FileReader(_name));
 
             if (_file == null) {
@@ -228,7 +982,7 @@ public final class PlayLoader {
                        in a play thanks to the team filter and other reasons */
                     SinglePlay play = processPlay(wantedMatchups);
                     if (play != null)
-                        dataStore.insertPlay(play);
+                        sink.visitPlay(play);
                     _buffer = _file.readLine();
                 } // While lines in the data file to process
                 closeFile();
@@ -241,6 +995,123 @@ public final class PlayLoader {
         }
     }
 
+    /* Loads plays for the wanted teams from a snapshot, passing them to the
+       sink. Plays are numbered, and sacks given play types, exactly as if
+       the data file was parsed */
+    private void loadSnapshotSeason(PlaySnapshot snapshot,
+                                    NFLqualityControl wantedMatchups,
+                                    PlayVisitor sink)
+    {
+        BitSet selected = snapshot.selectPlays(wantedMatchups);
+        int index;
+        for (index = selected.nextSetBit(0); index >= 0;
+             index = selected.nextSetBit(index + 1)) {
+            int playTypeCode = snapshot.getPlayTypeCode(index);
+            SinglePlay.PlayType playType;
+            _lastSackIndex = -1;
+            if ((playTypeCode == PlaySnapshot.SACK) ||
+                (playTypeCode == PlaySnapshot.FAILED_SACK)) {
+                playType = _sackPlayTypes[_sackCount % _sackPlayTypes.length];
+                _lastSackIndex = _sackCount;
+                _sackCount++;
+            }
+            else
+                playType = PlaySnapshot.toPlayType(playTypeCode);
+            if (playTypeCode == PlaySnapshot.FAILED_SACK)
+                _lastSackIndex = -1; // Counted, but produced no play
+            else {
+                _playCount++;
+                sink.visitPlay(snapshot.getPlay(index, _playCount, playType));
+            }
+        } // For each wanted play in the snapshot
+    }
+
+    /* Parses every play in the data file for a season, for every team, and
+       writes them to its snapshot */
+    public void writeSnapshot(int seasonYear) throws Exception
+    {
+        PlaySnapshot snapshot = parseSnapshot(seasonYear, everyGame(),
+                                              PlaySnapshot.DEFAULT_CAPACITY);
+        snapshot.write(getSnapshotName(seasonYear));
+    }
+
+    /* Parses the plays in the data file for a season that the passed
+       selection wants. Unlike loading plays, their teams are kept, so
+       other selections within it can be made later. The capacity is the
+       number of plays to make room for up front */
+    private PlaySnapshot parseSnapshot(int seasonYear,
+                                       NFLqualityControl wantedMatchups,
+                                       int capacity) throws Exception
+    {
+        /* Parse with a fresh copy of the loader, so the counts of this one
+           are untouched. Sacks are found by the change in the count, since
+           a line can count one and then fail to parse */
+        PlayLoader parser = new PlayLoader(_directory, _leafFormat);
+        parser._teams = _teams;
+        parser._report = new LoadReport(seasonYear);
+        parser._name = getFileName(seasonYear);
+        PlaySnapshot snapshot = new PlaySnapshot(parser._name, capacity);
+        try {
+            parser._file = new BufferedReader(new FileReader(parser._name));
+            // First line is a header. Read it to burn it
+            parser._file.readLine();
+            parser._buffer = parser._file.readLine();
+            while (parser._buffer != null) {
+                int sackCount = parser._sackCount;
+                SinglePlay play = parser.processPlay(wantedMatchups);
+                String offense = null;
+                String defense = null;
+                if (parser._lastOffense >= 0) {
+                    offense = _teams.getTeam(parser._lastOffense);
+                    defense = _teams.getTeam(parser._lastDefense);
+                }
+                if (play != null) {
+                    if (parser._lastSackIndex >= 0)
+                        snapshot.addPlay(offense, defense, PlaySnapshot.SACK,
+                                         play);
+                    else
+                        snapshot.addPlay(offense, defense,
+                                         play.getPlayType().ordinal(), play);
+                } // Play parsed
+                else if (parser._sackCount != sackCount)
+                    snapshot.addFailedSack(offense, defense);
+                parser._buffer = parser._file.readLine();
+            } // While lines in the data file to process
+            parser.closeFile();
+        } // Try..catch block around reading the file
+        catch (Exception e) {
+            /* Clean up before continuing */
+            parser.closeFile();
+            throw e;
+        }
+        parser._report.addTotals(parser._playCount, parser._sackCount);
+        _reports.add(parser._report);
+        return snapshot;
+    }
+
+    /* Writes snapshots for the passed number of seasons, counting back from
+       the latest. Negative means all of them */
+    public void writeSnapshots(int yearRange) throws Exception
+    {
+        _reports.clear();
+        Iterator<SeasonCatalog.Season> seasonPtr = getSeasons(yearRange, null).iterator();
+        while (seasonPtr.hasNext()) {
+            SeasonCatalog.Season season = seasonPtr.next();
+            // Every line may be a play, so size the snapshot for all of them
+            parseSnapshot(season.getYear(), everyGame(),
+                          season.getRows()).write(getSnapshotName(season.getYear()));
+        }
+    }
+
+    /* Returns the team selection by team IDs for the wanted teams. Kept
+       between plays, so each pair of teams is only checked once */
+    private TeamMatchups getMatchups(NFLqualityControl wantedMatchups)
+    {
+        if ((_matchups == null) || !_matchups.isFor(wantedMatchups))
+            _matchups = new TeamMatchups(_teams, wantedMatchups);
+        return _matchups;
+    }
+
     /** Process a single play from a data file */
     public SinglePlay processPlay(NFLqualityControl wantedMatchups)
     {
@@ -248,6 +1119,9 @@ public final class PlayLoader {
            gameid,qtr,min,sec,off,def,down,togo,ydline,description,offscore,defscore,season
            They are extracted by searching for the commas */
         _position = 0; // New extraction, so reset processing position
+        _report.countLine();
+        _lastOffense = -1;
+        _lastDefense = -1;
 
         // First category is a game ID, burn it
         burnField();
@@ -287,8 +1161,10 @@ public final class PlayLoader {
                needed, since anything that matches the second part also matches
                the first. It is here for clarity to point out the comma must
                exist to be a valid field with no down data */
-            if ((testPos != -1) && (testPos == (_position + 1)))
+            if ((testPos != -1) && (testPos == (_position + 1))) {
+                _report.addSkip(LoadReport.Skip.NON_DOWN);
                 return null; // Non-down play, so not included
+            }
             else
                 down = extractNumericField();
         } // Properly formatted input to this point
@@ -297,29 +1173,20 @@ public final class PlayLoader {
            bad input */
         SinglePlay.DownNumber downNumber = null;
         if (bufferValid()) {
-            switch(down) {
-            case 1:
-                downNumber = SinglePlay.DownNumber.FIRST_DOWN;
-                break;
-            case 2:
-                downNumber = SinglePlay.DownNumber.SECOND_DOWN;
-                break;
-            case 3:
-                downNumber = SinglePlay.DownNumber.THIRD_DOWN;
-                break;
-            case 4:
-                downNumber = SinglePlay.DownNumber.FOURTH_DOWN;
-                break;
-            default:
+            downNumber = toDownNumber(down);
+            if (downNumber == null)
                 setBufferInvalid(); // Unknown down
-            } // Switch on down from input
         }
 
         /* At this point, have enough information to determine whether this
            play is wanted or not. If it fails selection, return now */
         if (bufferValid()) {
-            if (!wantedMatchups.selectGame(offense, defense))
+            _lastOffense = _teams.getId(offense);
+            _lastDefense = _teams.getId(defense);
+            if (!getMatchups(wantedMatchups).selectGame(_lastOffense, _lastDefense)) {
+                _report.addSkip(LoadReport.Skip.OTHER_TEAMS);
                 return null; // Play not for wanted team combination, ignore
+            }
         }
 
         /* If get to here, want the play. Extract remaining data snd
@@ -363,17 +1230,29 @@ public final class PlayLoader {
                 playData = parsePlayDescription(description);
             } // Try block around play description parsing
             catch (Exception e) {
-                System.out.println("Exception " + e + " parsing play description");
-                // Don't output descrition, message below wil handle it
-                setBufferInvalid();
+                _report.addProblem(LoadReport.Problem.DESCRIPTION_ERROR,
+                                   e + " parsing " + _buffer);
+                return null; // No play read
             }
         } // No errors to this point
 
         if (!bufferValid()) { // Problems parsing the input
-            System.out.println("Improperly formatted input: " + _buffer);
+            _report.addProblem(LoadReport.Problem.IMPROPER_FORMAT, _buffer);
             return null; // No play read
         }
-        else if (playData.havePlayData()) {
+        else
+            return newPlay(playData, downNumber, distanceNeeded, yardLine,
+                           minutes, ownScore, oppScore);
+    } // processPlay method
+
+    /* Creates a play from its parsed data, and numbers it. Returns null if
+       the description was not for a known play type */
+    private SinglePlay newPlay(ParsePlayData playData,
+                               SinglePlay.DownNumber downNumber,
+                               int distanceNeeded, int yardLine, int minutes,
+                               int ownScore, int oppScore)
+    {
+        if (playData.havePlayData()) {
             _playCount++;
             return new SinglePlay(_playCount, playData.getPlayType(),
                                   downNumber, distanceNeeded, yardLine, minutes,
@@ -382,7 +1261,493 @@ public final class PlayLoader {
         }
         else
             return null; // Not a known play type
-    } // processPlay method
+    }
+
+    // Converts a down number from a data file to a category, null if unknown
+    private static SinglePlay.DownNumber toDownNumber(int down)
+    {
+        switch(down) {
+        case 1:
+            return SinglePlay.DownNumber.FIRST_DOWN;
+        case 2:
+            return SinglePlay.DownNumber.SECOND_DOWN;
+        case 3:
+            return SinglePlay.DownNumber.THIRD_DOWN;
+        case 4:
+            return SinglePlay.DownNumber.FOURTH_DOWN;
+        default:
+            return null;
+        } // Switch on down from input
+    }
+
+    /* Private class to scan the fields of one line of a memory mapped data
+       file. It works just like the string based field extraction of this
+       class, with a position on the comma before the next field, but on
+       the raw bytes. One object is reused for every line of a file */
+    private static final class MappedLine
+    {
+        private ByteBuffer _bytes;
+        private int _start; // First byte of the line
+        private int _end; // Byte after the last of the line
+        private int _position; // Comma before the next field, -1 if invalid
+        private byte[] _scratch; // Copy of a field to convert to a string
+
+        public MappedLine(ByteBuffer bytes)
+        {
+            _bytes = bytes;
+            _scratch = new byte[256];
+        }
+
+        // Sets the line to scan, and starts at its beginning
+        public void reset(int start, int end)
+        {
+            _start = start;
+            _end = end;
+            _position = start;
+        }
+
+        public ByteBuffer getBytes()
+        {
+            return _bytes;
+        }
+
+        public int getPosition()
+        {
+            return _position;
+        }
+
+        public boolean isValid()
+        {
+            return (_position >= 0);
+        }
+
+        public void setInvalid()
+        {
+            _position = -1;
+        }
+
+        // Returns the position of the next comma at or after the passed one
+        private int findComma(int from)
+        {
+            int index;
+            for (index = from; index < _end; index++)
+                if (_bytes.get(index) == ',')
+                    return index;
+            return -1;
+        }
+
+        // Skips the next field
+        public void burnField()
+        {
+            _position = findComma(_position + 1);
+        }
+
+        // Returns true if the next field is empty
+        public boolean nextFieldEmpty()
+        {
+            return (findComma(_position + 1) == (_position + 1));
+        }
+
+        /* Skips the next field, and returns the position of its first byte.
+           The position is then on the comma after it */
+        public int extractField()
+        {
+            int fieldStart = _position + 1;
+            _position = findComma(fieldStart);
+            return fieldStart;
+        }
+
+        /* Extracts the value of a numeric field in place. Anything but an
+           optional sign followed by digits is misformatted input */
+        public int extractNumericField()
+        {
+            int fieldStart = extractField();
+            if (!isValid())
+                return -1; // TOKEN VALUE
+            int index = fieldStart;
+            boolean negative = false;
+            if ((index < _position) && ((_bytes.get(index) == '-') ||
+                                        (_bytes.get(index) == '+'))) {
+                negative = (_bytes.get(index) == '-');
+                index++;
+            }
+            if (index >= _position) { // No digits
+                setInvalid();
+                return -1;
+            }
+            long result = 0;
+            for (; index < _position; index++) {
+                int digit = _bytes.get(index) - '0';
+                if ((digit < 0) || (digit > 9) || (result > Integer.MAX_VALUE)) {
+                    setInvalid();
+                    return -1;
+                }
+                result = (result * 10) + digit;
+            }
+            if (negative)
+                result = -result;
+            if ((result > Integer.MAX_VALUE) || (result < Integer.MIN_VALUE)) {
+                setInvalid();
+                return -1;
+            }
+            return (int)result;
+        }
+
+        // Extracts the value of a string field
+        public String extractStringField()
+        {
+            int fieldStart = extractField();
+            if (!isValid())
+                return null;
+            return toString(fieldStart, _position);
+        }
+
+        // Converts a range of bytes in the line to a string
+        private String toString(int start, int end)
+        {
+            int length = end - start;
+            if (_scratch.length < length)
+                _scratch = new byte[Math.max(length, _scratch.length * 2)];
+            int index;
+            for (index = 0; index < length; index++)
+                _scratch[index] = _bytes.get(start + index);
+            return new String(_scratch, 0, length, StandardCharsets.ISO_8859_1);
+        }
+
+        // Returns the entire line, for error messages
+        public String toString()
+        {
+            return toString(_start, _end);
+        }
+    }
+
+    /* Loads plays for the wanted teams for one season by memory mapping the
+       file and scanning its bytes */
+    private void loadMappedSeason(NFLqualityControl wantedMatchups,
+                                  PlayVisitor sink) throws IOException
+    {
+        ByteBuffer bytes = mapFile(_name);
+        // First line is a header. Skip it
+        scanLines(bytes, nextLine(bytes, 0, bytes.limit()), bytes.limit(),
+                  wantedMatchups, sink);
+    }
+
+    // Memory maps the passed file, and returns its bytes
+    static ByteBuffer mapFile(String name) throws IOException
+    {
+        RandomAccessFile file = new RandomAccessFile(name, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Play data file " + name + " too large to map");
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } // Try block around the open file
+        finally {
+            file.close(); // The mapping stays valid until it is collected
+        }
+    }
+
+    /* Processes the lines of a memory mapped data file within the passed range
+       of bytes, which must start at the beginning of a line */
+    private void scanLines(ByteBuffer bytes, int start, int end,
+                           NFLqualityControl wantedMatchups, PlayVisitor sink)
+    {
+        MappedLine line = new MappedLine(bytes);
+        int lineStart = start;
+        while (lineStart < end) {
+            int lineEnd = nextLine(bytes, lineStart, end);
+            SinglePlay play = processMappedLine(line, lineStart, lineEnd,
+                                                wantedMatchups);
+            if (play != null)
+                sink.visitPlay(play);
+            lineStart = lineEnd;
+        } // While lines in the range to process
+    }
+
+    /* Processes the line of a memory mapped data file between the passed
+       bytes, which include its line terminator */
+    private SinglePlay processMappedLine(MappedLine line, int lineStart,
+                                         int lineEnd,
+                                         NFLqualityControl wantedMatchups)
+    {
+        /* Like readLine(), drop the line terminator, including the carriage
+           return of Windows files */
+        ByteBuffer bytes = line.getBytes();
+        int textEnd = lineEnd;
+        if ((textEnd > lineStart) && (bytes.get(textEnd - 1) == '\n'))
+            textEnd--;
+        if ((textEnd > lineStart) && (bytes.get(textEnd - 1) == '\r'))
+            textEnd--;
+        line.reset(lineStart, textEnd);
+        return processMappedPlay(line, wantedMatchups);
+    }
+
+    /* Private class to split the lines of the season files to stream plays
+       from, and parse them as the plays are wanted. It covers a range of the
+       lines, from a position in one file to a position in another, with
+       every file between covered whole. Splitting hands over the first half
+       of the range, by files while it covers more than one, then by lines.
+
+       Each one parses with its own copy of the loader, so plays are numbered
+       and sacks given pass play types from the start of its range
+       WARNING: This means only sequential streams give the same plays as
+       loading them into a data store. Parallel ones have the same plays with
+       the same values, but the play IDs repeat between ranges, and sacks are
+       spread over the pass play types per range */
+    private static final class PlaySpliterator implements Spliterator<SinglePlay>
+    {
+        // Smallest range of a file split in two, in bytes
+        private static final int _minimumSplit = 1 << 16;
+        // Rough size of a line of a data file, for estimating plays
+        private static final int _bytesPerLine = 100;
+
+        private PlayLoader _parser;
+        private NFLqualityControl _wantedMatchups;
+        private ByteBuffer[] _files; // Shared between all the ranges
+        private int[] _starts; // Start of the lines of each file, after the header
+
+        private int _file; // Current file
+        private int _position; // Start of the next line of the current file
+        private MappedLine _line; // Of the current file, null until needed
+        private int _lastFile;
+        private int _end; // End of the range in the last file
+
+        public PlaySpliterator(PlayLoader template,
+                               NFLqualityControl wantedMatchups,
+                               ByteBuffer[] files, int[] starts, int file,
+                               int position, int lastFile, int end)
+        {
+            _parser = template.newWorker();
+            _wantedMatchups = wantedMatchups;
+            _files = files;
+            _starts = starts;
+            _file = file;
+            _position = position;
+            _line = null;
+            _lastFile = lastFile;
+            _end = end;
+        }
+
+        // Returns the end of the range within the passed file
+        private int getLimit(int file)
+        {
+            if (file == _lastFile)
+                return _end;
+            else
+                return _files[file].limit();
+        }
+
+        public boolean tryAdvance(Consumer<? super SinglePlay> action)
+        {
+            while (_file <= _lastFile) {
+                if (_position >= getLimit(_file)) {
+                    // Move to the next file
+                    _file++;
+                    if (_file <= _lastFile)
+                        _position = _starts[_file];
+                    _line = null;
+                    continue;
+                }
+                if (_line == null)
+                    _line = new MappedLine(_files[_file].duplicate());
+                int lineEnd = nextLine(_files[_file], _position, getLimit(_file));
+                SinglePlay play = _parser.processMappedLine(_line, _position,
+                                                            lineEnd,
+                                                            _wantedMatchups);
+                _position = lineEnd;
+                if (play != null) {
+                    action.accept(play);
+                    return true;
+                }
+            } // While lines in the range
+            return false;
+        }
+
+        public Spliterator<SinglePlay> trySplit()
+        {
+            if (_file > _lastFile)
+                return null; // Nothing left
+            PlaySpliterator prefix;
+            if (_file < _lastFile) {
+                // Hand over the first half of the files
+                int middle = (_file + _lastFile + 1) / 2;
+                prefix = new PlaySpliterator(_parser, _wantedMatchups, _files,
+                                             _starts, _file, _position,
+                                             middle - 1,
+                                             _files[middle - 1].limit());
+                _file = middle;
+                _position = _starts[middle];
+            } // Range covers several files
+            else {
+                /* Hand over the first half of the lines. Move the split to the
+                   start of the next line, just as when loading in parallel */
+                if ((_end - _position) < _minimumSplit)
+                    return null;
+                int split = nextLine(_files[_file],
+                                     _position + ((_end - _position) / 2) - 1,
+                                     _end);
+                if (split >= _end)
+                    return null;
+                prefix = new PlaySpliterator(_parser, _wantedMatchups, _files,
+                                             _starts, _file, _position,
+                                             _file, split);
+                _position = split;
+            } // Range within one file
+            _line = null;
+            return prefix;
+        }
+
+        public long estimateSize()
+        {
+            long bytes = 0;
+            int file;
+            for (file = _file; file <= _lastFile; file++) {
+                int start = _starts[file];
+                if (file == _file)
+                    start = _position;
+                bytes += Math.max(0, getLimit(file) - start);
+            }
+            return bytes / _bytesPerLine;
+        }
+
+        public int characteristics()
+        {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
+
+    /* Splits the lines of a memory mapped data file after the header into
+       about the wanted number of ranges of bytes. Each range starts at the
+       beginning of a line, and each one ends where the next starts. Returns
+       the starts of the ranges, followed by the end of the last */
+    private static ArrayList<Integer> splitLines(ByteBuffer bytes, int chunks)
+    {
+        ArrayList<Integer> result = new ArrayList<Integer>();
+        int end = bytes.limit();
+        int start = nextLine(bytes, 0, end); // Skip the header
+        result.add(start);
+        int chunkSize = Math.max(1, (end - start) / chunks);
+        int chunk;
+        for (chunk = 1; chunk < chunks; chunk++) {
+            /* Move the split forward to the start of the next line. Long lines
+               can push it past later splits, which are then dropped */
+            int split = nextLine(bytes, Math.max(start + (chunk * chunkSize) - 1,
+                                                 result.get(result.size() - 1)),
+                                 end);
+            if ((split > result.get(result.size() - 1)) && (split < end))
+                result.add(split);
+        }
+        result.add(end);
+        return result;
+    }
+
+    // Returns the start of the line after the one starting at the passed byte
+    private static int nextLine(ByteBuffer bytes, int start, int end)
+    {
+        int index;
+        for (index = start; index < end; index++)
+            if (bytes.get(index) == '\n')
+                return index + 1;
+        return end;
+    }
+
+    /* Process a single play from a memory mapped data file. This follows
+       processPlay() exactly, but only creates strings for wanted plays */
+    private SinglePlay processMappedPlay(MappedLine line,
+                                        NFLqualityControl wantedMatchups)
+    {
+        /* Play data is organized in the following fields:
+           gameid,qtr,min,sec,off,def,down,togo,ydline,description,offscore,defscore,season */
+        _report.countLine();
+        // Burn the game ID and quarter
+        line.burnField();
+        if (line.isValid())
+            line.burnField();
+
+        int minutes = 0;
+        if (line.isValid())
+            minutes = line.extractNumericField();
+
+        // Burn the seconds
+        if (line.isValid())
+            line.burnField();
+
+        // Find the offense and defense, without extracting them
+        int offenseStart = 0;
+        int offenseEnd = 0;
+        if (line.isValid()) {
+            offenseStart = line.extractField();
+            offenseEnd = line.getPosition();
+        }
+        int defenseStart = 0;
+        int defenseEnd = 0;
+        if (line.isValid()) {
+            defenseStart = line.extractField();
+            defenseEnd = line.getPosition();
+        }
+
+        // Plays with no down are non-down plays, deliberately ignored
+        SinglePlay.DownNumber downNumber = null;
+        if (line.isValid()) {
+            if (line.nextFieldEmpty()) {
+                _report.addSkip(LoadReport.Skip.NON_DOWN);
+                return null; // Non-down play, so not included
+            }
+            downNumber = toDownNumber(line.extractNumericField());
+            if (downNumber == null)
+                line.setInvalid(); // Unknown down
+        }
+
+        /* Have enough to select the play. If it fails selection, return now.
+           Teams are looked up from the bytes, so no strings are created */
+        _lastOffense = -1;
+        _lastDefense = -1;
+        if (line.isValid()) {
+            _lastOffense = _teams.getId(line.getBytes(), offenseStart, offenseEnd);
+            _lastDefense = _teams.getId(line.getBytes(), defenseStart, defenseEnd);
+            if (!getMatchups(wantedMatchups).selectGame(_lastOffense, _lastDefense)) {
+                _report.addSkip(LoadReport.Skip.OTHER_TEAMS);
+                return null; // Play not for wanted team combination, ignore
+            }
+        }
+
+        int distanceNeeded = 0;
+        if (line.isValid())
+            distanceNeeded = line.extractNumericField();
+        int yardLine = 0;
+        if (line.isValid())
+            yardLine = line.extractNumericField();
+        String description = null;
+        if (line.isValid())
+            description = line.extractStringField();
+        int ownScore = 0;
+        if (line.isValid())
+            ownScore = line.extractNumericField();
+        int oppScore = 0;
+        if (line.isValid())
+            oppScore = line.extractNumericField();
+
+        ParsePlayData playData = null;
+        if (line.isValid()) {
+            try {
+                playData = parsePlayDescription(description);
+            } // Try block around play description parsing
+            catch (Exception e) {
+                _report.addProblem(LoadReport.Problem.DESCRIPTION_ERROR,
+                                   e + " parsing " + line);
+                return null; // No play read
+            }
+        } // No errors to this point
+
+        if (!line.isValid()) { // Problems parsing the input
+            _report.addProblem(LoadReport.Problem.IMPROPER_FORMAT,
+                               line.toString());
+            return null; // No play read
+        }
+        else
+            return newPlay(playData, downNumber, distanceNeeded, yardLine,
+                           minutes, ownScore, oppScore);
+    } // processMappedPlay method
 
     /* Burns the field after the passed in position, and sets the position to
        the next field. If the field does not exist, position is set to -1 */
@@ -431,11 +1796,15 @@ public final class PlayLoader {
         int wordLoc;
         SinglePlay.PlayType playType = null;
         PlayResults results = null;
+        _lastSackIndex = -1;
+
+        // Find every keyword below in one pass over the description
+        _descriptionKeywords.match(description, _descriptionWords);
 
         // ' pass ' or ' passed ' indicates a pass play
-        wordLoc = description.indexOf(" pass ");
+        wordLoc = _descriptionWords.indexOf(" pass ");
         if (wordLoc < 0)
-            wordLoc = description.indexOf(" passed ");
+            wordLoc = _descriptionWords.indexOf(" passed ");
 
         if (wordLoc >= 0) {
             wordLoc += 5; // Move to next word
@@ -491,7 +1860,7 @@ public final class PlayLoader {
             else {
                 /* If the description has 'INTERCEPTION', the play is listed
                    as an interception for no yards */
-                if (description.indexOf("INTERCEPT", wordLoc) >= 0)
+                if (_descriptionWords.indexOf("INTERCEPT", wordLoc) >= 0)
                     results = new PlayResults(0, true);
                 else
                     results = extractPlayYardageTurnover(description, wordLoc);
@@ -502,11 +1871,11 @@ public final class PlayLoader {
            Thankfully, the directions are unique to running plays! Need to find
            each one individually */
         if (playType == null) {
-            wordLoc = description.indexOf(" left end ");
+            wordLoc = _descriptionWords.indexOf(" left end ");
             if (wordLoc < 0)
-                wordLoc = description.indexOf(" left guard ");
+                wordLoc = _descriptionWords.indexOf(" left guard ");
             if (wordLoc < 0)
-                wordLoc = description.indexOf(" left tackle ");
+                wordLoc = _descriptionWords.indexOf(" left tackle ");
             if (wordLoc >= 0) {
                 playType = SinglePlay.PlayType.RUN_LEFT;
                 results = extractPlayYardageTurnover(description, wordLoc);
@@ -514,11 +1883,11 @@ public final class PlayLoader {
         } // No play yet
         
         if (playType == null) {
-            wordLoc = description.indexOf(" right end ");
+            wordLoc = _descriptionWords.indexOf(" right end ");
             if (wordLoc < 0)
-                wordLoc = description.indexOf(" right guard ");
+                wordLoc = _descriptionWords.indexOf(" right guard ");
             if (wordLoc < 0)
-                wordLoc = description.indexOf(" right tackle ");
+                wordLoc = _descriptionWords.indexOf(" right tackle ");
             if (wordLoc >= 0) {
                 playType = SinglePlay.PlayType.RUN_RIGHT;
                 results = extractPlayYardageTurnover(description, wordLoc);
@@ -529,11 +1898,11 @@ public final class PlayLoader {
             /* Some rush plays have ' rushed ' with no direction. A few more
                have 'scrambled' for quarterback scrambles. Treat these as up the
                middle */
-            wordLoc = description.indexOf(" up the middle ");
+            wordLoc = _descriptionWords.indexOf(" up the middle ");
             if (wordLoc < 0)
-                wordLoc = description.indexOf(" rushed ");
+                wordLoc = _descriptionWords.indexOf(" rushed ");
             if (wordLoc < 0)
-                wordLoc = description.indexOf(" scrambles ");
+                wordLoc = _descriptionWords.indexOf(" scrambles ");
             if (wordLoc >= 0) {
                 playType = SinglePlay.PlayType.RUN_MIDDLE;
                 results = extractPlayYardageTurnover(description, wordLoc);
@@ -547,33 +1916,14 @@ public final class PlayLoader {
                always busted pass plays. The type of pass play is unknown, so
                they are evenly divided between the pass play types. */
             boolean haveSack = false;
-            wordLoc = description.indexOf(" sacked ");
+            wordLoc = _descriptionWords.indexOf(" sacked ");
             if (wordLoc >= 0)
                 haveSack = true;
             else
-                wordLoc = description.indexOf(" FUMBLES (Aborted) ");
+                wordLoc = _descriptionWords.indexOf(" FUMBLES (Aborted) ");
             if (wordLoc >= 0) {
-                switch (_sackCount % 6) {
-                case 0:
-                    playType = SinglePlay.PlayType.PASS_SHORT_LEFT;
-                    break;
-                case 1:
-                    playType = SinglePlay.PlayType.PASS_SHORT_MIDDLE;
-                    break;
-                case 2:
-                    playType = SinglePlay.PlayType.PASS_SHORT_RIGHT;
-                    break;
-                case 3:
-                    playType = SinglePlay.PlayType.PASS_DEEP_LEFT;
-                    break;
-                case 4:
-                    playType = SinglePlay.PlayType.PASS_DEEP_MIDDLE;
-                    break;
-                case 5:
-                default: // Keep the compiler happy
-                    playType = SinglePlay.PlayType.PASS_DEEP_RIGHT;
-                    break;
-                } // Switch on number of processed sacks
+                playType = _sackPlayTypes[_sackCount % _sackPlayTypes.length];
+                _lastSackIndex = _sackCount;
                 _sackCount++;
 
                 // A sack has yardage and can also fumble
@@ -589,9 +1939,9 @@ public final class PlayLoader {
         if (playType == null) {
             /* ' punts ' or ' punted ' indicates a successful punt, followed
                by the yardage */
-            wordLoc = description.indexOf(" punts ");
+            wordLoc = _descriptionWords.indexOf(" punts ");
             if (wordLoc < 0)
-                wordLoc = description.indexOf(" punted ");
+                wordLoc = _descriptionWords.indexOf(" punted ");
             if (wordLoc >= 0) {
                 playType = SinglePlay.PlayType.PUNT;
                 wordLoc += 6; // Skip word
@@ -607,7 +1957,7 @@ public final class PlayLoader {
 
         if (playType == null) {
             // ' field goal ' indicates a field goal attempt.
-            wordLoc = description.indexOf(" field goal ");
+            wordLoc = _descriptionWords.indexOf(" field goal ");
             if (wordLoc >= 0) {
                 /* If the next words are 'is GOOD', it succeeded. The yardage
                    is found BEFORE the word 'yard' before the signal words. */
@@ -631,10 +1981,10 @@ public final class PlayLoader {
         if (playType == null) {
             /* The phrase ' Aborted. ' indicates a few types of busted plays.
                All three involve turning the ball over */
-            if (description.indexOf(" Aborted. ") >= 0) {
-                if (description.indexOf("Punt") >= 0)
+            if (_descriptionWords.indexOf(" Aborted. ") >= 0) {
+                if (_descriptionWords.indexOf("Punt") >= 0)
                     playType = SinglePlay.PlayType.PUNT;
-                else if (description.indexOf("Field Goal") >= 0)
+                else if (_descriptionWords.indexOf("Field Goal") >= 0)
                     playType = SinglePlay.PlayType.FIELD_GOAL;
                 else
                     // Bad handoff on a running play
@@ -646,7 +1996,7 @@ public final class PlayLoader {
         if (playType == null) {
             /* ' punt is BLOCKED ' indicates an unsuccessful punt. This is
                treated as a turnover with no yardage */
-            wordLoc = description.indexOf(" punt is BLOCKED "); // Note carefully the spaces on either end
+            wordLoc = _descriptionWords.indexOf(" punt is BLOCKED "); // Note carefully the spaces on either end
             if (wordLoc >= 0) {
                 playType = SinglePlay.PlayType.PUNT;
                 // Unsuccessful punts are treated as turnovers
@@ -660,8 +2010,8 @@ public final class PlayLoader {
            pattern is a running play, unless it contains 'kneels', indicating a
            kneel down */
         if (playType == null) {
-            if (description.indexOf(" kneels ") < 0) {
-                wordLoc = description.indexOf(" to ");
+            if (_descriptionWords.indexOf(" kneels ") < 0) {
+                wordLoc = _descriptionWords.indexOf(" to ");
                 wordLoc += 4; // Skip 'to'
                 wordLoc = description.indexOf(' ', wordLoc + 1); // Skip team name in location
                 if (wordLoc >= 0)
@@ -679,7 +2029,7 @@ public final class PlayLoader {
            listed as ' lost ' by itself followed by yardage. Treat as a run
            up the middle, since the direction is unknown */
         if (playType == null) {
-            wordLoc = description.indexOf(" lost ");
+            wordLoc = _descriptionWords.indexOf(" lost ");
             if (wordLoc >= 0) {
                 playType = SinglePlay.PlayType.RUN_MIDDLE;
                 wordLoc += 6;
@@ -703,13 +2053,16 @@ public final class PlayLoader {
            5. Some kickoffs mistakenly have a down listed
         */
         if (playType == null) {
-            if ((description.indexOf("PENALTY") < 0) &&
-                (description.indexOf("penalized") < 0) &&
-                (description.indexOf("kneels") < 0) &&
-                (description.indexOf("spiked") < 0) &&
-                (description.indexOf("kicked") < 0) &&
-                (description.indexOf(" play under review ") < 0))
-                System.out.println("UNKNOWN PLAY TYPE: " + description);
+            if ((_descriptionWords.indexOf("PENALTY") < 0) &&
+                (_descriptionWords.indexOf("penalized") < 0) &&
+                (_descriptionWords.indexOf("kneels") < 0) &&
+                (_descriptionWords.indexOf("spiked") < 0) &&
+                (_descriptionWords.indexOf("kicked") < 0) &&
+                (_descriptionWords.indexOf(" play under review ") < 0))
+                _report.addProblem(LoadReport.Problem.UNKNOWN_PLAY_TYPE,
+                                   description);
+            else
+                _report.addSkip(LoadReport.Skip.NON_PLAY);
             return new ParsePlayData(null, 0, false);
         } // Not a known play type
         else
@@ -724,7 +2077,7 @@ public final class PlayLoader {
         
         /* Yards gained always appears as ' for XXX yards'. Search for the
            ' for ' to find it */
-        int wordLoc = description.indexOf(" for ", pos);
+        int wordLoc = _descriptionWords.indexOf(" for ", pos);
         if (wordLoc < 0)
             throw new IllegalArgumentException();
 
@@ -756,7 +2109,7 @@ public final class PlayLoader {
 
         /* If the description contains 'FUMBLE', the ball carrier turned
            it over */
-        turnedOver = (description.indexOf("FUMBLE", nextWordLoc) > 0);
+        turnedOver = (_descriptionWords.indexOf("FUMBLE", nextWordLoc) > 0);
         return new PlayResults(distanceGained, turnedOver);
     } // extractPlayYardageTurnover method
 
@@ -774,9 +2127,159 @@ public final class PlayLoader {
             return ((arg.charAt(1) < '0') || (arg.charAt(1) > '9'));
     }
 
-    // Object test program. Creates a data store, loads it, and outputs it
+    /* Writes a data file for one season with random plays, for testing. The
+       descriptions are a fixed set covering runs, passes, sacks, punts, and
+       penalties, so parts of the file hold every kind of play */
+    private static void writeTestSeason(File directory, int seasonYear,
+                                        int lineCount, Random random) throws IOException
+    {
+        String[] teams = { "NE", "NYJ", "BUF", "MIA", "DAL", "NYG" };
+        String[] descriptions = {
+            "(10:00) T.Brady pass short left to W.Welker to NYJ 40 for 7 yards (D.Revis).",
+            "(8:00) T.Brady sacked at NE 20 for -8 yards (C.Pace).",
+            "(1:00) T.Brady scrambles right end to NYJ 30 for a loss of 3 yards.",
+            "(9:00) L.Maroney left end to NE 30 for 4 yards (B.Scott).",
+            "(2:00) T.Brady pass incomplete deep middle to R.Moss.",
+            "(7:00) C.Hanson punts 44 yards to NYJ 20",
+            "(3:00) PENALTY on NE",
+            "(8:00) T.Brady sacked at NE 25 for -5 yards (D.Harris).",
+            "(5:00) T.Brady pass deep right to R.Moss to NYJ 10 for 30 yards FUMBLES" };
+        PrintWriter file = new PrintWriter(new FileWriter(new File(directory,
+                                                                   seasonYear + "_nfl_pbp_data.csv")));
+        try {
+            file.println("gameid,qtr,min,sec,off,def,down,togo,ydline,description,offscore,defscore,season");
+            int line;
+            for (line = 0; line < lineCount; line++) {
+                int offense = random.nextInt(teams.length);
+                int defense = (offense + 1 + random.nextInt(teams.length - 1)) % teams.length;
+                file.println(seasonYear + "_" + (line / 100) + "," +
+                             (1 + random.nextInt(4)) + "," +
+                             random.nextInt(60) + "," + random.nextInt(60) + "," +
+                             teams[offense] + "," + teams[defense] + "," +
+                             (1 + random.nextInt(4)) + "," +
+                             (1 + random.nextInt(20)) + "," +
+                             (1 + random.nextInt(99)) + "," +
+                             descriptions[random.nextInt(descriptions.length)] + "," +
+                             random.nextInt(40) + "," + random.nextInt(40) + "," +
+                             seasonYear);
+            } // For each line to write
+        }
+        finally {
+            file.close();
+        }
+    }
+
+    /* Returns the plays loaded and the reports of a loader as one string,
+       so different ways of loading can be compared */
+    private static String describeLoad(DataStore dataStore, PlayLoader loader)
+    {
+        return dataStore.toString() + loader.getLoadReports();
+    }
+
+    /* Loads generated seasons every way the loader can, and checks that each
+       gives exactly the plays and reports of loading them one at a time.
+       Sacks are spread over the pass play types by a running count, and
+       plays are numbered across seasons, so any mistake merging the parts
+       loaded in parallel changes the plays */
+    private static void testLoads() throws Exception
+    {
+        File directory = java.nio.file.Files.createTempDirectory("nflodap").toFile();
+        try {
+            Random random = new Random(13);
+            int seasonYear;
+            for (seasonYear = 2009; seasonYear <= 2011; seasonYear++)
+                writeTestSeason(directory, seasonYear, 500, random);
+            NFLqualityControl wantTeams = new NFLqualityControl("NE", "NYJ",
+                                                                "BUF", "MIA");
+
+            PlayLoader sequential = new PlayLoader(directory.getPath());
+            String expected = describeLoad(sequential.loadPlays(wantTeams, -1),
+                                           sequential);
+            int sacks = 0;
+            Iterator<LoadReport> reportPtr = sequential.getLoadReports().iterator();
+            while (reportPtr.hasNext()) {
+                LoadReport report = reportPtr.next();
+                System.out.println(report);
+                sacks += report.getSacks();
+            }
+            System.out.println("Sacks loaded:" + sacks);
+
+            PlayLoader mapped = new PlayLoader(directory.getPath());
+            mapped.setMemoryMapped(true);
+            System.out.println("Memory mapped matches:"
+                               + expected.equals(describeLoad(mapped.loadPlays(wantTeams, -1),
+                                                              mapped)));
+
+            /* Zero chunks lets the loader pick, which for files this small is
+               one per season. More chunks than lines leaves some empty */
+            int chunks;
+            for (chunks = 0; chunks <= 5; chunks++) {
+                PlayLoader parallel = new PlayLoader(directory.getPath());
+                parallel.setParallel(true);
+                parallel.setChunksPerFile(chunks);
+                System.out.println("Parallel with " + chunks + " chunks matches:"
+                                   + expected.equals(describeLoad(parallel.loadPlays(wantTeams, -1),
+                                                                  parallel)));
+            } // For each number of chunks
+            PlayLoader manyChunks = new PlayLoader(directory.getPath());
+            manyChunks.setParallel(true);
+            manyChunks.setChunksPerFile(1000);
+            System.out.println("Parallel with 1000 chunks matches:"
+                               + expected.equals(describeLoad(manyChunks.loadPlays(wantTeams, -1),
+                                                              manyChunks)));
+
+            /* Files too large to map are loaded by season instead. Merge a
+               part per season directly, read both ways */
+            boolean[] mapSeasons = { false, true };
+            int mapIndex;
+            for (mapIndex = 0; mapIndex < mapSeasons.length; mapIndex++) {
+                PlayLoader bySeason = new PlayLoader(directory.getPath());
+                bySeason.setMemoryMapped(mapSeasons[mapIndex]);
+                DataStore seasonStore = bySeason.newDataStore();
+                Iterator<SeasonCatalog.Season> seasonPtr = bySeason.getSeasons(-1, wantTeams).iterator();
+                while (seasonPtr.hasNext())
+                    bySeason.mergePart(bySeason.newWorker().loadPart(wantTeams,
+                                                                     seasonPtr.next().getYear()),
+                                       seasonStore);
+                System.out.println("Parts by season, mapped " + mapSeasons[mapIndex]
+                                   + ", matches:"
+                                   + expected.equals(describeLoad(seasonStore, bySeason)));
+            } // For each way to read the seasons
+
+            /* Snapshots are loaded a season at a time, and report themselves
+               as snapshots, so compare against loading them sequentially */
+            PlayLoader writer = new PlayLoader(directory.getPath());
+            writer.writeSnapshots(-1);
+            PlayLoader snapshots = new PlayLoader(directory.getPath());
+            snapshots.setUseSnapshots(true);
+            DataStore snapshotStore = snapshots.loadPlays(wantTeams, -1);
+            boolean snapshotMatch = expected.startsWith(snapshotStore.toString());
+            String snapshotExpected = describeLoad(snapshotStore, snapshots);
+            PlayLoader parallelSnapshots = new PlayLoader(directory.getPath());
+            parallelSnapshots.setUseSnapshots(true);
+            parallelSnapshots.setParallel(true);
+            snapshotMatch &= snapshotExpected.equals(describeLoad(parallelSnapshots.loadPlays(wantTeams, -1),
+                                                                  parallelSnapshots));
+            System.out.println("Parallel snapshots match:" + snapshotMatch);
+        } // Try block around the test files
+        finally {
+            File[] files = directory.listFiles();
+            int index;
+            for (index = 0; index < files.length; index++)
+                files[index].delete();
+            directory.delete();
+        }
+    }
+
+    /* Object test program. Creates a data store, loads it, and outputs it.
+       With no arguments, tests loading generated files instead */
     public static void main(String[] args) throws Throwable
     {
+        if (args.length == 0) {
+            testLoads();
+            return;
+        }
+
         String ourTeam = null;
         String opposition = null;
         String ourSimiliar = null;
@@ -852,7 +2355,7 @@ public final class PlayLoader {
         } // More than three arguments
 
         if (invalidInput) {
-            System.out.println("Usage: US OPPONENT [-u] [SIMILIAR US TEAMS] [-o] [SIMILIAR OTHER TEAMS]");
+            System.out.println("Usage: US OPPONENT [-u] [SIMILIAR US TEAMS] [-o] [SIMILIAR OTHER TEAMS], or no arguments to test loading");
             throw new IllegalArgumentException();
         }
 
@@ -866,6 +2369,9 @@ public final class PlayLoader {
             DataStore result = test.loadPlays(wantTeams, 1);
             System.out.println(result);
             System.out.println(wantTeams);
+            Iterator<LoadReport> reportPtr = test.getLoadReports().iterator();
+            while (reportPtr.hasNext())
+                System.out.println(reportPtr.next());
         }
         catch (Throwable e) {
             System.out.println("Exeption " + e + " caught");
@@ -0,0 +1,44 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+/* This interface defines a selector built as a chain of links, each testing
+   a single play category or some other value. A view of a data store takes
+   the chain apart so it can answer the tests on categories from the bitmap
+   index of the data store, instead of testing them on every play. A play is
+   selected only if every link of the chain selects it */
+public interface PlaySelectorChain extends PlaySelector
+{
+    /* Returns the play category this link alone keeps one value of, or null
+       if the link tests something else */
+    public Class<?> getCategory();
+
+    // Returns the value kept by this link. Only valid if it has a category
+    public Enum<?> getCategoryValue();
+
+    // Returns true if the play passes the test of this link alone
+    public boolean selectLink(SinglePlay play);
+
+    // Returns the next link of the chain, or null if this is the last one
+    public PlaySelectorChain getNextLink();
+}
@@ -0,0 +1,495 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.io.*;
+import java.util.*;
+import java.nio.*;
+import java.util.zip.*;
+
+/* This class holds the parsed plays of one season data file, for saving to a
+   binary snapshot and loading back. Parsing a data file is expensive, mostly
+   thanks to the play descriptions, and every run parses the same files the
+   same way. A snapshot holds the results, so later runs just read them.
+
+   A snapshot holds every play in the file that parsed, for every team, since
+   which teams are wanted changes from run to run. Team selection is done when
+   the plays are loaded, exactly as it is done when parsing the file. Sacks
+   are stored as sacks, and given a pass play type when loaded, since that
+   depends on the sacks of the wanted teams loaded before them. A line that
+   counted a sack but then failed to parse is stored as well, so the count
+   stays exactly as parsing the file would leave it.
+
+   The plays are stored by column, each one a fixed width array of values.
+   Teams are stored as indexes into a table of team names. The file layout,
+   all big endian, is:
+   Magic number and format version, ints
+   Length, modification time, and CRC32 of the data file, longs
+   Number of teams, int, then each team name in modified UTF-8
+   Number of plays, int
+   Offense, defense, play type, down, and turnover columns, a byte each
+   Distance needed, field location, time remaining, score differential, and
+   distance gained columns, a short each
+   CRC32 of everything above, long
+
+   A snapshot is current if the data file has the same length and either the
+   same modification time or the same checksum. Snapshots that are not
+   current, corrupt, or of another format version are never loaded, so the
+   caller just parses the file instead */
+public final class PlaySnapshot {
+
+    private static final int _magicNumber = 0x4e464c53; // "NFLS"
+    /* Version of the file layout. Must be changed whenever the layout or the
+       parsing of data files changes, or old snapshots will be loaded */
+    private static final int _formatVersion = 1;
+
+    // Plays to make room for when the number is not known
+    static final int DEFAULT_CAPACITY = 1024;
+
+    // Play type codes beyond the play type ordinals
+    static final int SACK = 254;
+    static final int FAILED_SACK = 255; // Counted a sack, then failed to parse
+
+    // Data file the plays were parsed from
+    private long _sourceLength;
+    private long _sourceModified;
+    private long _sourceChecksum;
+
+    private ArrayList<String> _teams;
+    private HashMap<String, Integer> _teamIndexes;
+
+    private int _size; // Number of plays
+    private byte[] _offense;
+    private byte[] _defense;
+    private byte[] _playType;
+    private byte[] _down;
+    private byte[] _turnedOver;
+    private short[] _distanceNeeded;
+    private short[] _fieldLocation;
+    private short[] _timeRemaining;
+    private short[] _scoreDifferential;
+    private short[] _distanceGained;
+
+    /* Plays of each pair of teams, indexed by the offense team index times
+       the number of teams plus the defense team index. Null until built, and
+       pairs with no plays are null */
+    private BitSet[] _pairPlays;
+
+    // Enum values cached for converting ordinals back into categories
+    private static final SinglePlay.PlayType[] _playTypeValues = SinglePlay.PlayType.values();
+    private static final SinglePlay.DownNumber[] _downValues = SinglePlay.DownNumber.values();
+
+    /* Constructor, for the plays of the passed data file, with room for the
+       passed number of plays */
+    PlaySnapshot(String sourceName, int capacity) throws IOException
+    {
+        File source = new File(sourceName);
+        _sourceLength = source.length();
+        _sourceModified = source.lastModified();
+        _sourceChecksum = checksumFile(sourceName);
+        _teams = new ArrayList<String>();
+        _teamIndexes = new HashMap<String, Integer>();
+        allocate(Math.max(1, capacity));
+    }
+
+    // Constructor, for a snapshot read from a file
+    private PlaySnapshot()
+    {
+        _teams = new ArrayList<String>();
+        _teamIndexes = new HashMap<String, Integer>();
+    }
+
+    // Creates the columns with the passed capacity, keeping existing plays
+    private void allocate(int capacity)
+    {
+        _offense = copyOf(_offense, capacity);
+        _defense = copyOf(_defense, capacity);
+        _playType = copyOf(_playType, capacity);
+        _down = copyOf(_down, capacity);
+        _turnedOver = copyOf(_turnedOver, capacity);
+        _distanceNeeded = copyOf(_distanceNeeded, capacity);
+        _fieldLocation = copyOf(_fieldLocation, capacity);
+        _timeRemaining = copyOf(_timeRemaining, capacity);
+        _scoreDifferential = copyOf(_scoreDifferential, capacity);
+        _distanceGained = copyOf(_distanceGained, capacity);
+    }
+
+    private byte[] copyOf(byte[] column, int capacity)
+    {
+        if (column == null)
+            return new byte[capacity];
+        else
+            return Arrays.copyOf(column, capacity);
+    }
+
+    private short[] copyOf(short[] column, int capacity)
+    {
+        if (column == null)
+            return new short[capacity];
+        else
+            return Arrays.copyOf(column, capacity);
+    }
+
+    // Returns the index of a team in the team table, adding it if needed
+    private int getTeamIndex(String team)
+    {
+        Integer index = _teamIndexes.get(team);
+        if (index == null) {
+            // Indexes are stored as unsigned bytes
+            if (_teams.size() > 255)
+                throw new IllegalArgumentException("Too many teams for snapshot: " + team);
+            index = _teams.size();
+            _teams.add(team);
+            _teamIndexes.put(team, index);
+        }
+        return index;
+    }
+
+    // Converts a value to a short, which every numeric value in the data fits
+    private static short toShort(int value)
+    {
+        if ((value < Short.MIN_VALUE) || (value > Short.MAX_VALUE))
+            throw new IllegalArgumentException("Value " + value + " too large for snapshot");
+        return (short)value;
+    }
+
+    /* Adds a play. The play type code is the play type ordinal, or SACK for
+       a play created from a sack. The play's own type is then ignored */
+    void addPlay(String offense, String defense, int playTypeCode,
+                 SinglePlay play)
+    {
+        if (_size == _offense.length)
+            allocate(_size * 2);
+        _offense[_size] = (byte)getTeamIndex(offense);
+        _defense[_size] = (byte)getTeamIndex(defense);
+        _playType[_size] = (byte)playTypeCode;
+        _down[_size] = (byte)play.getDown().ordinal();
+        _turnedOver[_size] = (byte)(play.getTurnedOver() ? 1 : 0);
+        _distanceNeeded[_size] = toShort(play.getDistanceNeeded());
+        _fieldLocation[_size] = toShort(play.getFieldLocation());
+        _timeRemaining[_size] = toShort(play.getTimeRemaining());
+        _scoreDifferential[_size] = toShort(play.getScoreDifferential());
+        _distanceGained[_size] = toShort(play.getDistanceGained());
+        _size++;
+    }
+
+    // Adds a line that counted a sack, but failed to parse into a play
+    void addFailedSack(String offense, String defense)
+    {
+        if (_size == _offense.length)
+            allocate(_size * 2);
+        _offense[_size] = (byte)getTeamIndex(offense);
+        _defense[_size] = (byte)getTeamIndex(defense);
+        _playType[_size] = (byte)FAILED_SACK;
+        _size++; // Other columns are left zero
+    }
+
+    // Returns the number of plays in the snapshot
+    int size()
+    {
+        return _size;
+    }
+
+    // Returns the number of plays with the passed play type code
+    int count(int playTypeCode)
+    {
+        int result = 0;
+        int index;
+        for (index = 0; index < _size; index++)
+            if ((_playType[index] & 0xff) == playTypeCode)
+                result++;
+        return result;
+    }
+
+    /* Returns which pairs of teams are wanted, indexed by the offense and then
+       the defense team index. Plays are selected through this instead of
+       comparing team names for every play */
+    private boolean[][] selectGames(NFLqualityControl wantedMatchups)
+    {
+        boolean[][] result = new boolean[_teams.size()][_teams.size()];
+        int offense;
+        int defense;
+        for (offense = 0; offense < _teams.size(); offense++)
+            for (defense = 0; defense < _teams.size(); defense++)
+                result[offense][defense] = wantedMatchups.selectGame(_teams.get(offense),
+                                                                     _teams.get(defense));
+        return result;
+    }
+
+    /* Builds a bitmap of the plays for each pair of teams. Selecting plays
+       then only combines the bitmaps of the wanted pairs, instead of checking
+       the teams of every play. Worth it for snapshots kept in memory and
+       selected from many times */
+    void buildPairIndex()
+    {
+        BitSet[] pairPlays = new BitSet[_teams.size() * _teams.size()];
+        int index;
+        for (index = 0; index < _size; index++) {
+            int pair = ((_offense[index] & 0xff) * _teams.size()) + (_defense[index] & 0xff);
+            if (pairPlays[pair] == null)
+                pairPlays[pair] = new BitSet();
+            pairPlays[pair].set(index);
+        }
+        _pairPlays = pairPlays;
+    }
+
+    /* Returns the indexes of the plays for the wanted teams. Plays are still
+       processed in file order by walking the result in order */
+    BitSet selectPlays(NFLqualityControl wantedMatchups)
+    {
+        boolean[][] selected = selectGames(wantedMatchups);
+        BitSet result = new BitSet(_size);
+        if (_pairPlays == null) {
+            int index;
+            for (index = 0; index < _size; index++)
+                if (selected[_offense[index] & 0xff][_defense[index] & 0xff])
+                    result.set(index);
+        } // No index, so check every play
+        else {
+            int offense;
+            int defense;
+            for (offense = 0; offense < _teams.size(); offense++)
+                for (defense = 0; defense < _teams.size(); defense++) {
+                    BitSet pairPlays = _pairPlays[(offense * _teams.size()) + defense];
+                    if (selected[offense][defense] && (pairPlays != null))
+                        result.or(pairPlays);
+                }
+        } // Combine the plays of the wanted pairs
+        return result;
+    }
+
+    // Returns the play type code of the play at the passed index
+    int getPlayTypeCode(int index)
+    {
+        return _playType[index] & 0xff;
+    }
+
+    /* Returns the play at the passed index, with the passed reference ID and
+       play type */
+    SinglePlay getPlay(int index, int refId, SinglePlay.PlayType playType)
+    {
+        return new SinglePlay(refId, playType, _downValues[_down[index]],
+                              _distanceNeeded[index], _fieldLocation[index],
+                              _timeRemaining[index], _scoreDifferential[index],
+                              0, _distanceGained[index],
+                              (_turnedOver[index] != 0));
+    }
+
+    // Returns the play type with the passed ordinal
+    static SinglePlay.PlayType toPlayType(int playTypeCode)
+    {
+        return _playTypeValues[playTypeCode];
+    }
+
+    // Returns the CRC32 of the contents of a file
+    private static long checksumFile(String name) throws IOException
+    {
+        CRC32 checksum = new CRC32();
+        RandomAccessFile file = new RandomAccessFile(name, "r");
+        try {
+            byte[] buffer = new byte[1 << 16];
+            int length = file.read(buffer);
+            while (length > 0) {
+                checksum.update(buffer, 0, length);
+                length = file.read(buffer);
+            }
+        } // Try block around the open file
+        finally {
+            file.close();
+        }
+        return checksum.getValue();
+    }
+
+    /* Returns true if the snapshot holds the plays of the current contents of
+       the passed data file. The checksum is only computed if the modification
+       time changed, such as when the file is copied */
+    boolean isCurrent(String sourceName) throws IOException
+    {
+        File source = new File(sourceName);
+        if (!source.isFile() || (source.length() != _sourceLength))
+            return false;
+        else if (source.lastModified() == _sourceModified)
+            return true;
+        else
+            return (checksumFile(sourceName) == _sourceChecksum);
+    }
+
+    // Writes the snapshot to the passed file
+    void write(String name) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * _size + 1024);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(_magicNumber);
+        output.writeInt(_formatVersion);
+        output.writeLong(_sourceLength);
+        output.writeLong(_sourceModified);
+        output.writeLong(_sourceChecksum);
+        output.writeInt(_teams.size());
+        Iterator<String> teamPtr = _teams.iterator();
+        while (teamPtr.hasNext())
+            output.writeUTF(teamPtr.next());
+        output.writeInt(_size);
+        output.write(_offense, 0, _size);
+        output.write(_defense, 0, _size);
+        output.write(_playType, 0, _size);
+        output.write(_down, 0, _size);
+        output.write(_turnedOver, 0, _size);
+        writeColumn(output, _distanceNeeded);
+        writeColumn(output, _fieldLocation);
+        writeColumn(output, _timeRemaining);
+        writeColumn(output, _scoreDifferential);
+        writeColumn(output, _distanceGained);
+        output.flush();
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes.toByteArray());
+        output.writeLong(checksum.getValue());
+        output.flush();
+
+        /* Write to a temporary file and then rename it, so a failed write
+           never leaves a partial snapshot in place of a good one */
+        File target = new File(name);
+        File temporary = new File(name + ".tmp");
+        FileOutputStream file = new FileOutputStream(temporary);
+        try {
+            bytes.writeTo(file);
+        }
+        finally {
+            file.close();
+        }
+        if (target.exists() && !target.delete())
+            throw new IOException("Can not replace snapshot " + name);
+        if (!temporary.renameTo(target))
+            throw new IOException("Can not write snapshot " + name);
+    }
+
+    private void writeColumn(DataOutputStream output, short[] column) throws IOException
+    {
+        int index;
+        for (index = 0; index < _size; index++)
+            output.writeShort(column[index]);
+    }
+
+    /* Reads a snapshot from the passed file. Returns null if it does not
+       exist, or is not a valid snapshot of this format version */
+    static PlaySnapshot read(String name) throws IOException
+    {
+        File source = new File(name);
+        if (!source.isFile())
+            return null;
+        // Read the whole file in one go, then decode it in memory
+        byte[] contents = new byte[(int)source.length()];
+        RandomAccessFile file = new RandomAccessFile(source, "r");
+        try {
+            file.readFully(contents);
+        }
+        finally {
+            file.close();
+        }
+        if (contents.length < 8)
+            return null;
+
+        ByteBuffer bytes = ByteBuffer.wrap(contents);
+        CRC32 checksum = new CRC32();
+        checksum.update(contents, 0, contents.length - 8);
+        if (bytes.getLong(contents.length - 8) != checksum.getValue())
+            return null; // Corrupt
+        bytes.limit(contents.length - 8);
+
+        /* The checksum matched, so any decoding failure means the file was
+           written by a different version of this class */
+        try {
+            if ((bytes.getInt() != _magicNumber) ||
+                (bytes.getInt() != _formatVersion))
+                return null;
+            PlaySnapshot result = new PlaySnapshot();
+            result._sourceLength = bytes.getLong();
+            result._sourceModified = bytes.getLong();
+            result._sourceChecksum = bytes.getLong();
+            DataInputStream teams = new DataInputStream(new ByteArrayInputStream(contents,
+                                                                                bytes.position(),
+                                                                                bytes.remaining()));
+            int teamCount = teams.readInt();
+            int index;
+            for (index = 0; index < teamCount; index++)
+                result.getTeamIndex(teams.readUTF());
+            bytes.position(bytes.limit() - teams.available());
+
+            result._size = bytes.getInt();
+            result.allocate(result._size);
+            bytes.get(result._offense);
+            bytes.get(result._defense);
+            bytes.get(result._playType);
+            bytes.get(result._down);
+            bytes.get(result._turnedOver);
+            bytes.asShortBuffer().get(result._distanceNeeded);
+            bytes.position(bytes.position() + (2 * result._size));
+            bytes.asShortBuffer().get(result._fieldLocation);
+            bytes.position(bytes.position() + (2 * result._size));
+            bytes.asShortBuffer().get(result._timeRemaining);
+            bytes.position(bytes.position() + (2 * result._size));
+            bytes.asShortBuffer().get(result._scoreDifferential);
+            bytes.position(bytes.position() + (2 * result._size));
+            bytes.asShortBuffer().get(result._distanceGained);
+            bytes.position(bytes.position() + (2 * result._size));
+            if (bytes.hasRemaining())
+                return null;
+            return result;
+        } // Try block around decoding
+        catch (BufferUnderflowException e) {
+            return null;
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+        catch (NegativeArraySizeException e) {
+            return null;
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    public String toString()
+    {
+        return "Snapshot of " + _size + " plays, " + _teams.size() + " teams";
+    }
+
+    /* Tool to convert data files to snapshots. Takes the directory with the
+       data files, and optionally the number of seasons to convert, counting
+       back from the latest */
+    public static void main(String[] args) throws Exception
+    {
+        if ((args.length < 1) || (args.length > 2)) {
+            System.out.println("Usage: DIRECTORY [SEASONS]");
+            throw new IllegalArgumentException();
+        }
+        int yearRange = -1;
+        if (args.length > 1)
+            yearRange = Integer.parseInt(args[1]);
+        PlayLoader loader = new PlayLoader(args[0]);
+        loader.writeSnapshots(yearRange);
+        Iterator<LoadReport> reportPtr = loader.getLoadReports().iterator();
+        while (reportPtr.hasNext())
+            System.out.println(reportPtr.next());
+    }
+} // class PlaySnapshot
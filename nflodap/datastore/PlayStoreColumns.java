@@ -0,0 +1,604 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class is part of the internal storage for NFL play data. It is an
+   alternative leaf of the tree to PlayStoreList. A list of plays keeps every
+   play as its own object, and each object holds several integers and five
+   enum references. Loading every team over many seasons turns into millions
+   of small objects scattered across the heap, and scanning them for a slice
+   chases a pointer per play.
+
+   This leaf instead stores each field of the plays in its own primitive array,
+   the classic columnar layout. Category values are stored as byte ordinals of
+   their enums, and numeric fields as shorts (every value in the data fits
+   easily). A play costs roughly twenty bytes, and slicing on a field only
+   scans that field's array, which stays in the processor cache.
+
+   The cost is that plays must be rebuilt as objects whenever they are read
+   out of the leaf, through rollups, pivots, and iterators. The data store
+   only does that for the plays that survive slicing, so it is a good trade
+   for large loads.
+   
+   Data is read out of the class using an iterator. It produces one list of
+   plays for each set of category values with plays defined. The lists are
+   built from the data store to protect its contents. The category values
+   are NOT reported; the caller should know the dimensions of the data store
+   (which can change thanks to pivot calls) and read them directly from the
+   plays. Any operation that modifies the data store will invalidate all
+   iterators. */
+/* NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This class is deliberately restricted to the
+   package */
+
+// The leaf of the tree containing plays that meet the wanted index criteria */
+final class PlayStoreColumns implements PlayStoreTree
+{
+    // Initial number of plays allocated in each column
+    private static final int _initialCapacity = 16;
+
+    /* Enum values cached for converting ordinals back into categories.
+       Calling values() copies the array every time, so do it once */
+    private static final SinglePlay.PlayType[] _playTypeValues = SinglePlay.PlayType.values();
+    private static final SinglePlay.DownNumber[] _downValues = SinglePlay.DownNumber.values();
+
+    private int _size; // Number of plays stored in the columns
+
+    private int [] _refIds;
+
+    // Category columns, stored as enum ordinals
+    private byte [] _playTypes;
+    private byte [] _downs;
+    private byte [] _distanceNeededCategories;
+    private byte [] _fieldLocationCategories;
+    private byte [] _timeRemainingCategories;
+    private byte [] _scoreDifferentialCategories;
+
+    // Numeric columns
+    private short [] _distanceNeeded;
+    private short [] _fieldLocation;
+    private short [] _timeRemaining;
+    private short [] _scoreDifferential;
+    private short [] _distanceGained;
+    private boolean [] _turnedOver;
+
+    private boolean _shared; // True, columns used by more than one tree
+    // Summary measures over the plays, null if they must be rebuilt
+    private PlayAggregate _aggregate;
+
+    // Constructor, create an empty set of columns
+    PlayStoreColumns()
+    {
+        this(_initialCapacity);
+    }
+
+    // Constructor, create empty columns sized for the wanted number of plays
+    PlayStoreColumns(int capacity)
+    {
+        if (capacity < 1)
+            capacity = 1;
+        _size = 0;
+        _shared = false;
+        _aggregate = new PlayAggregate();
+        _refIds = new int[capacity];
+        _playTypes = new byte[capacity];
+        _downs = new byte[capacity];
+        _distanceNeededCategories = new byte[capacity];
+        _fieldLocationCategories = new byte[capacity];
+        _timeRemainingCategories = new byte[capacity];
+        _scoreDifferentialCategories = new byte[capacity];
+        _distanceNeeded = new short[capacity];
+        _fieldLocation = new short[capacity];
+        _timeRemaining = new short[capacity];
+        _scoreDifferential = new short[capacity];
+        _distanceGained = new short[capacity];
+        _turnedOver = new boolean[capacity];
+    }
+
+    // Construct the columns from a pre-existing list of plays
+    /* NOTE: Unlike PlayStoreList, the list is copied, not shared */
+    PlayStoreColumns(ArrayList<SinglePlay> list)
+    {
+        this(list.size());
+        Iterator<SinglePlay> playPtr = list.iterator();
+        while (playPtr.hasNext())
+            insertPlay(playPtr.next());
+    }
+    
+    // Clone method
+    public Object clone() throws CloneNotSupportedException
+    {
+        return copyColumns();
+    }
+
+    // Marks these columns as shared
+    public void markShared()
+    {
+        _shared = true;
+    }
+
+    // Returns a version of these columns that can be modified
+    public PlayStoreTree writable()
+    {
+        if (_shared)
+            return copyColumns();
+        else
+            return this;
+    }
+
+    // Returns a copy of the columns
+    private PlayStoreColumns copyColumns()
+    {
+        /* The columns only hold primitives, so copying the arrays produces
+           a deep copy */
+        PlayStoreColumns newColumns = new PlayStoreColumns(_size);
+        newColumns._size = _size;
+        newColumns._aggregate = null; // Built when first needed
+        System.arraycopy(_refIds, 0, newColumns._refIds, 0, _size);
+        System.arraycopy(_playTypes, 0, newColumns._playTypes, 0, _size);
+        System.arraycopy(_downs, 0, newColumns._downs, 0, _size);
+        System.arraycopy(_distanceNeededCategories, 0,
+                         newColumns._distanceNeededCategories, 0, _size);
+        System.arraycopy(_fieldLocationCategories, 0,
+                         newColumns._fieldLocationCategories, 0, _size);
+        System.arraycopy(_timeRemainingCategories, 0,
+                         newColumns._timeRemainingCategories, 0, _size);
+        System.arraycopy(_scoreDifferentialCategories, 0,
+                         newColumns._scoreDifferentialCategories, 0, _size);
+        System.arraycopy(_distanceNeeded, 0, newColumns._distanceNeeded, 0, _size);
+        System.arraycopy(_fieldLocation, 0, newColumns._fieldLocation, 0, _size);
+        System.arraycopy(_timeRemaining, 0, newColumns._timeRemaining, 0, _size);
+        System.arraycopy(_scoreDifferential, 0, newColumns._scoreDifferential, 0, _size);
+        System.arraycopy(_distanceGained, 0, newColumns._distanceGained, 0, _size);
+        System.arraycopy(_turnedOver, 0, newColumns._turnedOver, 0, _size);
+        return newColumns;
+    }
+    
+    // Returns true if this data store is empty
+    public boolean empty()
+    {
+        return (_size == 0);
+    }
+    
+    // Insert play into the datastore
+    public void insertPlay(SinglePlay play)
+    {
+        if (_size == _refIds.length)
+            growColumns();
+        _refIds[_size] = play.getRefId();
+        _playTypes[_size] = (byte)play.getPlayType().ordinal();
+        _downs[_size] = (byte)play.getDown().ordinal();
+        _distanceNeededCategories[_size] = (byte)play.getDistanceNeededCategory().ordinal();
+        _fieldLocationCategories[_size] = (byte)play.getFieldLocationCategory().ordinal();
+        _timeRemainingCategories[_size] = (byte)play.getTimeRemainingCategory().ordinal();
+        _scoreDifferentialCategories[_size] = (byte)play.getScoreDifferentialCategory().ordinal();
+        _distanceNeeded[_size] = (short)play.getDistanceNeeded();
+        _fieldLocation[_size] = (short)play.getFieldLocation();
+        _timeRemaining[_size] = (short)play.getTimeRemaining();
+        _scoreDifferential[_size] = (short)play.getScoreDifferential();
+        _distanceGained[_size] = (short)play.getDistanceGained();
+        _turnedOver[_size] = play.getTurnedOver();
+        _size++;
+        if (_aggregate != null)
+            _aggregate.addPlay(play);
+    }
+
+    // Doubles the capacity of every column
+    private void growColumns()
+    {
+        growColumns(_refIds.length * 2);
+    }
+
+    // Grows every column to the wanted capacity
+    private void growColumns(int capacity)
+    {
+        _refIds = Arrays.copyOf(_refIds, capacity);
+        _playTypes = Arrays.copyOf(_playTypes, capacity);
+        _downs = Arrays.copyOf(_downs, capacity);
+        _distanceNeededCategories = Arrays.copyOf(_distanceNeededCategories, capacity);
+        _fieldLocationCategories = Arrays.copyOf(_fieldLocationCategories, capacity);
+        _timeRemainingCategories = Arrays.copyOf(_timeRemainingCategories, capacity);
+        _scoreDifferentialCategories = Arrays.copyOf(_scoreDifferentialCategories, capacity);
+        _distanceNeeded = Arrays.copyOf(_distanceNeeded, capacity);
+        _fieldLocation = Arrays.copyOf(_fieldLocation, capacity);
+        _timeRemaining = Arrays.copyOf(_timeRemaining, capacity);
+        _scoreDifferential = Arrays.copyOf(_scoreDifferential, capacity);
+        _distanceGained = Arrays.copyOf(_distanceGained, capacity);
+        _turnedOver = Arrays.copyOf(_turnedOver, capacity);
+    }
+
+    /* Returns the column holding ordinals for the passed category type, or
+       null if plays do not have that category */
+    private byte [] getCategoryColumn(Class<?> type)
+    {
+        // NOTE: This only works because every category has a unique type
+        if (type.isAssignableFrom(SinglePlay.PlayType.class))
+            return _playTypes;
+        else if (type.isAssignableFrom(SinglePlay.DownNumber.class))
+            return _downs;
+        else if (type.isAssignableFrom(SinglePlay.DistanceNeeded.class))
+            return _distanceNeededCategories;
+        else if (type.isAssignableFrom(SinglePlay.FieldLocation.class))
+            return _fieldLocationCategories;
+        else if (type.isAssignableFrom(SinglePlay.TimeRemaining.class))
+            return _timeRemainingCategories;
+        else if (type.isAssignableFrom(SinglePlay.ScoreDifferential.class))
+            return _scoreDifferentialCategories;
+        else
+            return null; // Not a category of plays
+    }
+
+    /* Reads an integer value out of the play at the given position. Matches
+       SinglePlay.getIntValue() */
+    private int getIntValue(int row, SinglePlay.NumericFields field)
+    {
+        int result = -1000; // Chosen as an obviously wrong value
+        switch (field) {
+        case DISTANCE_NEEDED:
+            result = _distanceNeeded[row];
+            break;
+        case FIELD_LOCATION:
+            result = _fieldLocation[row];
+            break;
+        case TIME_REMAINING:
+            result = _timeRemaining[row];
+            break;
+        case SCORE_DIFFERENTIAL:
+            result = _scoreDifferential[row];
+            break;
+        case DISTANCE_GAINED:
+            result = _distanceGained[row];
+            break;
+        case PLAY_COUNT:
+            result = 1;
+            break;
+        case TURNOVER_COUNT:
+            if (_turnedOver[row])
+                result = 1;
+            else
+                result = 0;
+            break;
+        default:
+            // Do nothing
+        }
+        return result;
+    }
+
+    /* Rebuilds the play at the given position as an object. The score
+       differential is stored instead of the two scores, which the play
+       constructor accepts as the offense score with a zero defense score */
+    private SinglePlay getPlay(int row)
+    {
+        return new SinglePlay(_refIds[row], _playTypeValues[_playTypes[row]],
+                              _downValues[_downs[row]], _distanceNeeded[row],
+                              _fieldLocation[row], _timeRemaining[row],
+                              _scoreDifferential[row], 0, _distanceGained[row],
+                              _turnedOver[row]);
+    }
+
+    // Copies the play at one position over the play at another
+    private void moveRow(int from, int to)
+    {
+        _refIds[to] = _refIds[from];
+        _playTypes[to] = _playTypes[from];
+        _downs[to] = _downs[from];
+        _distanceNeededCategories[to] = _distanceNeededCategories[from];
+        _fieldLocationCategories[to] = _fieldLocationCategories[from];
+        _timeRemainingCategories[to] = _timeRemainingCategories[from];
+        _scoreDifferentialCategories[to] = _scoreDifferentialCategories[from];
+        _distanceNeeded[to] = _distanceNeeded[from];
+        _fieldLocation[to] = _fieldLocation[from];
+        _timeRemaining[to] = _timeRemaining[from];
+        _scoreDifferential[to] = _scoreDifferential[from];
+        _distanceGained[to] = _distanceGained[from];
+        _turnedOver[to] = _turnedOver[from];
+    }
+    
+    /* Remove all plays that do not have the passed enumerated value. If the
+       value type does not exist in the play (possible thanks to the generic
+       type) nothing happens. This implements the ODAP slice operation */
+    public <P extends Enum<P>> void slice(P value, Class<P> valueType)
+    {
+        if (empty())
+            return; // Nothing to do!
+        byte [] column = getCategoryColumn(valueType);
+        if (column == null)
+            return; // Play does not have value in wanted type
+        _aggregate = null;
+
+        /* Compact the wanted plays to the front of the columns. Only the
+           column for the category needs to be scanned */
+        byte wantOrdinal = (byte)value.ordinal();
+        int newSize = 0;
+        int row;
+        for (row = 0; row < _size; row++)
+            if (column[row] == wantOrdinal) {
+                if (row != newSize)
+                    moveRow(row, newSize);
+                newSize++;
+            } // Play wanted
+        _size = newSize;
+    } // Method slice()
+    
+    /* Removes all plays whose integer field value is outside the specified
+       range. This implements a version of slice for these fields */
+    public void slice(SinglePlay.NumericFields field,
+                      IntegerRange wantRange)
+    {
+        if (empty())
+            return; // Nothing to do!
+        _aggregate = null;
+        
+        int newSize = 0;
+        int row;
+        for (row = 0; row < _size; row++)
+            if (wantRange.contains(getIntValue(row, field))) {
+                if (row != newSize)
+                    moveRow(row, newSize);
+                newSize++;
+            } // Play wanted
+        _size = newSize;
+    } // Method slice()
+    
+    // Rolls up the entire contents into the passed play list
+    public void rollup(ArrayList<SinglePlay> plays)
+    {
+        plays.ensureCapacity(plays.size() + _size);
+        int row;
+        for (row = 0; row < _size; row++)
+            plays.add(getPlay(row));
+    }
+    
+    /* Rolls up the entire contents into the passed leaf. If it is also a
+       columnar leaf, this is a bulk copy of each column */
+    public void rollup(PlayStoreTree leaf)
+    {
+        if (leaf instanceof PlayStoreColumns) {
+            PlayStoreColumns target = (PlayStoreColumns)leaf;
+            int start = target._size;
+            if (start + _size > target._refIds.length)
+                target.growColumns(Math.max(start + _size,
+                                            target._refIds.length * 2));
+            System.arraycopy(_refIds, 0, target._refIds, start, _size);
+            System.arraycopy(_playTypes, 0, target._playTypes, start, _size);
+            System.arraycopy(_downs, 0, target._downs, start, _size);
+            System.arraycopy(_distanceNeededCategories, 0,
+                             target._distanceNeededCategories, start, _size);
+            System.arraycopy(_fieldLocationCategories, 0,
+                             target._fieldLocationCategories, start, _size);
+            System.arraycopy(_timeRemainingCategories, 0,
+                             target._timeRemainingCategories, start, _size);
+            System.arraycopy(_scoreDifferentialCategories, 0,
+                             target._scoreDifferentialCategories, start, _size);
+            System.arraycopy(_distanceNeeded, 0, target._distanceNeeded, start, _size);
+            System.arraycopy(_fieldLocation, 0, target._fieldLocation, start, _size);
+            System.arraycopy(_timeRemaining, 0, target._timeRemaining, start, _size);
+            System.arraycopy(_scoreDifferential, 0, target._scoreDifferential, start, _size);
+            System.arraycopy(_distanceGained, 0, target._distanceGained, start, _size);
+            System.arraycopy(_turnedOver, 0, target._turnedOver, start, _size);
+            target._size += _size;
+            if (target._aggregate != null)
+                target._aggregate.merge(getAggregate());
+        } // Columnar leaf
+        else {
+            int row;
+            for (row = 0; row < _size; row++)
+                leaf.insertPlay(getPlay(row));
+        } // Some other type of leaf
+    }
+    
+    /* Rolls the contents into the passed enumerated map, splitting
+       plays by the category of the enumerated type */
+    // NOTE: K is used by DataStoreInterface, end up with L
+    public <L extends Enum<L>> void pivot(EnumMap<L, ArrayList<SinglePlay>> plays, Class<L> enumType)
+    {
+        /* Need to iterate through the columns and extract the wanted value
+           from each play. If an entry does not already exist in the
+           result map, have to add it, and then insert the play */
+        byte [] column = getCategoryColumn(enumType);
+        if (column == null)
+            return; // Plays do not have value in wanted type
+        L [] enumValues = enumType.getEnumConstants();
+        int row;
+        for (row = 0; row < _size; row++) {
+            L wantValue = enumValues[column[row]];
+            ArrayList<SinglePlay> wantList = plays.get(wantValue);
+            if (wantList == null) {
+                wantList = new ArrayList<SinglePlay>();
+                plays.put(wantValue, wantList);
+            }
+            wantList.add(getPlay(row));
+        } // For plays to process
+    }
+    
+    /* Rolls the contents into the passed double layered enumerated map,
+       splitting plays by the category of the enumerated types */
+    // NOTE: K is used by DataStoreInterface, end up with L and M
+    public <L extends Enum<L>, M extends Enum<M>> void pivot(EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> plays, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        /* Need to iterate through the columns and extract the wanted values
+           from each play. If an entry does not already exist in the
+           result map, have to add it, and then insert the play */
+        byte [] firstColumn = getCategoryColumn(firstEnumType);
+        byte [] secondColumn = getCategoryColumn(secondEnumType);
+        if ((firstColumn == null) || (secondColumn == null))
+            return; // Plays do not have values in wanted types
+        L [] firstValues = firstEnumType.getEnumConstants();
+        M [] secondValues = secondEnumType.getEnumConstants();
+        int row;
+        for (row = 0; row < _size; row++) {
+            L firstWantValue = firstValues[firstColumn[row]];
+            M secondWantValue = secondValues[secondColumn[row]];
+            EnumMap<M, ArrayList<SinglePlay>> wantMap = plays.get(firstWantValue);
+            if (wantMap == null) {
+                /* NOTE: creating an enum map of M here, so need the
+                   second enumerated type, not the first */
+                wantMap = new EnumMap<M, ArrayList<SinglePlay>>(secondEnumType);
+                plays.put(firstWantValue, wantMap);
+            }
+            ArrayList<SinglePlay> wantList = wantMap.get(secondWantValue);
+            if (wantList == null) {
+                wantList = new ArrayList<SinglePlay>();
+                wantMap.put(secondWantValue, wantList);
+            }
+            wantList.add(getPlay(row));
+        } // For plays to process
+    } // Pivot method
+    
+    /* Custom iterator for this data store, based on the usual design
+       pattern. The iterator is an inner class so it has access to
+       the private members of the object that generates it. Note that
+       it implements an interface, so this is also the Factory pattern */
+    public class PlayStoreIterator implements Iterator<ArrayList<SinglePlay>>
+    {
+        /* Like the iterator for PlayStoreList, this returns a single list of
+           plays. Since the columns do not hold play objects, the list is
+           built from them when it is read */
+        boolean _read;
+        
+        public PlayStoreIterator()
+            {
+                _read = empty(); // Force empty columns to be ignored
+            }    
+        
+        @Override
+            public boolean hasNext()
+            {
+                return (!_read);
+            }
+        
+        @Override
+            public ArrayList<SinglePlay> next()
+            {
+                if (_read)
+                    throw new NoSuchElementException();
+                else {
+                    _read = true;
+                    ArrayList<SinglePlay> result = new ArrayList<SinglePlay>(_size);
+                    rollup(result); // Build list from parent
+                    return result;
+                }
+            } // next method
+        
+        @Override
+            public void remove()
+            {
+                // Not allowed!
+                throw new UnsupportedOperationException();
+            }
+    } // class PlayStoreIterator
+    
+    /* Returns the summary measures over the plays, rebuilding them if a
+       slice removed plays since they were last built */
+    public PlayAggregate getAggregate()
+    {
+        if (_aggregate == null)
+            _aggregate = PlayAggregate.aggregateLeaf(this);
+        return _aggregate;
+    }
+
+    // Splits the summary measures by the values of an enum
+    public <L extends Enum<L>> void pivotAggregates(EnumMap<L, PlayAggregate> result, Class<L> enumType)
+    {
+        PlayAggregate.pivotLeaf(this, result, enumType);
+    }
+
+    // Splits the summary measures by the values of two enums
+    public <L extends Enum<L>, M extends Enum<M>> void pivotAggregates(EnumMap<L, EnumMap<M, PlayAggregate>> result, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        PlayAggregate.pivotLeaf(this, result, firstEnumType, secondEnumType);
+    }
+
+    // Leaves can't be split further
+    public void split(ArrayList<PlayStoreTree> parts, int levels,
+                      boolean writable)
+    {
+        parts.add(this);
+    }
+
+    // Leaves have no dimensions to select on, so they are a single part
+    public void selectParts(Map<Class<?>, Enum<?>> wantValues,
+                            ArrayList<PlayStoreTree> parts)
+    {
+        parts.add(this);
+    }
+
+    // Leaves have no entries, so nothing to do
+    public void pruneEmpty()
+    {
+    }
+
+    // Leaves are cells, if they have plays
+    public void addCells(ArrayList<Enum<?>> key,
+                         ArrayList<DataStoreCursor.Cell> cells)
+    {
+        if (!empty())
+            cells.add(new DataStoreCursor.Cell(key, this));
+    }
+
+    // Plays are decoded, so the list must be built
+    public List<SinglePlay> getPlayView()
+    {
+        ArrayList<SinglePlay> result = new ArrayList<SinglePlay>();
+        rollup(result);
+        return Collections.unmodifiableList(result);
+    }
+
+    // Calls the visitor on every play in the columns
+    public void visitPlays(PlayVisitor visitor)
+    {
+        int row;
+        for (row = 0; row < _size; row++)
+            visitor.visitPlay(getPlay(row));
+    }
+
+    /* Iterator on the data store. It is actually implemented by each
+       subclass using the factory pattern. */
+    public Iterator<ArrayList<SinglePlay>> iterator()
+    {
+        return new PlayStoreIterator();
+    }
+    
+    /* Dump the contents of this play list to the output, preceeded by
+       the passed index values */
+    public void toOutput(StringBuffer indexes, StringBuffer output)
+    {
+        // Generate a header of the index values for this set of plays
+        if (indexes != null) {
+            output.append("MapValues ");
+            output.append(indexes);
+            output.append("\n");
+        } // Indexes specified
+        if (empty())
+            output.append("empty\n");
+        else {
+            int row;
+            for (row = 0; row < _size; row++)
+                // Output the play. Note that it takes two lines
+                output.append(getPlay(row) + "\n");
+            output.append("\n");
+        } // Have column entries
+    } // toOutput method
+}
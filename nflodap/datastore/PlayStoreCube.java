@@ -0,0 +1,588 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class is part of the internal storage for NFL play data. It is an
+   alternative to the tree of PlayStoreNode objects for the top of the data
+   store. The tree always has the same dimensions in the same order, down
+   number, distance needed, time remaining, field location, and score
+   differential, so it has at most 4 x 5 x 2 x 3 x 7 = 840 cells. Rather than
+   reaching them through five levels of enum maps, this class keeps the cells
+   in a single array, indexed by treating the ordinals of the five category
+   values as the digits of a mixed radix number. The last dimension has a
+   stride of one, and each earlier one a stride of the product of the radixes
+   after it.
+
+   Inserting a play is then one index calculation instead of five map lookups.
+   A slice on a dimension clears every cell whose digit for that dimension
+   doesn't match, and a pivot on a dimension reads the digit straight out of
+   the index. Cells are kept in index order, which is the same order the tree
+   visits them, so both produce the same output.
+
+   The order of the dimensions is fixed. Slicing any dimension costs the same
+   in a flat array, so the cube has no use for the configurable and adaptive
+   orders of the tree.
+
+   WARNING: The dimension order MUST match the default order in DataStore, or
+   the two will order plays differently */
+/* NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This class is deliberately restricted to the
+   package */
+final class PlayStoreCube implements PlayStoreTree
+{
+    // Dimensions of the cube, in index order
+    private static final Class<?> [] _dimensions = { SinglePlay.DownNumber.class,
+                                                     SinglePlay.DistanceNeeded.class,
+                                                     SinglePlay.TimeRemaining.class,
+                                                     SinglePlay.FieldLocation.class,
+                                                     SinglePlay.ScoreDifferential.class };
+    // Values of each dimension, indexed by ordinal
+    private static final Object [][] _dimensionValues;
+    // Index distance between consecutive values of each dimension
+    private static final int [] _strides;
+    // Total number of cells
+    private static final int _cellCount;
+
+    static {
+        _dimensionValues = new Object[_dimensions.length][];
+        _strides = new int[_dimensions.length];
+        int stride = 1;
+        int dimension;
+        for (dimension = _dimensions.length - 1; dimension >= 0; dimension--) {
+            _dimensionValues[dimension] = _dimensions[dimension].getEnumConstants();
+            _strides[dimension] = stride;
+            stride *= _dimensionValues[dimension].length;
+        }
+        _cellCount = stride;
+    }
+
+    private PlayStoreTree [] _cells; // Null if the cell has no plays
+    private DataStore.LeafFormat _leafFormat; // Format of leaves to create
+    private boolean _shared; // True, cube used by more than one tree
+    // Summary measures over the plays, null if they must be rebuilt
+    private PlayAggregate _aggregate;
+
+    // Constructor, creates an empty cube
+    PlayStoreCube(DataStore.LeafFormat leafFormat)
+    {
+        _cells = new PlayStoreTree[_cellCount];
+        _leafFormat = leafFormat;
+        _shared = false;
+        _aggregate = new PlayAggregate();
+    }
+
+    // Returns the dimension of the passed type, or -1 if not a dimension
+    private static int getDimension(Class<?> type)
+    {
+        int dimension;
+        for (dimension = 0; dimension < _dimensions.length; dimension++)
+            if (_dimensions[dimension].isAssignableFrom(type))
+                return dimension;
+        return -1;
+    }
+
+    // Returns the ordinal of a dimension's value within a cell index
+    private static int getDigit(int cell, int dimension)
+    {
+        return (cell / _strides[dimension]) % _dimensionValues[dimension].length;
+    }
+
+    // Returns the value of a dimension for a cell index
+    private static <L extends Enum<L>> L getKey(int cell, int dimension,
+                                                Class<L> enumType)
+    {
+        return enumType.cast(_dimensionValues[dimension][getDigit(cell, dimension)]);
+    }
+
+    // Returns the index of the cell holding the passed play
+    private static int getCell(SinglePlay play)
+    {
+        return (play.getDown().ordinal() * _strides[0])
+            + (play.getDistanceNeededCategory().ordinal() * _strides[1])
+            + (play.getTimeRemainingCategory().ordinal() * _strides[2])
+            + (play.getFieldLocationCategory().ordinal() * _strides[3])
+            + (play.getScoreDifferentialCategory().ordinal() * _strides[4]);
+    }
+
+    // Clone method
+    public Object clone() throws CloneNotSupportedException
+    {
+        PlayStoreCube newCube = new PlayStoreCube(_leafFormat);
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null)
+                newCube._cells[cell] = (PlayStoreTree)_cells[cell].clone();
+        newCube._aggregate = null; // Built when first needed
+        return newCube;
+    }
+
+    // Marks this cube as shared
+    public void markShared()
+    {
+        _shared = true;
+    }
+
+    /* Returns a version of this cube that can be modified. A copy of a shared
+       cube gets a new array, but its cells are the same objects as in the
+       original, so they are now shared as well */
+    public PlayStoreTree writable()
+    {
+        if (!_shared)
+            return this;
+        PlayStoreCube newCube = new PlayStoreCube(_leafFormat);
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                _cells[cell].markShared();
+                newCube._cells[cell] = _cells[cell];
+            }
+        newCube._aggregate = null; // Built when first needed
+        return newCube;
+    }
+
+    // Returns the passed cell in a form that can be modified
+    private PlayStoreTree writableCell(int cell)
+    {
+        _cells[cell] = _cells[cell].writable();
+        return _cells[cell];
+    }
+
+    // Returns true if this data store is empty
+    public boolean empty()
+    {
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if ((_cells[cell] != null) && (!_cells[cell].empty()))
+                return false;
+        return true;
+    }
+
+    // Insert play into the datastore
+    public void insertPlay(SinglePlay play)
+    {
+        int cell = getCell(play);
+        if (_cells[cell] == null)
+            _cells[cell] = DataStore.newLeaf(_leafFormat);
+        writableCell(cell).insertPlay(play);
+        if (_aggregate != null)
+            _aggregate.addPlay(play);
+    }
+
+    /* Remove all plays that do not have the passed enumerated value. If the
+       value type does not exist in the play (possible thanks to the generic
+       type) nothing happens. This implements the ODAP slice operation */
+    public <P extends Enum<P>> void slice(P value, Class<P> valueType)
+    {
+        _aggregate = null;
+        int dimension = getDimension(valueType);
+        int cell;
+        if (dimension >= 0) {
+            /* The wanted cells are runs of the dimension's stride, repeating
+               every radix times the stride. Clear everything else */
+            int stride = _strides[dimension];
+            int period = stride * _dimensionValues[dimension].length;
+            int wantStart = value.ordinal() * stride;
+            for (cell = 0; cell < _cellCount; cell++)
+                if (((cell % period) < wantStart) ||
+                    ((cell % period) >= wantStart + stride))
+                    _cells[cell] = null;
+        } // Value is a dimension of the cube
+        else {
+            for (cell = 0; cell < _cellCount; cell++)
+                if (_cells[cell] != null) {
+                    writableCell(cell).slice(value, valueType);
+                    if (_cells[cell].empty()) // Every play filtered out
+                        _cells[cell] = null;
+                } // Cell has plays
+        } // Value within the cells
+    }
+
+    /* Removes all plays whose integer field value is outside the specified
+       range. This implements a version of slice for these fields */
+    public void slice(SinglePlay.NumericFields field,
+                      IntegerRange wantRange)
+    {
+        _aggregate = null;
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                writableCell(cell).slice(field, wantRange);
+                if (_cells[cell].empty()) // Every play filtered out
+                    _cells[cell] = null;
+            } // Cell has plays
+    }
+
+    // Rolls up the entire contents into the passed play list
+    public void rollup(ArrayList<SinglePlay> plays)
+    {
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null)
+                _cells[cell].rollup(plays);
+    }
+
+    // Rolls up the entire contents into the passed leaf of the tree
+    public void rollup(PlayStoreTree leaf)
+    {
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null)
+                _cells[cell].rollup(leaf);
+    }
+
+    /* Rolls the contents into the passed enumerated map, splitting
+       plays by the category of the enumerated type */
+    // NOTE: K is used by DataStoreInterface, end up with L
+    public <L extends Enum<L>> void pivot(EnumMap<L, ArrayList<SinglePlay>> plays, Class<L> enumType)
+    {
+        /* If the type is a dimension of the cube, each cell rolls up whole into
+           the entry for its value. Otherwise, the cells split their plays */
+        int dimension = getDimension(enumType);
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                if (dimension >= 0) {
+                    L key = getKey(cell, dimension, enumType);
+                    ArrayList<SinglePlay> wantedEntry = plays.get(key);
+                    if (wantedEntry == null) {
+                        wantedEntry = new ArrayList<SinglePlay>();
+                        plays.put(key, wantedEntry);
+                    }
+                    _cells[cell].rollup(wantedEntry);
+                } // Class to split is a dimension
+                else
+                    _cells[cell].pivot(plays, enumType);
+            } // Cell has plays
+    }
+
+    /* Rolls the contents into the passed double layered enumerated map,
+       splitting plays by the category of the enumerated types */
+    // NOTE: K is used by DataStoreInterface, end up with L and M
+    public <L extends Enum<L>, M extends Enum<M>> void pivot(EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> plays, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        /* If the first type is a dimension of the cube, each cell splits its
+           plays by the second type into the entry for its first value. If
+           both are dimensions, the cell rolls up whole. Otherwise, the cells
+           split their plays by both */
+        int firstDimension = getDimension(firstEnumType);
+        int secondDimension = getDimension(secondEnumType);
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                if (firstDimension >= 0) {
+                    L key = getKey(cell, firstDimension, firstEnumType);
+                    EnumMap<M, ArrayList<SinglePlay>> wantedEntry = plays.get(key);
+                    if (wantedEntry == null) {
+                        /* Note about to create a M EnumMap here, so need the
+                           second type, not the first */
+                        wantedEntry = new EnumMap<M, ArrayList<SinglePlay>>(secondEnumType);
+                        plays.put(key, wantedEntry);
+                    }
+                    if (secondDimension >= 0) {
+                        M secondKey = getKey(cell, secondDimension, secondEnumType);
+                        ArrayList<SinglePlay> wantedList = wantedEntry.get(secondKey);
+                        if (wantedList == null) {
+                            wantedList = new ArrayList<SinglePlay>();
+                            wantedEntry.put(secondKey, wantedList);
+                        }
+                        _cells[cell].rollup(wantedList);
+                    } // Both classes are dimensions
+                    else
+                        _cells[cell].pivot(wantedEntry, secondEnumType);
+                } // First class to split is a dimension
+                else
+                    _cells[cell].pivot(plays, firstEnumType, secondEnumType);
+            } // Cell has plays
+    }
+
+    /* Returns the summary measures over the plays. If a slice removed plays
+       since they were last built, they are rebuilt by merging the measures of
+       the cells */
+    public PlayAggregate getAggregate()
+    {
+        if (_aggregate == null) {
+            _aggregate = new PlayAggregate();
+            int cell;
+            for (cell = 0; cell < _cellCount; cell++)
+                if (_cells[cell] != null)
+                    _aggregate.merge(_cells[cell].getAggregate());
+        } // Measures must be rebuilt
+        return _aggregate;
+    }
+
+    /* Merges the summary measures into the passed enumerated map, splitting
+       them by the category of the enumerated type. If it is a dimension of
+       the cube, the measures of each cell are merged whole */
+    public <L extends Enum<L>> void pivotAggregates(EnumMap<L, PlayAggregate> result, Class<L> enumType)
+    {
+        int dimension = getDimension(enumType);
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                if (dimension >= 0) {
+                    L key = getKey(cell, dimension, enumType);
+                    PlayAggregate wantedEntry = result.get(key);
+                    if (wantedEntry == null) {
+                        wantedEntry = new PlayAggregate();
+                        result.put(key, wantedEntry);
+                    }
+                    wantedEntry.merge(_cells[cell].getAggregate());
+                } // Class to split is a dimension
+                else
+                    _cells[cell].pivotAggregates(result, enumType);
+            } // Cell has plays
+    }
+
+    /* Merges the summary measures into the passed double layered enumerated
+       map, splitting them by the categories of the enumerated types */
+    public <L extends Enum<L>, M extends Enum<M>> void pivotAggregates(EnumMap<L, EnumMap<M, PlayAggregate>> result, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        int firstDimension = getDimension(firstEnumType);
+        int secondDimension = getDimension(secondEnumType);
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                if (firstDimension >= 0) {
+                    L key = getKey(cell, firstDimension, firstEnumType);
+                    EnumMap<M, PlayAggregate> wantedEntry = result.get(key);
+                    if (wantedEntry == null) {
+                        wantedEntry = new EnumMap<M, PlayAggregate>(secondEnumType);
+                        result.put(key, wantedEntry);
+                    }
+                    if (secondDimension >= 0) {
+                        M secondKey = getKey(cell, secondDimension, secondEnumType);
+                        PlayAggregate wantedAggregate = wantedEntry.get(secondKey);
+                        if (wantedAggregate == null) {
+                            wantedAggregate = new PlayAggregate();
+                            wantedEntry.put(secondKey, wantedAggregate);
+                        }
+                        wantedAggregate.merge(_cells[cell].getAggregate());
+                    } // Both classes are dimensions
+                    else
+                        _cells[cell].pivotAggregates(wantedEntry, secondEnumType);
+                } // First class to split is a dimension
+                else
+                    _cells[cell].pivotAggregates(result, firstEnumType,
+                                                 secondEnumType);
+            } // Cell has plays
+    }
+
+    /* Adds the cells of the cube to the list. The cube is a single level, so
+       any split below it yields the cells */
+    public void split(ArrayList<PlayStoreTree> parts, int levels,
+                      boolean writable)
+    {
+        if (levels <= 0)
+            parts.add(this);
+        else {
+            if (writable)
+                _aggregate = null; // Parts are about to change
+            int cell;
+            for (cell = 0; cell < _cellCount; cell++)
+                if (_cells[cell] != null) {
+                    if (writable)
+                        writableCell(cell).split(parts, levels - 1, writable);
+                    else
+                        _cells[cell].split(parts, levels - 1, writable);
+                } // Cell has plays
+        } // Split into the cells
+    }
+
+    /* Adds the cells with the wanted values of the dimensions of the cube.
+       If no dimension of the cube has a wanted value, the cube is added
+       whole */
+    public void selectParts(Map<Class<?>, Enum<?>> wantValues,
+                            ArrayList<PlayStoreTree> parts)
+    {
+        int [] wantOrdinals = new int[_dimensions.length];
+        boolean haveValues = false;
+        int dimension;
+        for (dimension = 0; dimension < _dimensions.length; dimension++) {
+            Enum<?> wantValue = wantValues.get(_dimensions[dimension]);
+            if (wantValue == null)
+                wantOrdinals[dimension] = -1;
+            else {
+                wantOrdinals[dimension] = wantValue.ordinal();
+                haveValues = true;
+            }
+        } // For each dimension
+        if (!haveValues) {
+            parts.add(this);
+            return;
+        }
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                boolean wantCell = true;
+                for (dimension = 0; wantCell && (dimension < _dimensions.length); dimension++)
+                    if (wantOrdinals[dimension] >= 0)
+                        wantCell = (getDigit(cell, dimension) == wantOrdinals[dimension]);
+                if (wantCell)
+                    _cells[cell].selectParts(wantValues, parts);
+            } // Cell has plays
+    }
+
+    // Removes cells left empty
+    public void pruneEmpty()
+    {
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                _cells[cell].pruneEmpty();
+                if (_cells[cell].empty())
+                    _cells[cell] = null;
+            } // Cell has plays
+    }
+
+    /* Adds the leaves of the cells, with the values of all dimensions of the
+       cell added to the key */
+    public void addCells(ArrayList<Enum<?>> key,
+                         ArrayList<DataStoreCursor.Cell> cells)
+    {
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null) {
+                int dimension;
+                for (dimension = 0; dimension < _dimensions.length; dimension++)
+                    key.add((Enum<?>)_dimensionValues[dimension][getDigit(cell, dimension)]);
+                _cells[cell].addCells(key, cells);
+                for (dimension = 0; dimension < _dimensions.length; dimension++)
+                    key.remove(key.size() - 1);
+            } // Cell has plays
+    }
+
+    // Plays come from many leaves, so the list must be built
+    public List<SinglePlay> getPlayView()
+    {
+        ArrayList<SinglePlay> result = new ArrayList<SinglePlay>();
+        rollup(result);
+        return Collections.unmodifiableList(result);
+    }
+
+    // Calls the visitor on every play in the cells
+    public void visitPlays(PlayVisitor visitor)
+    {
+        int cell;
+        for (cell = 0; cell < _cellCount; cell++)
+            if (_cells[cell] != null)
+                _cells[cell].visitPlays(visitor);
+    }
+
+    /* Custom iterator for this data store, based on the usual design
+       pattern. The iterator is an inner class so it has access to
+       the private members of the object that generates it. Note that
+       it implements an interface, so this is also the Factory pattern */
+    public class PlayStoreIterator implements Iterator<ArrayList<SinglePlay>>
+    {
+        /* This class walks the cells in index order and calls their
+           iterators in turn. When the last one has no more entries, this
+           object doesn't either.
+           WARNING: Changing the cube in any way will invalidate the
+           iterator! This code DOES NOT check for the situation. This
+           iterator should only be used privately within the data store,
+           and the overall data store handles it for its own iterators,
+           ensuring this one is only called when it is still valid */
+        private int _cell; // Next cell to read
+        // Iterator within current cell
+        private Iterator<ArrayList<SinglePlay>> _cellIterator;
+
+        public PlayStoreIterator()
+        {
+            _cell = 0;
+            _cellIterator = null;
+            findNextCell();
+        }  // Constructor
+
+        @Override
+            public boolean hasNext()
+            {
+                if (_cellIterator == null)
+                    return false;
+                else
+                    return _cellIterator.hasNext();
+            }
+
+        @Override
+            public ArrayList<SinglePlay> next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                else {
+                    ArrayList<SinglePlay> result = _cellIterator.next();
+                    findNextCell();
+                    return result;
+                }
+            } // next method
+
+        @Override
+            public void remove()
+            {
+                // Not allowed!
+                throw new UnsupportedOperationException();
+            }
+
+        // Find the next cell with plays, which may be the current one
+        private void findNextCell()
+        {
+            while ((!hasNext()) && (_cell < _cellCount)) {
+                if (_cells[_cell] != null) // Parent field
+                    _cellIterator = _cells[_cell].iterator();
+                _cell++;
+            }
+        }
+    } // class PlayStoreIterator
+
+    /* Iterator on the data store. It is actually implemented by each
+       subclass using the factory pattern. */
+    public Iterator<ArrayList<SinglePlay>> iterator()
+    {
+        return new PlayStoreIterator();
+    }
+
+    /* Dump the contents of this cube to the output, preceeded by the passed
+       index values. Each cell is output with the values of its dimensions,
+       exactly as the tree would */
+    public void toOutput(StringBuffer indexes, StringBuffer output)
+    {
+        if (empty()) {
+            output.append("MapValues ");
+            output.append(indexes);
+            output.append("\n");
+            output.append("empty\n");
+        }
+        else {
+            int indexSize = indexes.length();
+            int cell;
+            for (cell = 0; cell < _cellCount; cell++)
+                if (_cells[cell] != null) {
+                    int dimension;
+                    for (dimension = 0; dimension < _dimensions.length; dimension++)
+                        indexes.append(" " + _dimensionValues[dimension][getDigit(cell, dimension)]);
+                    _cells[cell].toOutput(indexes, output);
+                    indexes.setLength(indexSize);
+                } // Cell has plays
+        } // Cube has plays
+    }
+}
@@ -51,11 +51,16 @@ import java.util.*;
 final class PlayStoreList implements PlayStoreTree
 {
     private ArrayList<SinglePlay> _plays;
+    private boolean _shared; // True, list used by more than one tree
+    // Summary measures over the plays, null if they must be rebuilt
+    private PlayAggregate _aggregate;
     
     // Constructor, create an empty list
     PlayStoreList()
     {
         _plays = new ArrayList<SinglePlay>();
+        _shared = false;
+        _aggregate = new PlayAggregate();
     }
     
     // Construct the object around a pre-existing list
@@ -64,6 +69,8 @@ final class PlayStoreList implements PlayStoreTree
     PlayStoreList(ArrayList<SinglePlay> list)
     {
         _plays = list;
+        _shared = false;
+        _aggregate = null; // Built when first needed
     }
     
     // Clone method
@@ -71,8 +78,24 @@ final class PlayStoreList implements PlayStoreTree
     {
         PlayStoreList newList = new PlayStoreList();
         newList._plays.addAll(_plays); // Shallow copy of the list
+        newList._aggregate = null; // Built when first needed
         return newList;
     }
+
+    // Marks this list as shared
+    public void markShared()
+    {
+        _shared = true;
+    }
+
+    // Returns a version of this list that can be modified
+    public PlayStoreTree writable()
+    {
+        if (_shared)
+            return new PlayStoreList(new ArrayList<SinglePlay>(_plays));
+        else
+            return this;
+    }
     
     // Returns true if this data store is empty
     public boolean empty()
@@ -87,6 +110,8 @@ final class PlayStoreList implements PlayStoreTree
     public void insertPlay(SinglePlay play)
     {
         _plays.add(play);
+        if (_aggregate != null)
+            _aggregate.addPlay(play);
     }
     
     /* Remove all plays that do not have the passed enumerated value. If the
@@ -96,6 +121,7 @@ final class PlayStoreList implements PlayStoreTree
     {
         if (empty())
             return; // Nothing to do!
+        _aggregate = null;
         
         Iterator<SinglePlay> playPtr = _plays.iterator();
         while (playPtr.hasNext()) {
@@ -113,6 +139,7 @@ final class PlayStoreList implements PlayStoreTree
     {
         if (empty())
             return; // Nothing to do!
+        _aggregate = null;
         
         Iterator<SinglePlay> playPtr = _plays.iterator();
         while (playPtr.hasNext()) {
@@ -127,6 +154,22 @@ final class PlayStoreList implements PlayStoreTree
     {
         plays.addAll(_plays); // Shallow copy of the list
     }
+
+    // Rolls up the entire contents into the passed leaf of the tree
+    public void rollup(PlayStoreTree leaf)
+    {
+        if (leaf instanceof PlayStoreList) {
+            PlayStoreList target = (PlayStoreList)leaf;
+            target._plays.addAll(_plays); // Shallow copy
+            if (target._aggregate != null)
+                target._aggregate.merge(getAggregate());
+        } // List leaf
+        else {
+            Iterator<SinglePlay> playPtr = _plays.iterator();
+            while (playPtr.hasNext())
+                leaf.insertPlay(playPtr.next());
+        } // Some other type of leaf
+    }
     
     /* Rolls the contents into the passed enumerated map, splitting
        plays by the category of the enumerated type */
@@ -233,6 +276,71 @@ final class PlayStoreList implements PlayStoreTree
             }
     } // class PlayStoreIterator
     
+    /* Returns the summary measures over the plays, rebuilding them if a
+       slice removed plays since they were last built */
+    public PlayAggregate getAggregate()
+    {
+        if (_aggregate == null)
+            _aggregate = PlayAggregate.aggregateLeaf(this);
+        return _aggregate;
+    }
+
+    // Splits the summary measures by the values of an enum
+    public <L extends Enum<L>> void pivotAggregates(EnumMap<L, PlayAggregate> result, Class<L> enumType)
+    {
+        PlayAggregate.pivotLeaf(this, result, enumType);
+    }
+
+    // Splits the summary measures by the values of two enums
+    public <L extends Enum<L>, M extends Enum<M>> void pivotAggregates(EnumMap<L, EnumMap<M, PlayAggregate>> result, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        PlayAggregate.pivotLeaf(this, result, firstEnumType, secondEnumType);
+    }
+
+    // Leaves can't be split further
+    public void split(ArrayList<PlayStoreTree> parts, int levels,
+                      boolean writable)
+    {
+        parts.add(this);
+    }
+
+    // Leaves have no dimensions to select on, so they are a single part
+    public void selectParts(Map<Class<?>, Enum<?>> wantValues,
+                            ArrayList<PlayStoreTree> parts)
+    {
+        parts.add(this);
+    }
+
+    // Leaves have no entries, so nothing to do
+    public void pruneEmpty()
+    {
+    }
+
+    // Leaves are cells, if they have plays
+    public void addCells(ArrayList<Enum<?>> key,
+                         ArrayList<DataStoreCursor.Cell> cells)
+    {
+        if (!empty())
+            cells.add(new DataStoreCursor.Cell(key, this));
+    }
+
+    // Returns a read-only view of the list, without copying it
+    public List<SinglePlay> getPlayView()
+    {
+        if (_plays == null)
+            return Collections.<SinglePlay>emptyList();
+        else
+            return Collections.unmodifiableList(_plays);
+    }
+
+    // Calls the visitor on every play in the list
+    public void visitPlays(PlayVisitor visitor)
+    {
+        Iterator<SinglePlay> playPtr = _plays.iterator();
+        while (playPtr.hasNext())
+            visitor.visitPlay(playPtr.next());
+    }
+
     /* Iterator on the data store. It is actually implemented by each
        subclass using the factory pattern. */
     public Iterator<ArrayList<SinglePlay>> iterator()
@@ -53,28 +53,46 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
 {
     private Class<K> _enumClass; // Need this for class operations
     private EnumMap<K, PlayStoreTree> _playMap;
+    private DataStore.LeafFormat _leafFormat; // Format of leaves to create
+    /* Enum classes of the levels of the tree, in order from the top. Entries
+       of this node are nodes for the class after its own, or leaves if it is
+       the last one. Shared by every node of the tree */
+    private Class<?> [] _dimensionOrder;
+    private boolean _shared; // True, node used by more than one tree
+    // Summary measures over the plays, null if they must be rebuilt
+    private PlayAggregate _aggregate;
     
     /* Constructor. Needs the class because deriving it from K is incredibly
        difficult */
-    PlayStoreNode(Class<K> keyClass)
+    PlayStoreNode(Class<K> keyClass, Class<?> [] dimensionOrder,
+                  DataStore.LeafFormat leafFormat)
     {
         _enumClass = keyClass;
+        _dimensionOrder = dimensionOrder;
         _playMap = new EnumMap<K,PlayStoreTree>(keyClass);
+        _leafFormat = leafFormat;
+        _shared = false;
+        _aggregate = new PlayAggregate();
     }
     
     // Construct around an existing map
     /* WARNING: This DOES NOT encapsulate the map; it is shared with
        whatever called the constructor */
-    PlayStoreNode(Class<K> keyClass, EnumMap<K, PlayStoreTree> map)
+    PlayStoreNode(Class<K> keyClass, EnumMap<K, PlayStoreTree> map,
+                  Class<?> [] dimensionOrder, DataStore.LeafFormat leafFormat)
     {
         _enumClass = keyClass;
+        _dimensionOrder = dimensionOrder;
         _playMap = map;
+        _leafFormat = leafFormat;
+        _shared = false;
+        _aggregate = null; // Built when first needed
     }
             
     // Clone method
     public Object clone() throws CloneNotSupportedException
     {
-        PlayStoreNode<K> newMap = new PlayStoreNode<K>(_enumClass);
+        PlayStoreNode<K> newMap = new PlayStoreNode<K>(_enumClass, _dimensionOrder, _leafFormat);
         /* Iterate through the current map and clone everything in it.
            This produces a deep copy of the map contents */
         Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
@@ -83,8 +101,47 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
             newMap._playMap.put(mapEntry.getKey(),
                                 (PlayStoreTree)mapEntry.getValue().clone());
         } // While entries to duplicate
+        newMap._aggregate = null; // Built when first needed
         return newMap;
     }
+
+    // Marks this node as shared
+    public void markShared()
+    {
+        _shared = true;
+    }
+
+    /* Returns a version of this node that can be modified. A copy of a shared
+       node gets a new map, but its entries are the same objects as in the
+       original, so they are now shared as well */
+    public PlayStoreTree writable()
+    {
+        if (!_shared)
+            return this;
+        PlayStoreNode<K> newMap = new PlayStoreNode<K>(_enumClass, _dimensionOrder, _leafFormat);
+        if (_playMap == null)
+            newMap._playMap = null;
+        else {
+            Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
+            while (mapPtr.hasNext()) {
+                Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
+                mapEntry.getValue().markShared();
+                newMap._playMap.put(mapEntry.getKey(), mapEntry.getValue());
+            } // While entries to share
+        } // Node has entries
+        newMap._aggregate = null; // Built when first needed
+        return newMap;
+    }
+
+    /* Returns the value of the passed map entry in a form that can be
+       modified, replacing it in the map if it had to be copied */
+    private PlayStoreTree writableEntry(Map.Entry<K, PlayStoreTree> mapEntry)
+    {
+        PlayStoreTree entry = mapEntry.getValue().writable();
+        if (entry != mapEntry.getValue())
+            mapEntry.setValue(entry);
+        return entry;
+    }
     
     // Returns true if this data store is empty
     public boolean empty()
@@ -109,7 +166,16 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
             wantDataStore = newMapEntry();
             _playMap.put(playValue, wantDataStore);
         }
+        else {
+            PlayStoreTree writableStore = wantDataStore.writable();
+            if (writableStore != wantDataStore) {
+                wantDataStore = writableStore;
+                _playMap.put(playValue, wantDataStore);
+            }
+        } // Entry already exists
         wantDataStore.insertPlay(play);
+        if (_aggregate != null)
+            _aggregate.addPlay(play);
     }
     
     /* Remove all plays that do not have the passed enumerated value. If the
@@ -122,6 +188,7 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
            Otherwise, do a slice on every map entry */
         if (empty())
             return; // Nothing to do!
+        _aggregate = null;
         if (_enumClass.isInstance(value)) {
             PlayStoreTree wantedEntry = _playMap.get(_enumClass.cast(value));
             _playMap.clear();
@@ -135,7 +202,7 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
             Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
             while (mapPtr.hasNext()) {
                 Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
-                mapEntry.getValue().slice(value, valueType);
+                writableEntry(mapEntry).slice(value, valueType);
                 if (mapEntry.getValue().empty()) // Entry entry filtered out
                     mapPtr.remove();
             } // While entries to test
@@ -149,19 +216,21 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
     {
         if (empty())
             return; // Nothing to do!
+        _aggregate = null;
         
         // Slice every entry below this one
         Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
         while (mapPtr.hasNext()) {
             Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
-            mapEntry.getValue().slice(field, wantRange);
+            writableEntry(mapEntry).slice(field, wantRange);
             if (mapEntry.getValue().empty()) // Every entry filtered out
                 mapPtr.remove();
         } // While entries to test
     }
     
     /* Generates entries for the map within this object. The type of entry
-       depends on the enum type of the current map
+       is the one after the enum type of the current map in the dimension
+       order, or a leaf if it is the last
        WARNING: This routine ensures that maps are generated in a hierarchy
        of enum types. Other routines must respect this hierarchy or bad
        things will result
@@ -169,23 +238,24 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
        ultimately fail on play insert */
     private PlayStoreTree newMapEntry()
     {
-        if (SinglePlay.DownNumber.class.isAssignableFrom(_enumClass))
-            return newDataStore(SinglePlay.DistanceNeeded.class);
-        else if (SinglePlay.DistanceNeeded.class.isAssignableFrom(_enumClass))
-            return newDataStore(SinglePlay.TimeRemaining.class);
-        else if (SinglePlay.TimeRemaining.class.isAssignableFrom(_enumClass))
-            return newDataStore(SinglePlay.FieldLocation.class);
-        else if (SinglePlay.FieldLocation.class.isAssignableFrom(_enumClass))
-            return newDataStore(SinglePlay.ScoreDifferential.class);
-        else
-            return new PlayStoreList();
+        int level;
+        for (level = 0; level < _dimensionOrder.length - 1; level++)
+            if (_dimensionOrder[level] == _enumClass)
+                return newNode(_dimensionOrder[level + 1], _dimensionOrder,
+                               _leafFormat);
+        return DataStore.newLeaf(_leafFormat);
     }
     
-    /* Utility to generate a new PlayStoreNode without specifying the enum
-       type twice (once in the type paramter and once as the argument). */
-    private <K extends Enum<K>> PlayStoreTree newDataStore(Class<K> type)
+    /* Utility to generate a new PlayStoreNode for an enum type only known at
+       run time.
+       TRICKY NOTE: The dimension order is an array, which can't hold the type
+       parameter of each class in it, so the node must be created raw. The
+       data store checks that every class in the order is a play enum */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static PlayStoreTree newNode(Class<?> type, Class<?> [] dimensionOrder,
+                                 DataStore.LeafFormat leafFormat)
     {
-        return new PlayStoreNode<K>(type);
+        return new PlayStoreNode(type, dimensionOrder, leafFormat);
     }
     
     // Rolls up the entire contents into the passed play list
@@ -227,6 +297,16 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
                 mapEntry.getValue().pivot(plays, enumType);
         } // While entries to test
     } // Pivot method
+
+    // Rolls up the entire contents into the passed leaf of the tree
+    public void rollup(PlayStoreTree leaf)
+    {
+        if (!empty()) {
+            Iterator<Map.Entry<K, PlayStoreTree>> entryPtr = _playMap.entrySet().iterator();
+            while (entryPtr.hasNext())
+                entryPtr.next().getValue().rollup(leaf);
+        } // Current map not empty
+    }
     
     /* Rolls the contents into the passed double layered enumerated map,
        splitting plays by the category of the enumerated types */
@@ -335,6 +415,177 @@ final class PlayStoreNode<K extends Enum<K>> implements PlayStoreTree
         }
     } // class PlayStoreIterator
     
+    /* Returns the summary measures over the plays. If a slice removed plays
+       since they were last built, they are rebuilt by merging the measures of
+       the entries of this node */
+    public PlayAggregate getAggregate()
+    {
+        if (_aggregate == null) {
+            _aggregate = new PlayAggregate();
+            if (!empty()) {
+                Iterator<Map.Entry<K, PlayStoreTree>> entryPtr = _playMap.entrySet().iterator();
+                while (entryPtr.hasNext())
+                    _aggregate.merge(entryPtr.next().getValue().getAggregate());
+            } // Current map not empty
+        } // Measures must be rebuilt
+        return _aggregate;
+    }
+
+    /* Merges the summary measures into the passed enumerated map, splitting
+       them by the category of the enumerated type. If it is the enum class of
+       this object, the measures of each entry are merged whole */
+    public <L extends Enum<L>> void pivotAggregates(EnumMap<L, PlayAggregate> result, Class<L> enumType)
+    {
+        if (empty())
+            return; // Nothing to do!
+        boolean haveMatchClass = _enumClass.isAssignableFrom(enumType);
+        Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
+            if (haveMatchClass) {
+                L key = enumType.cast(mapEntry.getKey());
+                PlayAggregate wantedEntry = result.get(key);
+                if (wantedEntry == null) {
+                    wantedEntry = new PlayAggregate();
+                    result.put(key, wantedEntry);
+                }
+                wantedEntry.merge(mapEntry.getValue().getAggregate());
+            } // Class to split is class for object
+            else
+                mapEntry.getValue().pivotAggregates(result, enumType);
+        } // While entries to process
+    }
+
+    /* Merges the summary measures into the passed double layered enumerated
+       map, splitting them by the categories of the enumerated types. Like
+       pivot(), a match on the second type falls through to the leaves */
+    public <L extends Enum<L>, M extends Enum<M>> void pivotAggregates(EnumMap<L, EnumMap<M, PlayAggregate>> result, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        if (empty())
+            return; // Nothing to do!
+        boolean haveMatchClass = _enumClass.isAssignableFrom(firstEnumType);
+        Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
+            if (haveMatchClass) {
+                L key = firstEnumType.cast(mapEntry.getKey());
+                EnumMap<M, PlayAggregate> wantedEntry = result.get(key);
+                if (wantedEntry == null) {
+                    wantedEntry = new EnumMap<M, PlayAggregate>(secondEnumType);
+                    result.put(key, wantedEntry);
+                }
+                mapEntry.getValue().pivotAggregates(wantedEntry, secondEnumType);
+            } // Class to split is class for object
+            else
+                mapEntry.getValue().pivotAggregates(result, firstEnumType,
+                                                    secondEnumType);
+        } // While entries to process
+    }
+
+    // Adds the parts of the tree below this node down to the wanted level
+    public void split(ArrayList<PlayStoreTree> parts, int levels,
+                      boolean writable)
+    {
+        if (levels <= 0)
+            parts.add(this);
+        else if (!empty()) {
+            if (writable)
+                _aggregate = null; // Parts are about to change
+            Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
+            while (mapPtr.hasNext()) {
+                Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
+                if (writable)
+                    writableEntry(mapEntry).split(parts, levels - 1, writable);
+                else
+                    mapEntry.getValue().split(parts, levels - 1, writable);
+            } // While entries to split
+        } // Node has entries
+    }
+
+    /* Adds the entry for the wanted value of the enum class of this node, if
+       there is one, or otherwise every entry. Once no dimension below this
+       one has a wanted value, this node is added whole */
+    public void selectParts(Map<Class<?>, Enum<?>> wantValues,
+                            ArrayList<PlayStoreTree> parts)
+    {
+        if (empty())
+            return; // Nothing to do!
+        Enum<?> wantValue = wantValues.get(_enumClass);
+        if (wantValue != null) {
+            PlayStoreTree wantEntry = _playMap.get(_enumClass.cast(wantValue));
+            if (wantEntry != null)
+                wantEntry.selectParts(wantValues, parts);
+        } // Value of this dimension wanted
+        else if (!haveLowerValues(wantValues))
+            parts.add(this);
+        else {
+            Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
+            while (mapPtr.hasNext())
+                mapPtr.next().getValue().selectParts(wantValues, parts);
+        } // Values of lower dimensions wanted
+    }
+
+    // Returns true if any dimension below this node has a wanted value
+    private boolean haveLowerValues(Map<Class<?>, Enum<?>> wantValues)
+    {
+        boolean belowNode = false;
+        int level;
+        for (level = 0; level < _dimensionOrder.length; level++) {
+            if (belowNode && wantValues.containsKey(_dimensionOrder[level]))
+                return true;
+            else if (_dimensionOrder[level] == _enumClass)
+                belowNode = true;
+        }
+        return false;
+    }
+
+    // Removes entries left empty, at this level and below
+    public void pruneEmpty()
+    {
+        if (empty())
+            return; // Nothing to do!
+        Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
+            mapEntry.getValue().pruneEmpty();
+            if (mapEntry.getValue().empty())
+                mapPtr.remove();
+        } // While entries to test
+    }
+
+    // Adds the cells below each entry, with the entry value added to the key
+    public void addCells(ArrayList<Enum<?>> key,
+                         ArrayList<DataStoreCursor.Cell> cells)
+    {
+        if (empty())
+            return; // Nothing to do!
+        Iterator<Map.Entry<K, PlayStoreTree>> mapPtr = _playMap.entrySet().iterator();
+        while (mapPtr.hasNext()) {
+            Map.Entry<K, PlayStoreTree> mapEntry = mapPtr.next();
+            key.add(mapEntry.getKey());
+            mapEntry.getValue().addCells(key, cells);
+            key.remove(key.size() - 1);
+        } // While entries to add
+    }
+
+    // Plays come from many leaves, so the list must be built
+    public List<SinglePlay> getPlayView()
+    {
+        ArrayList<SinglePlay> result = new ArrayList<SinglePlay>();
+        rollup(result);
+        return Collections.unmodifiableList(result);
+    }
+
+    // Calls the visitor on every play in the entries of this node
+    public void visitPlays(PlayVisitor visitor)
+    {
+        if (!empty()) {
+            Iterator<Map.Entry<K, PlayStoreTree>> entryPtr = _playMap.entrySet().iterator();
+            while (entryPtr.hasNext())
+                entryPtr.next().getValue().visitPlays(visitor);
+        } // Current map not empty
+    }
+
     /* Iterator on the data store. It is actually implemented by each
        subclass using the factory pattern. */
     public Iterator<ArrayList<SinglePlay>> iterator()
@@ -0,0 +1,411 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class is part of the internal storage for NFL play data. It is an
+   alternative leaf of the tree to PlayStoreList. Each play is encoded into a
+   single long by PackedPlay, so the leaf is just an array of longs plus an
+   array of the reference IDs, which don't fit in the encoding. There are no
+   per-play objects at all, and cloning or rolling up the leaf is a bulk copy
+   of the arrays.
+
+   The cost is that plays must be rebuilt as objects whenever they are read
+   out of the leaf through pivots and iterators. The data store only does
+   that for the plays that survive slicing, so it is a good trade for large
+   loads.
+
+   Data is read out of the class using an iterator. It produces one list of
+   plays for each set of category values with plays defined. The lists are
+   built from the data store to protect its contents. The category values
+   are NOT reported; the caller should know the dimensions of the data store
+   (which can change thanks to pivot calls) and read them directly from the
+   plays. Any operation that modifies the data store will invalidate all
+   iterators. */
+/* NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This class is deliberately restricted to the
+   package */
+
+// The leaf of the tree containing plays that meet the wanted index criteria */
+final class PlayStorePacked implements PlayStoreTree
+{
+    // Initial number of plays allocated
+    private static final int _initialCapacity = 16;
+
+    private int _size; // Number of plays stored
+    private long [] _plays; // Plays, encoded by PackedPlay
+    private int [] _refIds;
+    private boolean _shared; // True, leaf used by more than one tree
+    // Summary measures over the plays, null if they must be rebuilt
+    private PlayAggregate _aggregate;
+
+    // Constructor, create an empty leaf
+    PlayStorePacked()
+    {
+        this(_initialCapacity);
+    }
+
+    // Constructor, create an empty leaf sized for the wanted number of plays
+    PlayStorePacked(int capacity)
+    {
+        if (capacity < 1)
+            capacity = 1;
+        _size = 0;
+        _shared = false;
+        _aggregate = new PlayAggregate();
+        _plays = new long[capacity];
+        _refIds = new int[capacity];
+    }
+
+    // Construct the leaf from a pre-existing list of plays
+    /* NOTE: Unlike PlayStoreList, the list is copied, not shared */
+    PlayStorePacked(ArrayList<SinglePlay> list)
+    {
+        this(list.size());
+        Iterator<SinglePlay> playPtr = list.iterator();
+        while (playPtr.hasNext())
+            insertPlay(playPtr.next());
+    }
+    
+    // Clone method
+    public Object clone() throws CloneNotSupportedException
+    {
+        return copyLeaf();
+    }
+
+    // Marks this leaf as shared
+    public void markShared()
+    {
+        _shared = true;
+    }
+
+    // Returns a version of this leaf that can be modified
+    public PlayStoreTree writable()
+    {
+        if (_shared)
+            return copyLeaf();
+        else
+            return this;
+    }
+
+    // Returns a copy of the leaf
+    private PlayStorePacked copyLeaf()
+    {
+        // The arrays only hold primitives, so this is a deep copy
+        PlayStorePacked newLeaf = new PlayStorePacked(0);
+        newLeaf._size = _size;
+        newLeaf._aggregate = null; // Built when first needed
+        newLeaf._plays = Arrays.copyOf(_plays, Math.max(_size, 1));
+        newLeaf._refIds = Arrays.copyOf(_refIds, Math.max(_size, 1));
+        return newLeaf;
+    }
+    
+    // Returns true if this data store is empty
+    public boolean empty()
+    {
+        return (_size == 0);
+    }
+
+    // Ensures the arrays can hold the wanted number of plays
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > _plays.length) {
+            int newCapacity = Math.max(capacity, _plays.length * 2);
+            _plays = Arrays.copyOf(_plays, newCapacity);
+            _refIds = Arrays.copyOf(_refIds, newCapacity);
+        }
+    }
+    
+    // Insert play into the datastore
+    public void insertPlay(SinglePlay play)
+    {
+        ensureCapacity(_size + 1);
+        _plays[_size] = PackedPlay.encode(play);
+        _refIds[_size] = play.getRefId();
+        _size++;
+        if (_aggregate != null)
+            _aggregate.addPlay(play);
+    }
+    
+    /* Remove all plays that do not have the passed enumerated value. If the
+       value type does not exist in the play (possible thanks to the generic
+       type) nothing happens. This implements the ODAP slice operation */
+    public <P extends Enum<P>> void slice(P value, Class<P> valueType)
+    {
+        if (empty())
+            return; // Nothing to do!
+        if (PackedPlay.getOrdinal(_plays[0], valueType) < 0)
+            return; // Play does not have value in wanted type
+        _aggregate = null;
+
+        // Compact the wanted plays to the front of the arrays
+        int wantOrdinal = value.ordinal();
+        int newSize = 0;
+        int index;
+        for (index = 0; index < _size; index++)
+            if (PackedPlay.getOrdinal(_plays[index], valueType) == wantOrdinal) {
+                _plays[newSize] = _plays[index];
+                _refIds[newSize] = _refIds[index];
+                newSize++;
+            } // Play wanted
+        _size = newSize;
+    } // Method slice()
+    
+    /* Removes all plays whose integer field value is outside the specified
+       range. This implements a version of slice for these fields */
+    public void slice(SinglePlay.NumericFields field,
+                      IntegerRange wantRange)
+    {
+        if (empty())
+            return; // Nothing to do!
+        _aggregate = null;
+        
+        int newSize = 0;
+        int index;
+        for (index = 0; index < _size; index++)
+            if (wantRange.contains(PackedPlay.getIntValue(_plays[index], field))) {
+                _plays[newSize] = _plays[index];
+                _refIds[newSize] = _refIds[index];
+                newSize++;
+            } // Play wanted
+        _size = newSize;
+    } // Method slice()
+    
+    // Rolls up the entire contents into the passed play list
+    public void rollup(ArrayList<SinglePlay> plays)
+    {
+        plays.ensureCapacity(plays.size() + _size);
+        int index;
+        for (index = 0; index < _size; index++)
+            plays.add(PackedPlay.decode(_plays[index], _refIds[index]));
+    }
+
+    /* Rolls up the entire contents into the passed leaf. If it is also a
+       packed leaf, this is a bulk copy of the arrays */
+    public void rollup(PlayStoreTree leaf)
+    {
+        if (leaf instanceof PlayStorePacked) {
+            PlayStorePacked target = (PlayStorePacked)leaf;
+            target.ensureCapacity(target._size + _size);
+            System.arraycopy(_plays, 0, target._plays, target._size, _size);
+            System.arraycopy(_refIds, 0, target._refIds, target._size, _size);
+            target._size += _size;
+            if (target._aggregate != null)
+                target._aggregate.merge(getAggregate());
+        } // Packed leaf
+        else {
+            int index;
+            for (index = 0; index < _size; index++)
+                leaf.insertPlay(PackedPlay.decode(_plays[index], _refIds[index]));
+        } // Some other type of leaf
+    }
+    
+    /* Rolls the contents into the passed enumerated map, splitting
+       plays by the category of the enumerated type */
+    // NOTE: K is used by DataStoreInterface, end up with L
+    public <L extends Enum<L>> void pivot(EnumMap<L, ArrayList<SinglePlay>> plays, Class<L> enumType)
+    {
+        /* Need to iterate through the plays and extract the wanted value
+           from each one. If an entry does not already exist in the
+           result map, have to add it, and then insert the play */
+        int index;
+        for (index = 0; index < _size; index++) {
+            L wantValue = PackedPlay.getValue(_plays[index], enumType);
+            if (wantValue != null) { // Play has value in wanted type
+                ArrayList<SinglePlay> wantList = plays.get(wantValue);
+                if (wantList == null) {
+                    wantList = new ArrayList<SinglePlay>();
+                    plays.put(wantValue, wantList);
+                }
+                wantList.add(PackedPlay.decode(_plays[index], _refIds[index]));
+            } // Play has value in wanted type
+        } // For plays to process
+    }
+    
+    /* Rolls the contents into the passed double layered enumerated map,
+       splitting plays by the category of the enumerated types */
+    // NOTE: K is used by DataStoreInterface, end up with L and M
+    public <L extends Enum<L>, M extends Enum<M>> void pivot(EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> plays, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        /* Need to iterate through the plays and extract the wanted values
+           from each one. If an entry does not already exist in the
+           result map, have to add it, and then insert the play */
+        int index;
+        for (index = 0; index < _size; index++) {
+            L firstWantValue = PackedPlay.getValue(_plays[index], firstEnumType);
+            M secondWantValue = PackedPlay.getValue(_plays[index], secondEnumType);
+            if ((firstWantValue != null) &&
+                (secondWantValue != null)) { // Play has value in wanted types
+                EnumMap<M, ArrayList<SinglePlay>> wantMap = plays.get(firstWantValue);
+                if (wantMap == null) {
+                    /* NOTE: creating an enum map of M here, so need the
+                       second enumerated type, not the first */
+                    wantMap = new EnumMap<M, ArrayList<SinglePlay>>(secondEnumType);
+                    plays.put(firstWantValue, wantMap);
+                }
+                ArrayList<SinglePlay> wantList = wantMap.get(secondWantValue);
+                if (wantList == null) {
+                    wantList = new ArrayList<SinglePlay>();
+                    wantMap.put(secondWantValue, wantList);
+                }
+                wantList.add(PackedPlay.decode(_plays[index], _refIds[index]));
+            } // Play has value in wanted type
+        } // For plays to process
+    } // Pivot method
+    
+    /* Custom iterator for this data store, based on the usual design
+       pattern. The iterator is an inner class so it has access to
+       the private members of the object that generates it. Note that
+       it implements an interface, so this is also the Factory pattern */
+    public class PlayStoreIterator implements Iterator<ArrayList<SinglePlay>>
+    {
+        /* Like the iterator for PlayStoreList, this returns a single list of
+           plays. Since the leaf does not hold play objects, the list is
+           built from the encoded plays when it is read */
+        boolean _read;
+        
+        public PlayStoreIterator()
+            {
+                _read = empty(); // Force empty leaf to be ignored
+            }    
+        
+        @Override
+            public boolean hasNext()
+            {
+                return (!_read);
+            }
+        
+        @Override
+            public ArrayList<SinglePlay> next()
+            {
+                if (_read)
+                    throw new NoSuchElementException();
+                else {
+                    _read = true;
+                    ArrayList<SinglePlay> result = new ArrayList<SinglePlay>(_size);
+                    rollup(result); // Build list from parent
+                    return result;
+                }
+            } // next method
+        
+        @Override
+            public void remove()
+            {
+                // Not allowed!
+                throw new UnsupportedOperationException();
+            }
+    } // class PlayStoreIterator
+    
+    /* Returns the summary measures over the plays, rebuilding them if a
+       slice removed plays since they were last built */
+    public PlayAggregate getAggregate()
+    {
+        if (_aggregate == null)
+            _aggregate = PlayAggregate.aggregateLeaf(this);
+        return _aggregate;
+    }
+
+    // Splits the summary measures by the values of an enum
+    public <L extends Enum<L>> void pivotAggregates(EnumMap<L, PlayAggregate> result, Class<L> enumType)
+    {
+        PlayAggregate.pivotLeaf(this, result, enumType);
+    }
+
+    // Splits the summary measures by the values of two enums
+    public <L extends Enum<L>, M extends Enum<M>> void pivotAggregates(EnumMap<L, EnumMap<M, PlayAggregate>> result, Class<L> firstEnumType, Class<M> secondEnumType)
+    {
+        PlayAggregate.pivotLeaf(this, result, firstEnumType, secondEnumType);
+    }
+
+    // Leaves can't be split further
+    public void split(ArrayList<PlayStoreTree> parts, int levels,
+                      boolean writable)
+    {
+        parts.add(this);
+    }
+
+    // Leaves have no dimensions to select on, so they are a single part
+    public void selectParts(Map<Class<?>, Enum<?>> wantValues,
+                            ArrayList<PlayStoreTree> parts)
+    {
+        parts.add(this);
+    }
+
+    // Leaves have no entries, so nothing to do
+    public void pruneEmpty()
+    {
+    }
+
+    // Leaves are cells, if they have plays
+    public void addCells(ArrayList<Enum<?>> key,
+                         ArrayList<DataStoreCursor.Cell> cells)
+    {
+        if (!empty())
+            cells.add(new DataStoreCursor.Cell(key, this));
+    }
+
+    // Plays are decoded, so the list must be built
+    public List<SinglePlay> getPlayView()
+    {
+        ArrayList<SinglePlay> result = new ArrayList<SinglePlay>();
+        rollup(result);
+        return Collections.unmodifiableList(result);
+    }
+
+    // Calls the visitor on every play in the leaf
+    public void visitPlays(PlayVisitor visitor)
+    {
+        int index;
+        for (index = 0; index < _size; index++)
+            visitor.visitPlay(PackedPlay.decode(_plays[index], _refIds[index]));
+    }
+
+    /* Iterator on the data store. It is actually implemented by each
+       subclass using the factory pattern. */
+    public Iterator<ArrayList<SinglePlay>> iterator()
+    {
+        return new PlayStoreIterator();
+    }
+    
+    /* Dump the contents of this play list to the output, preceeded by
+       the passed index values */
+    public void toOutput(StringBuffer indexes, StringBuffer output)
+    {
+        // Generate a header of the index values for this set of plays
+        if (indexes != null) {
+            output.append("MapValues ");
+            output.append(indexes);
+            output.append("\n");
+        } // Indexes specified
+        if (empty())
+            output.append("empty\n");
+        else {
+            int index;
+            for (index = 0; index < _size; index++)
+                // Output the play. Note that it takes two lines
+                output.append(PackedPlay.decode(_plays[index], _refIds[index]) + "\n");
+            output.append("\n");
+        } // Have entries
+    } // toOutput method
+}
@@ -42,7 +42,14 @@ import java.util.*;
    are NOT reported; the caller should know the dimensions of the data store
    (which can change thanks to pivot calls) and read them directly from the
    plays. Any operation that modifies the data store will invalidate all
-   iterators. */
+   iterators.
+
+   Parts of the tree can be shared between data stores, so cloning a data
+   store doesn't need to copy the tree. Shared parts are never modified in
+   place. Instead, any operation that would modify one first replaces it with
+   a copy, which makes the whole tree copy-on-write. Since only the parts of
+   the tree actually modified get copied, operations like slicing on a
+   dimension of the tree leave the rest shared. */
 /* NOTE: To protect the consistency of the data, all public access should be
    done through a single class. This class is deliberately restricted to the
    package */
@@ -56,6 +63,15 @@ interface PlayStoreTree extends Cloneable
     
     // Clone the datastore
     public Object clone() throws CloneNotSupportedException;
+
+    /* Marks this part of the tree as shared by more than one owner. Once
+       shared, it is never modified in place */
+    public void markShared();
+
+    /* Returns this part of the tree if it can be modified in place, otherwise
+       a copy of it that can be. Copies of nodes share their entries with the
+       original, so only copy the path down to what is actually modified */
+    public PlayStoreTree writable();
     
     /* Remove all plays that do not have the passed enumerated value. If the
        value type does not exist in the play (possible thanks to the generic
@@ -69,6 +85,10 @@ interface PlayStoreTree extends Cloneable
     
     // Rolls up the entire contents into the passed play list
     public void rollup(ArrayList<SinglePlay> plays);
+
+    /* Rolls up the entire contents into the passed leaf of the tree. Leaves
+       of the same type as the contents are copied in bulk */
+    public void rollup(PlayStoreTree leaf);
     
     /* Rolls the contents into the passed enumerated map, splitting
        plays by the category of the enumerated type */
@@ -80,6 +100,55 @@ interface PlayStoreTree extends Cloneable
     // NOTE: K is used by DataStoreInterface, end up with L and M
     public <L extends Enum<L>, M extends Enum<M>> void pivot(EnumMap<L, EnumMap<M, ArrayList<SinglePlay>>> plays, Class<L> firstEnumType, Class<M> secondEnumType);
     
+    /* Returns the summary measures over the plays in this portion of the
+       tree. They are kept up to date as plays are inserted.
+       WARNING: The measures are NOT copied. Callers must not modify them */
+    public PlayAggregate getAggregate();
+
+    /* Merges the summary measures into the passed enumerated map, splitting
+       them by the category of the enumerated type */
+    public <L extends Enum<L>> void pivotAggregates(EnumMap<L, PlayAggregate> result, Class<L> enumType);
+
+    /* Merges the summary measures into the passed double layered enumerated
+       map, splitting them by the categories of the enumerated types */
+    public <L extends Enum<L>, M extends Enum<M>> void pivotAggregates(EnumMap<L, EnumMap<M, PlayAggregate>> result, Class<L> firstEnumType, Class<M> secondEnumType);
+
+    /* Adds the parts of this portion of the tree the wanted number of levels
+       down to the passed list, in iteration order. They cover all of its
+       plays, so they can be processed in parallel. If writable is set, each
+       part is made writable first, and the caller must then call
+       pruneEmpty() once it is done with them. This object must already be
+       writable in that case */
+    public void split(ArrayList<PlayStoreTree> parts, int levels,
+                      boolean writable);
+
+    /* Adds the parts of this portion of the tree that can hold plays with
+       the wanted values to the passed list, in iteration order. The wanted
+       values are keyed by their enum class. Entries for other values of a
+       dimension of the tree are skipped, so every play in the parts has the
+       wanted values of all dimensions of the tree */
+    public void selectParts(Map<Class<?>, Enum<?>> wantValues,
+                            ArrayList<PlayStoreTree> parts);
+
+    /* Removes entries left empty by changing the parts from split(). This
+       implements the cleanup slice() does for itself */
+    public void pruneEmpty();
+
+    /* Adds the cells of this portion of the tree with plays to the list. The
+       key of each is the passed key followed by the enum values leading to it
+       from here. The key is restored before returning */
+    public void addCells(ArrayList<Enum<?>> key,
+                         ArrayList<DataStoreCursor.Cell> cells);
+
+    /* Returns all plays in this portion of the tree as a read-only list.
+       Leaves holding play objects return a view of them without copying; the
+       rest must build the list */
+    public List<SinglePlay> getPlayView();
+
+    /* Calls the visitor on every play in this portion of the tree. Unlike
+       the iterator, no lists of plays are built */
+    public void visitPlays(PlayVisitor visitor);
+
     /* Iterator on the data store. It is actually implemented by each
        subclass using the factory pattern. Since this interface is private,
        it is not marked as iterable */
@@ -0,0 +1,347 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.io.*;
+import java.util.*;
+import java.nio.*;
+import java.util.regex.*;
+import java.util.zip.*;
+
+/* This class lists the season data files in a data directory, with what is
+   in each one: the season, its size, its number of lines of plays, its
+   checksum, and the teams that appear in it, including which teams play
+   against which. The loader uses it to find the seasons to load, and to skip
+   any file with no plays for the wanted teams without reading it. Teams come
+   and go, and most pairs of teams don't meet in a given season, so this
+   saves reading many files over a long range of seasons.
+
+   Finding the teams in a file means reading all of it, so the catalog is
+   saved to a file in the data directory. Files with the same size and
+   modification time as when they were cataloged are not read again. If the
+   directory can't be written, the catalog is simply rebuilt each time.
+
+   Data files are named XXXX_nfl_pbp_data.csv, where XXXX is the year */
+public final class SeasonCatalog {
+
+    // Name of the file the catalog is saved to, within the data directory
+    private static final String _catalogName = "season_catalog.dat";
+    private static final int _magicNumber = 0x4e464c43; // "NFLC"
+    private static final int _formatVersion = 1;
+
+    private static final Pattern _fileNamePattern = Pattern.compile("(\\d{4})_nfl_pbp_data\\.csv");
+
+    // What is in one season data file
+    public static final class Season
+    {
+        private int _year;
+        private String _fileName; // Including the directory
+        private long _size;
+        private long _modified;
+        private int _rows; // Lines of plays, not counting the header
+        private long _checksum;
+        private String[] _teams; // Teams in the file, by local ID
+        // Teams each team plays against on offense, by local ID
+        private BitSet[] _opponents;
+
+        private Season()
+        {
+        }
+
+        // Getter methods
+        public int getYear()
+        {
+            return _year;
+        }
+        public String getFileName()
+        {
+            return _fileName;
+        }
+        public long getSize()
+        {
+            return _size;
+        }
+        public int getRows()
+        {
+            return _rows;
+        }
+        public long getChecksum()
+        {
+            return _checksum;
+        }
+
+        // Returns the teams that appear in the file, sorted
+        public SortedSet<String> getTeams()
+        {
+            return Collections.unmodifiableSortedSet(new TreeSet<String>(Arrays.asList(_teams)));
+        }
+
+        /* Returns true if the file may have plays the wanted teams want. Any
+           line with a wanted pair of teams counts, even if it isn't a play,
+           so false means there are certainly none */
+        public boolean hasPlays(NFLqualityControl wantedMatchups)
+        {
+            int offense;
+            for (offense = 0; offense < _teams.length; offense++) {
+                BitSet opponents = _opponents[offense];
+                int defense;
+                for (defense = opponents.nextSetBit(0); defense >= 0;
+                     defense = opponents.nextSetBit(defense + 1))
+                    if (wantedMatchups.selectGame(_teams[offense], _teams[defense]))
+                        return true;
+            } // For each team on offense
+            return false;
+        }
+
+        public String toString()
+        {
+            return "Season " + _year + ": " + _fileName + " " + _size
+                + " bytes " + _rows + " rows checksum " + _checksum
+                + " teams " + getTeams();
+        }
+    }
+
+    private ArrayList<Season> _seasons; // Latest first
+
+    private SeasonCatalog(ArrayList<Season> seasons)
+    {
+        _seasons = seasons;
+    }
+
+    /* Returns the catalog of the passed data directory. Files not in the
+       saved catalog, or changed since, are read */
+    public static SeasonCatalog scan(String directory) throws IOException
+    {
+        File directoryFile = new File(directory);
+        File[] files = directoryFile.listFiles();
+        if (files == null)
+            throw new IOException("Play data directory " + directory + " can not be read");
+
+        HashMap<String, Season> saved = readCatalog(new File(directoryFile, _catalogName));
+        ArrayList<Season> seasons = new ArrayList<Season>();
+        boolean changed = false;
+        int index;
+        for (index = 0; index < files.length; index++) {
+            Matcher matcher = _fileNamePattern.matcher(files[index].getName());
+            if (!matcher.matches() || !files[index].isFile())
+                continue; // Not a data file
+            Season season = saved.get(files[index].getName());
+            if ((season == null) || (season._size != files[index].length()) ||
+                (season._modified != files[index].lastModified())) {
+                season = scanFile(files[index]);
+                changed = true;
+            }
+            season._year = Integer.parseInt(matcher.group(1));
+            season._fileName = files[index].getPath();
+            seasons.add(season);
+        } // For each file in the directory
+        if (seasons.size() != saved.size())
+            changed = true; // Files were removed
+
+        Collections.sort(seasons, new Comparator<Season>() {
+                public int compare(Season first, Season second)
+                {
+                    return second._year - first._year;
+                }
+            });
+        SeasonCatalog result = new SeasonCatalog(seasons);
+        if (changed)
+            try {
+                result.writeCatalog(new File(directoryFile, _catalogName));
+            }
+            // The catalog is only an optimization, so just rebuild it next time
+            catch (IOException e) {}
+        return result;
+    }
+
+    // Reads the teams, rows, and checksum of a data file
+    private static Season scanFile(File file) throws IOException
+    {
+        Season season = new Season();
+        season._size = file.length();
+        season._modified = file.lastModified();
+        ByteBuffer bytes = PlayLoader.mapFile(file.getPath());
+        CRC32 checksum = new CRC32();
+        checksum.update(bytes.duplicate());
+        season._checksum = checksum.getValue();
+
+        /* Lines hold gameid,qtr,min,sec,off,def,... so the teams are between
+           the fourth, fifth, and sixth commas */
+        TeamDictionary teams = new TeamDictionary();
+        ArrayList<BitSet> opponents = new ArrayList<BitSet>();
+        int end = bytes.limit();
+        int position = 0;
+        // First line is a header. Skip it
+        while ((position < end) && (bytes.get(position) != '\n'))
+            position++;
+        position++;
+        int rows = 0;
+        int[] commas = new int[6];
+        while (position < end) {
+            int commaCount = 0;
+            while ((position < end) && (bytes.get(position) != '\n')) {
+                if ((bytes.get(position) == ',') && (commaCount < commas.length)) {
+                    commas[commaCount] = position;
+                    commaCount++;
+                }
+                position++;
+            } // While characters in the line
+            position++; // Skip the line end
+            rows++;
+            if (commaCount == commas.length) {
+                int offense = teams.getId(bytes, commas[3] + 1, commas[4]);
+                int defense = teams.getId(bytes, commas[4] + 1, commas[5]);
+                while (opponents.size() < teams.size())
+                    opponents.add(new BitSet());
+                opponents.get(offense).set(defense);
+            } // Line has both teams
+        } // While lines in the file
+        season._rows = rows;
+        season._teams = new String[teams.size()];
+        int id;
+        for (id = 0; id < teams.size(); id++)
+            season._teams[id] = teams.getTeam(id);
+        while (opponents.size() < teams.size())
+            opponents.add(new BitSet());
+        season._opponents = opponents.toArray(new BitSet[0]);
+        return season;
+    }
+
+    /* Reads a saved catalog, returning its seasons by file name. Returns none
+       if there is no saved catalog, or it can't be read */
+    private static HashMap<String, Season> readCatalog(File file)
+    {
+        HashMap<String, Season> result = new HashMap<String, Season>();
+        if (!file.isFile())
+            return result;
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if ((input.readInt() != _magicNumber) ||
+                    (input.readInt() != _formatVersion))
+                    return result;
+                int seasonCount = input.readInt();
+                int index;
+                for (index = 0; index < seasonCount; index++) {
+                    String name = input.readUTF();
+                    Season season = new Season();
+                    season._size = input.readLong();
+                    season._modified = input.readLong();
+                    season._rows = input.readInt();
+                    season._checksum = input.readLong();
+                    season._teams = new String[input.readInt()];
+                    season._opponents = new BitSet[season._teams.length];
+                    int team;
+                    for (team = 0; team < season._teams.length; team++) {
+                        season._teams[team] = input.readUTF();
+                        byte[] opponents = new byte[input.readInt()];
+                        input.readFully(opponents);
+                        season._opponents[team] = BitSet.valueOf(opponents);
+                    }
+                    result.put(name, season);
+                } // For each season
+            } // Try block around the open file
+            finally {
+                input.close();
+            }
+        } // Try block around reading the catalog
+        catch (IOException e) {
+            result.clear(); // Damaged, so rebuild it
+        }
+        catch (RuntimeException e) {
+            result.clear();
+        }
+        return result;
+    }
+
+    // Saves the catalog to the passed file
+    private void writeCatalog(File file) throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(_magicNumber);
+            output.writeInt(_formatVersion);
+            output.writeInt(_seasons.size());
+            Iterator<Season> seasonPtr = _seasons.iterator();
+            while (seasonPtr.hasNext()) {
+                Season season = seasonPtr.next();
+                output.writeUTF(new File(season._fileName).getName());
+                output.writeLong(season._size);
+                output.writeLong(season._modified);
+                output.writeInt(season._rows);
+                output.writeLong(season._checksum);
+                output.writeInt(season._teams.length);
+                int team;
+                for (team = 0; team < season._teams.length; team++) {
+                    output.writeUTF(season._teams[team]);
+                    byte[] opponents = season._opponents[team].toByteArray();
+                    output.writeInt(opponents.length);
+                    output.write(opponents);
+                }
+            } // For each season
+        } // Try block around the open file
+        finally {
+            output.close();
+        }
+    }
+
+    // Returns the seasons in the directory, latest first
+    public List<Season> getSeasons()
+    {
+        return Collections.unmodifiableList(_seasons);
+    }
+
+    // Returns the season for the passed year, or null if it has no file
+    public Season getSeason(int year)
+    {
+        Iterator<Season> seasonPtr = _seasons.iterator();
+        while (seasonPtr.hasNext()) {
+            Season season = seasonPtr.next();
+            if (season._year == year)
+                return season;
+        }
+        return null;
+    }
+
+    public String toString()
+    {
+        StringBuilder output = new StringBuilder();
+        Iterator<Season> seasonPtr = _seasons.iterator();
+        while (seasonPtr.hasNext()) {
+            output.append(seasonPtr.next());
+            if (seasonPtr.hasNext())
+                output.append("\n");
+        }
+        return output.toString();
+    }
+
+    // Object test program. Outputs the catalog of a data directory
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length != 1) {
+            System.out.println("Usage: DIRECTORY");
+            throw new IllegalArgumentException();
+        }
+        System.out.println(scan(args[0]));
+    }
+} // class SeasonCatalog
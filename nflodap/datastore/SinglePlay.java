@@ -102,6 +102,17 @@ public final class SinglePlay {
         _scoreDifferentialCategory = scoreToScoreDifferential(_scoreDifferential);
     }
     
+    /* Returns a copy of this play with another reference ID and play type.
+       Loaders that parse plays in parts use this to number them once the
+       parts are put in order */
+    SinglePlay copyWith(int refId, PlayType playType)
+    {
+        return new SinglePlay(refId, playType, _down, _distanceNeeded,
+                              _fieldLocation, _timeRemaining,
+                              _scoreDifferential, 0, _distanceGained,
+                              _turnedOver);
+    }
+
     // Getter methods
     public int getRefId()
     { return _refId; }
@@ -0,0 +1,175 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+import java.nio.*;
+import java.nio.charset.*;
+
+/* This class interns team names into small integer IDs, numbered from zero
+   in the order they are first seen. Plays are selected by their teams, and a
+   data file has a few dozen teams over tens of thousands of lines, so working
+   with IDs lets the selection be done once per pair of teams instead of once
+   per line.
+
+   Teams can be looked up by name, or straight from the bytes of a line of a
+   memory mapped data file without creating a string. Names are plain ASCII,
+   so the bytes and characters of a name always match one to one.
+
+   A single dictionary is shared by every thread loading plays. New teams are
+   rare, so the lookup table is never changed once built; adding a team builds
+   a new one and publishes it. Lookups then never need to lock
+   NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This class is deliberately restricted to the
+   package */
+final class TeamDictionary
+{
+    // Lookup table of the teams known at some point. Never changed once built
+    private static final class Table
+    {
+        private byte[][] _teams; // Team names as bytes, by ID
+        private String[] _names; // Team names, by ID
+        private HashMap<String, Integer> _ids; // IDs by name
+        /* Open addressed hash table of the teams by the hash of their bytes.
+           Each slot holds an ID plus one, or zero if empty */
+        private int[] _slots;
+    }
+
+    private volatile Table _table;
+
+    // Constructor, creates an empty dictionary
+    TeamDictionary()
+    {
+        _table = newTable(new byte[0][], new String[0]);
+    }
+
+    // Builds a lookup table for the passed teams
+    private static Table newTable(byte[][] teams, String[] names)
+    {
+        Table table = new Table();
+        table._teams = teams;
+        table._names = names;
+        table._ids = new HashMap<String, Integer>();
+        // Keep the hash table at most a quarter full, so probes stay short
+        int slotCount = 64;
+        while (slotCount < (4 * teams.length))
+            slotCount *= 2;
+        table._slots = new int[slotCount];
+        int id;
+        for (id = 0; id < teams.length; id++) {
+            table._ids.put(names[id], id);
+            int slot = hash(ByteBuffer.wrap(teams[id]), 0, teams[id].length) & (slotCount - 1);
+            while (table._slots[slot] != 0)
+                slot = (slot + 1) & (slotCount - 1);
+            table._slots[slot] = id + 1;
+        }
+        return table;
+    }
+
+    // Hashes a range of bytes
+    private static int hash(ByteBuffer bytes, int start, int end)
+    {
+        int result = 0;
+        int index;
+        for (index = start; index < end; index++)
+            result = (31 * result) + bytes.get(index);
+        return result ^ (result >>> 16);
+    }
+
+    // Returns true if a team name matches a range of bytes
+    private static boolean matches(byte[] team, ByteBuffer bytes, int start,
+                                   int end)
+    {
+        if (team.length != (end - start))
+            return false;
+        int index;
+        for (index = 0; index < team.length; index++)
+            if (team[index] != bytes.get(start + index))
+                return false;
+        return true;
+    }
+
+    // Returns the ID of the passed team, adding it if needed
+    int getId(String team)
+    {
+        Integer id = _table._ids.get(team);
+        if (id != null)
+            return id;
+        else
+            return addTeam(team);
+    }
+
+    /* Returns the ID of the team named by the passed range of bytes, adding it
+       if needed. Only creates a string for a new team */
+    int getId(ByteBuffer bytes, int start, int end)
+    {
+        Table table = _table;
+        int mask = table._slots.length - 1;
+        int slot = hash(bytes, start, end) & mask;
+        while (table._slots[slot] != 0) {
+            int id = table._slots[slot] - 1;
+            if (matches(table._teams[id], bytes, start, end))
+                return id;
+            slot = (slot + 1) & mask;
+        }
+        byte[] team = new byte[end - start];
+        int index;
+        for (index = 0; index < team.length; index++)
+            team[index] = bytes.get(start + index);
+        return addTeam(new String(team, StandardCharsets.ISO_8859_1));
+    }
+
+    /* Adds a team, and returns its ID. Another thread may have added it
+       since the caller looked, so check again under the lock */
+    private synchronized int addTeam(String team)
+    {
+        Table table = _table;
+        Integer id = table._ids.get(team);
+        if (id != null)
+            return id;
+        int newId = table._names.length;
+        byte[][] teams = Arrays.copyOf(table._teams, newId + 1);
+        String[] names = Arrays.copyOf(table._names, newId + 1);
+        teams[newId] = team.getBytes(StandardCharsets.ISO_8859_1);
+        names[newId] = team;
+        _table = newTable(teams, names);
+        return newId;
+    }
+
+    // Returns the name of the team with the passed ID
+    String getTeam(int id)
+    {
+        return _table._names[id];
+    }
+
+    // Returns the number of teams known
+    int size()
+    {
+        return _table._names.length;
+    }
+
+    public String toString()
+    {
+        return Arrays.toString(_table._names);
+    }
+} // class TeamDictionary
@@ -0,0 +1,124 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.datastore;
+
+import java.util.*;
+
+/* This class selects plays by their teams, given as IDs from a team
+   dictionary. Whether a play is wanted only depends on its offense and
+   defense, so the answer for each pair of teams is found once and kept in a
+   matrix indexed by the two IDs. Selecting a play is then one lookup instead
+   of comparing team names.
+
+   Several team selections can be checked at once. Each cell of the matrix
+   holds a bit for each selection, set if the pair of teams is wanted by it,
+   so a single pass over the data files can find the plays for several
+   scouting reports. Plays are tagged with the cell for their teams.
+
+   The matrix grows as the dictionary does. New teams are rare, so it is
+   simply rebuilt when a play has a team not in it
+   WARNING: Not thread safe. Each thread loading plays needs its own, though
+   they can share the dictionary
+   NOTE: To protect the consistency of the data, all public access should be
+   done through a single class. This class is deliberately restricted to the
+   package */
+final class TeamMatchups
+{
+    // Most selections that can be checked at once, one per bit of a long
+    static final int MAXIMUM_SELECTIONS = 64;
+
+    private NFLqualityControl[] _selections;
+    private TeamDictionary _teams;
+
+    private int _stride; // Number of teams in the matrix
+    // Bits of the selections wanting each pair, by offense * stride + defense
+    private long[] _matches;
+
+    // Constructor. Takes the selections to check and the dictionary of teams
+    TeamMatchups(TeamDictionary teams, NFLqualityControl... selections)
+    {
+        if ((selections.length == 0) || (selections.length > MAXIMUM_SELECTIONS))
+            throw new IllegalArgumentException("Can not check " + selections.length + " selections");
+        _teams = teams;
+        _selections = selections.clone();
+        _stride = 0;
+        _matches = new long[0];
+    }
+
+    /* Returns true if this checks exactly the passed selection. Used to reuse
+       the matrix between calls with the same selection */
+    boolean isFor(NFLqualityControl selection)
+    {
+        return ((_selections.length == 1) && (_selections[0] == selection));
+    }
+
+    /* Returns the bits of the selections wanting plays with the passed teams,
+       with bit N set for selection N. Zero means no selection wants it */
+    long getMatches(int offense, int defense)
+    {
+        if ((offense >= _stride) || (defense >= _stride))
+            grow();
+        return _matches[(offense * _stride) + defense];
+    }
+
+    // Returns true if any selection wants plays with the passed teams
+    boolean selectGame(int offense, int defense)
+    {
+        return (getMatches(offense, defense) != 0L);
+    }
+
+    // Rebuilds the matrix for every team in the dictionary
+    private void grow()
+    {
+        int stride = _teams.size();
+        long[] matches = new long[stride * stride];
+        int offense;
+        int defense;
+        for (offense = 0; offense < stride; offense++)
+            for (defense = 0; defense < stride; defense++) {
+                if ((offense < _stride) && (defense < _stride))
+                    matches[(offense * stride) + defense] = _matches[(offense * _stride) + defense];
+                else
+                    matches[(offense * stride) + defense] = findMatches(_teams.getTeam(offense),
+                                                                        _teams.getTeam(defense));
+            }
+        _stride = stride;
+        _matches = matches;
+    }
+
+    // Checks every selection against a pair of teams
+    private long findMatches(String offense, String defense)
+    {
+        long result = 0L;
+        int index;
+        for (index = 0; index < _selections.length; index++)
+            if (_selections[index].selectGame(offense, defense))
+                result |= (1L << index);
+        return result;
+    }
+
+    public String toString()
+    {
+        return "Matchups of " + _stride + " teams for " + Arrays.toString(_selections);
+    }
+} // class TeamMatchups
@@ -0,0 +1,41 @@
+/* This file is part of NFLODAP, an On-Line Analytics Processing program for
+   NFL plays. It creates various graphs of historic play data given the teams
+   and the conditons of the wanted plays.
+
+    Copyright (C) 2013   Ezra Erb
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License version 3 as published
+    by the Free Software Foundation.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+
+    I'd appreciate a note if you find this program useful or make
+    updates. Please contact me through LinkedIn or github (my profile also has
+    a link to the code depository)
+*/
+package nflodap.graphs;
+
+import java.awt.*;
+import nflodap.datastore.*;
+
+/* This interface defines a graph factory whose graphs only need summary
+   measures of the plays, not the plays themselves. The graph generator can
+   then get the measures for each group straight from the datastore, which
+   keeps them for every cell, instead of pulling every play out of it */
+public interface AggregateGraphFactory extends StatGraphFactory
+{
+    /* Generates a graph for the summary measures of a group of plays. The
+       size of the graph must be specified in pixels so the layout looks
+       correct when tiled with other graphs. The range is of the first field
+       from the overall plays; if passed null, it is found from the measures
+       being graphed */
+    public StatGraph getGraph(PlayAggregate plays, Dimension size,
+                              IntegerRange firstValueRange);
+}
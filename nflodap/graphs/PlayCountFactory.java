@@ -23,6 +23,7 @@
 package nflodap.graphs;
 
 import java.util.*;
+import java.util.List; // Not java.awt.List
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
@@ -30,8 +31,10 @@ import nflodap.datastore.*;
 
 /* This class implements a factory to generate count graphs of play data. It
    requires the maximim count of plays for any category, expressed as a range,
-   otherwise every graph for a set of plays will have a different scale */
-public class PlayCountFactory implements StatGraphFactory
+   otherwise every graph for a set of plays will have a different scale. The
+   counts are all kept in the summary measures of the plays, so it can also
+   generate graphs from them */
+public class PlayCountFactory implements AggregateGraphFactory
 {
     public PlayCountFactory()
     {
@@ -53,7 +56,7 @@ public class PlayCountFactory implements StatGraphFactory
        specified in pixels so the layout looks correct when tiled with other
        graphs. This method requires two ranges of some field in the overall
        plays, as described by the methods above */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size,
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size,
                               IntegerRange firstValueRange,
                               IntegerRange secondValueRange)
     {
@@ -66,7 +69,7 @@ public class PlayCountFactory implements StatGraphFactory
        graphs. This method requires a range of some field in the overall
        plays, as described by the methods above. If called when two ranges
        are actually needed, the second is found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size, 
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size, 
                               IntegerRange firstValueRange)
     {
         /* If the value range was passed null, initialize it from the passed
@@ -99,11 +102,31 @@ public class PlayCountFactory implements StatGraphFactory
                                   turnoverCount, size, firstValueRange);
     }
 
+    /* Generates a graph for the summary measures of a group of plays. The
+       size of the graph must be specified in pixels so the layout looks
+       correct when tiled with other graphs. If the range is passed null, it
+       is found from the measures being graphed */
+    public StatGraph getGraph(PlayAggregate plays, Dimension size,
+                              IntegerRange firstValueRange)
+    {
+        if (plays == null)
+            plays = new PlayAggregate(); // Produces an empty graph
+        if (firstValueRange == null)
+            firstValueRange = new IntegerRange(0, plays.getPlayCount());
+        /* Plays that did not gain yards only count as negative when there was
+           no turnover, which is exactly the measure kept */
+        int turnoverCount = plays.getTurnoverCount();
+        int negativePlayCount = plays.getNoGainCount();
+        int positivePlayCount = plays.getPlayCount() - turnoverCount - negativePlayCount;
+        return new PlayCountGraph(positivePlayCount, negativePlayCount,
+                                  turnoverCount, size, firstValueRange);
+    }
+
     /* Generates a graph for a group of plays. The size of the graph must be
        specified in pixels so the layout looks correct when tiled with other
        graphs. If called when ranges of values from the overall plays are
        needed, they are found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size)
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size)
     {
         return getGraph(plays, size, null);
     }
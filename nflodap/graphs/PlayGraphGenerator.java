@@ -23,14 +23,29 @@
 package nflodap.graphs;
 
 import java.util.*;
+import java.util.List; // Not java.awt.List
+import java.util.concurrent.*;
+import java.io.*;
 import javax.swing.*;
 import javax.swing.text.*;
+import javax.imageio.*;
 import java.awt.*;
+import java.awt.image.*;
 import nflodap.datastore.*;
 
 /* This class generates a wanted data graph from a play database. Most utility
    routines a private. Some are public because they are shared with classes
-   that actually do the graphs */
+   that actually do the graphs
+
+   Graphs are normally shown in a window. They can instead be written to a PNG
+   file, see setImageFile(), which needs no screen, so reports can be made in
+   batches on a server
+
+   WARNING: Images are painted with printAll() on a pool of threads, NOT the
+   event dispatch thread. This is only safe because the components painted
+   are built for the image and never shown. Never hand the image code
+   components that are on screen, or Swing will be painting them on two
+   threads at once */
 public final class PlayGraphGenerator
 {
     // Size of overall window
@@ -61,6 +76,13 @@ public final class PlayGraphGenerator
 
     // Overall window around graphs
     private JFrame _window;
+
+    /* Holds the title and the graphs. The content pane of the window, or a
+       panel of its own when writing an image */
+    private Container _content;
+
+    // File to write the graphs to as an image, null to show them in a window
+    private String _imageFile;
     
     // Actual pane used to hold the graphs
     private JPanel _graphPane;
@@ -68,29 +90,47 @@ public final class PlayGraphGenerator
     // Cache of layout data, prevents needed to constantly generate it
     private GridBagConstraints _cachedConstraints;
 
-    // Private class to return a pair of integer ranges
-    private class RangePair
-    {
-        private IntegerRange _first;
-        private IntegerRange _second;
+    /* Threads painting the graphs of images, shared by every generator.
+       Created the first time an image is written. They are daemons, so an
+       idle pool never keeps the program running */
+    private static ExecutorService _paintPool = null;
 
-        public RangePair(IntegerRange first, IntegerRange second)
-        {
-            _first = first;
-            _second = second;
-        }
+    /* Rough memory used by cached results, in bytes. A cached play is a
+       reference, plus the play itself for leaves that build them on
+       demand. A set of summary measures holds a few arrays per play type */
+    private static final long _cachedPlayWeight = 64;
+    private static final long _cachedAggregateWeight = 1024;
+    private static final long _defaultCacheLimit = 32L * 1024 * 1024;
 
-        public IntegerRange getFirst()
-        {
-            return _first;
-        }
+    // Result of a query on the DB, with its rough memory use
+    private static final class CachedResult
+    {
+        private Object _result;
+        private long _weight;
 
-        public IntegerRange getSecond()
+        public CachedResult(Object result, long weight)
         {
-            return _second;
+            _result = result;
+            _weight = weight;
         }
     }
 
+    /* Results of recent queries, keyed by the slices, groupings, and the
+       overall values the graph needs. Users flip between a few graphs, and
+       these give back the plays or measures for one seen before without
+       reading the DB again. The map is in access order, so the least
+       recently used result is first and is evicted first */
+    private LinkedHashMap<String, CachedResult> _cache;
+    private long _cacheWeight; // Memory used by the cache
+    private long _cacheLimit; // Most memory the cache may use, zero for none
+    /* Modification count of the DB when the cache was filled. If the DB
+       changes, every result is out of date */
+    private int _cacheVersion;
+    /* The last result found, kept even if too big for the cache, so a graph
+       prepared ahead of time never reads the DB again when it is generated */
+    private String _lastKey;
+    private Object _lastResult;
+
     // Constructor. Needs the DB to graph
     public PlayGraphGenerator(DataStore db)
     {
@@ -98,9 +138,203 @@ public final class PlayGraphGenerator
             throw new IllegalArgumentException();
         // NOTE: An empty database is technically legal
         _db = db;
+        _cache = new LinkedHashMap<String, CachedResult>(16, 0.75f, true);
+        _cacheWeight = 0;
+        _cacheLimit = _defaultCacheLimit;
+        _cacheVersion = db.getModificationCount();
+        _lastKey = null;
+        _lastResult = null;
+        _imageFile = null;
         clearGraphWindowData();
     }
 
+    /* Sets a file to write generated graphs to as a PNG image, instead of
+       showing them in a window. The graphs are laid out exactly as in the
+       window. Null goes back to showing windows */
+    public void setImageFile(String imageFile)
+    {
+        _imageFile = imageFile;
+    }
+
+    // Returns the file graphs are written to, null if shown in windows
+    public String getImageFile()
+    {
+        return _imageFile;
+    }
+
+    /* Sets the most memory in bytes that cached query results may use. Zero
+       turns caching off */
+    public void setCacheLimit(long cacheLimit)
+    {
+        if (cacheLimit < 0)
+            throw new IllegalArgumentException("Cache limit " + cacheLimit + " is negative");
+        _cacheLimit = cacheLimit;
+        evictCached();
+    }
+
+    // Returns the most memory in bytes that cached query results may use
+    public long getCacheLimit()
+    {
+        return _cacheLimit;
+    }
+
+    /* Returns the key of a query for the cache. The slice chain supplies its
+       own canonical form */
+    private static String getCacheKey(String queryType, PlaySlice slices,
+                                      Object... parts)
+    {
+        StringBuilder result = new StringBuilder(queryType);
+        int index;
+        for (index = 0; index < parts.length; index++)
+            result.append('|').append(parts[index]);
+        result.append('|');
+        if (slices != null)
+            result.append(slices.getKey());
+        return result.toString();
+    }
+
+    // Returns a cached query result, or null if it is not cached
+    private Object getCached(String key)
+    {
+        // If the DB changed since the cache was filled, nothing in it is valid
+        if (_db.getModificationCount() != _cacheVersion) {
+            _cache.clear();
+            _cacheWeight = 0;
+            _cacheVersion = _db.getModificationCount();
+            _lastKey = null;
+            _lastResult = null;
+        }
+        if (key.equals(_lastKey))
+            return _lastResult;
+        CachedResult result = _cache.get(key);
+        if (result == null)
+            return null;
+        else
+            return result._result;
+    }
+
+    /* Caches a query result, evicting the least recently used ones until the
+       cache is back under its limit. A result too big for the cache is not
+       kept at all */
+    private void putCached(String key, Object result, long weight)
+    {
+        _lastKey = key;
+        _lastResult = result;
+        if (weight > _cacheLimit)
+            return;
+        CachedResult oldResult = _cache.put(key, new CachedResult(result, weight));
+        if (oldResult != null)
+            _cacheWeight -= oldResult._weight;
+        _cacheWeight += weight;
+        evictCached();
+    }
+
+    // Evicts the least recently used results until under the cache limit
+    private void evictCached()
+    {
+        Iterator<CachedResult> index = _cache.values().iterator();
+        while ((_cacheWeight > _cacheLimit) && index.hasNext()) {
+            _cacheWeight -= index.next()._weight;
+            index.remove();
+        }
+    }
+
+    // Returns the plays in the view of the DB, cached
+    private List<SinglePlay> getPlays(PlaySlice slices)
+    {
+        String key = getCacheKey("plays", slices);
+        @SuppressWarnings("unchecked")
+        List<SinglePlay> result = (List<SinglePlay>)getCached(key);
+        if (result == null) {
+            result = Collections.unmodifiableList(_db.view(slices).rollup());
+            putCached(key, result, result.size() * _cachedPlayWeight);
+        }
+        return result;
+    }
+
+    // Returns the summary measures of the view of the DB, cached
+    private PlayAggregate getAggregate(PlaySlice slices)
+    {
+        String key = getCacheKey("aggregate", slices);
+        PlayAggregate result = (PlayAggregate)getCached(key);
+        if (result == null) {
+            result = _db.view(slices).getAggregate();
+            putCached(key, result, _cachedAggregateWeight);
+        }
+        return result;
+    }
+
+    /* Returns the plays in the view of the DB split by one enum, with the
+       ranges of the passed fields, cached */
+    private <P extends Enum<P>> PlayCells getCells(Class<P> groupType,
+                                                   PlaySlice slices,
+                                                   SinglePlay.NumericFields firstField,
+                                                   SinglePlay.NumericFields secondField)
+    {
+        String key = getCacheKey("cells", slices, groupType.getName(),
+                                 firstField, secondField);
+        PlayCells result = (PlayCells)getCached(key);
+        if (result == null) {
+            result = _db.view(slices).cells(groupType, firstField, secondField);
+            putCached(key, result, result.getPlayCount() * _cachedPlayWeight);
+        }
+        return result;
+    }
+
+    /* Returns the plays in the view of the DB split by two enums, with the
+       ranges of the passed fields, cached */
+    private <P extends Enum<P>, Q extends Enum<Q>> PlayCells getCells(Class<P> rowType,
+                                                                      Class<Q> columnType,
+                                                                      PlaySlice slices,
+                                                                      SinglePlay.NumericFields firstField,
+                                                                      SinglePlay.NumericFields secondField)
+    {
+        String key = getCacheKey("cells", slices, rowType.getName(),
+                                 columnType.getName(), firstField,
+                                 secondField);
+        PlayCells result = (PlayCells)getCached(key);
+        if (result == null) {
+            result = _db.view(slices).cells(rowType, columnType, firstField,
+                                            secondField);
+            putCached(key, result, result.getPlayCount() * _cachedPlayWeight);
+        }
+        return result;
+    }
+
+    // Returns the summary measures of the view of the DB split by one enum, cached
+    private <P extends Enum<P>> EnumMap<P, PlayAggregate> getAggregates(Class<P> groupType,
+                                                                        PlaySlice slices)
+    {
+        String key = getCacheKey("aggregates", slices, groupType.getName());
+        @SuppressWarnings("unchecked")
+        EnumMap<P, PlayAggregate> result = (EnumMap<P, PlayAggregate>)getCached(key);
+        if (result == null) {
+            result = _db.view(slices).pivotAggregates(groupType);
+            putCached(key, result, result.size() * _cachedAggregateWeight);
+        }
+        return result;
+    }
+
+    // Returns the summary measures of the view of the DB split by two enums, cached
+    private <P extends Enum<P>, Q extends Enum<Q>> EnumMap<Q, EnumMap<P, PlayAggregate>> getAggregates(Class<Q> rowType,
+                                                                                                      Class<P> columnType,
+                                                                                                      PlaySlice slices)
+    {
+        String key = getCacheKey("aggregates", slices, rowType.getName(),
+                                 columnType.getName());
+        @SuppressWarnings("unchecked")
+        EnumMap<Q, EnumMap<P, PlayAggregate>> result = (EnumMap<Q, EnumMap<P, PlayAggregate>>)getCached(key);
+        if (result == null) {
+            result = _db.view(slices).pivotAggregates(rowType, columnType);
+            long cellCount = 0;
+            Iterator<EnumMap<P, PlayAggregate>> rowIndex = result.values().iterator();
+            while (rowIndex.hasNext())
+                cellCount += rowIndex.next().size();
+            putCached(key, result, cellCount * _cachedAggregateWeight);
+        }
+        return result;
+    }
+
     // Clears all data about the graph window
     private void clearGraphWindowData()
     {
@@ -111,35 +345,86 @@ public final class PlayGraphGenerator
         _haveRowLabels = false;
         _emptyGraph = null;
         _window = null;
+        _content = null;
         _graphPane = null;
         _cachedConstraints = null;
     }
 
+    /* Finds the plays or summary measures the graph below needs without
+       generating it, so the slow part can run away from the GUI. Generating
+       the same graph next only lays it out. Last paramter is how to slice the
+       DB before graphing it */
+    public void prepareGraph(StatGraphFactory graph, PlaySlice slices)
+    {
+        if (graph == null) // Graph to generate must be passed
+            throw new IllegalArgumentException();
+        if (graph instanceof AggregateGraphFactory)
+            getAggregate(slices);
+        else
+            getPlays(slices);
+    }
+
+    /* Finds the plays or summary measures the graph below needs without
+       generating it, grouping plays by the wanted characteristic */
+    public <P extends Enum<P>> void prepareGraph(StatGraphFactory graph,
+                                                 Class<P> groupType,
+                                                 PlaySlice slices)
+    {
+        if (graph == null) // Graph to generate must be passed
+            throw new IllegalArgumentException();
+        if (graph instanceof AggregateGraphFactory)
+            getAggregates(groupType, slices);
+        else
+            getCells(groupType, slices, graph.getFirstOverallFieldNeeded(),
+                     graph.getSecondOverallFieldNeeded());
+    }
+
+    /* Finds the plays or summary measures the graph below needs without
+       generating it, grouping plays by the wanted characteristics */
+    public <P extends Enum<P>, Q extends Enum<Q>> void prepareGraph(StatGraphFactory graph,
+                                                                    Class<P> xAxisGroup,
+                                                                    Class<Q> yAxisGroup,
+                                                                    PlaySlice slices)
+    {
+        if (graph == null) // Graph to generate must be passed
+            throw new IllegalArgumentException();
+        // NOTE: As with generating, the Y axis group gives the rows
+        if (graph instanceof AggregateGraphFactory)
+            getAggregates(yAxisGroup, xAxisGroup, slices);
+        else
+            getCells(yAxisGroup, xAxisGroup, slices,
+                     graph.getFirstOverallFieldNeeded(),
+                     graph.getSecondOverallFieldNeeded());
+    }
+
     /* Generate the wanted graph from the play database. Last paramter is how
        to slice the DB before graphing it. */
     public void generateGraph(StatGraphFactory graph, PlaySlice slices,
-                              String graphTitle) throws CloneNotSupportedException
+                              String graphTitle) throws CloneNotSupportedException, IOException
     {
-        ArrayList<SinglePlay> plays = null;
+        List<SinglePlay> plays = null;
         if (graph == null) // Graph to generate must be passed
             throw new IllegalArgumentException();
 
-        DataStore data = getWantedData(slices);
-        // Since there are no grouping, everything is combined into one graph
-        data.rollup();
-        // Only one list of plays, this is how to extract it
-        Iterator<ArrayList<SinglePlay>> index = data.iterator();
-        if (index.hasNext())
-            plays = index.next();
-        
         initGraphWindow(graphTitle);
 
+        // Graphs that only need summary measures never read the plays
+        if (graph instanceof AggregateGraphFactory) {
+            _content.add(((AggregateGraphFactory)graph).getGraph(getAggregate(slices),
+                                                                 _size, null),
+                         BorderLayout.CENTER);
+            displayWindow();
+            return;
+        }
+
+        // Since there are no grouping, everything is combined into one graph
+        plays = getPlays(slices);
+
         /* Since all plays are shown on a single graph, don't need to find the
            overall play values; they are the same as the values for the set of
            plays. Insert the result directly into the frame */
         // If graph size is 1 by 1, insert directly into frame
-        _window.getContentPane().add(graph.getGraph(plays, _size),
-                                     BorderLayout.CENTER);
+        _content.add(graph.getGraph(plays, _size), BorderLayout.CENTER);
         displayWindow();
     }
 
@@ -149,24 +434,30 @@ public final class PlayGraphGenerator
     public <P extends Enum<P>> void generateGraph(StatGraphFactory graph,
                                                   Class<P> groupType,
                                                   PlaySlice slices,
-                                                  String graphTitle) throws CloneNotSupportedException
+                                                  String graphTitle) throws CloneNotSupportedException, IOException
     {
         if (graph == null) // Graph to generate must be passed
             throw new IllegalArgumentException();
 
-        // Get the wanted plays
-        DataStore data = getWantedData(slices);
-
-        // Pivot the datastore to the wanted groupings
-        data.pivot(groupType);
+        // Graphs that only need summary measures never read the plays
+        if (graph instanceof AggregateGraphFactory) {
+            generateAggregateGraph((AggregateGraphFactory)graph, groupType,
+                                   slices, graphTitle);
+            return;
+        }
 
-        // If the graph requires overall data about the plays, extract it now
+        /* Get the wanted plays, split into the wanted groupings. The view
+           selects them without modifying or copying the datastore, and the
+           ranges of any overall values the graph needs are found in the same
+           pass over the plays */
         /* SUBTLE NOTE: Don't bother checking whether the graph needs the
-           values before doing the call. The method itself handles the case
-           where none (or only one) value is wanted */
-        RangePair rangeResult = getDbValuesRange(data,
-                                                 graph.getFirstOverallFieldNeeded(),
-                                                 graph.getSecondOverallFieldNeeded());
+           values before asking for them. Unneeded ones are null, which are
+           ignored, and their ranges come back null */
+        SinglePlay.NumericFields firstField = graph.getFirstOverallFieldNeeded();
+        SinglePlay.NumericFields secondField = graph.getSecondOverallFieldNeeded();
+        PlayCells cells = getCells(groupType, slices, firstField, secondField);
+        IntegerRange firstRange = cells.getRange(firstField);
+        IntegerRange secondRange = cells.getRange(secondField);
 
         /* Find the size of each graph. Its equal to the overall wanted window
            size divided by the number of grouped entries. Divide both height
@@ -183,22 +474,22 @@ public final class PlayGraphGenerator
             graphSize.setSize(graphSize.getWidth(), StatGraph._minSize.getHeight());
         
         // Create the graph for when a given category has no data
-        StatGraph emptyGraph = graph.getGraph(null, graphSize,
-                                              rangeResult.getFirst(),
-                                              rangeResult.getSecond());
+        StatGraph emptyGraph = graph.getGraph(null, graphSize, firstRange,
+                                              secondRange);
 
         // Generate the window to lay out the graphs
         initGraphWindow(graphTitle, groupType, emptyGraph);
 
-        Iterator<ArrayList<SinglePlay>> playIndex = data.iterator();
-        while (playIndex.hasNext()) {
-            ArrayList<SinglePlay> plays = playIndex.next();
-            if (!plays.isEmpty())
-                layoutGraph(graph.getGraph(plays, graphSize,
-                                           rangeResult.getFirst(),
-                                           rangeResult.getSecond()),
-                            plays.get(0).getValue(groupType));
-        } // While plays left to graph
+        /* Cells are in the order of the enum values, which is the order the
+           graphs must be laid out in */
+        int column;
+        for (column = 0; column < cells.getColumnCount(); column++) {
+            List<SinglePlay> plays = cells.getPlays(0, column);
+            if (plays != null)
+                layoutGraph(graph.getGraph(plays, graphSize, firstRange,
+                                           secondRange),
+                            0, column);
+        } // For each group
 
         // Fill out the remaing groups with empty graphs, if needed
         /* SUBTLE NOTE: If an empty DB was passed, no graphs have been generated
@@ -215,26 +506,30 @@ public final class PlayGraphGenerator
                                                                      Class<P> xAxisGroup,
                                                                      Class<Q> yAxisGroup,
                                                                      PlaySlice slices,
-                                                                     String graphTitle) throws CloneNotSupportedException
+                                                                     String graphTitle) throws CloneNotSupportedException, IOException
     {
         if (graph == null) // Graph to generate must be passed
             throw new IllegalArgumentException();
 
-        // Get the wanted plays
-        DataStore data = getWantedData(slices);
+        // Graphs that only need summary measures never read the plays
+        if (graph instanceof AggregateGraphFactory) {
+            generateAggregateGraph((AggregateGraphFactory)graph, xAxisGroup,
+                                   yAxisGroup, slices, graphTitle);
+            return;
+        }
 
-        // Pivot the datastore to the wanted groupings
-        /* NOTE: The way the pivot works, the first group becomes the Y axis
-           in the final graph layout, and the second the X axis */
-        data.pivot(yAxisGroup, xAxisGroup);
-
-        // If the graph requires overall data about the plays, extract it now
-        /* SUBTLE NOTE: Don't bother checking whether the graph needs the
-           values before doing the call. The method itself handles the case
-           where none (or only one) value is wanted */
-        RangePair rangeResult = getDbValuesRange(data,
-                                                 graph.getFirstOverallFieldNeeded(),
-                                                 graph.getSecondOverallFieldNeeded());
+        /* Get the wanted plays, split into the wanted groupings, along with
+           the ranges of any overall values the graph needs, in one pass. The
+           view selects them without modifying or copying the datastore */
+        /* NOTE: The first group gives the rows of cells, which is the Y axis
+           in the final graph layout, and the second the columns on the X
+           axis */
+        SinglePlay.NumericFields firstField = graph.getFirstOverallFieldNeeded();
+        SinglePlay.NumericFields secondField = graph.getSecondOverallFieldNeeded();
+        PlayCells cells = getCells(yAxisGroup, xAxisGroup, slices, firstField,
+                                   secondField);
+        IntegerRange firstRange = cells.getRange(firstField);
+        IntegerRange secondRange = cells.getRange(secondField);
 
         /* Find the size of each graph. Its equal to the overall wanted window
            size divided by the number of entries of each grouping characteristic
@@ -253,25 +548,25 @@ public final class PlayGraphGenerator
             graphSize.setSize(graphSize.getWidth(), StatGraph._minSize.getHeight());
         
         // Create the graph for when a given category has no data
-        StatGraph emptyGraph = graph.getGraph(null, graphSize,
-                                              rangeResult.getFirst(),
-                                              rangeResult.getSecond());
+        StatGraph emptyGraph = graph.getGraph(null, graphSize, firstRange,
+                                              secondRange);
 
         // Generate the window to lay out the graphs
         initGraphWindow(graphTitle, xAxisGroup, yAxisGroup, emptyGraph);
 
-        Iterator<ArrayList<SinglePlay>> playIndex = data.iterator();
-        while (playIndex.hasNext()) {
-            ArrayList<SinglePlay> plays = playIndex.next();
-            if (!plays.isEmpty())
-                /* NOTE: The Y axis determines the row and the X axis the
-                   column, leading to the seeming switch of values below */
-                layoutGraph(graph.getGraph(plays, graphSize,
-                                           rangeResult.getFirst(),
-                                           rangeResult.getSecond()),
-                            plays.get(0).getValue(yAxisGroup),
-                            plays.get(0).getValue(xAxisGroup));
-        } // While plays left to graph
+        /* Cells are in the order of the enum values, row by row, which is
+           the order the graphs must be laid out in */
+        int row;
+        for (row = 0; row < cells.getRowCount(); row++) {
+            int column;
+            for (column = 0; column < cells.getColumnCount(); column++) {
+                List<SinglePlay> plays = cells.getPlays(row, column);
+                if (plays != null)
+                    layoutGraph(graph.getGraph(plays, graphSize, firstRange,
+                                               secondRange),
+                                row, column);
+            } // For each column
+        } // For each row
 
         // Fill out the remaing groups with empty graphs, if needed
         /* SUBTLE NOTE: If an empty DB was passed, no graphs have been generated
@@ -281,21 +576,118 @@ public final class PlayGraphGenerator
         displayWindow();
     }
 
-    // Gets a datastore with the wanted data in it
-    /* HACK/WORKAROUND: Easier to ignore the cast warning then to fully test
-       the class cast in question. */
-    @SuppressWarnings({"unchecked"})
-    private DataStore getWantedData(PlaySlice slices) throws CloneNotSupportedException
+    /* Generate a graph from the summary measures of the plays, grouped by the
+       wanted characteristic. The measures are pivoted straight out of the
+       datastore, so no lists of plays are ever built */
+    private <P extends Enum<P>> void generateAggregateGraph(AggregateGraphFactory graph,
+                                                            Class<P> groupType,
+                                                            PlaySlice slices,
+                                                            String graphTitle) throws CloneNotSupportedException, IOException
     {
-        // Copy the data before slicing it to preserve the original
-        DataStore result = (DataStore)_db.clone();
-        if (slices != null)
-            slices.slice(result);
+        EnumMap<P, PlayAggregate> cells = getAggregates(groupType, slices);
+        IntegerRange valueRange = getAggregateValueRange(cells.values(),
+                                                         graph.getFirstOverallFieldNeeded());
+
+        // Size the graphs exactly like the ones built from plays
+        int categoryCount = groupType.getEnumConstants().length;
+        Dimension graphSize = new Dimension((int)(_size.getWidth() / categoryCount),
+                                            (int)(_size.getHeight() / categoryCount));
+        if (graphSize.getWidth() < StatGraph._minSize.getWidth())
+            graphSize.setSize(StatGraph._minSize.getWidth(), graphSize.getHeight());
+        if (graphSize.getHeight() < StatGraph._minSize.getHeight())
+            graphSize.setSize(graphSize.getWidth(), StatGraph._minSize.getHeight());
+
+        StatGraph emptyGraph = graph.getGraph((PlayAggregate)null, graphSize,
+                                              valueRange);
+        initGraphWindow(graphTitle, groupType, emptyGraph);
+
+        /* NOTE: The map iterates in enum order, which is the order the graphs
+           must be laid out in */
+        Iterator<Map.Entry<P, PlayAggregate>> cellIndex = cells.entrySet().iterator();
+        while (cellIndex.hasNext()) {
+            Map.Entry<P, PlayAggregate> cell = cellIndex.next();
+            if (!cell.getValue().empty())
+                layoutGraph(graph.getGraph(cell.getValue(), graphSize, valueRange),
+                            cell.getKey());
+        } // While cells left to graph
+        fillRemainderWindow();
+        displayWindow();
+    }
+
+    /* Generate a graph from the summary measures of the plays, grouped by the
+       wanted characteristics. The measures are pivoted straight out of the
+       datastore, so no lists of plays are ever built */
+    private <P extends Enum<P>, Q extends Enum<Q>> void generateAggregateGraph(AggregateGraphFactory graph,
+                                                                               Class<P> xAxisGroup,
+                                                                               Class<Q> yAxisGroup,
+                                                                               PlaySlice slices,
+                                                                               String graphTitle) throws CloneNotSupportedException, IOException
+    {
+        // NOTE: As with plays, the first group becomes the Y axis
+        EnumMap<Q, EnumMap<P, PlayAggregate>> cells = getAggregates(yAxisGroup,
+                                                                    xAxisGroup,
+                                                                    slices);
+        ArrayList<PlayAggregate> allCells = new ArrayList<PlayAggregate>();
+        Iterator<EnumMap<P, PlayAggregate>> rowIndex = cells.values().iterator();
+        while (rowIndex.hasNext())
+            allCells.addAll(rowIndex.next().values());
+        IntegerRange valueRange = getAggregateValueRange(allCells,
+                                                         graph.getFirstOverallFieldNeeded());
+
+        // Size the graphs exactly like the ones built from plays
+        Dimension graphSize = new Dimension((int)(_size.getWidth() / xAxisGroup.getEnumConstants().length),
+                                            (int)(_size.getHeight() / yAxisGroup.getEnumConstants().length));
+        if (graphSize.getWidth() < StatGraph._minSize.getWidth())
+            graphSize.setSize(StatGraph._minSize.getWidth(), graphSize.getHeight());
+        if (graphSize.getHeight() < StatGraph._minSize.getHeight())
+            graphSize.setSize(graphSize.getWidth(), StatGraph._minSize.getHeight());
+
+        StatGraph emptyGraph = graph.getGraph((PlayAggregate)null, graphSize,
+                                              valueRange);
+        initGraphWindow(graphTitle, xAxisGroup, yAxisGroup, emptyGraph);
+
+        Iterator<Map.Entry<Q, EnumMap<P, PlayAggregate>>> rowPtr = cells.entrySet().iterator();
+        while (rowPtr.hasNext()) {
+            Map.Entry<Q, EnumMap<P, PlayAggregate>> row = rowPtr.next();
+            Iterator<Map.Entry<P, PlayAggregate>> cellIndex = row.getValue().entrySet().iterator();
+            while (cellIndex.hasNext()) {
+                Map.Entry<P, PlayAggregate> cell = cellIndex.next();
+                if (!cell.getValue().empty())
+                    layoutGraph(graph.getGraph(cell.getValue(), graphSize, valueRange),
+                                row.getKey(), cell.getKey());
+            } // While cells in the row left to graph
+        } // While rows left to graph
+        fillRemainderWindow();
+        displayWindow();
+    }
+
+    /* Find the range of some value over summary measures of groups of plays.
+       Counts range from zero to the largest count of any group, like they do
+       for lists of plays */
+    private static IntegerRange getAggregateValueRange(Collection<PlayAggregate> cells,
+                                                       SinglePlay.NumericFields field)
+    {
+        if (field == null)
+            return null;
+        IntegerRange result = null;
+        Iterator<PlayAggregate> index = cells.iterator();
+        while (index.hasNext()) {
+            PlayAggregate cell = index.next();
+            IntegerRange newRange = null;
+            if (field == SinglePlay.NumericFields.DISTANCE_GAINED)
+                newRange = cell.getDistanceRange();
+            else
+                newRange = new IntegerRange(0, cell.getCount(field));
+            if (result == null)
+                result = newRange;
+            else if (newRange != null)
+                result.union(newRange);
+        } // While groups to process
         return result;
     }
 
     // Find the range of some play value in a set of plays
-    public static IntegerRange getPlayValueRange(ArrayList<SinglePlay> plays,
+    public static IntegerRange getPlayValueRange(List<SinglePlay> plays,
                                                  SinglePlay.NumericFields field)
     {
         if ((plays == null) || (field == null))
@@ -323,38 +715,6 @@ public final class PlayGraphGenerator
         return result;
     }
 
-    // Find the wanted range within the given database of plays
-    private RangePair getDbValuesRange(DataStore data,
-                                       SinglePlay.NumericFields firstField,
-                                       SinglePlay.NumericFields secondField)
-    {
-        IntegerRange first = null;
-        IntegerRange second = null;
-
-        // If neither field set, nothing to do!
-        if ((firstField != null) || (secondField != null)) {
-            Iterator<ArrayList<SinglePlay>> index = data.iterator();
-            while (index.hasNext()) {
-                ArrayList<SinglePlay> plays = index.next();
-                if (firstField != null) {
-                    IntegerRange newRange = getPlayValueRange(plays, firstField);
-                    if (first == null)
-                        first = newRange;
-                    else
-                        first.union(newRange);
-                } // First field passed to fetch
-                if (secondField != null) {
-                    IntegerRange newRange = getPlayValueRange(plays, secondField);
-                    if (second == null)
-                        second = newRange;
-                    else
-                        second.union(newRange);
-                } // First field passed to fetch
-            } // While lists of plays in the datastore to process
-        } // If at least one field specified to fetch
-        return new RangePair(first, second);
-    }
-
     // Initializes a new graph window for a single graph
     private void initGraphWindow(String graphTitle)
     {
@@ -448,11 +808,17 @@ public final class PlayGraphGenerator
     {
         /* WARNING: If an existing window has not been displayed, it will
            be overwritten and lost! */
-        _window = new JFrame();
-        _window.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-        _window.setTitle("Play ODAP results");
-        _window.getContentPane().add(new JLabel(text, SwingConstants.CENTER),
-                                    BorderLayout.PAGE_START);
+        if (_imageFile != null)
+            // Frames need a screen, so use a panel with the same layout
+            _content = new JPanel(new BorderLayout());
+        else {
+            _window = new JFrame();
+            _window.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            _window.setTitle("Play ODAP results");
+            _content = _window.getContentPane();
+        }
+        _content.add(new JLabel(text, SwingConstants.CENTER),
+                     BorderLayout.PAGE_START);
     }
 
     /* Lays out a set of labels of characteristics in a row, starting at
@@ -482,8 +848,14 @@ public final class PlayGraphGenerator
     /* Clearing it is a compromise which prevents data from old graphs
        carrying over to later ones. Adding to existing graphs should never
        happen in practice, so this is acceptable */
-    private void displayWindow()
+    private void displayWindow() throws IOException
     {
+        if (_imageFile != null) {
+            writeImage();
+            clearGraphWindowData();
+            return;
+        }
+
         /* If a graph pane exists, insert it into the window before display.
            Insert it within a scroll pane in case its too big for the
            screen */
@@ -491,13 +863,176 @@ public final class PlayGraphGenerator
             JScrollPane scrollPane = new JScrollPane(_graphPane);
             // Set the scroll size to the wanted overall size
             _window.setPreferredSize(_size);
-            _window.getContentPane().add(scrollPane, BorderLayout.CENTER);
+            _content.add(scrollPane, BorderLayout.CENTER);
         }
         _window.pack();
         new JFrameThreadWrapper(_window, getWindowCount());
         clearGraphWindowData();
     }
     
+    /* Writes the graphs to the image file. The panel holding them is laid out
+       just as the window would lay it out, and each graph is drawn where the
+       layout puts it. The graphs are independent of each other, so they are
+       painted in parallel, each into an image of its own, and then copied
+       into the final image along with the labels around them */
+    private void writeImage() throws IOException
+    {
+        /* NOTE: No scroll pane here. The image is as big as it needs to be
+           to hold every graph at full size */
+        if (_graphPane != null)
+            _content.add(_graphPane, BorderLayout.CENTER);
+        _content.setSize(_content.getPreferredSize());
+        layoutComponents(_content);
+
+        ArrayList<StatGraph> graphs = new ArrayList<StatGraph>();
+        findGraphs(_content, graphs);
+        HashMap<Component, BufferedImage> graphImages = paintGraphs(graphs);
+
+        BufferedImage result = new BufferedImage(_content.getWidth(),
+                                                 _content.getHeight(),
+                                                 BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = result.createGraphics();
+        graphics.setColor(_content.getBackground());
+        graphics.fillRect(0, 0, result.getWidth(), result.getHeight());
+        paintComponents(graphics, _content, graphImages);
+        graphics.dispose();
+        if (!ImageIO.write(result, "png", new File(_imageFile)))
+            throw new IOException("No PNG writer available");
+    }
+
+    /* Lays out a container and everything in it. Windows do this when they
+       are packed, but a panel that is never shown must be done by hand */
+    private static void layoutComponents(Container container)
+    {
+        container.doLayout();
+        int index;
+        for (index = 0; index < container.getComponentCount(); index++) {
+            Component child = container.getComponent(index);
+            if (child instanceof Container)
+                layoutComponents((Container)child);
+        }
+    }
+
+    // Finds every graph within a container
+    private static void findGraphs(Container container,
+                                   ArrayList<StatGraph> graphs)
+    {
+        if (container instanceof StatGraph) {
+            graphs.add((StatGraph)container);
+            return;
+        }
+        int index;
+        for (index = 0; index < container.getComponentCount(); index++) {
+            Component child = container.getComponent(index);
+            if (child instanceof Container)
+                findGraphs((Container)child, graphs);
+        }
+    }
+
+    /* Paints each graph into an image of its own size, in parallel, and
+       returns the images by graph
+       NOTE: Every graph in the layout is its own object, even the empty ones,
+       which are cloned, so no two threads ever paint the same one */
+    private static HashMap<Component, BufferedImage> paintGraphs(ArrayList<StatGraph> graphs) throws IOException
+    {
+        HashMap<Component, BufferedImage> result = new HashMap<Component, BufferedImage>();
+        ExecutorService pool = getPaintPool();
+        ArrayList<Future<BufferedImage>> images = new ArrayList<Future<BufferedImage>>();
+        try {
+            Iterator<StatGraph> graphPtr = graphs.iterator();
+            while (graphPtr.hasNext()) {
+                final StatGraph graph = graphPtr.next();
+                images.add(pool.submit(new Callable<BufferedImage>() {
+                        public BufferedImage call()
+                        {
+                            return paintGraph(graph);
+                        }
+                    }));
+            } // For each graph
+            int index;
+            for (index = 0; index < graphs.size(); index++)
+                result.put(graphs.get(index), images.get(index).get());
+        } // Try block around the pool
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted painting graphs");
+        }
+        catch (ExecutionException e) {
+            // Painting only fails on bugs, so pass them on as they are
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            else
+                throw new IOException(e.getCause());
+        }
+        finally {
+            /* The pool is shared, so on failure stop only the graphs of this
+               image. Finished ones ignore this */
+            Iterator<Future<BufferedImage>> imagePtr = images.iterator();
+            while (imagePtr.hasNext())
+                imagePtr.next().cancel(true);
+        }
+        return result;
+    }
+
+    // Returns the pool painting the graphs of images, creating it if needed
+    private static synchronized ExecutorService getPaintPool()
+    {
+        if (_paintPool == null)
+            _paintPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                      new ThreadFactory() {
+                    public Thread newThread(Runnable task)
+                    {
+                        Thread result = new Thread(task, "Graph painter");
+                        result.setDaemon(true);
+                        return result;
+                    }
+                });
+        return _paintPool;
+    }
+
+    // Paints a graph into an image of its size
+    private static BufferedImage paintGraph(StatGraph graph)
+    {
+        BufferedImage result = new BufferedImage(Math.max(1, graph.getWidth()),
+                                                 Math.max(1, graph.getHeight()),
+                                                 BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = result.createGraphics();
+        // Unlike paint, this never goes through the screen's buffers
+        graph.printAll(graphics);
+        graphics.dispose();
+        return result;
+    }
+
+    /* Paints the components in a container at their places in the layout,
+       copying in the images already painted for the graphs */
+    private static void paintComponents(Graphics2D graphics, Container container,
+                                        HashMap<Component, BufferedImage> graphImages)
+    {
+        int index;
+        for (index = 0; index < container.getComponentCount(); index++) {
+            Component child = container.getComponent(index);
+            BufferedImage image = graphImages.get(child);
+            if (image != null)
+                graphics.drawImage(image, child.getX(), child.getY(), null);
+            else if ((child instanceof Container) &&
+                     (((Container)child).getComponentCount() > 0)) {
+                Graphics2D childGraphics = (Graphics2D)graphics.create(child.getX(),
+                                                                       child.getY(),
+                                                                       child.getWidth(),
+                                                                       child.getHeight());
+                paintComponents(childGraphics, (Container)child, graphImages);
+                childGraphics.dispose();
+            } // Panel holding other components
+            else {
+                Graphics2D childGraphics = (Graphics2D)graphics.create(child.getX(),
+                                                                       child.getY(),
+                                                                       child.getWidth(),
+                                                                       child.getHeight());
+                child.printAll(childGraphics);
+                childGraphics.dispose();
+            } // Label or other simple component
+        } // For each component
+    }
+
     // Get the count of windows generated from a singleton field
     private static int getWindowCount()
     {
@@ -624,8 +1159,9 @@ public final class PlayGraphGenerator
         _graphPane.add(graph, _cachedConstraints);
     }
 
-    // Test code
-    public static void main(String[] args) throws CloneNotSupportedException
+    /* Test code. If a directory is passed, the graphs are written to image
+       files in it instead of shown */
+    public static void main(String[] args) throws CloneNotSupportedException, IOException
     {
         DataStore testPlays = new DataStore();
         testPlays.insertPlay(new SinglePlay(1, SinglePlay.PlayType.RUN_LEFT,
@@ -660,16 +1196,25 @@ public final class PlayGraphGenerator
                                             14, 5, 45, 0, 0, 11, true));
 
         PlayGraphGenerator test = new PlayGraphGenerator(testPlays);
+        String imageDirectory = null;
+        if (args.length > 0)
+            imageDirectory = args[0];
 
+        if (imageDirectory != null)
+            test.setImageFile(new File(imageDirectory, "test1.png").getPath());
         test.generateGraph(new ScatterPlotFactory(SinglePlay.NumericFields.DISTANCE_NEEDED,
                                                   SinglePlay.NumericFields.DISTANCE_GAINED),
                            null,
                            new String("Very long test string to make the code scream"));
+        if (imageDirectory != null)
+            test.setImageFile(new File(imageDirectory, "test2.png").getPath());
         test.generateGraph(new ScatterTurnoverFactory(SinglePlay.NumericFields.DISTANCE_NEEDED,
                                                       SinglePlay.NumericFields.DISTANCE_GAINED,
                                                       true, true),
                            SinglePlay.DownNumber.class, null,
                            new String("Very long test string to make the code scream 2"));
+        if (imageDirectory != null)
+            test.setImageFile(new File(imageDirectory, "test3.png").getPath());
         test.generateGraph(new PlayResultsFactory(),
                            SinglePlay.PlayType.class,
                            SinglePlay.DownNumber.class, null,
@@ -23,6 +23,7 @@
 package nflodap.graphs;
 
 import java.util.*;
+import java.util.List; // Not java.awt.List
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
@@ -54,7 +55,7 @@ public class PlayResultsFactory implements StatGraphFactory
        specified in pixels so the layout looks correct when tiled with other
        graphs. This method requires two ranges of some field in the overall
        plays, as described by the methods above */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size,
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size,
                               IntegerRange firstValueRange,
                               IntegerRange secondValueRange)
     {
@@ -67,7 +68,7 @@ public class PlayResultsFactory implements StatGraphFactory
        graphs. This method requires a range of some field in the overall
        plays, as described by the methods above. If called when two ranges
        are actually needed, the second is found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size, 
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size, 
                               IntegerRange firstValueRange)
     {
         /* If the value range was passed null, initialize it from the passed
@@ -105,7 +106,7 @@ public class PlayResultsFactory implements StatGraphFactory
        specified in pixels so the layout looks correct when tiled with other
        graphs. If called when ranges of values from the overall plays are
        needed, they are found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size)
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size)
     {
         return getGraph(plays, size, null);
     }
@@ -22,6 +22,8 @@
 */
 package nflodap.graphs;
 
+import java.util.*;
+import java.util.List; // Not java.awt.List
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
@@ -31,13 +33,42 @@ import nflodap.datastore.*;
    X and Y axes, the size of the panel to generate, and a list of the points
    specifed in the units of the X and Y axes (NOT pixels!) It also needs the
    text for each axis. Successful plays are shown in black, and turnovers
-   in red */
+   in red
+
+   With many points, most are drawn on top of each other, and drawing each
+   one makes repaints slow. Above a number of points passed by the factory,
+   the plot instead counts the points falling in each cell of a grid no finer
+   than the pixels of the panel, and draws the grid as a heat map, darker
+   where more plays fall. Repaints then cost the same however many plays
+   there are */
 /* NOTE: All of this duplicates existing libraries. I wrote it to learn more
    about Java graphics */
 public class PlayScatterPlot extends StatGraph
 {
     // If the fields in this object change, increment this number by 1
-    private static final long serialVersionUID = 2L;
+    private static final long serialVersionUID = 3L;
+
+    // Default number of points above which plots draw a heat map instead
+    static final int _defaultDensityThreshold = 5000;
+
+    /* Colors of heat map cells by intensity, quantized into a fixed number of
+       shades. Built once, since a repaint can fill thousands of cells */
+    private static final int _shadeCount = 256;
+    private static final Color [] _countShades;
+    private static final Color [] _turnoverShades;
+
+    static {
+        _countShades = new Color[_shadeCount];
+        _turnoverShades = new Color[_shadeCount];
+        int shade;
+        for (shade = 0; shade < _shadeCount; shade++) {
+            double intensity = (double)shade / (_shadeCount - 1);
+            int gray = (int)(200.0 * (1.0 - intensity));
+            _countShades[shade] = new Color(gray, gray, gray);
+            _turnoverShades[shade] = new Color(255, 0, 0,
+                                               64 + (int)(191.0 * intensity));
+        }
+    }
 
     Point2D [] _points;
     Point2D [] _turnoverPoints;
@@ -49,6 +80,14 @@ public class PlayScatterPlot extends StatGraph
     String _yLabel;
     IntegerRange _yAxis;
 
+    /* Heat map of the points, null if they are drawn one by one. Counts of
+       successful plays and turnovers in each cell, by row then column. Row
+       zero is the lowest Y values */
+    int _binColumns;
+    int _binRows;
+    int [] _counts;
+    int [] _turnoverCounts;
+
     public PlayScatterPlot(Point2D [] points, Point2D [] turnoverPoints,
                            Dimension size, String xLabel,
                            IntegerRange xAxisRange, String yLabel,
@@ -67,6 +106,108 @@ public class PlayScatterPlot extends StatGraph
         if (_turnoverPoints == null)
             _turnoverPoints = new Point2D[0];
 
+        setAxes(size, xLabel, xAxisRange, yLabel, yAxisRange);
+    }
+
+    /* Constructor taking the values of the points directly, as parallel arrays
+       of X and Y values. If turnover flags are passed, points flagged true
+       are turnovers. More points than the density threshold become a heat
+       map */
+    public PlayScatterPlot(int [] xValues, int [] yValues, boolean [] turnovers,
+                           int densityThreshold, Dimension size, String xLabel,
+                           IntegerRange xAxisRange, String yLabel,
+                           IntegerRange yAxisRange)
+    {
+        // Having no size or overall distances is a big error
+        if ((size == null) || (xAxisRange == null) || (yAxisRange == null) ||
+            (xValues == null) || (yValues == null) ||
+            (xValues.length != yValues.length) ||
+            ((turnovers != null) && (turnovers.length != xValues.length)))
+            throw new IllegalArgumentException();
+        if (densityThreshold < 0)
+            throw new IllegalArgumentException("Density threshold " + densityThreshold + " is negative");
+        // The bins depend on the axes, so set them first
+        setAxes(size, xLabel, xAxisRange, yLabel, yAxisRange);
+
+        if (xValues.length > densityThreshold) {
+            _points = new Point2D[0];
+            _turnoverPoints = new Point2D[0];
+            binPoints(xValues, yValues, turnovers);
+        }
+        else {
+            ArrayList<Point2D> points = new ArrayList<Point2D>();
+            ArrayList<Point2D> turnoverPoints = new ArrayList<Point2D>();
+            int index;
+            for (index = 0; index < xValues.length; index++) {
+                Point2D newPoint = new Point2D.Double(xValues[index],
+                                                      yValues[index]);
+                if ((turnovers != null) && turnovers[index])
+                    turnoverPoints.add(newPoint);
+                else
+                    points.add(newPoint);
+            } // For each point
+            _points = points.toArray(new Point2D[points.size()]);
+            _turnoverPoints = turnoverPoints.toArray(new Point2D[turnoverPoints.size()]);
+        }
+    }
+
+    // Copy constructor, for cloning
+    private PlayScatterPlot(PlayScatterPlot other)
+    {
+        _points = other._points.clone();
+        _turnoverPoints = other._turnoverPoints.clone();
+        setAxes((Dimension)other._size.clone(), other._xLabel,
+                new IntegerRange(other._xAxis.getLowerLimit(),
+                                 other._xAxis.getUpperLimit()),
+                other._yLabel,
+                new IntegerRange(other._yAxis.getLowerLimit(),
+                                 other._yAxis.getUpperLimit()));
+        if (other._counts != null) {
+            _binColumns = other._binColumns;
+            _binRows = other._binRows;
+            _counts = other._counts.clone();
+            _turnoverCounts = other._turnoverCounts.clone();
+        }
+    }
+
+    // Returns true if the points are drawn as a heat map
+    public boolean isDensityPlot()
+    {
+        return (_counts != null);
+    }
+
+    /* Counts the points in each cell of the heat map. Each axis gets one
+       cell per value, unless there are more values than pixels, in which case
+       it gets one cell per pixel. Points off the axes are not drawn, so they
+       are not counted */
+    private void binPoints(int [] xValues, int [] yValues, boolean [] turnovers)
+    {
+        int xValueCount = _xAxis.getLength() + 1;
+        int yValueCount = _yAxis.getLength() + 1;
+        _binColumns = Math.max(1, Math.min(xValueCount, (int)_size.getWidth()));
+        _binRows = Math.max(1, Math.min(yValueCount, (int)_size.getHeight()));
+        _counts = new int[_binColumns * _binRows];
+        _turnoverCounts = new int[_binColumns * _binRows];
+        int index;
+        for (index = 0; index < xValues.length; index++) {
+            if (!_xAxis.contains(xValues[index]) || !_yAxis.contains(yValues[index]))
+                continue;
+            // NOTE: Long math, since value counts times pixels can overflow
+            int column = (int)(((long)(xValues[index] - _xAxis.getLowerLimit()) * _binColumns)
+                               / xValueCount);
+            int row = (int)(((long)(yValues[index] - _yAxis.getLowerLimit()) * _binRows)
+                            / yValueCount);
+            if ((turnovers != null) && turnovers[index])
+                _turnoverCounts[(row * _binColumns) + column]++;
+            else
+                _counts[(row * _binColumns) + column]++;
+        } // For each point
+    }
+
+    // Sets the size, labels, and ranges of the axes
+    private void setAxes(Dimension size, String xLabel, IntegerRange xAxisRange,
+                         String yLabel, IntegerRange yAxisRange)
+    {
         _size = size;
         _xLabel = xLabel;
         _xAxis = xAxisRange;
@@ -202,6 +343,11 @@ public class PlayScatterPlot extends StatGraph
         } // For each label to generate
         g2.setTransform(saveAt);
 
+        if (_counts != null) {
+            paintDensity(g2, xRatio, yRatio, xAdjustment, yAdjustment);
+            return;
+        }
+
         // Points are too small, draw little circles instead
         /* This looks nastier than it really is. Java doesn't have the concept
            of a circle, only an elipse. Furthermore, elipses must be specified
@@ -220,6 +366,57 @@ public class PlayScatterPlot extends StatGraph
         g2.setPaint(saveColor); // Restore previous color
     }
 
+    /* Draws the heat map. Each cell covers the values binned into it, with
+       each value spread half way to its neighbors, so a cell of one value is
+       centered where its points would be drawn. Darkness follows the log of
+       the count, since a few cells usually hold most of the plays. Turnovers
+       are drawn over the rest in red, more solid with more of them */
+    private void paintDensity(Graphics2D g2, double xRatio, double yRatio,
+                              double xAdjustment, double yAdjustment)
+    {
+        int maximumCount = 0;
+        int cell;
+        for (cell = 0; cell < _counts.length; cell++) {
+            maximumCount = Math.max(maximumCount, _counts[cell]);
+            maximumCount = Math.max(maximumCount, _turnoverCounts[cell]);
+        }
+        if (maximumCount == 0)
+            return; // Nothing to do!
+        double logMaximum = Math.log(1.0 + maximumCount);
+        double binWidth = (double)(_xAxis.getLength() + 1) / _binColumns;
+        double binHeight = (double)(_yAxis.getLength() + 1) / _binRows;
+
+        Paint saveColor = g2.getPaint();
+        int pass;
+        for (pass = 0; pass < 2; pass++) {
+            int [] counts = (pass == 0) ? _counts : _turnoverCounts;
+            int row;
+            for (row = 0; row < _binRows; row++) {
+                // Y ratio is negative, since pixels count down from the top
+                double yStart = _yAxis.getLowerLimit() - 0.5 + (row * binHeight);
+                double top = yAdjustment + ((yStart + binHeight) * yRatio);
+                double height = -binHeight * yRatio;
+                int column;
+                for (column = 0; column < _binColumns; column++) {
+                    int count = counts[(row * _binColumns) + column];
+                    if (count == 0)
+                        continue;
+                    int shade = (int)((Math.log(1.0 + count) / logMaximum)
+                                      * (_shadeCount - 1));
+                    if (pass == 0)
+                        g2.setPaint(_countShades[shade]);
+                    else
+                        g2.setPaint(_turnoverShades[shade]);
+                    double xStart = _xAxis.getLowerLimit() - 0.5 + (column * binWidth);
+                    g2.fill(new Rectangle2D.Double(xAdjustment + (xStart * xRatio),
+                                                   top, binWidth * xRatio,
+                                                   height));
+                } // For each column
+            } // For each row
+        } // Successful plays, then turnovers
+        g2.setPaint(saveColor); // Restore previous color
+    }
+
     // Version for common situation where turnovers are ignored
     public PlayScatterPlot(Point2D [] points, Dimension size, String xLabel,
                            IntegerRange xAxisRange, String yLabel,
@@ -231,15 +428,84 @@ public class PlayScatterPlot extends StatGraph
     // Clone the object
     public Object clone() throws CloneNotSupportedException
     {
-        return new PlayScatterPlot((Point2D[])_points.clone(),
-                                   (Point2D[])_turnoverPoints.clone(),
-                                   (Dimension)_size.clone(),
-                                   _xLabel, (IntegerRange)_xAxis.clone(),
-                                   _yLabel, (IntegerRange)_yAxis.clone());
+        return new PlayScatterPlot(this);
     }
 
     public static void main(String[] args) throws CloneNotSupportedException
     {
+        /* Plot enough points to draw a heat map. Every point on the axes
+           must be counted in exactly one cell, and the clone must copy the
+           counts rather than share them */
+        int [] denseX = new int[1000];
+        int [] denseY = new int[1000];
+        boolean [] denseTurnovers = new boolean[1000];
+        int onAxes = 0;
+        int denseIndex;
+        for (denseIndex = 0; denseIndex < denseX.length; denseIndex++) {
+            denseX[denseIndex] = (denseIndex * 7) % 80 - 20;
+            denseY[denseIndex] = (denseIndex * 13) % 120 - 10;
+            denseTurnovers[denseIndex] = ((denseIndex % 9) == 0);
+            if ((denseX[denseIndex] >= -10) && (denseX[denseIndex] <= 50) &&
+                (denseY[denseIndex] >= -5) && (denseY[denseIndex] <= 100))
+                onAxes++;
+        }
+        PlayScatterPlot denseTest = new PlayScatterPlot(denseX, denseY, denseTurnovers,
+                                                        500, new Dimension(40, 300),
+                                                        new String("TEST X"),
+                                                        new IntegerRange(-10, 50),
+                                                        new String("TEST Y"),
+                                                        new IntegerRange(-5, 100));
+        int binned = 0;
+        int cell;
+        for (cell = 0; cell < denseTest._counts.length; cell++)
+            binned += denseTest._counts[cell] + denseTest._turnoverCounts[cell];
+        System.out.println("Dense plot " + denseTest._binColumns + " by "
+                           + denseTest._binRows + " heat map:"
+                           + denseTest.isDensityPlot() + " counted all:"
+                           + (binned == onAxes));
+        PlayScatterPlot denseClone = (PlayScatterPlot)denseTest.clone();
+        denseClone._counts[0]++;
+        System.out.println("Dense clone copied:"
+                           + (denseClone.isDensityPlot() &&
+                              (denseClone._counts[0] == denseTest._counts[0] + 1) &&
+                              Arrays.equals(denseClone._turnoverCounts,
+                                            denseTest._turnoverCounts)));
+        denseClone._counts[0]--;
+        /* Paint it off screen. Turnovers are drawn over the rest in red, so
+           both gray and red cells must show up */
+        java.awt.image.BufferedImage denseImage = new java.awt.image.BufferedImage(40, 300,
+                                                                                  java.awt.image.BufferedImage.TYPE_INT_RGB);
+        Graphics2D denseGraphics = denseImage.createGraphics();
+        denseGraphics.setPaint(Color.white);
+        denseGraphics.fillRect(0, 0, 40, 300);
+        denseGraphics.setPaint(Color.black);
+        denseClone.paintDensity(denseGraphics, 0.5, -2.5, 10.0, 270.0);
+        denseGraphics.dispose();
+        int redPixels = 0;
+        int grayPixels = 0;
+        int x;
+        for (x = 0; x < denseImage.getWidth(); x++) {
+            int y;
+            for (y = 0; y < denseImage.getHeight(); y++) {
+                Color pixel = new Color(denseImage.getRGB(x, y));
+                if (pixel.getRed() > pixel.getGreen())
+                    redPixels++;
+                else if (pixel.getRed() < 255)
+                    grayPixels++;
+            } // For each row of pixels
+        } // For each column of pixels
+        System.out.println("Dense plot painted turnovers:" + (redPixels > 0)
+                           + " plays:" + (grayPixels > 0));
+        PlayScatterPlot sparseTest = new PlayScatterPlot(denseX, denseY, denseTurnovers,
+                                                         denseX.length, new Dimension(300, 300),
+                                                         new String("TEST X"),
+                                                         new IntegerRange(-10, 50),
+                                                         new String("TEST Y"),
+                                                         new IntegerRange(-5, 100));
+        System.out.println("Plot at threshold heat map:" + sparseTest.isDensityPlot()
+                           + " points:" + (sparseTest._points.length
+                                           + sparseTest._turnoverPoints.length));
+
         Point2D [] testPoints = new Point2D[5];
         testPoints[0] = new Point2D.Double(15, 35);
         testPoints[1] = new Point2D.Double(26, 15);
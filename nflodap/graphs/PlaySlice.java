@@ -27,8 +27,18 @@ import nflodap.datastore.*;
 /* This interface defines objects that implement the Chain of Responsibility
    design pattern to slice a datastore. By building the chain, a client can
    slice the datastore as much as they need to. The actual object uses generic
-   types, so it must implement an interface to be chained */
-public interface PlaySlice
+   types, so it must implement an interface to be chained.
+
+   The chain can also be used to select plays for a view of a datastore,
+   which leaves the datastore unchanged. A play is selected only if every
+   slice in the chain would keep it. The view reads the links of the chain
+   one by one, so slices on categories can use the index of the datastore */
+public interface PlaySlice extends PlaySelectorChain
 {
     public void slice(DataStore data);
+
+    /* Returns a canonical form of the whole chain, so chains that select the
+       same plays have the same key no matter what order they were built in.
+       Results of the chain can be cached under it */
+    public String getKey();
 }
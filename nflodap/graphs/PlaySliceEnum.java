@@ -54,6 +54,45 @@ public class PlaySliceEnum<P extends Enum<P>> implements PlaySlice
             _nextSlice.slice(data);
     }
 
+    public boolean selectPlay(SinglePlay play)
+    {
+        if (!selectLink(play))
+            return false;
+        else if (_nextSlice != null)
+            return _nextSlice.selectPlay(play);
+        else
+            return true;
+    }
+
+    public Class<?> getCategory()
+    {
+        return _sliceClass;
+    }
+
+    public Enum<?> getCategoryValue()
+    {
+        return _sliceValue;
+    }
+
+    public boolean selectLink(SinglePlay play)
+    {
+        /* Plays without a value of the slice type are kept, matching what
+           slicing the datastore does */
+        P testValue = play.getValue(_sliceClass);
+        return ((testValue == null) || (testValue == _sliceValue));
+    }
+
+    public PlaySelectorChain getNextLink()
+    {
+        return _nextSlice;
+    }
+
+    public String getKey()
+    {
+        return PlaySliceFactory.getChainKey(_sliceClass.getName() + "=" + _sliceValue,
+                                            _nextSlice);
+    }
+
     public String toString()
     {
         if (_nextSlice != null)
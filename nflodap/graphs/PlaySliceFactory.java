@@ -22,6 +22,7 @@
 */
 package nflodap.graphs;
 
+import java.util.*;
 import nflodap.datastore.*;
 /* This class implements a factory for generating data store slice objects.
    The class itself is generic, so a factory makes generating them much
@@ -29,13 +30,15 @@ import nflodap.datastore.*;
    operations, with each object passed back to the factory when generating
    the next.
 
-   The order of slices has a big impact on performance. Slicing earlier
-   dimensions in the data store first reduces the amount of data processed
-   in later slices. Slicing enumerated type values is much faster than slicing
-   integer values, so integer field slices should be done last. The end result
-   does not depend on order however, only the speed.
+   When a chain slices a data store directly, the order of slices has a big
+   impact on performance. Slicing earlier dimensions in the data store first
+   reduces the amount of data processed in later slices. Slicing enumerated
+   type values is much faster than slicing integer values, so integer field
+   slices should be done last. The end result does not depend on order
+   however, only the speed. Chains used to select plays for a view can be in
+   any order, since the view takes them apart.
 
-   As of the time this comment was last updated, slice objects should be
+   For slicing with the default dimension order, slice objects should be
    generated in this order (remember that this is the reverse of how they will
    actually be called):
    Integer based fields
@@ -77,6 +80,26 @@ public class PlaySliceFactory
         return new PlaySliceInt(field, wantRange);
     }
 
+    /* Returns the key of a chain from the key of its first slice and the
+       rest of the chain. The keys of the slices are sorted, and duplicates
+       dropped, since neither the order nor repeats change the plays
+       selected */
+    static String getChainKey(String sliceKey, PlaySlice nextSlice)
+    {
+        TreeSet<String> keys = new TreeSet<String>();
+        keys.add(sliceKey);
+        if (nextSlice != null)
+            keys.addAll(Arrays.asList(nextSlice.getKey().split(";")));
+        StringBuilder result = new StringBuilder();
+        Iterator<String> index = keys.iterator();
+        while (index.hasNext()) {
+            result.append(index.next());
+            if (index.hasNext())
+                result.append(';');
+        }
+        return result.toString();
+    }
+
     // Test program. Generate a chain and apply it
     public static void main(String[] args)
     {
@@ -87,6 +110,7 @@ public class PlaySliceFactory
         test = getSlice(SinglePlay.DownNumber.FIRST_DOWN,
                          SinglePlay.DownNumber.class, test);
         System.out.println(test + "\n");
+        System.out.println(test.getKey() + "\n");
         DataStore testData = DataStore.buildTestDataStore();
         test.slice(testData);
         System.out.println(testData);
@@ -53,6 +53,44 @@ public class PlaySliceInt<P extends Enum<P>> implements PlaySlice
             _nextSlice.slice(data);
     }
 
+    public boolean selectPlay(SinglePlay play)
+    {
+        if (!selectLink(play))
+            return false;
+        else if (_nextSlice != null)
+            return _nextSlice.selectPlay(play);
+        else
+            return true;
+    }
+
+    // Numeric fields are not categories, so views test each play
+    public Class<?> getCategory()
+    {
+        return null;
+    }
+
+    public Enum<?> getCategoryValue()
+    {
+        return null;
+    }
+
+    public boolean selectLink(SinglePlay play)
+    {
+        return _wantRange.contains(play.getIntValue(_field));
+    }
+
+    public PlaySelectorChain getNextLink()
+    {
+        return _nextSlice;
+    }
+
+    public String getKey()
+    {
+        return PlaySliceFactory.getChainKey(_field + "=" + _wantRange.getLowerLimit()
+                                            + ".." + _wantRange.getUpperLimit(),
+                                            _nextSlice);
+    }
+
     public String toString()
     {
         String temp = new String("Slice by " + _field + " " + _wantRange);
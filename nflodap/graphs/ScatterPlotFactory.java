@@ -23,6 +23,7 @@
 package nflodap.graphs;
 
 import java.util.*;
+import java.util.List; // Not java.awt.List
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
@@ -38,6 +39,8 @@ public class ScatterPlotFactory implements StatGraphFactory
 {
     private SinglePlay.NumericFields _xField; // Play field for X axis
     private SinglePlay.NumericFields _yField; // Play field for Y axis
+    // Number of plays above which graphs are drawn as heat maps
+    private int _densityThreshold;
     
     public ScatterPlotFactory(SinglePlay.NumericFields xField,
                               SinglePlay.NumericFields yField)
@@ -55,6 +58,16 @@ public class ScatterPlotFactory implements StatGraphFactory
 
         _xField = xField;
         _yField = yField;
+        _densityThreshold = PlayScatterPlot._defaultDensityThreshold;
+    }
+
+    /* Sets the number of plays above which graphs draw a heat map instead of
+       each play. Only affects graphs generated afterward */
+    public void setDensityThreshold(int densityThreshold)
+    {
+        if (densityThreshold < 0)
+            throw new IllegalArgumentException("Density threshold " + densityThreshold + " is negative");
+        _densityThreshold = densityThreshold;
     }
 
     /* This class requires two sets of values from the overall plays. Here they
@@ -73,7 +86,7 @@ public class ScatterPlotFactory implements StatGraphFactory
        specified in pixels so the layout looks correct when tiled with other
        graphs. This method requires two ranges of some field in the overall
        plays, as described by the methods above */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size,
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size,
                               IntegerRange firstValueRange,
                               IntegerRange secondValueRange)
     {
@@ -86,21 +99,23 @@ public class ScatterPlotFactory implements StatGraphFactory
             secondValueRange = PlayGraphGenerator.getPlayValueRange(plays, _yField);
 
         /* Need to make a list of the points for the scatterplot by extracting
-           the wanted values from the plays. Note that an empty list still
-           generates a graph */
-        Point2D [] points = null;
-        if (plays == null)
-            points = new Point2D[0];
-        else {
-            points = new Point2D[plays.size()];
-            int index;
-            for (index = 0; index < plays.size(); index++)
-                points[index] = new Point2D.Double(plays.get(index).getIntValue(_xField),
-                                                   plays.get(index).getIntValue(_yField));
-        } // Plays exist
-        return new PlayScatterPlot(points, size, _xField.toString(),
-                                   firstValueRange, _yField.toString(),
-                                   secondValueRange);
+           the wanted values from the plays. They are kept as plain values, so
+           the plot can count them into a heat map without building a point
+           object for each play. Note that an empty list still generates a
+           graph */
+        int playCount = 0;
+        if (plays != null)
+            playCount = plays.size();
+        int [] xValues = new int[playCount];
+        int [] yValues = new int[playCount];
+        int index;
+        for (index = 0; index < playCount; index++) {
+            xValues[index] = plays.get(index).getIntValue(_xField);
+            yValues[index] = plays.get(index).getIntValue(_yField);
+        } // Loop through play data
+        return new PlayScatterPlot(xValues, yValues, null, _densityThreshold,
+                                   size, _xField.toString(), firstValueRange,
+                                   _yField.toString(), secondValueRange);
     }
 
     /* Generates a graph for a group of plays. The size of the graph must be
@@ -108,7 +123,7 @@ public class ScatterPlotFactory implements StatGraphFactory
        graphs. This method requires a range of some field in the overall
        plays, as described by the methods above. If called when two ranges
        are actually needed, the second is found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size, 
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size, 
                               IntegerRange firstValueRange)
     {
         return getGraph(plays, size, firstValueRange, null);
@@ -118,7 +133,7 @@ public class ScatterPlotFactory implements StatGraphFactory
        specified in pixels so the layout looks correct when tiled with other
        graphs. If called when ranges of values from the overall plays are
        needed, they are found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size)
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size)
     {
         return getGraph(plays, size, null, null);
     }
@@ -23,6 +23,7 @@
 package nflodap.graphs;
 
 import java.util.*;
+import java.util.List; // Not java.awt.List
 import javax.swing.*;
 import java.awt.*;
 import java.awt.geom.*;
@@ -40,6 +41,8 @@ public class ScatterTurnoverFactory implements StatGraphFactory
 {
     private SinglePlay.NumericFields _xField; // Play field for X axis
     private SinglePlay.NumericFields _yField; // Play field for Y axis
+    // Number of plays above which graphs are drawn as heat maps
+    private int _densityThreshold;
     private boolean _includeSuccessful;
     private boolean _includeTurnovers;
     
@@ -53,6 +56,7 @@ public class ScatterTurnoverFactory implements StatGraphFactory
             throw new IllegalArgumentException();
         _xField = xField;
         _yField = yField;
+        _densityThreshold = PlayScatterPlot._defaultDensityThreshold;
         _includeSuccessful = _includeSuccessful;
         _includeTurnovers = _includeTurnovers;
         // If neither specified, treat it as wanting both
@@ -62,6 +66,15 @@ public class ScatterTurnoverFactory implements StatGraphFactory
         }
     }
 
+    /* Sets the number of plays above which graphs draw a heat map instead of
+       each play. Only affects graphs generated afterward */
+    public void setDensityThreshold(int densityThreshold)
+    {
+        if (densityThreshold < 0)
+            throw new IllegalArgumentException("Density threshold " + densityThreshold + " is negative");
+        _densityThreshold = densityThreshold;
+    }
+
     /* This class requires two sets of values from the overall plays. Here they
        are */
     public SinglePlay.NumericFields getFirstOverallFieldNeeded()
@@ -78,7 +91,7 @@ public class ScatterTurnoverFactory implements StatGraphFactory
        specified in pixels so the layout looks correct when tiled with other
        graphs. This method requires two ranges of some field in the overall
        plays, as described by the methods above */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size,
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size,
                               IntegerRange firstValueRange,
                               IntegerRange secondValueRange)
     {
@@ -91,46 +104,57 @@ public class ScatterTurnoverFactory implements StatGraphFactory
             secondValueRange = PlayGraphGenerator.getPlayValueRange(plays, _yField);
 
         /* Need to make a list of the points for the scatterplot by extracting
-           the wanted values from the plays. Note that an empty list still
-           generates a graph */
-        Point2D [] points = new Point2D[0];
-        Point2D [] turnoverPoints = new Point2D[0];
+           the wanted values from the plays, flagging the turnovers. They are
+           kept as plain values, so the plot can count them into a heat map
+           without building a point object for each play. Note that an empty
+           list still generates a graph */
+        int playCount = 0;
+        if (plays != null) {
+            /* The array sizes depend on the number of plays of the wanted
+               types, so count them first. Counting is far cheaper than
+               building the points */
+            int index;
+            for (index = 0; index < plays.size(); index++)
+                if (isIncluded(plays.get(index)))
+                    playCount++;
+        } // Plays exist
+        int [] xValues = new int[playCount];
+        int [] yValues = new int[playCount];
+        boolean [] turnovers = new boolean[playCount];
         if (plays != null) {
-            /* The array sizes depend on the number of plays of each type.
-               Can either scan the list to find this, or use dymanically
-               sized data structures and convert. The latter should be faster
-               in practice */
-            ArrayList<Point2D> successful = new ArrayList<Point2D>();
-            ArrayList<Point2D> turnover = new ArrayList<Point2D>();
-            
+            int point = 0;
             int index;
             for (index = 0; index < plays.size(); index++) {
-                Point2D newPoint = new Point2D.Double(plays.get(index).getIntValue(_xField),
-                                                      plays.get(index).getIntValue(_yField));
-                if (plays.get(index).getTurnedOver())
-                    turnover.add(newPoint);
-                else
-                    successful.add(newPoint);
+                SinglePlay play = plays.get(index);
+                if (isIncluded(play)) {
+                    xValues[point] = play.getIntValue(_xField);
+                    yValues[point] = play.getIntValue(_yField);
+                    turnovers[point] = play.getTurnedOver();
+                    point++;
+                }
             } // Loop through play data
-
-            if (_includeSuccessful)
-                /* Yes, the empty array is passed in, to signal to issue
-                   results in the type of the array instead of Object[] */
-                points = successful.toArray(points);
-            if (_includeTurnovers)
-                turnoverPoints = turnover.toArray(turnoverPoints);
         } // Plays exist
-        return new PlayScatterPlot(points, turnoverPoints, size,
+        return new PlayScatterPlot(xValues, yValues, turnovers,
+                                   _densityThreshold, size,
                                    _xField.toString(), firstValueRange,
                                    _yField.toString(), secondValueRange);
     }
 
+    // Returns true if the play is of a type this factory graphs
+    private boolean isIncluded(SinglePlay play)
+    {
+        if (play.getTurnedOver())
+            return _includeTurnovers;
+        else
+            return _includeSuccessful;
+    }
+
     /* Generates a graph for a group of plays. The size of the graph must be
        specified in pixels so the layout looks correct when tiled with other
        graphs. This method requires a range of some field in the overall
        plays, as described by the methods above. If called when two ranges
        are actually needed, the second is found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size, 
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size, 
                               IntegerRange firstValueRange)
     {
         return getGraph(plays, size, firstValueRange, null);
@@ -140,7 +164,7 @@ public class ScatterTurnoverFactory implements StatGraphFactory
        specified in pixels so the layout looks correct when tiled with other
        graphs. If called when ranges of values from the overall plays are
        needed, they are found from the plays being graphed */
-    public StatGraph getGraph(ArrayList<SinglePlay> plays, Dimension size)
+    public StatGraph getGraph(List<SinglePlay> plays, Dimension size)
     {
         return getGraph(plays, size, null, null);
     }